@@ -0,0 +1,249 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A growable set of non negative ints, one bit per possible value.
+ * <p>
+ * Bits are kept on chunks of {@value #CHUNK_BITS} bits, which are only allocated when a bit is set on them. Setting
+ * and testing a bit on an existing chunk are lock-free (a CAS on the word holding the bit). Only allocating a chunk,
+ * or growing the directory of chunks, takes a lock.
+ * <p>
+ * Bits can't be cleared: this is meant to track things that happen once, such as the acknowledgement of a message.
+ */
+public class ConcurrentBitSet
+{
+   // Constants -----------------------------------------------------
+
+   private static final int WORDS_PER_CHUNK = 16;
+
+   private static final int CHUNK_BITS = WORDS_PER_CHUNK * 64;
+
+   private static final int CHUNK_SHIFT = Integer.numberOfTrailingZeros(CHUNK_BITS);
+
+   // Attributes ----------------------------------------------------
+
+   // A chunk from an older directory is still referenced by the current one, so a bit set through it is not lost
+   private volatile AtomicReferenceArray<AtomicLongArray> chunks;
+
+   // Constructors --------------------------------------------------
+
+   public ConcurrentBitSet()
+   {
+      this(CHUNK_BITS);
+   }
+
+   /**
+    * @param expectedBits used to size the directory of chunks, the set will grow beyond that if needed
+    */
+   public ConcurrentBitSet(final int expectedBits)
+   {
+      if (expectedBits < 0)
+      {
+         throw new IllegalArgumentException("expectedBits must be >= 0");
+      }
+      chunks = new AtomicReferenceArray<AtomicLongArray>(expectedBits == 0 ? 1 : chunkIndex(expectedBits - 1) + 1);
+   }
+
+   // Public --------------------------------------------------------
+
+   /**
+    * @return true if the bit was not set before
+    */
+   public boolean set(final int index)
+   {
+      checkIndex(index);
+
+      AtomicLongArray chunk = getChunk(chunkIndex(index));
+
+      if (chunk == null)
+      {
+         chunk = createChunk(chunkIndex(index));
+      }
+
+      int word = wordIndex(index);
+      long mask = 1L << index;
+
+      while (true)
+      {
+         long value = chunk.get(word);
+         if ((value & mask) != 0)
+         {
+            return false;
+         }
+         if (chunk.compareAndSet(word, value, value | mask))
+         {
+            return true;
+         }
+      }
+   }
+
+   public boolean get(final int index)
+   {
+      checkIndex(index);
+
+      AtomicLongArray chunk = getChunk(chunkIndex(index));
+
+      return chunk != null && (chunk.get(wordIndex(index)) & 1L << index) != 0;
+   }
+
+   /**
+    * @return the first bit set at or after fromIndex, or -1 if there is none
+    */
+   public int nextSetBit(final int fromIndex)
+   {
+      checkIndex(fromIndex);
+
+      AtomicReferenceArray<AtomicLongArray> current = chunks;
+
+      for (int c = chunkIndex(fromIndex); c < current.length(); c++)
+      {
+         AtomicLongArray chunk = current.get(c);
+
+         if (chunk == null)
+         {
+            continue;
+         }
+
+         int firstWord = c == chunkIndex(fromIndex) ? wordIndex(fromIndex) : 0;
+
+         for (int w = firstWord; w < WORDS_PER_CHUNK; w++)
+         {
+            long value = chunk.get(w);
+
+            if (w == firstWord && c == chunkIndex(fromIndex))
+            {
+               // ignore the bits before fromIndex
+               value &= -1L << fromIndex;
+            }
+
+            if (value != 0)
+            {
+               return (c << CHUNK_SHIFT) + w * 64 + Long.numberOfTrailingZeros(value);
+            }
+         }
+      }
+
+      return -1;
+   }
+
+   public boolean isEmpty()
+   {
+      return nextSetBit(0) < 0;
+   }
+
+   public int cardinality()
+   {
+      AtomicReferenceArray<AtomicLongArray> current = chunks;
+
+      int count = 0;
+
+      for (int c = 0; c < current.length(); c++)
+      {
+         AtomicLongArray chunk = current.get(c);
+         if (chunk != null)
+         {
+            for (int w = 0; w < WORDS_PER_CHUNK; w++)
+            {
+               count += Long.bitCount(chunk.get(w));
+            }
+         }
+      }
+
+      return count;
+   }
+
+   @Override
+   public String toString()
+   {
+      StringBuilder builder = new StringBuilder("ConcurrentBitSet [");
+
+      boolean first = true;
+
+      for (int i = nextSetBit(0); i >= 0; i = nextSetBit(i + 1))
+      {
+         if (!first)
+         {
+            builder.append(", ");
+         }
+         first = false;
+         builder.append(i);
+
+         if (i == Integer.MAX_VALUE)
+         {
+            break;
+         }
+      }
+
+      return builder.append(']').toString();
+   }
+
+   // Private -------------------------------------------------------
+
+   private AtomicLongArray getChunk(final int chunkIndex)
+   {
+      AtomicReferenceArray<AtomicLongArray> current = chunks;
+
+      return chunkIndex < current.length() ? current.get(chunkIndex) : null;
+   }
+
+   private synchronized AtomicLongArray createChunk(final int chunkIndex)
+   {
+      AtomicReferenceArray<AtomicLongArray> current = chunks;
+
+      if (chunkIndex >= current.length())
+      {
+         AtomicReferenceArray<AtomicLongArray> newChunks =
+                  new AtomicReferenceArray<AtomicLongArray>(Math.max(chunkIndex + 1, current.length() * 2));
+
+         for (int i = 0; i < current.length(); i++)
+         {
+            newChunks.set(i, current.get(i));
+         }
+
+         chunks = current = newChunks;
+      }
+
+      AtomicLongArray chunk = current.get(chunkIndex);
+
+      if (chunk == null)
+      {
+         chunk = new AtomicLongArray(WORDS_PER_CHUNK);
+         current.set(chunkIndex, chunk);
+      }
+
+      return chunk;
+   }
+
+   private static int chunkIndex(final int index)
+   {
+      return index >>> CHUNK_SHIFT;
+   }
+
+   private static int wordIndex(final int index)
+   {
+      return (index & CHUNK_BITS - 1) >>> 6;
+   }
+
+   private static void checkIndex(final int index)
+   {
+      if (index < 0)
+      {
+         throw new IndexOutOfBoundsException("index < 0: " + index);
+      }
+   }
+}
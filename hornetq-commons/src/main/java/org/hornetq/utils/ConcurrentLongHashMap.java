@@ -0,0 +1,503 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A concurrent map from primitive longs to objects.
+ * <p>
+ * The map is split in sections, each one an open addressing hash table (linear probing) guarded by its own read/write
+ * lock. Keys are kept on a long[], so there is no boxing and no entry object per mapping: each bucket costs a long and
+ * a reference, where a {@link java.util.concurrent.ConcurrentHashMap} allocates an entry and a boxed key per mapping.
+ * <p>
+ * Null values are not allowed. Iteration is done on snapshots ({@link #keys()}, {@link #values()}) or through
+ * {@link #forEach(EntryProcessor)}, which is weakly consistent across sections.
+ */
+public class ConcurrentLongHashMap<V>
+{
+   private static final int DEFAULT_EXPECTED_ITEMS = 256;
+
+   private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+   private static final float FILL_FACTOR = 0.66f;
+
+   private final Section<V>[] sections;
+
+   private final int sectionShift;
+
+   public ConcurrentLongHashMap()
+   {
+      this(DEFAULT_EXPECTED_ITEMS);
+   }
+
+   public ConcurrentLongHashMap(final int expectedItems)
+   {
+      this(expectedItems, DEFAULT_CONCURRENCY_LEVEL);
+   }
+
+   @SuppressWarnings("unchecked")
+   public ConcurrentLongHashMap(final int expectedItems, final int concurrencyLevel)
+   {
+      if (expectedItems < 0)
+      {
+         throw new IllegalArgumentException("expectedItems must be >= 0");
+      }
+      if (concurrencyLevel <= 0)
+      {
+         throw new IllegalArgumentException("concurrencyLevel must be > 0");
+      }
+
+      int numSections = nextPowerOfTwo(concurrencyLevel);
+
+      sectionShift = 32 - Integer.numberOfTrailingZeros(numSections);
+
+      sections = new Section[numSections];
+
+      int perSection = expectedItems / numSections;
+
+      for (int i = 0; i < numSections; i++)
+      {
+         sections[i] = new Section<V>(perSection);
+      }
+   }
+
+   public int size()
+   {
+      int size = 0;
+      for (Section<V> section : sections)
+      {
+         size += section.size;
+      }
+      return size;
+   }
+
+   public boolean isEmpty()
+   {
+      for (Section<V> section : sections)
+      {
+         if (section.size != 0)
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   public V get(final long key)
+   {
+      long h = hash(key);
+      return sectionFor(h).get(key, (int)h);
+   }
+
+   public boolean containsKey(final long key)
+   {
+      return get(key) != null;
+   }
+
+   /**
+    * @return the previous value, or null if there was no mapping for the key
+    */
+   public V put(final long key, final V value)
+   {
+      checkValue(value);
+      long h = hash(key);
+      return sectionFor(h).put(key, value, (int)h, false);
+   }
+
+   /**
+    * @return the current value, or null if the value was added
+    */
+   public V putIfAbsent(final long key, final V value)
+   {
+      checkValue(value);
+      long h = hash(key);
+      return sectionFor(h).put(key, value, (int)h, true);
+   }
+
+   /**
+    * @return the removed value, or null if there was no mapping for the key
+    */
+   public V remove(final long key)
+   {
+      long h = hash(key);
+      return sectionFor(h).remove(key, (int)h);
+   }
+
+   public void clear()
+   {
+      for (Section<V> section : sections)
+      {
+         section.clear();
+      }
+   }
+
+   /**
+    * Calls the processor for every mapping. Each section is locked (for reading) while it's being processed, so the
+    * processor must not modify the map.
+    */
+   public void forEach(final EntryProcessor<V> processor)
+   {
+      for (Section<V> section : sections)
+      {
+         section.forEach(processor);
+      }
+   }
+
+   /**
+    * @return a snapshot of the keys
+    */
+   public long[] keys()
+   {
+      final long[] keys = new long[size()];
+
+      final List<Long> overflow = new ArrayList<Long>();
+
+      forEach(new EntryProcessor<V>()
+      {
+         int index;
+
+         public void accept(final long key, final V value)
+         {
+            // The map may have grown since we took the size
+            if (index < keys.length)
+            {
+               keys[index++] = key;
+            }
+            else
+            {
+               overflow.add(key);
+            }
+         }
+      });
+
+      if (overflow.isEmpty())
+      {
+         return keys;
+      }
+
+      long[] allKeys = new long[keys.length + overflow.size()];
+      System.arraycopy(keys, 0, allKeys, 0, keys.length);
+      for (int i = 0; i < overflow.size(); i++)
+      {
+         allKeys[keys.length + i] = overflow.get(i);
+      }
+      return allKeys;
+   }
+
+   /**
+    * @return a snapshot of the values
+    */
+   public List<V> values()
+   {
+      final List<V> values = new ArrayList<V>(size());
+
+      forEach(new EntryProcessor<V>()
+      {
+         public void accept(final long key, final V value)
+         {
+            values.add(value);
+         }
+      });
+
+      return values;
+   }
+
+   @Override
+   public String toString()
+   {
+      final StringBuilder builder = new StringBuilder("ConcurrentLongHashMap [");
+
+      forEach(new EntryProcessor<V>()
+      {
+         boolean first = true;
+
+         public void accept(final long key, final V value)
+         {
+            if (!first)
+            {
+               builder.append(", ");
+            }
+            first = false;
+            builder.append(key).append('=').append(value);
+         }
+      });
+
+      return builder.append(']').toString();
+   }
+
+   public interface EntryProcessor<V>
+   {
+      void accept(long key, V value);
+   }
+
+   // Private -------------------------------------------------------
+
+   private Section<V> sectionFor(final long hash)
+   {
+      // The high bits pick the section, the low bits the bucket inside the section
+      return sections[sectionShift == 32 ? 0 : (int)(hash >>> 32) >>> sectionShift];
+   }
+
+   private static void checkValue(final Object value)
+   {
+      if (value == null)
+      {
+         throw new NullPointerException("null values are not supported");
+      }
+   }
+
+   /** 64 bits finalizer from MurmurHash3, journal IDs are sequential so they need to be spread */
+   private static long hash(final long key)
+   {
+      long h = key;
+      h ^= h >>> 33;
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      h *= 0xc4ceb9fe1a85ec53L;
+      h ^= h >>> 33;
+      return h;
+   }
+
+   private static int nextPowerOfTwo(final int value)
+   {
+      return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+   }
+
+   // Inner classes -------------------------------------------------
+
+   @SuppressWarnings("serial")
+   private static final class Section<V> extends ReentrantReadWriteLock
+   {
+      private long[] keys;
+
+      // null marks an empty bucket
+      private Object[] values;
+
+      private int resizeThreshold;
+
+      private volatile int size;
+
+      Section(final int expectedItems)
+      {
+         allocate(nextPowerOfTwo(Math.max(8, (int)(expectedItems / FILL_FACTOR) + 1)));
+      }
+
+      @SuppressWarnings("unchecked")
+      V get(final long key, final int hash)
+      {
+         readLock().lock();
+         try
+         {
+            int index = find(key, hash);
+            return index < 0 ? null : (V)values[index];
+         }
+         finally
+         {
+            readLock().unlock();
+         }
+      }
+
+      @SuppressWarnings("unchecked")
+      V put(final long key, final V value, final int hash, final boolean onlyIfAbsent)
+      {
+         writeLock().lock();
+         try
+         {
+            int mask = values.length - 1;
+            int index = hash & mask;
+
+            while (values[index] != null)
+            {
+               if (keys[index] == key)
+               {
+                  V previous = (V)values[index];
+                  if (!onlyIfAbsent)
+                  {
+                     values[index] = value;
+                  }
+                  return previous;
+               }
+               index = (index + 1) & mask;
+            }
+
+            keys[index] = key;
+            values[index] = value;
+
+            if (++size > resizeThreshold)
+            {
+               rehash();
+            }
+
+            return null;
+         }
+         finally
+         {
+            writeLock().unlock();
+         }
+      }
+
+      @SuppressWarnings("unchecked")
+      V remove(final long key, final int hash)
+      {
+         writeLock().lock();
+         try
+         {
+            int index = find(key, hash);
+
+            if (index < 0)
+            {
+               return null;
+            }
+
+            V previous = (V)values[index];
+
+            shiftBack(index);
+
+            size--;
+
+            return previous;
+         }
+         finally
+         {
+            writeLock().unlock();
+         }
+      }
+
+      void clear()
+      {
+         writeLock().lock();
+         try
+         {
+            if (size > 0)
+            {
+               allocate(8);
+               size = 0;
+            }
+         }
+         finally
+         {
+            writeLock().unlock();
+         }
+      }
+
+      @SuppressWarnings("unchecked")
+      void forEach(final EntryProcessor<V> processor)
+      {
+         readLock().lock();
+         try
+         {
+            for (int i = 0; i < values.length; i++)
+            {
+               if (values[i] != null)
+               {
+                  processor.accept(keys[i], (V)values[i]);
+               }
+            }
+         }
+         finally
+         {
+            readLock().unlock();
+         }
+      }
+
+      private int find(final long key, final int hash)
+      {
+         int mask = values.length - 1;
+         int index = hash & mask;
+
+         while (values[index] != null)
+         {
+            if (keys[index] == key)
+            {
+               return index;
+            }
+            index = (index + 1) & mask;
+         }
+
+         return -1;
+      }
+
+      /**
+       * Empties the bucket, moving back the entries of the same probe sequence so no tombstones are needed.
+       */
+      private void shiftBack(int free)
+      {
+         int mask = values.length - 1;
+         int index = free;
+
+         while (true)
+         {
+            values[free] = null;
+
+            while (true)
+            {
+               index = (index + 1) & mask;
+
+               if (values[index] == null)
+               {
+                  return;
+               }
+
+               int ideal = (int)hash(keys[index]) & mask;
+
+               // The entry can be moved if its ideal bucket is not cyclically in (free, index]
+               boolean reachable = free <= index ? free < ideal && ideal <= index : free < ideal || ideal <= index;
+
+               if (!reachable)
+               {
+                  break;
+               }
+            }
+
+            keys[free] = keys[index];
+            values[free] = values[index];
+            free = index;
+         }
+      }
+
+      private void rehash()
+      {
+         long[] oldKeys = keys;
+         Object[] oldValues = values;
+
+         allocate(oldValues.length * 2);
+
+         int mask = values.length - 1;
+
+         for (int i = 0; i < oldValues.length; i++)
+         {
+            if (oldValues[i] != null)
+            {
+               int index = (int)hash(oldKeys[i]) & mask;
+               while (values[index] != null)
+               {
+                  index = (index + 1) & mask;
+               }
+               keys[index] = oldKeys[i];
+               values[index] = oldValues[i];
+            }
+         }
+      }
+
+      private void allocate(final int capacity)
+      {
+         keys = new long[capacity];
+         values = new Object[capacity];
+         resizeThreshold = (int)(capacity * FILL_FACTOR);
+      }
+   }
+}
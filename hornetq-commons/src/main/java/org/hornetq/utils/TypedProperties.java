@@ -30,8 +30,10 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.hornetq.api.core.HornetQBuffer;
+import org.hornetq.api.core.HornetQBuffers;
 import org.hornetq.api.core.HornetQPropertyConversionException;
 import org.hornetq.api.core.SimpleString;
 
@@ -57,6 +59,19 @@ public final class TypedProperties
 
    private boolean internalProperties;
 
+   // Not null when the map is shared with copies (see the copy constructor), counting the instances using it.
+   // A shared map is never changed: each instance makes its own map before changing it, except the last one
+   private AtomicInteger sharedCount;
+
+   // Set instead of the map after a lazy decode, see decode(HornetQBuffer, boolean): the encoded entries, which are
+   // never changed, so they can be shared by copies
+   private byte[] encoded;
+
+   private int encodedCount;
+
+   // Wraps encoded, to read it while holding the lock
+   private HornetQBuffer encodedBuffer;
+
    public TypedProperties()
    {
    }
@@ -67,13 +82,40 @@ public final class TypedProperties
       // Note we don't include the attributes or anything else since they already included in the memory estimate
       // of the ServerMessage
 
+      if (encoded != null)
+      {
+         return size + 2 * DataConstants.SIZE_INT * encodedCount;
+      }
+
       return properties == null ? 0 : size + 2 * DataConstants.SIZE_INT * properties.size();
    }
 
+   /**
+    * The copy shares the map of the other instance until one of them is changed, so copying messages that are
+    * never changed afterwards doesn't duplicate their properties.
+    */
    public TypedProperties(final TypedProperties other)
    {
-      properties = other.properties == null ? null : new HashMap<SimpleString, PropertyValue>(other.properties);
-      size = other.size;
+      synchronized (other)
+      {
+         if (other.encoded != null)
+         {
+            setEncoded(other.encoded, other.encodedCount);
+            internalProperties = other.internalProperties;
+         }
+         else if (other.properties != null)
+         {
+            if (other.sharedCount == null)
+            {
+               other.sharedCount = new AtomicInteger(1);
+            }
+            other.sharedCount.incrementAndGet();
+
+            sharedCount = other.sharedCount;
+            properties = other.properties;
+         }
+         size = other.size;
+      }
    }
 
    public boolean hasInternalProperties()
@@ -149,12 +191,13 @@ public final class TypedProperties
 
    public void putTypedProperties(final TypedProperties otherProps)
    {
-      if (otherProps == null || otherProps.properties == null)
+      if (otherProps == null || otherProps.properties == null && otherProps.encoded == null)
       {
          return;
       }
 
       checkCreateProperties();
+      otherProps.checkDecoded();
       Set<Entry<SimpleString, PropertyValue>> otherEntries = otherProps.properties.entrySet();
       for (Entry<SimpleString, PropertyValue> otherEntry : otherEntries)
       {
@@ -420,17 +463,80 @@ public final class TypedProperties
       throw new HornetQPropertyConversionException("Invalid conversion");
    }
 
+   /**
+    * Reads the type and the value of a property with a single lookup, without boxing the value. Properties kept encoded
+    * by a lazy decode are read straight from their bytes.
+    * <p>
+    * The value is given to the reader as the widest type of its kind: BYTE, SHORT, INT and LONG through
+    * {@link PropertyReader#setLong(long)}, FLOAT and DOUBLE through {@link PropertyReader#setDouble(double)}. Nothing is
+    * given for a BYTES or CHAR property, or if the property is not set.
+    *
+    * @return the type of the property as one of the {@link DataConstants} type codes, {@link DataConstants#NULL} for a
+    *         null value or -1 if the property is not set
+    */
+   public synchronized byte readProperty(final SimpleString key, final PropertyReader reader)
+   {
+      if (size == 0)
+      {
+         return -1;
+      }
+
+      if (encoded != null)
+      {
+         return readEncoded(key, reader);
+      }
+
+      PropertyValue val = properties.get(key);
+
+      if (val == null)
+      {
+         return -1;
+      }
+
+      byte type = val.getType();
+
+      switch (type)
+      {
+         case NULL:
+            reader.setNull();
+            break;
+         case BYTE:
+         case SHORT:
+         case INT:
+         case LONG:
+            reader.setLong(val.longValue());
+            break;
+         case FLOAT:
+         case DOUBLE:
+            reader.setDouble(val.doubleValue());
+            break;
+         case BOOLEAN:
+            reader.setBoolean(val.booleanValue());
+            break;
+         case STRING:
+            reader.setString((SimpleString)val.getValue());
+            break;
+         default:
+            break;
+      }
+
+      return type;
+   }
+
    public Object removeProperty(final SimpleString key)
    {
       return doRemoveProperty(key);
    }
 
-   public boolean containsProperty(final SimpleString key)
+   public synchronized boolean containsProperty(final SimpleString key)
    {
       if (size == 0)
       {
          return false;
-
+      }
+      else if (encoded != null)
+      {
+         return findEncoded(key) >= 0;
       }
       else
       {
@@ -438,7 +544,7 @@ public final class TypedProperties
       }
    }
 
-   public Set<SimpleString> getPropertyNames()
+   public synchronized Set<SimpleString> getPropertyNames()
    {
       if (size == 0)
       {
@@ -446,18 +552,40 @@ public final class TypedProperties
       }
       else
       {
+         checkDecoded();
          return properties.keySet();
       }
    }
 
-   public synchronized void decode(final HornetQBuffer buffer)
+   public void decode(final HornetQBuffer buffer)
+   {
+      decode(buffer, false);
+   }
+
+   /**
+    * @param lazy if true the properties are only located on the buffer and kept encoded: reading a property will look
+    *           for it on the encoded bytes and only decode its value. The properties are decoded when they're changed
+    *           or listed. Encoding them again is a copy of the bytes. This is meant for messages where only a few
+    *           properties are read, such as messages on the server.
+    */
+   public synchronized void decode(final HornetQBuffer buffer, final boolean lazy)
    {
+      // The map is replaced, if it's shared the other instances will keep it
+      releaseShared();
+
+      encoded = null;
+      encodedBuffer = null;
+
       byte b = buffer.readByte();
 
       if (b == DataConstants.NULL)
       {
          properties = null;
       }
+      else if (lazy)
+      {
+         decodeLazy(buffer);
+      }
       else
       {
          int numHeaders = buffer.readInt();
@@ -472,90 +600,22 @@ public final class TypedProperties
             buffer.readBytes(data);
             SimpleString key = new SimpleString(data);
 
-            byte type = buffer.readByte();
-
-            PropertyValue val;
-
-            switch (type)
-            {
-               case NULL:
-               {
-                  val = new NullValue();
-                  doPutValue(key, val);
-                  break;
-               }
-               case CHAR:
-               {
-                  val = new CharValue(buffer);
-                  doPutValue(key, val);
-                  break;
-               }
-               case BOOLEAN:
-               {
-                  val = new BooleanValue(buffer);
-                  doPutValue(key, val);
-                  break;
-               }
-               case BYTE:
-               {
-                  val = new ByteValue(buffer);
-                  doPutValue(key, val);
-                  break;
-               }
-               case BYTES:
-               {
-                  val = new BytesValue(buffer);
-                  doPutValue(key, val);
-                  break;
-               }
-               case SHORT:
-               {
-                  val = new ShortValue(buffer);
-                  doPutValue(key, val);
-                  break;
-               }
-               case INT:
-               {
-                  val = new IntValue(buffer);
-                  doPutValue(key, val);
-                  break;
-               }
-               case LONG:
-               {
-                  val = new LongValue(buffer);
-                  doPutValue(key, val);
-                  break;
-               }
-               case FLOAT:
-               {
-                  val = new FloatValue(buffer);
-                  doPutValue(key, val);
-                  break;
-               }
-               case DOUBLE:
-               {
-                  val = new DoubleValue(buffer);
-                  doPutValue(key, val);
-                  break;
-               }
-               case STRING:
-               {
-                  val = new StringValue(buffer);
-                  doPutValue(key, val);
-                  break;
-               }
-               default:
-               {
-                  throw HornetQUtilBundle.BUNDLE.invalidType(type);
-               }
-            }
+            doPutValue(key, readValue(buffer.readByte(), buffer));
          }
       }
    }
 
    public synchronized void encode(final HornetQBuffer buffer)
    {
-      if (properties == null)
+      if (encoded != null)
+      {
+         buffer.writeByte(DataConstants.NOT_NULL);
+
+         buffer.writeInt(encodedCount);
+
+         buffer.writeBytes(encoded);
+      }
+      else if (properties == null)
       {
          buffer.writeByte(DataConstants.NULL);
       }
@@ -579,7 +639,7 @@ public final class TypedProperties
 
    public int getEncodeSize()
    {
-      if (properties == null)
+      if (properties == null && encoded == null)
       {
          return DataConstants.SIZE_BYTE;
       }
@@ -589,30 +649,312 @@ public final class TypedProperties
       }
    }
 
-   public void clear()
+   public synchronized void clear()
    {
+      checkDecoded();
+
       if (properties != null)
       {
+         checkUnshared();
          properties.clear();
       }
    }
 
    @Override
-   public String toString()
+   public synchronized String toString()
    {
+      checkDecoded();
       return "TypedProperties[" + properties + "]";
    }
 
    // Private ------------------------------------------------------------------------------------
 
-   private void checkCreateProperties()
+   private synchronized void checkCreateProperties()
    {
+      checkDecoded();
+
       if (properties == null)
       {
          properties = new HashMap<SimpleString, PropertyValue>();
       }
    }
 
+   private PropertyValue lookup(final SimpleString key)
+   {
+      if (encoded == null)
+      {
+         return properties.get(key);
+      }
+
+      int position = findEncoded(key);
+
+      if (position < 0)
+      {
+         return null;
+      }
+
+      encodedBuffer.readerIndex(position);
+
+      return readValue(encodedBuffer.readByte(), encodedBuffer);
+   }
+
+   /**
+    * {@link #readProperty(SimpleString, PropertyReader)} on the bytes kept by a lazy decode.
+    */
+   private byte readEncoded(final SimpleString key, final PropertyReader reader)
+   {
+      int position = findEncoded(key);
+
+      if (position < 0)
+      {
+         return -1;
+      }
+
+      byte type = encoded[position];
+
+      int valuePosition = position + DataConstants.SIZE_BYTE;
+
+      switch (type)
+      {
+         case NULL:
+            reader.setNull();
+            break;
+         case BYTE:
+            reader.setLong(encoded[valuePosition]);
+            break;
+         case SHORT:
+            reader.setLong(encodedBuffer.getShort(valuePosition));
+            break;
+         case INT:
+            reader.setLong(encodedBuffer.getInt(valuePosition));
+            break;
+         case LONG:
+            reader.setLong(encodedBuffer.getLong(valuePosition));
+            break;
+         case FLOAT:
+            reader.setDouble(encodedBuffer.getFloat(valuePosition));
+            break;
+         case DOUBLE:
+            reader.setDouble(encodedBuffer.getDouble(valuePosition));
+            break;
+         case BOOLEAN:
+            reader.setBoolean(encoded[valuePosition] != 0);
+            break;
+         case STRING:
+            encodedBuffer.readerIndex(valuePosition);
+            reader.setString(encodedBuffer.readSimpleString());
+            break;
+         default:
+            break;
+      }
+
+      return type;
+   }
+
+   /**
+    * Locates the properties on the buffer, copying their bytes, without decoding them.
+    */
+   private void decodeLazy(final HornetQBuffer buffer)
+   {
+      int count = buffer.readInt();
+
+      int start = buffer.readerIndex();
+
+      byte[] internalPrefix = HQ_PROPNAME.getData();
+
+      for (int i = 0; i < count; i++)
+      {
+         int len = buffer.readInt();
+
+         if (!internalProperties && len >= internalPrefix.length)
+         {
+            boolean internal = true;
+            for (int j = 0; j < internalPrefix.length && internal; j++)
+            {
+               internal = buffer.getByte(buffer.readerIndex() + j) == internalPrefix[j];
+            }
+            internalProperties = internal;
+         }
+
+         buffer.skipBytes(len);
+
+         byte type = buffer.readByte();
+
+         buffer.skipBytes(valueSize(type, buffer, buffer.readerIndex()));
+      }
+
+      byte[] bytes = new byte[buffer.readerIndex() - start];
+
+      buffer.getBytes(start, bytes);
+
+      properties = null;
+
+      setEncoded(bytes, count);
+   }
+
+   private void setEncoded(final byte[] bytes, final int count)
+   {
+      encoded = bytes;
+      encodedCount = count;
+      encodedBuffer = HornetQBuffers.wrappedBuffer(bytes);
+
+      // each entry is the key (as a SimpleString) and the value, the same as size counts for the map
+      size = bytes.length;
+   }
+
+   /**
+    * @return the position of the value of the property on encodedBuffer (starting with its type), or -1 if there's no
+    *         such property
+    */
+   private int findEncoded(final SimpleString key)
+   {
+      byte[] keyData = key.getData();
+
+      int position = 0;
+
+      for (int i = 0; i < encodedCount; i++)
+      {
+         int len = encodedBuffer.getInt(position);
+
+         position += DataConstants.SIZE_INT;
+
+         boolean found = len == keyData.length;
+
+         for (int j = 0; j < len && found; j++)
+         {
+            found = encoded[position + j] == keyData[j];
+         }
+
+         position += len;
+
+         if (found)
+         {
+            return position;
+         }
+
+         position += DataConstants.SIZE_BYTE + valueSize(encoded[position], encodedBuffer, position + DataConstants.SIZE_BYTE);
+      }
+
+      return -1;
+   }
+
+   /**
+    * Decodes the map from the bytes kept by a lazy decode, to be called before using the map.
+    */
+   private synchronized void checkDecoded()
+   {
+      if (encoded != null)
+      {
+         HornetQBuffer buffer = encodedBuffer;
+
+         buffer.readerIndex(0);
+
+         properties = new HashMap<SimpleString, PropertyValue>(encodedCount);
+
+         for (int i = 0; i < encodedCount; i++)
+         {
+            int len = buffer.readInt();
+            byte[] data = new byte[len];
+            buffer.readBytes(data);
+            SimpleString key = new SimpleString(data);
+
+            properties.put(key, readValue(buffer.readByte(), buffer));
+         }
+
+         encoded = null;
+         encodedBuffer = null;
+      }
+   }
+
+   /**
+    * @param position the position of the value, after its type
+    * @return the number of bytes used by the value
+    */
+   private static int valueSize(final byte type, final HornetQBuffer buffer, final int position)
+   {
+      switch (type)
+      {
+         case NULL:
+            return 0;
+         case BOOLEAN:
+            return DataConstants.SIZE_BOOLEAN;
+         case BYTE:
+            return DataConstants.SIZE_BYTE;
+         case CHAR:
+            return DataConstants.SIZE_CHAR;
+         case SHORT:
+            return DataConstants.SIZE_SHORT;
+         case INT:
+            return DataConstants.SIZE_INT;
+         case FLOAT:
+            return DataConstants.SIZE_FLOAT;
+         case LONG:
+            return DataConstants.SIZE_LONG;
+         case DOUBLE:
+            return DataConstants.SIZE_DOUBLE;
+         case BYTES:
+         case STRING:
+            return DataConstants.SIZE_INT + buffer.getInt(position);
+         default:
+            throw HornetQUtilBundle.BUNDLE.invalidType(type);
+      }
+   }
+
+   private static PropertyValue readValue(final byte type, final HornetQBuffer buffer)
+   {
+      switch (type)
+      {
+         case NULL:
+            return new NullValue();
+         case CHAR:
+            return new CharValue(buffer);
+         case BOOLEAN:
+            return new BooleanValue(buffer);
+         case BYTE:
+            return new ByteValue(buffer);
+         case BYTES:
+            return new BytesValue(buffer);
+         case SHORT:
+            return new ShortValue(buffer);
+         case INT:
+            return new IntValue(buffer);
+         case LONG:
+            return new LongValue(buffer);
+         case FLOAT:
+            return new FloatValue(buffer);
+         case DOUBLE:
+            return new DoubleValue(buffer);
+         case STRING:
+            return new StringValue(buffer);
+         default:
+            throw HornetQUtilBundle.BUNDLE.invalidType(type);
+      }
+   }
+
+   /**
+    * To be called before changing the map, making a private copy of it if it's still used by other instances.
+    */
+   private void checkUnshared()
+   {
+      if (sharedCount != null)
+      {
+         if (sharedCount.get() > 1)
+         {
+            properties = new HashMap<SimpleString, PropertyValue>(properties);
+         }
+         releaseShared();
+      }
+   }
+
+   private void releaseShared()
+   {
+      if (sharedCount != null)
+      {
+         sharedCount.decrementAndGet();
+         sharedCount = null;
+      }
+   }
+
    private synchronized void doPutValue(final SimpleString key, final PropertyValue value)
    {
       if (key.startsWith(HQ_PROPNAME))
@@ -620,6 +962,10 @@ public final class TypedProperties
          internalProperties = true;
       }
 
+      checkDecoded();
+
+      checkUnshared();
+
       PropertyValue oldValue = properties.put(key, value);
       if (oldValue != null)
       {
@@ -633,11 +979,15 @@ public final class TypedProperties
 
    private synchronized Object doRemoveProperty(final SimpleString key)
    {
+      checkDecoded();
+
       if (properties == null)
       {
          return null;
       }
 
+      checkUnshared();
+
       PropertyValue val = properties.remove(key);
 
       if (val == null)
@@ -652,14 +1002,14 @@ public final class TypedProperties
       }
    }
 
-   private synchronized Object doGetProperty(final Object key)
+   private synchronized Object doGetProperty(final SimpleString key)
    {
       if (size == 0)
       {
          return null;
       }
 
-      PropertyValue val = properties.get(key);
+      PropertyValue val = lookup(key);
 
       if (val == null)
       {
@@ -673,10 +1023,43 @@ public final class TypedProperties
 
    // Inner classes ------------------------------------------------------------------------------
 
+   /**
+    * Receives the value of a property from {@link TypedProperties#readProperty(SimpleString, PropertyReader)}.
+    */
+   public interface PropertyReader
+   {
+      void setNull();
+
+      void setLong(long value);
+
+      void setDouble(double value);
+
+      void setBoolean(boolean value);
+
+      void setString(SimpleString value);
+   }
+
    private static abstract class PropertyValue
    {
       abstract Object getValue();
 
+      abstract byte getType();
+
+      long longValue()
+      {
+         throw new HornetQPropertyConversionException("Invalid conversion");
+      }
+
+      double doubleValue()
+      {
+         throw new HornetQPropertyConversionException("Invalid conversion");
+      }
+
+      boolean booleanValue()
+      {
+         throw new HornetQPropertyConversionException("Invalid conversion");
+      }
+
       abstract void write(HornetQBuffer buffer);
 
       abstract int encodeSize();
@@ -700,6 +1083,12 @@ public final class TypedProperties
          return null;
       }
 
+      @Override
+      public byte getType()
+      {
+         return DataConstants.NULL;
+      }
+
       @Override
       public void write(final HornetQBuffer buffer)
       {
@@ -734,6 +1123,18 @@ public final class TypedProperties
          return val;
       }
 
+      @Override
+      public byte getType()
+      {
+         return DataConstants.BOOLEAN;
+      }
+
+      @Override
+      public boolean booleanValue()
+      {
+         return val;
+      }
+
       @Override
       public void write(final HornetQBuffer buffer)
       {
@@ -769,6 +1170,18 @@ public final class TypedProperties
          return val;
       }
 
+      @Override
+      public byte getType()
+      {
+         return DataConstants.BYTE;
+      }
+
+      @Override
+      public long longValue()
+      {
+         return val;
+      }
+
       @Override
       public void write(final HornetQBuffer buffer)
       {
@@ -805,6 +1218,12 @@ public final class TypedProperties
          return val;
       }
 
+      @Override
+      public byte getType()
+      {
+         return DataConstants.BYTES;
+      }
+
       @Override
       public void write(final HornetQBuffer buffer)
       {
@@ -841,6 +1260,18 @@ public final class TypedProperties
          return val;
       }
 
+      @Override
+      public byte getType()
+      {
+         return DataConstants.SHORT;
+      }
+
+      @Override
+      public long longValue()
+      {
+         return val;
+      }
+
       @Override
       public void write(final HornetQBuffer buffer)
       {
@@ -875,6 +1306,18 @@ public final class TypedProperties
          return val;
       }
 
+      @Override
+      public byte getType()
+      {
+         return DataConstants.INT;
+      }
+
+      @Override
+      public long longValue()
+      {
+         return val;
+      }
+
       @Override
       public void write(final HornetQBuffer buffer)
       {
@@ -909,6 +1352,18 @@ public final class TypedProperties
          return val;
       }
 
+      @Override
+      public byte getType()
+      {
+         return DataConstants.LONG;
+      }
+
+      @Override
+      public long longValue()
+      {
+         return val;
+      }
+
       @Override
       public void write(final HornetQBuffer buffer)
       {
@@ -943,6 +1398,18 @@ public final class TypedProperties
          return val;
       }
 
+      @Override
+      public byte getType()
+      {
+         return DataConstants.FLOAT;
+      }
+
+      @Override
+      public double doubleValue()
+      {
+         return val;
+      }
+
       @Override
       public void write(final HornetQBuffer buffer)
       {
@@ -978,6 +1445,18 @@ public final class TypedProperties
          return val;
       }
 
+      @Override
+      public byte getType()
+      {
+         return DataConstants.DOUBLE;
+      }
+
+      @Override
+      public double doubleValue()
+      {
+         return val;
+      }
+
       @Override
       public void write(final HornetQBuffer buffer)
       {
@@ -1012,6 +1491,12 @@ public final class TypedProperties
          return val;
       }
 
+      @Override
+      public byte getType()
+      {
+         return DataConstants.CHAR;
+      }
+
       @Override
       public void write(final HornetQBuffer buffer)
       {
@@ -1046,6 +1531,12 @@ public final class TypedProperties
          return val;
       }
 
+      @Override
+      public byte getType()
+      {
+         return DataConstants.STRING;
+      }
+
       @Override
       public void write(final HornetQBuffer buffer)
       {
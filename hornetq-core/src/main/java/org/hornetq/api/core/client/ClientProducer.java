@@ -88,6 +88,34 @@ public interface ClientProducer
     */
    void send(String address, Message message) throws HornetQException;
 
+   /**
+    * Sends a message to an address. specified in {@link ClientSession#createProducer(String)} or
+    * similar methods, without waiting for the server. <br>
+    * <br>
+    * The handler is called once the server has received the message, as if the send was blocking,
+    * whatever is set on {@link ServerLocator#setBlockOnDurableSend(boolean)} and
+    * {@link ServerLocator#setBlockOnNonDurableSend(boolean)}. Several messages can be outstanding on
+    * the session, and their handlers are called in the order the messages were sent. Large messages
+    * are sent blocking, but their handler is still called from the session executor after the
+    * handlers of the messages sent before them, so it may run after this method returns.
+    * @param message the message to send
+    * @param handler notified when the message has reached the server
+    * @throws HornetQException if an exception occurs while sending the message
+    */
+   void send(Message message, CompletionHandler handler) throws HornetQException;
+
+   /**
+    * Sends a message to the specified address instead of the ClientProducer's address, without
+    * waiting for the server. <br>
+    * <br>
+    * See {@link #send(Message, CompletionHandler)}.
+    * @param address the address where the message will be sent
+    * @param message the message to send
+    * @param handler notified when the message has reached the server
+    * @throws HornetQException if an exception occurs while sending the message
+    */
+   void send(SimpleString address, Message message, CompletionHandler handler) throws HornetQException;
+
    /**
     * Closes the ClientProducer. If already closed nothing is done.
     *
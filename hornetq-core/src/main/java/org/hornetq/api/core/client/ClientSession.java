@@ -546,6 +546,18 @@ public interface ClientSession extends XAResource
     */
    void commit() throws HornetQException;
 
+   /**
+    * Commits the current transaction without waiting for the server.
+    * <p>
+    * The handler is notified once the transaction is committed, and the session can be used for the next
+    * transaction right away. If the connection fails before that, the handler is notified with an exception as the
+    * outcome is unknown, and the session is marked for rollback.
+    *
+    * @param handler notified when the transaction is committed
+    * @throws HornetQException if an exception occurs before sending the commit
+    */
+   void commit(CompletionHandler handler) throws HornetQException;
+
    /**
     * Rolls back the current transaction.
     *
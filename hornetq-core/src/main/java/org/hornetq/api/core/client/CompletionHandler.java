@@ -0,0 +1,42 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.api.core.client;
+
+import org.hornetq.api.core.HornetQException;
+
+/**
+ * A CompletionHandler is notified when an operation sent to the server without waiting for it has completed.
+ * <p>
+ * It is passed to {@link ClientProducer#send(org.hornetq.api.core.Message, CompletionHandler)} or {@link ClientSession#commit(CompletionHandler)}
+ * so the calling thread doesn't have to wait for the server, and several of these operations can be outstanding on the
+ * same session. The operations complete in the order they were sent.
+ * <p>
+ * The handler is called from the session's executor, the one that also calls its {@link MessageHandler}s, and never
+ * from the thread reading the connection. It may block, but the later handlers and the message deliveries of the
+ * session will wait for it.
+ */
+public interface CompletionHandler
+{
+   /**
+    * Notifies the client that the operation was completed by the server.
+    */
+   void onCompletion();
+
+   /**
+    * Notifies the client that the operation failed, or that its outcome is unknown because the connection failed.
+    *
+    * @param exception the error
+    */
+   void onException(HornetQException exception);
+}
@@ -136,9 +136,32 @@ public interface QueueControl
    @Operation(desc = "List all the messages in the queue matching the given filter and returns them using JSON", impact = MBeanOperationInfo.INFO)
    String listMessagesAsJSON(@Parameter(name = "filter", desc = "A message filter (can be empty)") String filter) throws Exception;
 
+   /**
+    * Browses the messages in this queue matching the specified filter a page at a time, including the messages
+    * still paged to disk, using JSON serialization.
+    * <br>
+    * The result is a JSON object with the messages of the page in {@code messages}, and a {@code continuation} token
+    * to pass to the next call if there are more messages to browse. A page may have less messages than the limit,
+    * even none, as a call reads a bounded number of messages. The messages are read without blocking the deliveries
+    * of the queue, so the browse is weakly consistent with the messages added or removed meanwhile. A continuation
+    * token not used for 5 minutes expires.
+    * <br>
+    * The limit must be positive and the offset can't be negative.
+    * <br>
+    * Using {@code null} or an empty filter will browse <em>all</em> messages from this queue.
+    */
+   @Operation(desc = "Browse a page of the messages in the queue matching the given filter, paged messages included, and returns them using JSON", impact = MBeanOperationInfo.INFO)
+   String browseMessagesAsJSON(@Parameter(name = "filter", desc = "A message filter (can be empty), only used to start a browse") String filter,
+                               @Parameter(name = "continuation", desc = "The continuation token returned by the previous page, or empty to start a browse") String continuation,
+                               @Parameter(name = "offset", desc = "The number of matching messages to skip, only used to start a browse") int offset,
+                               @Parameter(name = "limit", desc = "The maximum number of messages to return") int limit) throws Exception;
+
    /**
     * Counts the number of messages in this queue matching the specified filter.
     * <br>
+    * With a filter, every message of the queue is read, the messages paged to disk included, so the call takes as long
+    * as browsing the whole queue. The deliveries of the queue go on meanwhile.
+    * <br>
     * Using {@code null} or an empty filter will count <em>all</em> messages from this queue.
     */
    @Operation(desc = "Returns the number of the messages in the queue matching the given filter", impact = MBeanOperationInfo.INFO)
@@ -16,7 +16,6 @@ package org.hornetq.core.client.impl;
 import java.io.File;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
-import java.util.Iterator;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
@@ -36,8 +35,7 @@ import org.hornetq.core.protocol.core.impl.wireformat.SessionReceiveLargeMessage
 import org.hornetq.core.server.HornetQLogger;
 import org.hornetq.core.server.HornetQMessageBundle;
 import org.hornetq.utils.FutureLatch;
-import org.hornetq.utils.PriorityLinkedList;
-import org.hornetq.utils.PriorityLinkedListImpl;
+import org.hornetq.utils.SPSCPriorityLinkedList;
 import org.hornetq.utils.TokenBucketLimiter;
 
 /**
@@ -89,7 +87,8 @@ public class ClientConsumerImpl implements ClientConsumerInternal
 
    private final int ackBatchSize;
 
-   private final PriorityLinkedList<ClientMessageInternal> buffer = new PriorityLinkedListImpl<ClientMessageInternal>(ClientConsumerImpl.NUM_PRIORITIES);
+   // Messages are added by the remoting thread without holding the consumer's lock, they are taken out while holding it
+   private final SPSCPriorityLinkedList<ClientMessageInternal> buffer = new SPSCPriorityLinkedList<ClientMessageInternal>(ClientConsumerImpl.NUM_PRIORITIES);
 
    private final Runner runner = new Runner();
 
@@ -121,7 +120,7 @@ public class ClientConsumerImpl implements ClientConsumerInternal
 
    private volatile ClientMessageInternal lastAckedMessage;
 
-   private boolean stopped = false;
+   private volatile boolean stopped = false;
 
    private long forceDeliveryCount;
 
@@ -561,7 +560,7 @@ public class ClientConsumerImpl implements ClientConsumerInternal
       return browseOnly;
    }
 
-   public synchronized void handleMessage(final ClientMessageInternal message) throws Exception
+   public void handleMessage(final ClientMessageInternal message) throws Exception
    {
       if (closing)
       {
@@ -586,7 +585,8 @@ public class ClientConsumerImpl implements ClientConsumerInternal
          ackIndividually = true;
       }
 
-      // Add it to the buffer
+      // Add it to the buffer. The handler and stopped are read after that, while setMessageHandler and start change
+      // them before reading the size of the buffer, so one of the two sides always queues an executor for it
       buffer.addTail(messageToHandle, messageToHandle.getPriority());
 
       if (handler != null)
@@ -599,7 +599,10 @@ public class ClientConsumerImpl implements ClientConsumerInternal
       }
       else
       {
-         notify();
+         synchronized (this)
+         {
+            notify();
+         }
       }
    }
 
@@ -672,14 +675,12 @@ public class ClientConsumerImpl implements ClientConsumerInternal
       {
          // Need to send credits for the messages in the buffer
 
-         Iterator<ClientMessageInternal> iter = buffer.iterator();
+         ClientMessageInternal message;
 
-         while (iter.hasNext())
+         while ((message = buffer.poll()) != null)
          {
             try
             {
-               ClientMessageInternal message = iter.next();
-
                if (message.isLargeMessage())
                {
                   ClientLargeMessageInternal largeMessage = (ClientLargeMessageInternal)message;
@@ -694,8 +695,6 @@ public class ClientConsumerImpl implements ClientConsumerInternal
             }
          }
 
-         clearBuffer();
-
          try
          {
             resetLargeMessageController();
@@ -1133,7 +1132,7 @@ public class ClientConsumerImpl implements ClientConsumerInternal
       session.removeConsumer(this);
    }
 
-   private void clearBuffer()
+   private synchronized void clearBuffer()
    {
       buffer.clear();
    }
@@ -15,6 +15,7 @@ package org.hornetq.core.client.impl;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.hornetq.api.core.HornetQBuffer;
@@ -22,9 +23,12 @@ import org.hornetq.api.core.HornetQBuffers;
 import org.hornetq.api.core.HornetQException;
 import org.hornetq.api.core.Message;
 import org.hornetq.api.core.SimpleString;
+import org.hornetq.api.core.client.CompletionHandler;
 import org.hornetq.core.message.BodyEncoder;
 import org.hornetq.core.message.impl.MessageInternal;
 import org.hornetq.core.protocol.core.Channel;
+import org.hornetq.core.protocol.core.Packet;
+import org.hornetq.core.protocol.core.ResponseHandler;
 import org.hornetq.core.protocol.core.impl.wireformat.SessionSendContinuationMessage;
 import org.hornetq.core.protocol.core.impl.wireformat.SessionSendLargeMessage;
 import org.hornetq.core.protocol.core.impl.wireformat.SessionSendMessage;
@@ -55,6 +59,9 @@ public class ClientProducerImpl implements ClientProducerInternal
 
    private final Channel channel;
 
+   // Runs the CompletionHandlers, so they are not called on the thread reading the connection
+   private final Executor executor;
+
    private volatile boolean closed;
 
    // For rate throttling
@@ -83,10 +90,13 @@ public class ClientProducerImpl implements ClientProducerInternal
                              final boolean autoGroup,
                              final SimpleString groupID,
                              final int minLargeMessageSize,
-                             final Channel channel)
+                             final Channel channel,
+                             final Executor executor)
    {
       this.channel = channel;
 
+      this.executor = executor;
+
       this.session = session;
 
       this.address = address;
@@ -129,14 +139,31 @@ public class ClientProducerImpl implements ClientProducerInternal
    {
       checkClosed();
 
-      doSend(null, msg);
+      doSend(null, msg, null);
    }
 
    public void send(final SimpleString address, final Message msg) throws HornetQException
    {
       checkClosed();
 
-      doSend(address, msg);
+      doSend(address, msg, null);
+   }
+
+   public void send(final Message msg, final CompletionHandler handler) throws HornetQException
+   {
+      send(null, msg, handler);
+   }
+
+   public void send(final SimpleString address, final Message msg, final CompletionHandler handler) throws HornetQException
+   {
+      checkClosed();
+
+      if (handler == null)
+      {
+         throw new NullPointerException("handler parameter need to be set");
+      }
+
+      doSend(address, msg, handler);
    }
 
    public void send(final String address, final Message message) throws HornetQException
@@ -209,7 +236,7 @@ public class ClientProducerImpl implements ClientProducerInternal
       closed = true;
    }
 
-   private void doSend(final SimpleString address, final Message msg) throws HornetQException
+   private void doSend(final SimpleString address, final Message msg, final CompletionHandler handler) throws HornetQException
    {
       MessageInternal msgI = (MessageInternal)msg;
 
@@ -267,7 +294,8 @@ public class ClientProducerImpl implements ClientProducerInternal
          msgI.putStringProperty(Message.HDR_GROUP_ID, groupID);
       }
 
-      boolean sendBlocking = msgI.isDurable() ? blockOnDurableSend : blockOnNonDurableSend;
+      // With a handler the server is asked for a response, but it's not waited for
+      boolean sendBlocking = handler != null || (msgI.isDurable() ? blockOnDurableSend : blockOnNonDurableSend);
 
       session.workDone();
 
@@ -291,12 +319,51 @@ public class ClientProducerImpl implements ClientProducerInternal
       if (isLarge)
       {
          largeMessageSend(sendBlocking, msgI, theCredits);
+
+         if (handler != null)
+         {
+            // Through the executor too, so it is called after the handlers of the messages sent before it
+            executor.execute(new Runnable()
+            {
+               public void run()
+               {
+                  handler.onCompletion();
+               }
+            });
+         }
       }
       else
       {
          SessionSendMessage packet = new SessionSendMessage(msgI, sendBlocking);
 
-         if (sendBlocking)
+         if (handler != null)
+         {
+            channel.sendBlocking(packet, new ResponseHandler()
+            {
+               public void handleResponse(final Packet response)
+               {
+                  executor.execute(new Runnable()
+                  {
+                     public void run()
+                     {
+                        handler.onCompletion();
+                     }
+                  });
+               }
+
+               public void handleException(final HornetQException exception)
+               {
+                  executor.execute(new Runnable()
+                  {
+                     public void run()
+                     {
+                        handler.onException(exception);
+                     }
+                  });
+               }
+            });
+         }
+         else if (sendBlocking)
          {
             channel.sendBlocking(packet);
          }
@@ -839,6 +839,12 @@ public class ClientSessionFactoryImpl implements ClientSessionFactoryInternal, C
 
                CreateSessionResponseMessage response = (CreateSessionResponseMessage)pResponse;
 
+               // The channels of the connection correlate their calls once they know the server does
+               if (connection.getClientVersion() == 0)
+               {
+                  connection.setClientVersion(response.getServerVersion());
+               }
+
                Channel sessionChannel = connection.getChannel(sessionChannelID,
                                                               serverLocator.getConfirmationWindowSize());
 
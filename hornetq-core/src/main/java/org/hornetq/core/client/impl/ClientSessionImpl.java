@@ -36,6 +36,7 @@ import org.hornetq.api.core.SimpleString;
 import org.hornetq.api.core.client.ClientConsumer;
 import org.hornetq.api.core.client.ClientMessage;
 import org.hornetq.api.core.client.ClientProducer;
+import org.hornetq.api.core.client.CompletionHandler;
 import org.hornetq.api.core.client.FailoverEventListener;
 import org.hornetq.api.core.client.SendAcknowledgementHandler;
 import org.hornetq.api.core.client.SessionFailureListener;
@@ -43,9 +44,11 @@ import org.hornetq.core.protocol.core.Channel;
 import org.hornetq.core.protocol.core.CommandConfirmationHandler;
 import org.hornetq.core.protocol.core.CoreRemotingConnection;
 import org.hornetq.core.protocol.core.Packet;
+import org.hornetq.core.protocol.core.ResponseHandler;
 import org.hornetq.core.protocol.core.impl.PacketImpl;
 import org.hornetq.core.protocol.core.impl.wireformat.CreateQueueMessage;
 import org.hornetq.core.protocol.core.impl.wireformat.CreateSessionMessage;
+import org.hornetq.core.protocol.core.impl.wireformat.CreateSessionResponseMessage;
 import org.hornetq.core.protocol.core.impl.wireformat.ReattachSessionMessage;
 import org.hornetq.core.protocol.core.impl.wireformat.ReattachSessionResponseMessage;
 import org.hornetq.core.protocol.core.impl.wireformat.RollbackMessage;
@@ -567,6 +570,70 @@ final class ClientSessionImpl implements ClientSessionInternal, FailureListener,
       workDone = false;
    }
 
+   public void commit(final CompletionHandler handler) throws HornetQException
+   {
+      checkClosed();
+
+      if (handler == null)
+      {
+         throw new NullPointerException("handler parameter need to be set");
+      }
+
+      if (HornetQLogger.LOGGER.isTraceEnabled())
+      {
+         HornetQLogger.LOGGER.trace("Sending commit without waiting");
+      }
+
+      if (rollbackOnly)
+      {
+         rollbackOnFailover(true);
+      }
+
+      flushAcks();
+
+      channel.sendBlocking(new PacketImpl(PacketImpl.SESS_COMMIT), new ResponseHandler()
+      {
+         public void handleResponse(final Packet response)
+         {
+            executor.execute(new Runnable()
+            {
+               public void run()
+               {
+                  handler.onCompletion();
+               }
+            });
+         }
+
+         public void handleException(final HornetQException exception)
+         {
+            final HornetQException reported;
+
+            if (exception.getType() == HornetQExceptionType.UNBLOCKED)
+            {
+               // Same as commit(), but the rollback can't be done from here as the session is failing over: it will
+               // happen on the next commit
+               rollbackOnly = true;
+
+               reported = HornetQMessageBundle.BUNDLE.txOutcomeUnknown();
+            }
+            else
+            {
+               reported = exception;
+            }
+
+            executor.execute(new Runnable()
+            {
+               public void run()
+               {
+                  handler.onException(reported);
+               }
+            });
+         }
+      });
+
+      workDone = false;
+   }
+
    public boolean isRollbackOnly()
    {
       return rollbackOnly;
@@ -1035,7 +1102,14 @@ final class ClientSessionImpl implements ClientSessionInternal, FailureListener,
                   {
                      try
                      {
-                        channel1.sendBlocking(createRequest);
+                        CreateSessionResponseMessage created =
+                                 (CreateSessionResponseMessage)channel1.sendBlocking(createRequest);
+
+                        if (backupConnection.getClientVersion() == 0)
+                        {
+                           backupConnection.setClientVersion(created.getServerVersion());
+                        }
+
                         retry = false;
                      }
                      catch (HornetQException e)
@@ -1859,7 +1933,8 @@ final class ClientSessionImpl implements ClientSessionInternal, FailureListener,
                                                                autoGroup,
                                                                groupID == null ? null : new SimpleString(groupID),
                                                                minLargeMessageSize,
-                                                               channel);
+                                                               channel,
+                                                               executor);
 
       addProducer(producer);
 
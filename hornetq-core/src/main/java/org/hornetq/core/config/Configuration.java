@@ -168,6 +168,19 @@ public interface Configuration extends Serializable
     */
    void setThreadPoolMaxSize(int maxSize);
 
+   /**
+    * Returns the number of shards running the ordered executors of this server, or {@code 0} if they run on the
+    * thread pool.
+    * <br>
+    * Default value is {@value org.hornetq.core.config.impl.ConfigurationImpl#DEFAULT_THREAD_POOL_SHARDS}.
+    */
+   int getThreadPoolShards();
+
+   /**
+    * Sets the number of shards running the ordered executors of this server, {@code 0} to run them on the thread pool.
+    */
+   void setThreadPoolShards(int shards);
+
    /**
     * Returns the maximum number of threads in the <em>scheduled</em> thread pool of this server.
     * <br>
@@ -429,6 +442,20 @@ public interface Configuration extends Serializable
     */
    void setClusterPassword(String password);
 
+   /**
+    * Returns how often, in milliseconds, the cluster connections of this server report the load of their queues to the
+    * other nodes and move messages away from queues whose consumers fall behind, or {@code -1} if they don't.
+    * <br>
+    * Default value is {@value org.hornetq.core.config.impl.ConfigurationImpl#DEFAULT_LOAD_REDISTRIBUTION_PERIOD}.
+    */
+   long getLoadRedistributionPeriod();
+
+   /**
+    * Sets how often, in milliseconds, the cluster connections of this server report the load of their queues, {@code -1}
+    * to not redistribute messages by load.
+    */
+   void setLoadRedistributionPeriod(long period);
+
    /**
     * Returns the size of the cache for pre-creating message IDs.
     * <br>
@@ -560,6 +587,70 @@ public interface Configuration extends Serializable
     */
    void setJournalCompactPercentage(int percentage);
 
+   /**
+    * Returns the number of threads reading the journal files when the journal is loaded.
+    * <br>
+    * Default value is {@value org.hornetq.core.config.impl.ConfigurationImpl#DEFAULT_JOURNAL_LOAD_THREADS}.
+    */
+   int getJournalLoadThreads();
+
+   /**
+    * Sets the number of threads reading the journal files when the journal is loaded, {@code 1} to read them one after
+    * the other.
+    */
+   void setJournalLoadThreads(int threads);
+
+   /**
+    * Returns the number of journal files that can be read ahead of the one being loaded.
+    * <br>
+    * Default value is {@value org.hornetq.core.config.impl.ConfigurationImpl#DEFAULT_JOURNAL_LOAD_PREFETCH}.
+    */
+   int getJournalLoadPrefetch();
+
+   /**
+    * Sets the number of journal files that can be read ahead of the one being loaded.
+    */
+   void setJournalLoadPrefetch(int files);
+
+   /**
+    * Returns how often, in milliseconds, a checkpoint of the message journal is written.
+    * <br>
+    * Default value is {@value org.hornetq.core.config.impl.ConfigurationImpl#DEFAULT_JOURNAL_CHECKPOINT_PERIOD}.
+    */
+   long getJournalCheckpointPeriod();
+
+   /**
+    * Sets how often, in milliseconds, a checkpoint of the message journal is written, {@code -1} to disable
+    * checkpoints.
+    */
+   void setJournalCheckpointPeriod(long period);
+
+   /**
+    * Returns the size, in bytes, from which the body of a message loaded from the journal is left on the journal until
+    * the message is delivered.
+    * <br>
+    * Default value is {@value org.hornetq.core.config.impl.ConfigurationImpl#DEFAULT_JOURNAL_LAZY_BODY_SIZE}.
+    */
+   int getJournalLazyBodySize();
+
+   /**
+    * Sets the size, in bytes, from which the body of a message loaded from the journal is left on the journal until
+    * the message is delivered, {@code -1} to load all the bodies.
+    */
+   void setJournalLazyBodySize(int size);
+
+   /**
+    * Returns how many bytes of the bodies read back from the journal are kept in memory.
+    * <br>
+    * Default value is {@value org.hornetq.core.config.impl.ConfigurationImpl#DEFAULT_JOURNAL_LAZY_BODY_CACHE_SIZE}.
+    */
+   long getJournalLazyBodyCacheSize();
+
+   /**
+    * Sets how many bytes of the bodies read back from the journal are kept in memory.
+    */
+   void setJournalLazyBodyCacheSize(long size);
+
    /**
     * Returns the number of journal files to pre-create.
     * <br>
@@ -634,6 +725,18 @@ public interface Configuration extends Serializable
     */
    void setJournalBufferTimeout_NIO(int journalBufferTimeout);
 
+   /**
+    * Returns whether producers append to the journal buffer without locking it.
+    * <br>
+    * Default value is {@value org.hornetq.core.config.impl.ConfigurationImpl#DEFAULT_JOURNAL_LOCK_FREE_BUFFER}.
+    */
+   boolean isJournalLockFreeBuffer();
+
+   /**
+    * Sets whether producers append to the journal buffer without locking it.
+    */
+   void setJournalLockFreeBuffer(boolean lockFree);
+
    /**
     * Returns the buffer size (in bytes) for NIO.
     * <br>
@@ -83,6 +83,8 @@ public class ConfigurationImpl implements Configuration
     */
    public static final int DEFAULT_THREAD_POOL_MAX_SIZE = 30;
 
+   public static final int DEFAULT_THREAD_POOL_SHARDS = 0;
+
    public static final long DEFAULT_SECURITY_INVALIDATION_INTERVAL = 10000;
 
    public static final boolean DEFAULT_SECURITY_ENABLED = true;
@@ -122,6 +124,16 @@ public class ConfigurationImpl implements Configuration
 
    public static final int DEFAULT_JOURNAL_COMPACT_PERCENTAGE = 30;
 
+   public static final int DEFAULT_JOURNAL_LOAD_THREADS = 1;
+
+   public static final int DEFAULT_JOURNAL_LOAD_PREFETCH = 4;
+
+   public static final long DEFAULT_JOURNAL_CHECKPOINT_PERIOD = -1;
+
+   public static final int DEFAULT_JOURNAL_LAZY_BODY_SIZE = -1;
+
+   public static final long DEFAULT_JOURNAL_LAZY_BODY_CACHE_SIZE = 10 * 1024 * 1024;
+
    public static final int DEFAULT_JOURNAL_MIN_FILES = 2;
 
    // AIO and NIO need to have different defaults for some values
@@ -144,6 +156,8 @@ public class ConfigurationImpl implements Configuration
 
    public static final boolean DEFAULT_JOURNAL_LOG_WRITE_RATE = false;
 
+   public static final boolean DEFAULT_JOURNAL_LOCK_FREE_BUFFER = false;
+
    public static final int DEFAULT_JOURNAL_PERF_BLAST_PAGES = -1;
 
    /** Used by the JBoss-AS integration code. */
@@ -170,6 +184,8 @@ public class ConfigurationImpl implements Configuration
 
    public static final String DEFAULT_CLUSTER_PASSWORD = "CHANGE ME!!";
 
+   public static final long DEFAULT_LOAD_REDISTRIBUTION_PERIOD = -1;
+
    public static final long DEFAULT_BROADCAST_PERIOD = 2000;
 
    public static final long DEFAULT_BROADCAST_REFRESH_TIMEOUT = 10000;
@@ -261,6 +277,8 @@ public class ConfigurationImpl implements Configuration
 
    private int threadPoolMaxSize = ConfigurationImpl.DEFAULT_THREAD_POOL_MAX_SIZE;
 
+   private int threadPoolShards = ConfigurationImpl.DEFAULT_THREAD_POOL_SHARDS;
+
    private long securityInvalidationInterval = ConfigurationImpl.DEFAULT_SECURITY_INVALIDATION_INTERVAL;
 
    private boolean securityEnabled = ConfigurationImpl.DEFAULT_SECURITY_ENABLED;
@@ -327,6 +345,16 @@ public class ConfigurationImpl implements Configuration
 
    protected int journalCompactPercentage = ConfigurationImpl.DEFAULT_JOURNAL_COMPACT_PERCENTAGE;
 
+   protected int journalLoadThreads = ConfigurationImpl.DEFAULT_JOURNAL_LOAD_THREADS;
+
+   protected int journalLoadPrefetch = ConfigurationImpl.DEFAULT_JOURNAL_LOAD_PREFETCH;
+
+   protected long journalCheckpointPeriod = ConfigurationImpl.DEFAULT_JOURNAL_CHECKPOINT_PERIOD;
+
+   protected int journalLazyBodySize = ConfigurationImpl.DEFAULT_JOURNAL_LAZY_BODY_SIZE;
+
+   protected long journalLazyBodyCacheSize = ConfigurationImpl.DEFAULT_JOURNAL_LAZY_BODY_CACHE_SIZE;
+
    protected int journalFileSize = ConfigurationImpl.DEFAULT_JOURNAL_FILE_SIZE;
 
    protected int journalMinFiles = ConfigurationImpl.DEFAULT_JOURNAL_MIN_FILES;
@@ -345,6 +373,8 @@ public class ConfigurationImpl implements Configuration
 
    protected int journalBufferSize_NIO = ConfigurationImpl.DEFAULT_JOURNAL_BUFFER_SIZE_NIO;
 
+   protected boolean journalLockFreeBuffer = ConfigurationImpl.DEFAULT_JOURNAL_LOCK_FREE_BUFFER;
+
    protected boolean logJournalWriteRate = ConfigurationImpl.DEFAULT_JOURNAL_LOG_WRITE_RATE;
 
    protected int journalPerfBlastPages = ConfigurationImpl.DEFAULT_JOURNAL_PERF_BLAST_PAGES;
@@ -371,6 +401,8 @@ public class ConfigurationImpl implements Configuration
 
    protected String clusterPassword = ConfigurationImpl.DEFAULT_CLUSTER_PASSWORD;
 
+   private long loadRedistributionPeriod = ConfigurationImpl.DEFAULT_LOAD_REDISTRIBUTION_PERIOD;
+
    private long serverDumpInterval = ConfigurationImpl.DEFAULT_SERVER_DUMP_INTERVAL;
 
    protected boolean failoverOnServerShutdown = ConfigurationImpl.DEFAULT_FAILOVER_ON_SERVER_SHUTDOWN;
@@ -498,6 +530,16 @@ public class ConfigurationImpl implements Configuration
       threadPoolMaxSize = maxSize;
    }
 
+   public int getThreadPoolShards()
+   {
+      return threadPoolShards;
+   }
+
+   public void setThreadPoolShards(final int shards)
+   {
+      threadPoolShards = shards;
+   }
+
    public long getSecurityInvalidationInterval()
    {
       return securityInvalidationInterval;
@@ -966,6 +1008,16 @@ public class ConfigurationImpl implements Configuration
       clusterPassword = theclusterPassword;
    }
 
+   public long getLoadRedistributionPeriod()
+   {
+      return loadRedistributionPeriod;
+   }
+
+   public void setLoadRedistributionPeriod(final long period)
+   {
+      loadRedistributionPeriod = period;
+   }
+
    public int getJournalCompactMinFiles()
    {
       return journalCompactMinFiles;
@@ -986,6 +1038,56 @@ public class ConfigurationImpl implements Configuration
       journalCompactPercentage = percentage;
    }
 
+   public int getJournalLoadThreads()
+   {
+      return journalLoadThreads;
+   }
+
+   public void setJournalLoadThreads(final int threads)
+   {
+      journalLoadThreads = threads;
+   }
+
+   public int getJournalLoadPrefetch()
+   {
+      return journalLoadPrefetch;
+   }
+
+   public void setJournalLoadPrefetch(final int files)
+   {
+      journalLoadPrefetch = files;
+   }
+
+   public long getJournalCheckpointPeriod()
+   {
+      return journalCheckpointPeriod;
+   }
+
+   public void setJournalCheckpointPeriod(final long period)
+   {
+      journalCheckpointPeriod = period;
+   }
+
+   public int getJournalLazyBodySize()
+   {
+      return journalLazyBodySize;
+   }
+
+   public void setJournalLazyBodySize(final int size)
+   {
+      journalLazyBodySize = size;
+   }
+
+   public long getJournalLazyBodyCacheSize()
+   {
+      return journalLazyBodyCacheSize;
+   }
+
+   public void setJournalLazyBodyCacheSize(final long size)
+   {
+      journalLazyBodyCacheSize = size;
+   }
+
    public long getServerDumpInterval()
    {
       return serverDumpInterval;
@@ -1066,6 +1168,16 @@ public class ConfigurationImpl implements Configuration
       journalBufferTimeout_NIO = journalBufferTimeout;
    }
 
+   public boolean isJournalLockFreeBuffer()
+   {
+      return journalLockFreeBuffer;
+   }
+
+   public void setJournalLockFreeBuffer(final boolean lockFree)
+   {
+      journalLockFreeBuffer = lockFree;
+   }
+
    public int getJournalBufferSize_NIO()
    {
       return journalBufferSize_NIO;
@@ -1176,6 +1288,26 @@ public class ConfigurationImpl implements Configuration
       {
          return false;
       }
+      if (journalLoadThreads != other.journalLoadThreads)
+      {
+         return false;
+      }
+      if (journalLoadPrefetch != other.journalLoadPrefetch)
+      {
+         return false;
+      }
+      if (journalCheckpointPeriod != other.journalCheckpointPeriod)
+      {
+         return false;
+      }
+      if (journalLazyBodySize != other.journalLazyBodySize)
+      {
+         return false;
+      }
+      if (journalLazyBodyCacheSize != other.journalLazyBodyCacheSize)
+      {
+         return false;
+      }
       if (journalDirectory == null)
       {
          if (other.journalDirectory != null)
@@ -1230,6 +1362,10 @@ public class ConfigurationImpl implements Configuration
       {
          return false;
       }
+      if (journalLockFreeBuffer != other.journalLockFreeBuffer)
+      {
+         return false;
+      }
       if (logJournalWriteRate != other.logJournalWriteRate)
       {
          return false;
@@ -1345,6 +1481,14 @@ public class ConfigurationImpl implements Configuration
       {
          return false;
       }
+      if (loadRedistributionPeriod != other.loadRedistributionPeriod)
+      {
+         return false;
+      }
+      if (threadPoolShards != other.threadPoolShards)
+      {
+         return false;
+      }
       if (transactionTimeout != other.transactionTimeout)
       {
          return false;
@@ -130,6 +130,8 @@ public final class FileConfigurationParser
 
    private static final String SEND_TO_DLA_ON_NO_ROUTE = "send-to-dla-on-no-route";
 
+   private static final String CONSUMER_FILTER_INDEX_NODE_NAME = "consumer-filter-index";
+
    // Attributes ----------------------------------------------------
 
    private boolean validateAIO = false;
@@ -226,6 +228,11 @@ public final class FileConfigurationParser
                                                                   config.getThreadPoolMaxSize(),
                                                                   Validators.MINUS_ONE_OR_GT_ZERO));
 
+      config.setThreadPoolShards(XMLConfigurationUtil.getInteger(e,
+                                                                 "thread-pool-shards",
+                                                                 config.getThreadPoolShards(),
+                                                                 Validators.GE_ZERO));
+
       config.setSecurityEnabled(XMLConfigurationUtil.getBoolean(e, "security-enabled", config.isSecurityEnabled()));
 
       config.setJMXManagementEnabled(XMLConfigurationUtil.getBoolean(e,
@@ -313,6 +320,11 @@ public final class FileConfigurationParser
          }
       }
 
+      config.setLoadRedistributionPeriod(XMLConfigurationUtil.getLong(e,
+                                                                      "load-redistribution-period",
+                                                                      config.getLoadRedistributionPeriod(),
+                                                                      Validators.MINUS_ONE_OR_GT_ZERO));
+
       config.setClusterUser(XMLConfigurationUtil.getString(e,
                                                            "cluster-user",
                                                            config.getClusterUser(),
@@ -472,6 +484,10 @@ public final class FileConfigurationParser
       {
          config.setJournalType(JournalType.NIO);
       }
+      else if (s.equals(JournalType.MAPPED.toString()))
+      {
+         config.setJournalType(JournalType.MAPPED);
+      }
       else if (s.equals(JournalType.ASYNCIO.toString()))
       {
          // https://jira.jboss.org/jira/browse/HORNETQ-295
@@ -539,6 +555,10 @@ public final class FileConfigurationParser
          config.setJournalMaxIO_NIO(journalMaxIO);
       }
 
+      config.setJournalLockFreeBuffer(XMLConfigurationUtil.getBoolean(e,
+                                                                      "journal-lock-free-buffer",
+                                                                      config.isJournalLockFreeBuffer()));
+
       config.setJournalMinFiles(XMLConfigurationUtil.getInteger(e,
                                                                 "journal-min-files",
                                                                 config.getJournalMinFiles(),
@@ -554,6 +574,31 @@ public final class FileConfigurationParser
                                                                          config.getJournalCompactPercentage(),
                                                                          Validators.PERCENTAGE));
 
+      config.setJournalLoadThreads(XMLConfigurationUtil.getInteger(e,
+                                                                   "journal-load-threads",
+                                                                   config.getJournalLoadThreads(),
+                                                                   Validators.GT_ZERO));
+
+      config.setJournalLoadPrefetch(XMLConfigurationUtil.getInteger(e,
+                                                                    "journal-load-prefetch",
+                                                                    config.getJournalLoadPrefetch(),
+                                                                    Validators.GT_ZERO));
+
+      config.setJournalCheckpointPeriod(XMLConfigurationUtil.getLong(e,
+                                                                     "journal-checkpoint-period",
+                                                                     config.getJournalCheckpointPeriod(),
+                                                                     Validators.MINUS_ONE_OR_GT_ZERO));
+
+      config.setJournalLazyBodySize(XMLConfigurationUtil.getInteger(e,
+                                                                    "journal-lazy-body-size",
+                                                                    config.getJournalLazyBodySize(),
+                                                                    Validators.MINUS_ONE_OR_GE_ZERO));
+
+      config.setJournalLazyBodyCacheSize(XMLConfigurationUtil.getLong(e,
+                                                                      "journal-lazy-body-cache-size",
+                                                                      config.getJournalLazyBodyCacheSize(),
+                                                                      Validators.GT_ZERO));
+
       config.setLogJournalWriteRate(XMLConfigurationUtil.getBoolean(e,
                                                                     "log-journal-write-rate",
                                                                     ConfigurationImpl.DEFAULT_JOURNAL_LOG_WRITE_RATE));
@@ -873,6 +918,10 @@ public final class FileConfigurationParser
          {
             addressSettings.setSendToDLAOnNoRoute(Boolean.valueOf(child.getTextContent().trim()));
          }
+         else if (FileConfigurationParser.CONSUMER_FILTER_INDEX_NODE_NAME.equalsIgnoreCase(child.getNodeName()))
+         {
+            addressSettings.setConsumerFilterIndex(Boolean.valueOf(child.getTextContent().trim()));
+         }
       }
       return setting;
    }
@@ -0,0 +1,1026 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.filter.impl;
+
+import java.util.Set;
+
+import org.hornetq.api.core.FilterConstants;
+import org.hornetq.api.core.SimpleString;
+import org.hornetq.core.server.ServerMessage;
+import org.hornetq.utils.DataConstants;
+import org.hornetq.utils.TypedProperties;
+
+/**
+ * Compiles the tree of {@link Operator}s and {@link Identifier}s built by the {@link FilterParser} into a tree of
+ * stateless nodes.
+ * <p>
+ * The interpreted tree stores intermediate results on the Operators and values on the Identifiers, so it can only be
+ * evaluated by one thread at a time, and it boxes every intermediate value. The compiled tree is immutable: values are
+ * read straight from the message's {@link TypedProperties} into a per thread stack of {@link Value}s, holding primitive
+ * fields for each type. It follows the same three-valued logic as {@link Operator}.
+ */
+final class FilterCompiler
+{
+   private static final int NULL = 0;
+
+   private static final int DOUBLE = Operator.DOUBLE;
+
+   private static final int LONG = Operator.LONG;
+
+   private static final int BOOLEAN = Operator.BOOLEAN;
+
+   private static final int SIMPLE_STRING = Operator.SIMPLE_STRING;
+
+   // Results of a comparison
+   private static final int FALSE = 0;
+
+   private static final int TRUE = 1;
+
+   private static final int UNKNOWN = -1;
+
+   private static final ThreadLocal<Value> values = new ThreadLocal<Value>()
+   {
+      @Override
+      protected Value initialValue()
+      {
+         return new Value();
+      }
+   };
+
+   private FilterCompiler()
+   {
+      // Utility class
+   }
+
+   /**
+    * @param tree the result of {@link FilterParser#parse(SimpleString, java.util.Map)}
+    * @return null if the tree uses a construct the compiler doesn't support, in which case the filter should be
+    *         interpreted
+    */
+   static CompiledFilter compile(final Object tree)
+   {
+      if (!(tree instanceof Operator) && !(tree instanceof Identifier))
+      {
+         return null;
+      }
+
+      try
+      {
+         return new CompiledFilter(compileNode(tree));
+      }
+      catch (NotCompilableException e)
+      {
+         return null;
+      }
+   }
+
+   static final class CompiledFilter
+   {
+      private final Node root;
+
+      CompiledFilter(final Node root)
+      {
+         this.root = root;
+      }
+
+      /**
+       * This method can be called concurrently
+       *
+       * @throws Exception if the message holds a value of the wrong type for an operation
+       */
+      boolean match(final ServerMessage message) throws Exception
+      {
+         Value value = values.get();
+
+         root.evaluate(message, value);
+
+         return value.type == BOOLEAN && value.booleanValue;
+      }
+   }
+
+   // Compilation --------------------------------------------------------------------------------
+
+   private static Node compileNode(final Object node) throws NotCompilableException
+   {
+      if (node instanceof Operator)
+      {
+         return compileOperator((Operator)node);
+      }
+      else if (node instanceof Identifier)
+      {
+         return compileIdentifier(((Identifier)node).getName());
+      }
+      else if (node instanceof SimpleString)
+      {
+         return new StringLiteral((SimpleString)node);
+      }
+      else if (node instanceof Long)
+      {
+         return new LongLiteral((Long)node);
+      }
+      else if (node instanceof Double)
+      {
+         return new DoubleLiteral((Double)node);
+      }
+      else if (node instanceof Boolean)
+      {
+         return new BooleanLiteral((Boolean)node);
+      }
+
+      throw new NotCompilableException();
+   }
+
+   private static Node compileIdentifier(final SimpleString name)
+   {
+      // Same rules as FilterImpl#getHeaderFieldValue, anything else is a message property
+      if (FilterConstants.HORNETQ_USERID.equals(name))
+      {
+         return new UserIDHeader();
+      }
+      else if (FilterConstants.HORNETQ_PRIORITY.equals(name))
+      {
+         return new PriorityHeader();
+      }
+      else if (FilterConstants.HORNETQ_TIMESTAMP.equals(name))
+      {
+         return new TimestampHeader();
+      }
+      else if (FilterConstants.HORNETQ_DURABLE.equals(name))
+      {
+         return new DurableHeader();
+      }
+      else if (FilterConstants.HORNETQ_EXPIRATION.equals(name))
+      {
+         return new ExpirationHeader();
+      }
+      else if (FilterConstants.HORNETQ_SIZE.equals(name))
+      {
+         return new SizeHeader();
+      }
+      else
+      {
+         return new Property(name);
+      }
+   }
+
+   private static Node compileOperator(final Operator operator) throws NotCompilableException
+   {
+      switch (operator.operation)
+      {
+         case Operator.NOT:
+            return new Not(compileNode(operator.oper1));
+         case Operator.AND:
+            return new And(compileNode(operator.oper1), compileNode(operator.oper2));
+         case Operator.OR:
+            return new Or(compileNode(operator.oper1), compileNode(operator.oper2));
+         case Operator.EQUAL:
+         case Operator.DIFFERENT:
+         case Operator.GT:
+         case Operator.GE:
+         case Operator.LT:
+         case Operator.LE:
+            return new Comparison(operator.operation, compileNode(operator.oper1), compileNode(operator.oper2));
+         case Operator.ADD:
+         case Operator.SUB:
+         case Operator.MUL:
+         case Operator.DIV:
+            return new Arithmetic(operator.operation, compileNode(operator.oper1), compileNode(operator.oper2));
+         case Operator.NEG:
+            return new Negation(compileNode(operator.oper1));
+         case Operator.BETWEEN:
+         case Operator.NOT_BETWEEN:
+            return new Between(operator.operation == Operator.NOT_BETWEEN,
+                               compileNode(operator.oper1),
+                               compileNode(operator.oper2),
+                               compileNode(operator.oper3));
+         case Operator.LIKE:
+         case Operator.NOT_LIKE:
+         case Operator.LIKE_ESCAPE:
+         case Operator.NOT_LIKE_ESCAPE:
+            return compileLike(operator);
+         case Operator.IS_NULL:
+            return new IsNull(false, compileNode(operator.oper1));
+         case Operator.IS_NOT_NULL:
+            return new IsNull(true, compileNode(operator.oper1));
+         case Operator.IN:
+         case Operator.NOT_IN:
+            if (!(operator.oper2 instanceof Set))
+            {
+               throw new NotCompilableException();
+            }
+            return new In(operator.operation == Operator.NOT_IN,
+                          compileNode(operator.oper1),
+                          (Set<?>)operator.oper2);
+         default:
+            throw new NotCompilableException();
+      }
+   }
+
+   private static Node compileLike(final Operator operator) throws NotCompilableException
+   {
+      boolean not = operator.operation == Operator.NOT_LIKE || operator.operation == Operator.NOT_LIKE_ESCAPE;
+
+      boolean escape = operator.operation == Operator.LIKE_ESCAPE || operator.operation == Operator.NOT_LIKE_ESCAPE;
+
+      if (!(operator.oper2 instanceof SimpleString) || escape && !(operator.oper3 instanceof SimpleString))
+      {
+         throw new NotCompilableException();
+      }
+
+      Character escapeChar = null;
+
+      if (escape)
+      {
+         SimpleString escapeString = (SimpleString)operator.oper3;
+
+         if (escapeString.length() != 1)
+         {
+            // The interpreter will report the bad escape character on every evaluation
+            throw new NotCompilableException();
+         }
+
+         escapeChar = Character.valueOf(escapeString.charAt(0));
+      }
+
+      Node value = compileNode(operator.oper1);
+
+      RegExp regExp;
+
+      try
+      {
+         regExp = new RegExp(operator.oper2.toString(), escapeChar);
+      }
+      catch (Exception e)
+      {
+         // The interpreter will report the bad pattern on every evaluation
+         throw new NotCompilableException();
+      }
+
+      return new Like(not, value, regExp);
+   }
+
+   /**
+    * Thrown while compiling a tree using a construct the compiler doesn't support, the filter is then interpreted.
+    */
+   private static final class NotCompilableException extends Exception
+   {
+      private static final long serialVersionUID = 1L;
+   }
+
+   // Evaluation ---------------------------------------------------------------------------------
+
+   /**
+    * Holds the result of a node. Binary nodes evaluate their second operand on {@link #next()}, so each thread reuses
+    * one Value per depth of the tree.
+    */
+   static final class Value implements TypedProperties.PropertyReader
+   {
+      int type;
+
+      long longValue;
+
+      double doubleValue;
+
+      boolean booleanValue;
+
+      SimpleString stringValue;
+
+      private Value next;
+
+      Value next()
+      {
+         if (next == null)
+         {
+            next = new Value();
+         }
+         return next;
+      }
+
+      public void setNull()
+      {
+         type = NULL;
+      }
+
+      public void setLong(final long value)
+      {
+         type = LONG;
+         longValue = value;
+      }
+
+      public void setDouble(final double value)
+      {
+         type = DOUBLE;
+         doubleValue = value;
+      }
+
+      public void setBoolean(final boolean value)
+      {
+         type = BOOLEAN;
+         booleanValue = value;
+      }
+
+      public void setString(final SimpleString value)
+      {
+         type = SIMPLE_STRING;
+         stringValue = value;
+      }
+
+      void setResult(final int result)
+      {
+         if (result == UNKNOWN)
+         {
+            type = NULL;
+         }
+         else
+         {
+            setBoolean(result == TRUE);
+         }
+      }
+
+      boolean isNumeric()
+      {
+         return type == LONG || type == DOUBLE;
+      }
+
+      double asDouble()
+      {
+         return type == LONG ? longValue : doubleValue;
+      }
+
+      boolean sameValue(final Value other)
+      {
+         return type == BOOLEAN ? booleanValue == other.booleanValue : stringValue.equals(other.stringValue);
+      }
+   }
+
+   abstract static class Node
+   {
+      abstract void evaluate(ServerMessage message, Value value) throws Exception;
+
+      static Exception badObject(final int type)
+      {
+         return new Exception("Bad Object: '" + Operator.getClassName(type) + "'");
+      }
+   }
+
+   private static final class Property extends Node
+   {
+      private final SimpleString name;
+
+      Property(final SimpleString name)
+      {
+         this.name = name;
+      }
+
+      @Override
+      void evaluate(final ServerMessage message, final Value value) throws Exception
+      {
+         // The value is set on the same lookup as the type
+         switch (message.getTypedProperties().readProperty(name, value))
+         {
+            case -1:
+               value.setNull();
+               break;
+            case DataConstants.BYTES:
+            case DataConstants.CHAR:
+               throw new Exception("Bad Object: property '" + name + "' can't be used in a filter");
+            default:
+               break;
+         }
+      }
+   }
+
+   private static final class UserIDHeader extends Node
+   {
+      @Override
+      void evaluate(final ServerMessage message, final Value value)
+      {
+         // It's the stringified (hex) representation of a user id that can be used in a selector expression
+         value.setString(new SimpleString("ID:" + message.getUserID()));
+      }
+   }
+
+   private static final class PriorityHeader extends Node
+   {
+      @Override
+      void evaluate(final ServerMessage message, final Value value)
+      {
+         value.setLong(message.getPriority());
+      }
+   }
+
+   private static final class TimestampHeader extends Node
+   {
+      @Override
+      void evaluate(final ServerMessage message, final Value value)
+      {
+         value.setLong(message.getTimestamp());
+      }
+   }
+
+   private static final class DurableHeader extends Node
+   {
+      @Override
+      void evaluate(final ServerMessage message, final Value value)
+      {
+         value.setString(message.isDurable() ? FilterConstants.DURABLE : FilterConstants.NON_DURABLE);
+      }
+   }
+
+   private static final class ExpirationHeader extends Node
+   {
+      @Override
+      void evaluate(final ServerMessage message, final Value value)
+      {
+         value.setLong(message.getExpiration());
+      }
+   }
+
+   private static final class SizeHeader extends Node
+   {
+      @Override
+      void evaluate(final ServerMessage message, final Value value)
+      {
+         value.setLong(message.getEncodeSize());
+      }
+   }
+
+   private static final class StringLiteral extends Node
+   {
+      private final SimpleString literal;
+
+      StringLiteral(final SimpleString literal)
+      {
+         this.literal = literal;
+      }
+
+      @Override
+      void evaluate(final ServerMessage message, final Value value)
+      {
+         value.setString(literal);
+      }
+   }
+
+   private static final class LongLiteral extends Node
+   {
+      private final long literal;
+
+      LongLiteral(final long literal)
+      {
+         this.literal = literal;
+      }
+
+      @Override
+      void evaluate(final ServerMessage message, final Value value)
+      {
+         value.setLong(literal);
+      }
+   }
+
+   private static final class DoubleLiteral extends Node
+   {
+      private final double literal;
+
+      DoubleLiteral(final double literal)
+      {
+         this.literal = literal;
+      }
+
+      @Override
+      void evaluate(final ServerMessage message, final Value value)
+      {
+         value.setDouble(literal);
+      }
+   }
+
+   private static final class BooleanLiteral extends Node
+   {
+      private final boolean literal;
+
+      BooleanLiteral(final boolean literal)
+      {
+         this.literal = literal;
+      }
+
+      @Override
+      void evaluate(final ServerMessage message, final Value value)
+      {
+         value.setBoolean(literal);
+      }
+   }
+
+   private static final class Not extends Node
+   {
+      private final Node operand;
+
+      Not(final Node operand)
+      {
+         this.operand = operand;
+      }
+
+      @Override
+      void evaluate(final ServerMessage message, final Value value) throws Exception
+      {
+         operand.evaluate(message, value);
+
+         if (value.type == NULL)
+         {
+            return;
+         }
+
+         if (value.type != BOOLEAN)
+         {
+            throw badObject(value.type);
+         }
+
+         value.booleanValue = !value.booleanValue;
+      }
+   }
+
+   private static final class And extends Node
+   {
+      private final Node left;
+
+      private final Node right;
+
+      And(final Node left, final Node right)
+      {
+         this.left = left;
+         this.right = right;
+      }
+
+      @Override
+      void evaluate(final ServerMessage message, final Value value) throws Exception
+      {
+         left.evaluate(message, value);
+
+         if (value.type == BOOLEAN && !value.booleanValue)
+         {
+            return;
+         }
+
+         if (value.type != NULL && value.type != BOOLEAN)
+         {
+            throw badObject(value.type);
+         }
+
+         boolean leftUnknown = value.type == NULL;
+
+         right.evaluate(message, value);
+
+         if (value.type == NULL)
+         {
+            return;
+         }
+
+         if (value.type != BOOLEAN)
+         {
+            throw badObject(value.type);
+         }
+
+         if (leftUnknown && value.booleanValue)
+         {
+            value.setNull();
+         }
+      }
+   }
+
+   private static final class Or extends Node
+   {
+      private final Node left;
+
+      private final Node right;
+
+      Or(final Node left, final Node right)
+      {
+         this.left = left;
+         this.right = right;
+      }
+
+      @Override
+      void evaluate(final ServerMessage message, final Value value) throws Exception
+      {
+         left.evaluate(message, value);
+
+         if (value.type == BOOLEAN && value.booleanValue)
+         {
+            return;
+         }
+
+         if (value.type != NULL && value.type != BOOLEAN)
+         {
+            throw badObject(value.type);
+         }
+
+         boolean leftUnknown = value.type == NULL;
+
+         right.evaluate(message, value);
+
+         if (value.type == NULL)
+         {
+            return;
+         }
+
+         if (value.type != BOOLEAN)
+         {
+            throw badObject(value.type);
+         }
+
+         if (leftUnknown && !value.booleanValue)
+         {
+            value.setNull();
+         }
+      }
+   }
+
+   private static final class Comparison extends Node
+   {
+      private final int operation;
+
+      private final Node left;
+
+      private final Node right;
+
+      Comparison(final int operation, final Node left, final Node right)
+      {
+         this.operation = operation;
+         this.left = left;
+         this.right = right;
+      }
+
+      @Override
+      void evaluate(final ServerMessage message, final Value value) throws Exception
+      {
+         left.evaluate(message, value);
+
+         Value other = value.next();
+
+         right.evaluate(message, other);
+
+         value.setResult(compare(operation, value, other));
+      }
+   }
+
+   private static final class Between extends Node
+   {
+      private final boolean not;
+
+      private final Node operand;
+
+      private final Node lower;
+
+      private final Node upper;
+
+      Between(final boolean not, final Node operand, final Node lower, final Node upper)
+      {
+         this.not = not;
+         this.operand = operand;
+         this.lower = lower;
+         this.upper = upper;
+      }
+
+      @Override
+      void evaluate(final ServerMessage message, final Value value) throws Exception
+      {
+         operand.evaluate(message, value);
+
+         Value bound = value.next();
+
+         lower.evaluate(message, bound);
+
+         int result = compare(not ? Operator.LT : Operator.GE, value, bound);
+
+         // NOT BETWEEN is true as soon as it's below the lower bound, BETWEEN is false
+         if (result == UNKNOWN || result == (not ? TRUE : FALSE))
+         {
+            value.setResult(result);
+            return;
+         }
+
+         upper.evaluate(message, bound);
+
+         value.setResult(compare(not ? Operator.GT : Operator.LE, value, bound));
+      }
+   }
+
+   /**
+    * Same semantic as the comparisons on {@link Operator}
+    */
+   private static int compare(final int operation, final Value left, final Value right) throws Exception
+   {
+      if (left.type == NULL)
+      {
+         switch (operation)
+         {
+            case Operator.EQUAL:
+               return FALSE;
+            case Operator.DIFFERENT:
+               return right.type == NULL ? FALSE : TRUE;
+            default:
+               return UNKNOWN;
+         }
+      }
+
+      if (left.isNumeric())
+      {
+         if (right.type == NULL)
+         {
+            return UNKNOWN;
+         }
+
+         if (!right.isNumeric())
+         {
+            return FALSE;
+         }
+
+         if (left.type == LONG && right.type == LONG)
+         {
+            return compareLongs(operation, left.longValue, right.longValue) ? TRUE : FALSE;
+         }
+
+         return compareDoubles(operation, left.asDouble(), right.asDouble()) ? TRUE : FALSE;
+      }
+
+      if (operation != Operator.EQUAL && operation != Operator.DIFFERENT)
+      {
+         // Strings and booleans can only be tested for equality
+         return FALSE;
+      }
+
+      if (left.type != SIMPLE_STRING && left.type != BOOLEAN)
+      {
+         throw Node.badObject(left.type);
+      }
+
+      if (right.type == NULL)
+      {
+         return operation == Operator.EQUAL ? FALSE : UNKNOWN;
+      }
+
+      if (right.type != left.type)
+      {
+         throw new Exception("Bad Object: expected '" + Operator.getClassName(left.type) +
+                             "' got '" +
+                             Operator.getClassName(right.type) +
+                             "'");
+      }
+
+      boolean same = left.sameValue(right);
+
+      return (operation == Operator.EQUAL ? same : !same) ? TRUE : FALSE;
+   }
+
+   private static boolean compareLongs(final int operation, final long left, final long right)
+   {
+      switch (operation)
+      {
+         case Operator.EQUAL:
+            return left == right;
+         case Operator.DIFFERENT:
+            return left != right;
+         case Operator.GT:
+            return left > right;
+         case Operator.GE:
+            return left >= right;
+         case Operator.LT:
+            return left < right;
+         default:
+            return left <= right;
+      }
+   }
+
+   private static boolean compareDoubles(final int operation, final double left, final double right)
+   {
+      switch (operation)
+      {
+         case Operator.EQUAL:
+            return left == right;
+         case Operator.DIFFERENT:
+            return left != right;
+         case Operator.GT:
+            return left > right;
+         case Operator.GE:
+            return left >= right;
+         case Operator.LT:
+            return left < right;
+         default:
+            return left <= right;
+      }
+   }
+
+   private static final class Arithmetic extends Node
+   {
+      private final int operation;
+
+      private final Node left;
+
+      private final Node right;
+
+      Arithmetic(final int operation, final Node left, final Node right)
+      {
+         this.operation = operation;
+         this.left = left;
+         this.right = right;
+      }
+
+      @Override
+      void evaluate(final ServerMessage message, final Value value) throws Exception
+      {
+         left.evaluate(message, value);
+
+         Value other = value.next();
+
+         right.evaluate(message, other);
+
+         if (value.type == NULL || other.type == NULL)
+         {
+            value.setNull();
+            return;
+         }
+
+         if (!value.isNumeric())
+         {
+            throw badObject(value.type);
+         }
+
+         if (!other.isNumeric())
+         {
+            throw badObject(other.type);
+         }
+
+         if (value.type == LONG && other.type == LONG)
+         {
+            long a = value.longValue;
+            long b = other.longValue;
+            switch (operation)
+            {
+               case Operator.ADD:
+                  value.setLong(a + b);
+                  break;
+               case Operator.SUB:
+                  value.setLong(a - b);
+                  break;
+               case Operator.MUL:
+                  value.setLong(a * b);
+                  break;
+               default:
+                  value.setLong(a / b);
+            }
+         }
+         else
+         {
+            double a = value.asDouble();
+            double b = other.asDouble();
+            switch (operation)
+            {
+               case Operator.ADD:
+                  value.setDouble(a + b);
+                  break;
+               case Operator.SUB:
+                  value.setDouble(a - b);
+                  break;
+               case Operator.MUL:
+                  value.setDouble(a * b);
+                  break;
+               default:
+                  value.setDouble(a / b);
+            }
+         }
+      }
+   }
+
+   private static final class Negation extends Node
+   {
+      private final Node operand;
+
+      Negation(final Node operand)
+      {
+         this.operand = operand;
+      }
+
+      @Override
+      void evaluate(final ServerMessage message, final Value value) throws Exception
+      {
+         operand.evaluate(message, value);
+
+         switch (value.type)
+         {
+            case NULL:
+               break;
+            case LONG:
+               value.longValue = -value.longValue;
+               break;
+            case DOUBLE:
+               value.doubleValue = -value.doubleValue;
+               break;
+            default:
+               throw badObject(value.type);
+         }
+      }
+   }
+
+   private static final class Like extends Node
+   {
+      private final boolean not;
+
+      private final Node operand;
+
+      private final RegExp pattern;
+
+      Like(final boolean not, final Node operand, final RegExp pattern)
+      {
+         this.not = not;
+         this.operand = operand;
+         this.pattern = pattern;
+      }
+
+      @Override
+      void evaluate(final ServerMessage message, final Value value) throws Exception
+      {
+         operand.evaluate(message, value);
+
+         if (value.type == NULL)
+         {
+            return;
+         }
+
+         if (value.type != SIMPLE_STRING)
+         {
+            throw badObject(value.type);
+         }
+
+         value.setBoolean(pattern.isMatch(value.stringValue) != not);
+      }
+   }
+
+   private static final class IsNull extends Node
+   {
+      private final boolean not;
+
+      private final Node operand;
+
+      IsNull(final boolean not, final Node operand)
+      {
+         this.not = not;
+         this.operand = operand;
+      }
+
+      @Override
+      void evaluate(final ServerMessage message, final Value value) throws Exception
+      {
+         operand.evaluate(message, value);
+
+         value.setBoolean((value.type == NULL) != not);
+      }
+   }
+
+   private static final class In extends Node
+   {
+      private final boolean not;
+
+      private final Node operand;
+
+      private final Set<?> set;
+
+      In(final boolean not, final Node operand, final Set<?> set)
+      {
+         this.not = not;
+         this.operand = operand;
+         this.set = set;
+      }
+
+      @Override
+      void evaluate(final ServerMessage message, final Value value) throws Exception
+      {
+         operand.evaluate(message, value);
+
+         if (value.type == NULL)
+         {
+            // x IN (...) is false for a null value, but NOT IN is unknown
+            if (!not)
+            {
+               value.setBoolean(false);
+            }
+            return;
+         }
+
+         if (value.type != SIMPLE_STRING)
+         {
+            throw badObject(value.type);
+         }
+
+         value.setBoolean(set.contains(value.stringValue) != not);
+      }
+   }
+}
@@ -70,6 +70,12 @@ public class FilterImpl implements Filter
 
    private final Class<? extends Object> resultType;
 
+   /** null if the filter can only be interpreted */
+   private final FilterCompiler.CompiledFilter compiled;
+
+   /** null if the filter can't be looked up on an index */
+   private final IndexablePredicate indexablePredicate;
+
    // Static ---------------------------------------------------------
 
    /**
@@ -100,6 +106,11 @@ public class FilterImpl implements Filter
    // Constructors ---------------------------------------------------
 
    private FilterImpl(final SimpleString str) throws HornetQException
+   {
+      this(str, true);
+   }
+
+   FilterImpl(final SimpleString str, final boolean compile) throws HornetQException
    {
       sfilterString = str;
 
@@ -115,6 +126,10 @@ public class FilterImpl implements Filter
 
          throw HornetQMessageBundle.BUNDLE.invalidFilter(e, str);
       }
+
+      compiled = compile ? FilterCompiler.compile(result) : null;
+
+      indexablePredicate = IndexablePredicate.extract(result);
    }
 
    // Filter implementation ---------------------------------------------------------------------
@@ -124,44 +139,16 @@ public class FilterImpl implements Filter
       return sfilterString;
    }
 
-   public synchronized boolean match(final ServerMessage message)
+   public boolean match(final ServerMessage message)
    {
-      try
+      if (compiled == null)
       {
-         // Set the identifiers values
-
-         for (Identifier id : identifiers.values())
-         {
-            Object val = null;
-
-            if (id.getName().startsWith(FilterConstants.HORNETQ_PREFIX))
-            {
-               // Look it up as header fields
-               val = getHeaderFieldValue(message, id.getName());
-            }
-
-            if (val == null)
-            {
-               val = message.getObjectProperty(id.getName());
-            }
-
-            id.setValue(val);
-
-         }
+         return interpret(message);
+      }
 
-         if (resultType.equals(Identifier.class))
-         {
-            return (Boolean)((Identifier)result).getValue();
-         }
-         else if (resultType.equals(Operator.class))
-         {
-            Operator op = (Operator)result;
-            return (Boolean)op.apply();
-         }
-         else
-         {
-            throw new Exception("Bad object type: " + result);
-         }
+      try
+      {
+         return compiled.match(message);
       }
       catch (Exception e)
       {
@@ -171,6 +158,20 @@ public class FilterImpl implements Filter
       }
    }
 
+   /**
+    * @return the condition a message must meet to match this filter that can be looked up on a hash index, or null if
+    *         there is none
+    */
+   public IndexablePredicate getIndexablePredicate()
+   {
+      return indexablePredicate;
+   }
+
+   boolean isCompiled()
+   {
+      return compiled != null;
+   }
+
    @Override
    public int hashCode()
    {
@@ -208,6 +209,56 @@ public class FilterImpl implements Filter
 
    // Private --------------------------------------------------------------------------
 
+   /**
+    * The parsed tree keeps the values of the identifiers and intermediate results, hence the synchronization
+    */
+   private synchronized boolean interpret(final ServerMessage message)
+   {
+      try
+      {
+         // Set the identifiers values
+
+         for (Identifier id : identifiers.values())
+         {
+            Object val = null;
+
+            if (id.getName().startsWith(FilterConstants.HORNETQ_PREFIX))
+            {
+               // Look it up as header fields
+               val = getHeaderFieldValue(message, id.getName());
+            }
+
+            if (val == null)
+            {
+               val = message.getObjectProperty(id.getName());
+            }
+
+            id.setValue(val);
+
+         }
+
+         if (resultType.equals(Identifier.class))
+         {
+            return (Boolean)((Identifier)result).getValue();
+         }
+         else if (resultType.equals(Operator.class))
+         {
+            Operator op = (Operator)result;
+            return (Boolean)op.apply();
+         }
+         else
+         {
+            throw new Exception("Bad object type: " + result);
+         }
+      }
+      catch (Exception e)
+      {
+         HornetQLogger.LOGGER.invalidFilter(e, sfilterString);
+
+         return false;
+      }
+   }
+
    private Object getHeaderFieldValue(final ServerMessage msg, final SimpleString fieldName)
    {
       if (FilterConstants.HORNETQ_USERID.equals(fieldName))
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.filter.impl;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.hornetq.api.core.FilterConstants;
+import org.hornetq.api.core.SimpleString;
+import org.hornetq.core.server.ServerMessage;
+import org.hornetq.utils.TypedProperties;
+
+/**
+ * A condition of a filter that can be looked up on a hash index: the filter can only match a message whose property
+ * holds one of a set of values.
+ * <p>
+ * It is taken from the top of the parsed tree: an equality between a property and a string or integer literal, or an
+ * IN on a property, possibly on one side of an AND, or on both sides of an OR on the same property. The filter still
+ * has to be evaluated on the messages found through the index, for the rest of its expression.
+ * <p>
+ * Values are kept as their {@link #getKey(ServerMessage, SimpleString) key}, so the numeric types of the message
+ * property find the integer literals they are equal to.
+ */
+public final class IndexablePredicate
+{
+   // Integers up to this magnitude are represented exactly as a double
+   private static final long MAX_EXACT_DOUBLE = 1L << 53;
+
+   private final SimpleString property;
+
+   private final Set<Object> values;
+
+   private IndexablePredicate(final SimpleString property, final Set<Object> values)
+   {
+      this.property = property;
+      this.values = Collections.unmodifiableSet(values);
+   }
+
+   public SimpleString getProperty()
+   {
+      return property;
+   }
+
+   /**
+    * @return the keys of the values the property must hold
+    */
+   public Set<Object> getValues()
+   {
+      return values;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "IndexablePredicate [property=" + property + ", values=" + values + "]";
+   }
+
+   /**
+    * @return the key to look up for the value of the property on the message, or null if the property can't be equal to
+    *         a value of any predicate
+    */
+   public static Object getKey(final ServerMessage message, final SimpleString property)
+   {
+      KeyReader reader = new KeyReader();
+
+      message.getTypedProperties().readProperty(property, reader);
+
+      return reader.key;
+   }
+
+   /**
+    * @param tree the result of {@link FilterParser#parse(SimpleString, java.util.Map)}
+    * @return null if the filter can't be indexed
+    */
+   static IndexablePredicate extract(final Object tree)
+   {
+      if (!(tree instanceof Operator))
+      {
+         return null;
+      }
+
+      Operator operator = (Operator)tree;
+
+      switch (operator.operation)
+      {
+         case Operator.EQUAL:
+         {
+            IndexablePredicate predicate = equality(operator.oper1, operator.oper2);
+            return predicate != null ? predicate : equality(operator.oper2, operator.oper1);
+         }
+         case Operator.IN:
+         {
+            SimpleString name = propertyName(operator.oper1);
+            if (name == null || !(operator.oper2 instanceof Set))
+            {
+               return null;
+            }
+            Set<Object> values = new HashSet<Object>();
+            for (Object value : (Set<?>)operator.oper2)
+            {
+               if (!(value instanceof SimpleString))
+               {
+                  return null;
+               }
+               values.add(value);
+            }
+            return new IndexablePredicate(name, values);
+         }
+         case Operator.AND:
+         {
+            // Either side is enough to select the candidates, the one with less values is more selective
+            IndexablePredicate left = extract(operator.oper1);
+            IndexablePredicate right = extract(operator.oper2);
+            if (left == null)
+            {
+               return right;
+            }
+            if (right == null)
+            {
+               return left;
+            }
+            return left.values.size() <= right.values.size() ? left : right;
+         }
+         case Operator.OR:
+         {
+            IndexablePredicate left = extract(operator.oper1);
+            IndexablePredicate right = extract(operator.oper2);
+            if (left == null || right == null || !left.property.equals(right.property))
+            {
+               return null;
+            }
+            Set<Object> values = new HashSet<Object>(left.values);
+            values.addAll(right.values);
+            return new IndexablePredicate(left.property, values);
+         }
+         default:
+            return null;
+      }
+   }
+
+   private static IndexablePredicate equality(final Object identifier, final Object literal)
+   {
+      SimpleString name = propertyName(identifier);
+
+      if (name == null)
+      {
+         return null;
+      }
+
+      Object key;
+
+      if (literal instanceof SimpleString)
+      {
+         key = literal;
+      }
+      else if (literal instanceof Long && Math.abs(((Long)literal).longValue()) < MAX_EXACT_DOUBLE)
+      {
+         key = literal;
+      }
+      else
+      {
+         return null;
+      }
+
+      Set<Object> values = new HashSet<Object>();
+      values.add(key);
+      return new IndexablePredicate(name, values);
+   }
+
+   /**
+    * @return the name of the message property, or null if the node is not an identifier for a property
+    */
+   private static SimpleString propertyName(final Object node)
+   {
+      if (!(node instanceof Identifier))
+      {
+         return null;
+      }
+
+      SimpleString name = ((Identifier)node).getName();
+
+      // The headers are not looked up as properties, see FilterImpl#getHeaderFieldValue
+      if (name.startsWith(FilterConstants.HORNETQ_PREFIX))
+      {
+         return null;
+      }
+
+      return name;
+   }
+
+   /**
+    * Turns the value of the property into its key, on the same lookup as its type.
+    */
+   private static final class KeyReader implements TypedProperties.PropertyReader
+   {
+      private Object key;
+
+      public void setNull()
+      {
+      }
+
+      public void setLong(final long value)
+      {
+         key = Long.valueOf(value);
+      }
+
+      public void setDouble(final double value)
+      {
+         // Compared with an integer literal as a double
+         if (value == Math.rint(value) && Math.abs(value) < MAX_EXACT_DOUBLE)
+         {
+            key = Long.valueOf((long)value);
+         }
+      }
+
+      public void setBoolean(final boolean value)
+      {
+      }
+
+      public void setString(final SimpleString value)
+      {
+         key = value;
+      }
+   }
+}
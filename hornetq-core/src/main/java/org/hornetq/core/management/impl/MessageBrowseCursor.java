@@ -0,0 +1,199 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.management.impl;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.hornetq.core.filter.Filter;
+import org.hornetq.core.server.MessageReference;
+import org.hornetq.core.server.Queue;
+import org.hornetq.utils.LinkedListIterator;
+
+/**
+ * Browses the messages of a queue matching a filter, paged messages included, across several management calls.
+ * <p>
+ * The messages are read on the executor of the queue a slice at a time, so the deliveries of the queue go on between
+ * the slices, and a call reads a bounded number of messages whatever the number of them matching.
+ */
+final class MessageBrowseCursor
+{
+   // The messages read by a single task on the executor of the queue
+   private static final int SLICE_SIZE = 1000;
+
+   // The messages read by a single call, a page may have less messages than asked for once they are read
+   private static final int MAX_READ = 100 * SLICE_SIZE;
+
+   private static final long TIMEOUT = 30000;
+
+   private final Queue queue;
+
+   private final Filter filter;
+
+   // Opened on the executor of the queue on the first slice
+   private volatile LinkedListIterator<MessageReference> iterator;
+
+   // The matching messages still to skip before the first one returned
+   private long toSkip;
+
+   private volatile boolean done;
+
+   // Set once the browse is given up, the slices still queued on the executor of the queue stop on it
+   private volatile boolean cancelled;
+
+   private volatile long lastUsed = System.currentTimeMillis();
+
+   MessageBrowseCursor(final Queue queue, final Filter filter, final long offset)
+   {
+      this.queue = queue;
+      this.filter = filter;
+      toSkip = offset;
+   }
+
+   /**
+    * Moves the cursor over the next messages matching the filter.
+    * @param limit the maximum number of messages to return
+    * @param refs the list the messages are added to, or {@code null} to only count them
+    * @return the number of matching messages read, the ones skipped included
+    */
+   long browse(final int limit, final List<MessageReference> refs) throws Exception
+   {
+      final CountDownLatch latch = new CountDownLatch(1);
+
+      final long[] matched = new long[1];
+
+      final Exception[] error = new Exception[1];
+
+      queue.getExecutor().execute(new Runnable()
+      {
+         private int read;
+
+         public void run()
+         {
+            try
+            {
+               if (cancelled)
+               {
+                  latch.countDown();
+
+                  return;
+               }
+
+               if (iterator == null)
+               {
+                  iterator = queue.browserIterator();
+               }
+
+               int slice = 0;
+
+               while (slice < SLICE_SIZE && (refs == null || refs.size() < limit))
+               {
+                  if (!iterator.hasNext())
+                  {
+                     done = true;
+
+                     break;
+                  }
+
+                  MessageReference ref = iterator.next();
+
+                  slice++;
+
+                  if (filter == null || filter.match(ref.getMessage()))
+                  {
+                     matched[0]++;
+
+                     if (toSkip > 0)
+                     {
+                        toSkip--;
+                     }
+                     else if (refs != null)
+                     {
+                        refs.add(ref);
+                     }
+                  }
+               }
+
+               read += slice;
+
+               if (done || refs != null && refs.size() >= limit || read >= MAX_READ)
+               {
+                  latch.countDown();
+               }
+               else
+               {
+                  // Back at the end of the executor, after whatever was queued during the slice
+                  queue.getExecutor().execute(this);
+               }
+            }
+            catch (Exception e)
+            {
+               error[0] = e;
+
+               latch.countDown();
+            }
+         }
+      });
+
+      if (!latch.await(TIMEOUT, TimeUnit.MILLISECONDS))
+      {
+         cancelled = true;
+
+         throw new IllegalStateException("Timed out browsing queue " + queue.getName());
+      }
+
+      if (error[0] != null)
+      {
+         throw error[0];
+      }
+
+      lastUsed = System.currentTimeMillis();
+
+      return matched[0];
+   }
+
+   boolean isDone()
+   {
+      return done;
+   }
+
+   long getLastUsed()
+   {
+      return lastUsed;
+   }
+
+   /**
+    * Stops the browse, the iterator is closed on the executor of the queue after any slice still running.
+    */
+   void close()
+   {
+      cancelled = true;
+
+      queue.getExecutor().execute(new Runnable()
+      {
+         public void run()
+         {
+            LinkedListIterator<MessageReference> toClose = iterator;
+
+            if (toClose != null)
+            {
+               iterator = null;
+
+               toClose.close();
+            }
+         }
+      });
+   }
+}
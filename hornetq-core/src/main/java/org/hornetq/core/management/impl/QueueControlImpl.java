@@ -15,6 +15,9 @@ package org.hornetq.core.management.impl;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -40,6 +43,7 @@ import org.hornetq.core.server.ServerConsumer;
 import org.hornetq.core.settings.HierarchicalRepository;
 import org.hornetq.core.settings.impl.AddressSettings;
 import org.hornetq.utils.LinkedListIterator;
+import org.hornetq.utils.UUIDGenerator;
 import org.hornetq.utils.json.JSONArray;
 import org.hornetq.utils.json.JSONObject;
 
@@ -53,6 +57,11 @@ public class QueueControlImpl extends AbstractControl implements QueueControl
 {
    // Constants -----------------------------------------------------
 
+   // How long a browse continuation is kept without being used
+   private static final long BROWSE_TIMEOUT = 5 * 60 * 1000;
+
+   private static final int FILTER_CACHE_SIZE = 16;
+
    // Attributes ----------------------------------------------------
 
    private final Queue queue;
@@ -65,6 +74,21 @@ public class QueueControlImpl extends AbstractControl implements QueueControl
 
    private MessageCounter counter;
 
+   // The browses not done yet, by continuation token
+   private final Map<String, MessageBrowseCursor> browseCursors = new HashMap<String, MessageBrowseCursor>();
+
+   // The filters used last, so the ones used again by monitoring tools aren't parsed on every call
+   private final Map<String, Filter> filters = new LinkedHashMap<String, Filter>(FILTER_CACHE_SIZE, 0.75f, true)
+   {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<String, Filter> eldest)
+      {
+         return size() > FILTER_CACHE_SIZE;
+      }
+   };
+
    // Static --------------------------------------------------------
 
    private static String toJSON(final Map<String, Object>[] messages)
@@ -392,7 +416,7 @@ public class QueueControlImpl extends AbstractControl implements QueueControl
       clearIO();
       try
       {
-         Filter filter = FilterImpl.createFilter(filterStr);
+         Filter filter = getFilter(filterStr);
          List<Map<String, Object>> messages = new ArrayList<Map<String, Object>>();
          queue.flushExecutor();
          LinkedListIterator<MessageReference> iterator = queue.iterator();
@@ -446,32 +470,112 @@ public class QueueControlImpl extends AbstractControl implements QueueControl
       clearIO();
       try
       {
-         Filter filter = FilterImpl.createFilter(filterStr);
+         Filter filter = getFilter(filterStr);
          if (filter == null)
          {
             return getMessageCount();
          }
          else
          {
-            LinkedListIterator<MessageReference> iterator = queue.iterator();
+            // Every message of the queue is read, paged ones included, a slice at a time on the executor of the queue
+            MessageBrowseCursor cursor = new MessageBrowseCursor(queue, filter, 0);
             try
             {
-               int count = 0;
-               while (iterator.hasNext())
+               long count = 0;
+               while (!cursor.isDone())
                {
-                  MessageReference ref = iterator.next();
-                  if (filter.match(ref.getMessage()))
-                  {
-                     count++;
-                  }
+                  count += cursor.browse(0, null);
                }
                return count;
             }
             finally
             {
-               iterator.close();
+               cursor.close();
+            }
+         }
+      }
+      finally
+      {
+         blockOnIO();
+      }
+   }
+
+   public String browseMessagesAsJSON(final String filterStr,
+                                      final String continuation,
+                                      final int offset,
+                                      final int limit) throws Exception
+   {
+      if (limit <= 0)
+      {
+         throw new IllegalArgumentException("The limit must be positive: " + limit);
+      }
+
+      if (offset < 0)
+      {
+         throw new IllegalArgumentException("The offset can't be negative: " + offset);
+      }
+
+      checkStarted();
+
+      clearIO();
+      try
+      {
+         closeExpiredBrowseCursors();
+
+         MessageBrowseCursor cursor;
+
+         if (continuation == null || continuation.length() == 0)
+         {
+            cursor = new MessageBrowseCursor(queue, getFilter(filterStr), offset);
+         }
+         else
+         {
+            cursor = takeBrowseCursor(continuation);
+         }
+
+         List<MessageReference> refs = new ArrayList<MessageReference>();
+
+         try
+         {
+            cursor.browse(limit, refs);
+         }
+         catch (Exception e)
+         {
+            cursor.close();
+
+            throw e;
+         }
+
+         JSONArray messages = new JSONArray();
+         for (MessageReference ref : refs)
+         {
+            messages.put(new JSONObject(ref.getMessage().toMap()));
+         }
+
+         JSONObject page = new JSONObject();
+         page.put("messages", messages);
+
+         if (cursor.isDone())
+         {
+            cursor.close();
+         }
+         else
+         {
+            String token = UUIDGenerator.getInstance().generateStringUUID();
+
+            synchronized (browseCursors)
+            {
+               browseCursors.put(token, cursor);
             }
+
+            page.put("continuation", token);
          }
+
+         return page.toString();
+      }
+      catch (HornetQException e)
+      {
+         throw new IllegalStateException(e.getMessage());
       }
       finally
       {
@@ -859,6 +963,80 @@ public class QueueControlImpl extends AbstractControl implements QueueControl
 
    // Private -------------------------------------------------------
 
+   private Filter getFilter(final String filterStr) throws HornetQException
+   {
+      if (filterStr == null || filterStr.trim().length() == 0)
+      {
+         return null;
+      }
+
+      synchronized (filters)
+      {
+         Filter filter = filters.get(filterStr);
+
+         if (filter == null)
+         {
+            filter = FilterImpl.createFilter(filterStr);
+
+            filters.put(filterStr, filter);
+         }
+
+         return filter;
+      }
+   }
+
+   /**
+    * Closes the browses left unused, so they don't hold their iterator on the queue.
+    */
+   private void closeExpiredBrowseCursors()
+   {
+      List<MessageBrowseCursor> expired = new ArrayList<MessageBrowseCursor>();
+
+      synchronized (browseCursors)
+      {
+         long now = System.currentTimeMillis();
+
+         Iterator<MessageBrowseCursor> iterator = browseCursors.values().iterator();
+
+         while (iterator.hasNext())
+         {
+            MessageBrowseCursor browseCursor = iterator.next();
+
+            if (now - browseCursor.getLastUsed() > BROWSE_TIMEOUT)
+            {
+               iterator.remove();
+
+               expired.add(browseCursor);
+            }
+         }
+      }
+
+      for (MessageBrowseCursor browseCursor : expired)
+      {
+         browseCursor.close();
+      }
+   }
+
+   /**
+    * Takes the cursor of a continuation token out of the browses not done yet.
+    */
+   private MessageBrowseCursor takeBrowseCursor(final String continuation)
+   {
+      MessageBrowseCursor cursor;
+
+      synchronized (browseCursors)
+      {
+         cursor = browseCursors.remove(continuation);
+      }
+
+      if (cursor == null)
+      {
+         throw new IllegalArgumentException("No browse for continuation " + continuation + ", it may have expired");
+      }
+
+      return cursor;
+   }
+
    private void checkStarted()
    {
       if (!postOffice.isStarted())
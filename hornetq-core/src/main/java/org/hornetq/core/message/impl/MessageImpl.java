@@ -87,6 +87,9 @@ public abstract class MessageImpl implements MessageInternal
 
    private boolean bufferUsed;
 
+   // A copy of this message shares the bytes of the buffer, so they must be copied before being changed
+   private boolean bufferShared;
+
    private UUID userID;
 
    // Constructors --------------------------------------------------
@@ -162,13 +165,19 @@ public abstract class MessageImpl implements MessageInternal
 
          if (other.buffer != null)
          {
-            createBody(other.buffer.capacity());
-
-            // We need to copy the underlying buffer too, since the different messsages thereafter might have different
-            // properties set on them, making their encoding different
-            buffer = other.buffer.copy(0, other.buffer.capacity());
+            // The messages share the bytes of the buffer until one of them needs to change it: the different messages
+            // thereafter might have different properties set on them, making their encoding different.
+            // Marking the copy as used makes encodeToBuffer copy the buffer before re-encoding it, and marking it
+            // as not copied makes a change on the body buffer do the same. The other message keeps delivering its
+            // buffer as before, it only copies it before changing it
+            buffer = other.buffer.duplicate();
 
             buffer.setIndex(other.buffer.readerIndex(), other.buffer.writerIndex());
+
+            bufferUsed = true;
+            copied = false;
+
+            other.bufferShared = true;
          }
       }
    }
@@ -241,7 +250,9 @@ public abstract class MessageImpl implements MessageInternal
       expiration = buffer.readLong();
       timestamp = buffer.readLong();
       priority = buffer.readByte();
-      properties.decode(buffer);
+      // The server only reads a few properties (routing, filters) and most messages go out the way they came in, so
+      // the properties are only decoded there when needed
+      properties.decode(buffer, isServerMessage());
    }
 
    public void copyHeadersAndProperties(final MessageInternal msg)
@@ -441,7 +452,7 @@ public abstract class MessageImpl implements MessageInternal
 
    public synchronized void checkCopy()
    {
-      if (!copied)
+      if (!copied || bufferShared)
       {
          forceCopy();
 
@@ -900,7 +911,7 @@ public abstract class MessageImpl implements MessageInternal
    {
       if (!bufferValid)
       {
-         if (bufferUsed)
+         if (bufferUsed || bufferShared)
          {
             // Cannot use same buffer - must copy
 
@@ -977,6 +988,8 @@ public abstract class MessageImpl implements MessageInternal
       }
 
       bufferUsed = false;
+
+      bufferShared = false;
    }
 
    // Inner classes -------------------------------------------------
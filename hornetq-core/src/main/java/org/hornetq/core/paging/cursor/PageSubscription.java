@@ -54,6 +54,13 @@ public interface PageSubscription
 
    public LinkedListIterator<PagedReference> iterator();
 
+   /**
+    * An iterator for browsing the paged messages of the subscription, which doesn't acknowledge nor redeliver
+    * anything.
+    * @param start the position to browse after, or {@code null} to browse from the first message not acknowledged
+    */
+   LinkedListIterator<PagedReference> browserIterator(PagePosition start);
+
    // To be called when the cursor is closed for good. Most likely when the queue is deleted
    void destroy() throws Exception;
 
@@ -29,6 +29,7 @@ import org.hornetq.core.paging.cursor.PageSubscription;
 import org.hornetq.core.paging.cursor.PagedReference;
 import org.hornetq.core.paging.cursor.PagedReferenceImpl;
 import org.hornetq.core.paging.impl.Page;
+import org.hornetq.core.paging.impl.PageReader;
 import org.hornetq.core.persistence.StorageManager;
 import org.hornetq.core.server.HornetQLogger;
 import org.hornetq.utils.FutureLatch;
@@ -48,6 +49,9 @@ public class PageCursorProviderImpl implements PageCursorProvider
 {
    // Constants -----------------------------------------------------
 
+   // The indexes are only 4 bytes per message, so many more of them are kept than of pages
+   private static final int INDEX_CACHE_SIZE = 1000;
+
    boolean isTrace = HornetQLogger.LOGGER.isTraceEnabled();
 
    // Attributes ----------------------------------------------------
@@ -61,6 +65,9 @@ public class PageCursorProviderImpl implements PageCursorProvider
 
    private final SoftValueHashMap<Long, PageCache> softCache;
 
+   // Offsets of the messages on the pages, so a single message can be read without reading the entire page
+   private final SoftValueHashMap<Long, PageIndex> indexCache = new SoftValueHashMap<Long, PageIndex>(INDEX_CACHE_SIZE);
+
    private final ConcurrentMap<Long, PageSubscription> activeCursors = new ConcurrentHashMap<Long, PageSubscription>();
 
    // Static --------------------------------------------------------
@@ -113,7 +120,24 @@ public class PageCursorProviderImpl implements PageCursorProvider
 
    public PagedMessage getMessage(final PagePosition pos) throws Exception
    {
-      PageCache cache = getPageCache(pos);
+      PageCache cache;
+
+      synchronized (softCache)
+      {
+         cache = softCache.get(pos.getPageNr());
+      }
+
+      if (cache == null)
+      {
+         // This is usually a reference that was released from memory, there's no need to read the entire page for it
+         PagedMessage msg = readMessage(pos);
+         if (msg != null)
+         {
+            return msg;
+         }
+      }
+
+      cache = getPageCache(pos);
 
       if (pos.getMessageNr() >= cache.getNumberOfMessages())
       {
@@ -476,7 +500,7 @@ public class PageCursorProviderImpl implements PageCursorProvider
                try
                {
                   depagedPage.open();
-                  pgdMessagesList = depagedPage.read(storageManager);
+                  pgdMessagesList = readLargeMessages(depagedPage);
                }
                finally
                {
@@ -527,6 +551,11 @@ public class PageCursorProviderImpl implements PageCursorProvider
 
    protected void onDeletePage(Page deletedPage) throws Exception
    {
+      synchronized (indexCache)
+      {
+         indexCache.remove((long)deletedPage.getPageId());
+      }
+
       List<PageSubscription> subscriptions = cloneSubscriptions();
       for (PageSubscription subs: subscriptions)
       {
@@ -584,6 +613,96 @@ public class PageCursorProviderImpl implements PageCursorProvider
 
    // Private -------------------------------------------------------
 
+   /**
+    * Reads a single message from a page that is not on the cache, using the index of the page.
+    *
+    * @return null if the message couldn't be read this way
+    */
+   private PagedMessage readMessage(final PagePosition pos) throws Exception
+   {
+      final long pageId = pos.getPageNr();
+
+      // The page being written is always on the cache
+      if (pageId >= pagingStore.getCurrentWritingPage() || !pagingStore.checkPageFileExists((int)pageId))
+      {
+         return null;
+      }
+
+      Page page = null;
+
+      storageManager.beforePageRead();
+
+      try
+      {
+         page = pagingStore.createPage((int)pageId);
+
+         page.open();
+
+         PageIndex index;
+
+         synchronized (indexCache)
+         {
+            index = indexCache.get(pageId);
+         }
+
+         if (index == null)
+         {
+            index = new PageIndex(page.readIndex(storageManager));
+
+            synchronized (indexCache)
+            {
+               indexCache.put(pageId, index);
+            }
+         }
+
+         List<PagedMessage> messages = page.read(storageManager, index.offsets, pos.getMessageNr(), 1);
+
+         return messages.isEmpty() ? null : messages.get(0);
+      }
+      finally
+      {
+         try
+         {
+            if (page != null)
+            {
+               page.close();
+            }
+         }
+         catch (Throwable ignored)
+         {
+         }
+         storageManager.afterPageRead();
+      }
+   }
+
+   /**
+    * Only large messages need to be released when a page is deleted, so the other messages are not kept in memory.
+    */
+   private List<PagedMessage> readLargeMessages(final Page page) throws Exception
+   {
+      List<PagedMessage> largeMessages = new ArrayList<PagedMessage>();
+
+      PageReader reader = page.newReader(storageManager);
+
+      try
+      {
+         PagedMessage msg;
+         while ((msg = reader.readMessage()) != null)
+         {
+            if (msg.getMessage().isLargeMessage())
+            {
+               largeMessages.add(msg);
+            }
+         }
+      }
+      finally
+      {
+         reader.close();
+      }
+
+      return largeMessages;
+   }
+
    /**
     * This method is synchronized because we want it to be atomic with the cursors being used
     */
@@ -615,4 +734,19 @@ public class PageCursorProviderImpl implements PageCursorProvider
 
    // Inner classes -------------------------------------------------
 
+   private static final class PageIndex implements SoftValueHashMap.ValueCache
+   {
+      private final int[] offsets;
+
+      PageIndex(final int[] offsets)
+      {
+         this.offsets = offsets;
+      }
+
+      public boolean isLive()
+      {
+         return false;
+      }
+   }
+
 }
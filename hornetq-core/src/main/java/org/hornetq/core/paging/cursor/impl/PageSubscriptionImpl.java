@@ -18,7 +18,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.ConcurrentModificationException;
 import java.util.HashMap;
-import java.util.LinkedHashSet;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -51,7 +51,8 @@ import org.hornetq.core.transaction.Transaction;
 import org.hornetq.core.transaction.TransactionOperationAbstract;
 import org.hornetq.core.transaction.TransactionPropertyIndexes;
 import org.hornetq.core.transaction.impl.TransactionImpl;
-import org.hornetq.utils.ConcurrentHashSet;
+import org.hornetq.utils.ConcurrentBitSet;
+import org.hornetq.utils.ConcurrentLongHashSet;
 import org.hornetq.utils.FutureLatch;
 import org.hornetq.utils.LinkedListIterator;
 /**
@@ -64,6 +65,9 @@ class PageSubscriptionImpl implements PageSubscription
 {
    // Constants -----------------------------------------------------
 
+   // Acks on a page are usually done by a single consumer, there's no need for the default number of sections
+   private static final int ACK_RECORDS_CONCURRENCY = 2;
+
    // Attributes ----------------------------------------------------
 
    private final boolean isTrace = HornetQLogger.LOGGER.isTraceEnabled();
@@ -281,11 +285,11 @@ class PageSubscriptionImpl implements PageSubscription
          }
 
          // it will delete the page ack records
-         for (PagePosition pos : infoPG.acks)
+         for (long recordID : infoPG.getAckRecords())
          {
-            if (pos.getRecordID() > 0)
+            if (recordID > 0)
             {
-               store.deleteCursorAcknowledgeTransactional(tx.getID(), pos.getRecordID());
+               store.deleteCursorAcknowledgeTransactional(tx.getID(), recordID);
                if (!persist)
                {
                   // only need to set it once
@@ -334,7 +338,13 @@ class PageSubscriptionImpl implements PageSubscription
    @Override
    public LinkedListIterator<PagedReference> iterator()
    {
-      return new CursorIterator();
+      return new CursorIterator(false, null);
+   }
+
+   @Override
+   public LinkedListIterator<PagedReference> browserIterator(final PagePosition start)
+   {
+      return new CursorIterator(true, start);
    }
 
    private PagedReference internalGetNext(final PagePosition pos)
@@ -411,28 +421,14 @@ class PageSubscriptionImpl implements PageSubscription
       {
          if (!entry.getValue().isPendingDelete())
          {
-            if (entry.getValue().acks.isEmpty())
+            PagePosition retValue = entry.getValue().getFirstAck();
+
+            if (retValue == null)
             {
                return new PagePositionImpl(entry.getKey(), -1);
             }
             else
             {
-               // The list is not ordered...
-               // This is only done at creation of the queue, so we just scan instead of keeping the list ordened
-               PagePosition retValue = null;
-
-               for (PagePosition pos : entry.getValue().acks)
-               {
-                  if (isTrace)
-                  {
-                     HornetQLogger.LOGGER.trace("Analizing " + pos);
-                  }
-                  if (retValue == null || retValue.getMessageNr() > pos.getMessageNr())
-                  {
-                     retValue = pos;
-                  }
-               }
-
                if (isTrace)
                {
                   HornetQLogger.LOGGER.trace("Returning initial position " + retValue);
@@ -638,13 +634,10 @@ class PageSubscriptionImpl implements PageSubscription
          {
             for (PageCursorInfo cursor : consumedPages.values())
             {
-               for (PagePosition info : cursor.acks)
+               for (long recordID : cursor.getAckRecords())
                {
-                  if (info.getRecordID() != 0)
-                  {
-                     isPersistent = true;
-                     store.deleteCursorAcknowledgeTransactional(tx, info.getRecordID());
-                  }
+                  isPersistent = true;
+                  store.deleteCursorAcknowledgeTransactional(tx, recordID);
                }
             }
          }
@@ -915,12 +908,18 @@ class PageSubscriptionImpl implements PageSubscription
 
       private final long pageId;
 
-      // Confirmed ACKs on this page
-      private final Set<PagePosition> acks = Collections.synchronizedSet(new LinkedHashSet<PagePosition>());
+      // Confirmed ACKs on this page, indexed by message number
+      private final ConcurrentBitSet acks;
+
+      // The journal records of the ACKs, to be deleted when the page is done
+      private final ConcurrentLongHashSet ackRecords = new ConcurrentLongHashSet(0, ACK_RECORDS_CONCURRENCY);
+
+      // ACKs before the first message of the page (negative message numbers), this is rarely used
+      private Set<PagePosition> bookmarks;
 
       private WeakReference<PageCache> cache;
 
-      private final Set<PagePosition> removedReferences = new ConcurrentHashSet<PagePosition>();
+      private final ConcurrentBitSet removedReferences;
 
       // The page was live at the time of the creation
       private final boolean wasLive;
@@ -956,6 +955,8 @@ class PageSubscriptionImpl implements PageSubscription
       {
          this.pageId = pageId;
          this.numberOfMessages = numberOfMessages;
+         acks = new ConcurrentBitSet(numberOfMessages);
+         removedReferences = new ConcurrentBitSet(numberOfMessages);
          if (cache != null)
          {
             wasLive = cache.isLive();
@@ -1017,12 +1018,54 @@ class PageSubscriptionImpl implements PageSubscription
 
       public boolean isRemoved(final PagePosition pos)
       {
-         return removedReferences.contains(pos);
+         if (pos.getMessageNr() < 0)
+         {
+            return hasBookmark(pos);
+         }
+         return removedReferences.get(pos.getMessageNr());
       }
 
       public void remove(final PagePosition position)
       {
-         removedReferences.add(position);
+         // there are no messages before the first one, so a negative position is never delivered
+         if (position.getMessageNr() >= 0)
+         {
+            removedReferences.set(position.getMessageNr());
+         }
+      }
+
+      /**
+       * @return the ACK with the lowest message number, or null if there are no ACKs on this page
+       */
+      public PagePosition getFirstAck()
+      {
+         synchronized (this)
+         {
+            if (bookmarks != null)
+            {
+               PagePosition retValue = null;
+               for (PagePosition pos : bookmarks)
+               {
+                  if (retValue == null || retValue.getMessageNr() > pos.getMessageNr())
+                  {
+                     retValue = pos;
+                  }
+               }
+               return retValue;
+            }
+         }
+
+         int messageNr = acks.nextSetBit(0);
+
+         return messageNr < 0 ? null : new PagePositionImpl(pageId, messageNr);
+      }
+
+      /**
+       * @return the IDs of the ACK records stored for this page
+       */
+      public long[] getAckRecords()
+      {
+         return ackRecords.values();
       }
 
       public void addACK(final PagePosition posACK)
@@ -1059,8 +1102,38 @@ class PageSubscriptionImpl implements PageSubscription
 
       private boolean internalAddACK(final PagePosition posACK)
       {
-         removedReferences.add(posACK);
-         return acks.add(posACK);
+         boolean added;
+
+         if (posACK.getMessageNr() < 0)
+         {
+            added = addBookmark(posACK);
+         }
+         else
+         {
+            removedReferences.set(posACK.getMessageNr());
+            added = acks.set(posACK.getMessageNr());
+         }
+
+         if (added && posACK.getRecordID() != 0)
+         {
+            ackRecords.add(posACK.getRecordID());
+         }
+
+         return added;
+      }
+
+      private synchronized boolean addBookmark(final PagePosition posACK)
+      {
+         if (bookmarks == null)
+         {
+            bookmarks = new HashSet<PagePosition>();
+         }
+         return bookmarks.add(posACK);
+      }
+
+      private synchronized boolean hasBookmark(final PagePosition pos)
+      {
+         return bookmarks != null && bookmarks.contains(pos);
       }
 
       /**
@@ -1146,6 +1219,9 @@ class PageSubscriptionImpl implements PageSubscription
 
    private class CursorIterator implements LinkedListIterator<PagedReference>
    {
+      // A browser only reads the messages, nothing is acknowledged or taken from the redeliveries
+      private final boolean browsing;
+
       private PagePosition position = null;
 
       private PagePosition lastOperation = null;
@@ -1158,8 +1234,11 @@ class PageSubscriptionImpl implements PageSubscription
        *  it has to be delivered on next next operation */
       private volatile PagedReference cachedNext;
 
-      public CursorIterator()
+      public CursorIterator(final boolean browsing, final PagePosition start)
       {
+         this.browsing = browsing;
+
+         position = start;
       }
 
       public void repeat()
@@ -1226,7 +1305,7 @@ class PageSubscriptionImpl implements PageSubscription
             {
                synchronized (redeliveries)
                {
-                  PagePosition redelivery = redeliveries.poll();
+                  PagePosition redelivery = browsing ? null : redeliveries.poll();
 
                   if (redelivery != null)
                   {
@@ -1285,6 +1364,10 @@ class PageSubscriptionImpl implements PageSubscription
                      valid = false;
                      ignored = true;
                   }
+                  else if (browsing)
+                  {
+                     valid = tx.isCommit();
+                  }
                   else
                   {
                      if (tx.deliverAfterCommit(PageSubscriptionImpl.this, message.getPosition()))
@@ -1309,7 +1392,7 @@ class PageSubscriptionImpl implements PageSubscription
                   }
                }
 
-               if (!ignored)
+               if (!ignored || browsing)
                {
                   position = message.getPosition();
                }
@@ -1318,12 +1401,12 @@ class PageSubscriptionImpl implements PageSubscription
                {
                   match = match(message.getMessage());
 
-                  if (!match)
+                  if (!match && !browsing)
                   {
                      processACK(message.getPosition());
                   }
                }
-               else if (ignored)
+               else if (ignored && !browsing)
                {
                   positionIgnored(message.getPosition());
                }
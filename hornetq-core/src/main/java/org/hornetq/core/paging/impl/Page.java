@@ -15,6 +15,7 @@ package org.hornetq.core.paging.impl;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -43,9 +44,9 @@ public class Page implements Comparable<Page>
 
    public static final int SIZE_RECORD = DataConstants.SIZE_BYTE + DataConstants.SIZE_INT + DataConstants.SIZE_BYTE;
 
-   private static final byte START_BYTE = (byte)'{';
+   static final byte START_BYTE = (byte)'{';
 
-   private static final byte END_BYTE = (byte)'}';
+   static final byte END_BYTE = (byte)'}';
 
    // Attributes ----------------------------------------------------
 
@@ -111,74 +112,108 @@ public class Page implements Comparable<Page>
       ArrayList<PagedMessage> messages = new ArrayList<PagedMessage>();
 
       size.set((int)file.size());
-      // Using direct buffer, as described on https://jira.jboss.org/browse/HORNETQ-467
-      ByteBuffer directBuffer = storage.allocateDirectBuffer((int)file.size());
+
+      PageReader reader = newReader(storage);
 
       try
       {
+         PagedMessage msg;
+         while ((msg = reader.readMessage()) != null)
+         {
+            if (isTrace)
+            {
+               HornetQLogger.LOGGER.trace("Reading message " + msg + " on pageId=" + this.pageId + " for address=" + storeName);
+            }
+            messages.add(msg);
+         }
+      }
+      finally
+      {
+         reader.close();
+      }
+
+      numberOfMessages.set(messages.size());
+
+      return messages;
+   }
+
+   /**
+    * Reads only the messages on [firstMessage, firstMessage + maxMessages).
+    *
+    * @param index the offsets of the messages, as returned by {@link #readIndex(StorageManager)}
+    */
+   public List<PagedMessage> read(final StorageManager storage,
+                                  final int[] index,
+                                  final int firstMessage,
+                                  final int maxMessages) throws Exception
+   {
+      ArrayList<PagedMessage> messages = new ArrayList<PagedMessage>(Math.max(0, Math.min(maxMessages, index.length -
+                                                                                                       firstMessage)));
 
-         file.position(0);
-         file.read(directBuffer);
+      if (firstMessage >= index.length)
+      {
+         return messages;
+      }
 
-         directBuffer.rewind();
+      PageReader reader = newReader(storage);
 
-         HornetQBuffer fileBuffer = HornetQBuffers.wrappedBuffer(directBuffer);
-         fileBuffer.writerIndex(fileBuffer.capacity());
+      try
+      {
+         reader.setPosition(index[firstMessage]);
 
-         while (fileBuffer.readable())
+         PagedMessage msg;
+         while (messages.size() < maxMessages && (msg = reader.readMessage()) != null)
          {
-            final int position = fileBuffer.readerIndex();
+            messages.add(msg);
+         }
+      }
+      finally
+      {
+         reader.close();
+      }
 
-            byte byteRead = fileBuffer.readByte();
+      return messages;
+   }
 
-            if (byteRead == Page.START_BYTE)
-            {
-               if (fileBuffer.readerIndex() + DataConstants.SIZE_INT < fileBuffer.capacity())
-               {
-                  int messageSize = fileBuffer.readInt();
-                  int oldPos = fileBuffer.readerIndex();
-                  if (fileBuffer.readerIndex() + messageSize < fileBuffer.capacity() &&
-                           fileBuffer.getByte(oldPos + messageSize) == Page.END_BYTE)
-                  {
-                     PagedMessage msg = new PagedMessageImpl();
-                     msg.decode(fileBuffer);
-                     byte b = fileBuffer.readByte();
-                     if (b != Page.END_BYTE)
-                     {
-                        // Sanity Check: This would only happen if there is a bug on decode or any internal code, as
-                        // this
-                        // constraint was already checked
-                        throw new IllegalStateException("Internal error, it wasn't possible to locate END_BYTE " + b);
-                     }
-                     msg.initMessage(storage);
-                     if (isTrace)
-                     {
-                        HornetQLogger.LOGGER.trace("Reading message " + msg + " on pageId=" + this.pageId + " for address=" + storeName);
-                     }
-                     messages.add(msg);
-                  }
-                  else
-                  {
-                     markFileAsSuspect(position, messages.size());
-                     break;
-                  }
-               }
-            }
-            else
+   /**
+    * Scans the page for the offset of each message, without decoding them.
+    */
+   public int[] readIndex(final StorageManager storage) throws Exception
+   {
+      int[] index = new int[16];
+
+      int count = 0;
+
+      PageReader reader = newReader(storage);
+
+      try
+      {
+         long offset;
+         while ((offset = reader.skipMessage()) >= 0)
+         {
+            if (count == index.length)
             {
-               markFileAsSuspect(position, messages.size());
-               break;
+               index = Arrays.copyOf(index, count * 2);
             }
+            index[count++] = (int)offset;
          }
       }
       finally
       {
-         storage.freeDirectBuffer(directBuffer);
+         reader.close();
       }
 
-      numberOfMessages.set(messages.size());
+      numberOfMessages.set(count);
 
-      return messages;
+      return Arrays.copyOf(index, count);
+   }
+
+   /**
+    * The page needs to be opened, and the reader closed after used.
+    */
+   public PageReader newReader(final StorageManager storage) throws Exception
+   {
+      return new PageReader(this, file, storage);
    }
 
    public void write(final PagedMessage message) throws Exception
@@ -356,7 +391,7 @@ public class Page implements Comparable<Page>
     * @param position
     * @param msgNumber
     */
-   private void markFileAsSuspect(final int position, final int msgNumber)
+   void markFileAsSuspect(final int position, final int msgNumber)
    {
       HornetQLogger.LOGGER.pageSuspectFile(position, msgNumber);
       suspiciousRecords = true;
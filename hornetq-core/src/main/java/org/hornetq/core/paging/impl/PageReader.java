@@ -0,0 +1,243 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.paging.impl;
+
+import java.nio.ByteBuffer;
+
+import org.hornetq.api.core.HornetQBuffer;
+import org.hornetq.api.core.HornetQBuffers;
+import org.hornetq.core.journal.SequentialFile;
+import org.hornetq.core.paging.PagedMessage;
+import org.hornetq.core.persistence.StorageManager;
+import org.hornetq.utils.DataConstants;
+
+/**
+ * Reads the records of a page file through a bounded buffer, decoding messages only when asked to.
+ * <p>
+ * Records can be read in sequence, or from an offset found on a previous read (see {@link Page#readIndex(StorageManager)}). The
+ * page file needs to be opened before the reader is created, and the reader must be closed to release its buffer.
+ */
+public class PageReader
+{
+   // Constants -----------------------------------------------------
+
+   private static final int READ_SIZE = 64 * 1024;
+
+   private static final int HEADER_SIZE = DataConstants.SIZE_BYTE + DataConstants.SIZE_INT;
+
+   // Attributes ----------------------------------------------------
+
+   private final Page page;
+
+   private final SequentialFile file;
+
+   private final StorageManager storage;
+
+   private final long fileSize;
+
+   // Using direct buffer, as described on https://jira.jboss.org/browse/HORNETQ-467
+   private ByteBuffer buffer;
+
+   private HornetQBuffer wrapped;
+
+   // The offset on the file of the bytes on the buffer
+   private long bufferStart;
+
+   private int bufferLength;
+
+   // The offset of the next record
+   private long position;
+
+   // Offset of the record found by the last call to nextRecord
+   private long recordStart = -1;
+
+   private int recordsRead;
+
+   // Constructors --------------------------------------------------
+
+   PageReader(final Page page, final SequentialFile file, final StorageManager storage) throws Exception
+   {
+      this.page = page;
+      this.file = file;
+      this.storage = storage;
+      fileSize = file.size();
+      allocate((int)Math.max(1, Math.min(fileSize, READ_SIZE)));
+   }
+
+   // Public --------------------------------------------------------
+
+   /**
+    * @return the offset of the next record on the file
+    */
+   public long getPosition()
+   {
+      return position;
+   }
+
+   /**
+    * @param position an offset returned by {@link #getPosition()} or recorded on the page index
+    */
+   public void setPosition(final long position)
+   {
+      this.position = position;
+      recordStart = -1;
+   }
+
+   /**
+    * @return the next message, or null if there are no more valid records on the page
+    */
+   public PagedMessage readMessage() throws Exception
+   {
+      if (!nextRecord())
+      {
+         return null;
+      }
+
+      PagedMessage msg = new PagedMessageImpl();
+
+      wrapped.readerIndex((int)(recordStart - bufferStart) + HEADER_SIZE);
+
+      msg.decode(wrapped);
+
+      byte b = wrapped.readByte();
+      if (b != Page.END_BYTE)
+      {
+         // Sanity Check: This would only happen if there is a bug on decode or any internal code, as this
+         // constraint was already checked
+         throw new IllegalStateException("Internal error, it wasn't possible to locate END_BYTE " + b);
+      }
+
+      msg.initMessage(storage);
+
+      return msg;
+   }
+
+   /**
+    * Moves over the next record without decoding it.
+    *
+    * @return the offset of the record skipped, or -1 if there are no more valid records on the page
+    */
+   public long skipMessage() throws Exception
+   {
+      if (!nextRecord())
+      {
+         return -1;
+      }
+
+      return recordStart;
+   }
+
+   public void close()
+   {
+      if (buffer != null)
+      {
+         storage.freeDirectBuffer(buffer);
+         buffer = null;
+         wrapped = null;
+      }
+   }
+
+   // Private -------------------------------------------------------
+
+   /**
+    * Validates the record at the current position, loading it on the buffer, and moves the position after it.
+    */
+   private boolean nextRecord() throws Exception
+   {
+      recordStart = -1;
+
+      if (position >= fileSize)
+      {
+         return false;
+      }
+
+      final long start = position;
+
+      if (!load(start, DataConstants.SIZE_BYTE) || wrapped.getByte((int)(start - bufferStart)) != Page.START_BYTE ||
+          start + HEADER_SIZE >= fileSize)
+      {
+         page.markFileAsSuspect((int)start, recordsRead);
+         position = fileSize;
+         return false;
+      }
+
+      load(start, HEADER_SIZE);
+
+      int messageSize = wrapped.getInt((int)(start - bufferStart) + DataConstants.SIZE_BYTE);
+
+      long end = start + HEADER_SIZE + messageSize;
+
+      if (messageSize < 0 || end >= fileSize || !load(start, HEADER_SIZE + messageSize + DataConstants.SIZE_BYTE) ||
+          wrapped.getByte((int)(end - bufferStart)) != Page.END_BYTE)
+      {
+         page.markFileAsSuspect((int)start, recordsRead);
+         position = fileSize;
+         return false;
+      }
+
+      recordStart = start;
+      position = end + DataConstants.SIZE_BYTE;
+      recordsRead++;
+
+      return true;
+   }
+
+   /**
+    * Makes sure the bytes at [offset, offset + length) are on the buffer.
+    *
+    * @return false if the file ends before that
+    */
+   private boolean load(final long offset, final int length) throws Exception
+   {
+      if (offset >= bufferStart && offset + length <= bufferStart + bufferLength)
+      {
+         return true;
+      }
+
+      if (offset + length > fileSize)
+      {
+         return false;
+      }
+
+      if (length > buffer.capacity())
+      {
+         // A message larger than the buffer, the buffer will be kept with this size for the next records
+         storage.freeDirectBuffer(buffer);
+         allocate(Math.max(length, READ_SIZE));
+      }
+
+      buffer.clear();
+      buffer.limit((int)Math.min(buffer.capacity(), fileSize - offset));
+
+      file.position(offset);
+      file.read(buffer);
+
+      bufferStart = offset;
+      bufferLength = buffer.limit();
+
+      wrapped.setIndex(0, bufferLength);
+
+      return bufferLength >= length;
+   }
+
+   private void allocate(final int size)
+   {
+      buffer = storage.allocateDirectBuffer(size);
+      buffer.clear();
+      wrapped = HornetQBuffers.wrappedBuffer(buffer);
+      bufferStart = 0;
+      bufferLength = 0;
+   }
+
+}
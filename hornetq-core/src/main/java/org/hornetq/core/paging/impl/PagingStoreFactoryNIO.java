@@ -28,6 +28,7 @@ import java.util.concurrent.ScheduledExecutorService;
 import org.hornetq.api.core.SimpleString;
 import org.hornetq.core.journal.IOCriticalErrorListener;
 import org.hornetq.core.journal.SequentialFileFactory;
+import org.hornetq.core.journal.impl.MappedSequentialFileFactory;
 import org.hornetq.core.journal.impl.NIOSequentialFileFactory;
 import org.hornetq.core.paging.PagingManager;
 import org.hornetq.core.paging.PagingStore;
@@ -51,7 +52,7 @@ public class PagingStoreFactoryNIO implements PagingStoreFactory
 
    // Constants -----------------------------------------------------
 
-   private static final String ADDRESS_FILE = "address.txt";
+   public static final String ADDRESS_FILE = "address.txt";
 
    // Attributes ----------------------------------------------------
 
@@ -73,6 +74,9 @@ public class PagingStoreFactoryNIO implements PagingStoreFactory
 
    private final IOCriticalErrorListener critialErrorListener;
 
+   /** page files are written through a MappedSequentialFileFactory */
+   private final boolean mapped;
+
    // Static --------------------------------------------------------
 
    // Constructors --------------------------------------------------
@@ -92,6 +96,17 @@ public class PagingStoreFactoryNIO implements PagingStoreFactory
                                 final ExecutorFactory executorFactory,
                                 final boolean syncNonTransactional,
                                 final IOCriticalErrorListener critialErrorListener)
+   {
+      this(directory, syncTimeout, scheduledExecutor, executorFactory, syncNonTransactional, critialErrorListener, false);
+   }
+
+   public PagingStoreFactoryNIO(final String directory,
+                                final long syncTimeout,
+                                final ScheduledExecutorService scheduledExecutor,
+                                final ExecutorFactory executorFactory,
+                                final boolean syncNonTransactional,
+                                final IOCriticalErrorListener critialErrorListener,
+                                final boolean mapped)
    {
       this.directory = directory;
 
@@ -104,6 +119,8 @@ public class PagingStoreFactoryNIO implements PagingStoreFactory
       this.syncTimeout = syncTimeout;
 
       this.critialErrorListener = critialErrorListener;
+
+      this.mapped = mapped;
    }
 
    // Public --------------------------------------------------------
@@ -243,6 +260,12 @@ public class PagingStoreFactoryNIO implements PagingStoreFactory
 
    protected SequentialFileFactory newFileFactory(final String directoryName)
    {
+      if (mapped)
+      {
+         return new MappedSequentialFileFactory(directory + File.separatorChar + directoryName,
+                                                false,
+                                                critialErrorListener);
+      }
       return new NIOSequentialFileFactory(directory + File.separatorChar + directoryName, false, critialErrorListener);
    }
 
@@ -45,7 +45,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -860,6 +862,13 @@ public class PagingStoreImpl implements PagingStore
          }
       }
 
+      if (message.isLargeMessage())
+      {
+         // Copying a shared body can take a while, so it's done before locking. If the store stops paging meanwhile
+         // the message just keeps its own copy
+         ((LargeServerMessage) message).detachSharedBody();
+      }
+
       managerLock.lock();
       try
       {
@@ -1144,6 +1153,7 @@ public class PagingStoreImpl implements PagingStore
       lock(-1);
       try
       {
+         Map<Integer, SequentialFile> pages = new LinkedHashMap<Integer, SequentialFile>();
          for (Integer id : pageIds)
          {
             SequentialFile sFile = fileFactory.createSequentialFile(createFileName(id), 1);
@@ -1151,8 +1161,9 @@ public class PagingStoreImpl implements PagingStore
             {
                continue;
             }
-            replicator.syncPages(sFile, id, getAddress());
+            pages.put(id, sFile);
          }
+         replicator.syncPages(pages, getAddress());
       }
       finally
       {
@@ -157,6 +157,14 @@ public interface StorageManager extends HornetQComponent
 
    void storeDuplicateID(SimpleString address, byte[] duplID, long recordID) throws Exception;
 
+   /**
+    * Adds a record the duplicate ids of an address are then written on, as {@link #updateDuplicateIDs(List, long)}.
+    * @param cacheSize the id-cache-size of the address, only that many of its last ids are loaded
+    */
+   void storeDuplicateIDSegment(SimpleString address, int cacheSize, long recordID) throws Exception;
+
+   void updateDuplicateIDs(List<byte[]> duplIDs, long recordID) throws Exception;
+
    void deleteDuplicateID(long recordID) throws Exception;
 
    void storeMessageTransactional(long txID, ServerMessage message) throws Exception;
@@ -179,6 +187,10 @@ public interface StorageManager extends HornetQComponent
 
    void updateDuplicateIDTransactional(long txID, SimpleString address, byte[] duplID, long recordID) throws Exception;
 
+   void storeDuplicateIDSegmentTransactional(long txID, SimpleString address, int cacheSize, long recordID) throws Exception;
+
+   void updateDuplicateIDsTransactional(long txID, List<byte[]> duplIDs, long recordID) throws Exception;
+
    void deleteDuplicateIDTransactional(long txID, long recordID) throws Exception;
 
    LargeServerMessage createLargeMessage();
@@ -23,6 +23,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -53,6 +54,7 @@ import org.hornetq.core.journal.IOCriticalErrorListener;
 import org.hornetq.core.journal.Journal;
 import org.hornetq.core.journal.JournalLoadInformation;
 import org.hornetq.core.journal.PreparedTransactionInfo;
+import org.hornetq.core.journal.RecordDataTrimmer;
 import org.hornetq.core.journal.RecordInfo;
 import org.hornetq.core.journal.SequentialFile;
 import org.hornetq.core.journal.SequentialFileFactory;
@@ -60,6 +62,7 @@ import org.hornetq.core.journal.TransactionFailureCallback;
 import org.hornetq.core.journal.impl.AIOSequentialFileFactory;
 import org.hornetq.core.journal.impl.JournalFile;
 import org.hornetq.core.journal.impl.JournalImpl;
+import org.hornetq.core.journal.impl.MappedSequentialFileFactory;
 import org.hornetq.core.journal.impl.JournalReaderCallback;
 import org.hornetq.core.journal.impl.NIOSequentialFileFactory;
 import org.hornetq.core.message.impl.MessageInternal;
@@ -172,6 +175,14 @@ public class JournalStorageManager implements StorageManager
 
    public static final byte PAGE_CURSOR_COMPLETE = 42;
 
+   // A message sharing the body file of a large message
+   private static final byte LARGE_MESSAGE_BODY_SHARE = 43;
+
+   // A record the duplicate ids of an address are written on as DUPLICATE_IDS updates
+   private static final byte DUPLICATE_ID_SEGMENT = 44;
+
+   private static final byte DUPLICATE_IDS = 45;
+
    private final Semaphore pageMaxConcurrentIO;
 
    private final BatchingIDGenerator idGenerator;
@@ -208,6 +219,8 @@ public class JournalStorageManager implements StorageManager
 
    private final Journal originalMessageJournal;
 
+   private final LazyMessageBodyCache lazyBodyCache;
+
    private final Journal originalBindingsJournal;
 
    private final SequentialFileFactory largeMessagesFactory;
@@ -246,6 +259,14 @@ public class JournalStorageManager implements StorageManager
    private final Map<SimpleString, PersistedAddressSetting> mapPersistedAddressSettings =
       new ConcurrentHashMap<SimpleString, PersistedAddressSetting>();
 
+   // Large message bodies shared by several messages: bodyID -> (messageID -> its share)
+   private final Map<Long, Map<Long, LargeMessageBodyShare>> sharedLargeMessageBodies =
+      new HashMap<Long, Map<Long, LargeMessageBodyShare>>();
+
+   // The share records stored in transactions not completed yet, by transaction ID
+   private final Map<Long, List<LargeMessageBodyShare>> transactionalBodyShares =
+      new ConcurrentHashMap<Long, List<LargeMessageBodyShare>>();
+
    public JournalStorageManager(final Configuration config, final ExecutorFactory executorFactory,
                                 final IOCriticalErrorListener criticalErrorListener)
    {
@@ -253,7 +274,8 @@ public class JournalStorageManager implements StorageManager
 
       executor = executorFactory.getExecutor();
 
-      if (config.getJournalType() != JournalType.NIO && config.getJournalType() != JournalType.ASYNCIO)
+      if (config.getJournalType() != JournalType.NIO && config.getJournalType() != JournalType.ASYNCIO &&
+               config.getJournalType() != JournalType.MAPPED)
       {
          throw HornetQMessageBundle.BUNDLE.invalidJournal();
       }
@@ -301,6 +323,7 @@ public class JournalStorageManager implements StorageManager
             config.getJournalBufferSize_AIO(),
             config.getJournalBufferTimeout_AIO(),
             config.isLogJournalWriteRate(),
+            config.isJournalLockFreeBuffer(),
             criticalErrorListener);
       }
       else if (config.getJournalType() == JournalType.NIO)
@@ -311,6 +334,18 @@ public class JournalStorageManager implements StorageManager
             config.getJournalBufferSize_NIO(),
             config.getJournalBufferTimeout_NIO(),
             config.isLogJournalWriteRate(),
+            config.isJournalLockFreeBuffer(),
+            criticalErrorListener);
+      }
+      else if (config.getJournalType() == JournalType.MAPPED)
+      {
+         HornetQLogger.LOGGER.journalUseMapped();
+         journalFF = new MappedSequentialFileFactory(journalDir,
+            true,
+            config.getJournalBufferSize_NIO(),
+            config.getJournalBufferTimeout_NIO(),
+            config.isLogJournalWriteRate(),
+            config.isJournalLockFreeBuffer(),
             criticalErrorListener);
       }
       else
@@ -320,7 +355,7 @@ public class JournalStorageManager implements StorageManager
 
       idGenerator = new BatchingIDGenerator(0, JournalStorageManager.CHECKPOINT_BATCH_SIZE, this);
 
-      Journal localMessage = new JournalImpl(config.getJournalFileSize(),
+      JournalImpl localMessage = new JournalImpl(config.getJournalFileSize(),
          config.getJournalMinFiles(),
          config.getJournalCompactMinFiles(),
          config.getJournalCompactPercentage(),
@@ -330,9 +365,28 @@ public class JournalStorageManager implements StorageManager
          config.getJournalType() == JournalType.ASYNCIO ? config.getJournalMaxIO_AIO()
             : config.getJournalMaxIO_NIO());
 
+      localMessage.setLoadParallelism(config.getJournalLoadThreads(), config.getJournalLoadPrefetch());
+
+      localMessage.setCheckpointPeriod(config.getJournalCheckpointPeriod());
+
       messageJournal = localMessage;
       originalMessageJournal = localMessage;
 
+      // Messages with a body of at least this size are loaded without it, when it is >= 0
+      int lazyBodySize = config.getJournalLazyBodySize();
+
+      // The bodies left on the journal are read back from the files of its directory, they are loaded otherwise
+      if (lazyBodySize >= 0 && localMessage.getFileFactory().getDirectory() != null)
+      {
+         lazyBodyCache = new LazyMessageBodyCache(localMessage, config.getJournalLazyBodyCacheSize());
+
+         localMessage.setLoadTrimmer(new MessageBodyTrimmer(lazyBodySize));
+      }
+      else
+      {
+         lazyBodyCache = null;
+      }
+
       largeMessagesDirectory = config.getLargeMessagesDirectory();
 
       largeMessagesFactory = new NIOSequentialFileFactory(largeMessagesDirectory, false, criticalErrorListener);
@@ -519,6 +573,7 @@ public class JournalStorageManager implements StorageManager
 
    private void sendLargeMessageFiles(Map<String, Long> largeMessageFilesToSync) throws Exception
    {
+      Map<Long, Pair<SequentialFile, Long>> largeMessages = new LinkedHashMap<Long, Pair<SequentialFile, Long>>();
       for (Entry<String, Long> entry : largeMessageFilesToSync.entrySet())
       {
          String fileName = entry.getKey();
@@ -526,10 +581,11 @@ public class JournalStorageManager implements StorageManager
          SequentialFile seqFile = largeMessagesFactory.createSequentialFile(fileName, 1);
          if (!seqFile.exists())
             continue;
-         if (!started)
-            return;
-         replicator.syncLargeMessageFile(seqFile, size, getLargeMessageIdFromFilename(fileName));
+         largeMessages.put(getLargeMessageIdFromFilename(fileName), new Pair<SequentialFile, Long>(seqFile, size));
       }
+      if (!started)
+         return;
+      replicator.syncLargeMessageFiles(largeMessages);
    }
 
    private long getLargeMessageIdFromFilename(String filename)
@@ -568,12 +624,9 @@ public class JournalStorageManager implements StorageManager
     */
    private void sendJournalFile(JournalFile[] journalFiles, JournalContent type) throws Exception
    {
-      for (JournalFile jf : journalFiles)
-      {
-         if (!started)
-            return;
-         replicator.syncJournalFile(jf, type);
-      }
+      if (!started)
+         return;
+      replicator.syncJournalFiles(journalFiles, type);
    }
 
    private JournalFile[] prepareJournalForCopy(Journal journal, JournalContent contentType, String nodeID,
@@ -744,6 +797,9 @@ public class JournalStorageManager implements StorageManager
 
          largeMessage.copyHeadersAndProperties(message);
 
+         // A message sent by a client can't share the body of a message on this server
+         largeMessage.removeProperty(LargeServerMessageImpl.HDR_LARGE_BODY_ID);
+
          largeMessage.setMessageID(id);
 
          if (largeMessage.isDurable())
@@ -830,6 +886,8 @@ public class JournalStorageManager implements StorageManager
 
          if (message.isLargeMessage())
          {
+            storeLargeMessageBodyShares(-1, message);
+
             messageJournal.appendAddRecord(message.getMessageID(), JournalStorageManager.ADD_LARGE_MESSAGE,
                new LargeMessageEncoding((LargeServerMessage)message), false,
                getContext(false));
@@ -958,6 +1016,44 @@ public class JournalStorageManager implements StorageManager
       }
    }
 
+   public void storeDuplicateIDSegment(final SimpleString address, final int cacheSize, final long recordID) throws Exception
+   {
+      readLock();
+      try
+      {
+         DuplicateIDSegmentEncoding encoding = new DuplicateIDSegmentEncoding(address, cacheSize);
+
+         messageJournal.appendAddRecord(recordID,
+            JournalStorageManager.DUPLICATE_ID_SEGMENT,
+            encoding,
+            syncNonTransactional,
+            getContext(syncNonTransactional));
+      }
+      finally
+      {
+         readUnLock();
+      }
+   }
+
+   public void updateDuplicateIDs(final List<byte[]> duplIDs, final long recordID) throws Exception
+   {
+      readLock();
+      try
+      {
+         DuplicateIDsEncoding encoding = new DuplicateIDsEncoding(duplIDs);
+
+         messageJournal.appendUpdateRecord(recordID,
+            JournalStorageManager.DUPLICATE_IDS,
+            encoding,
+            syncNonTransactional,
+            getContext(syncNonTransactional));
+      }
+      finally
+      {
+         readUnLock();
+      }
+   }
+
    public void deleteDuplicateID(final long recordID) throws Exception
    {
       readLock();
@@ -985,6 +1081,8 @@ public class JournalStorageManager implements StorageManager
       {
          if (message.isLargeMessage())
          {
+            storeLargeMessageBodyShares(txID, message);
+
             messageJournal.appendAddRecordTransactional(txID, message.getMessageID(),
                JournalStorageManager.ADD_LARGE_MESSAGE,
                new LargeMessageEncoding(((LargeServerMessage)message)));
@@ -1232,6 +1330,8 @@ public class JournalStorageManager implements StorageManager
             // syncTransactional = false
             getContext(true).done();
          }
+
+         completeLargeMessageBodyShares(txID, true);
       }
       finally
       {
@@ -1245,6 +1345,8 @@ public class JournalStorageManager implements StorageManager
       try
       {
          messageJournal.appendRollbackRecord(txID, syncTransactional, getContext(syncTransactional));
+
+         completeLargeMessageBodyShares(txID, false);
       }
       finally
       {
@@ -1289,6 +1391,39 @@ public class JournalStorageManager implements StorageManager
       }
    }
 
+   public void storeDuplicateIDSegmentTransactional(final long txID,
+                                                    final SimpleString address,
+                                                    final int cacheSize,
+                                                    final long recordID) throws Exception
+   {
+      DuplicateIDSegmentEncoding encoding = new DuplicateIDSegmentEncoding(address, cacheSize);
+
+      readLock();
+      try
+      {
+         messageJournal.appendAddRecordTransactional(txID, recordID, JournalStorageManager.DUPLICATE_ID_SEGMENT, encoding);
+      }
+      finally
+      {
+         readUnLock();
+      }
+   }
+
+   public void updateDuplicateIDsTransactional(final long txID, final List<byte[]> duplIDs, final long recordID) throws Exception
+   {
+      DuplicateIDsEncoding encoding = new DuplicateIDsEncoding(duplIDs);
+
+      readLock();
+      try
+      {
+         messageJournal.appendUpdateRecordTransactional(txID, recordID, JournalStorageManager.DUPLICATE_IDS, encoding);
+      }
+      finally
+      {
+         readUnLock();
+      }
+   }
+
    public void deleteDuplicateIDTransactional(final long txID, final long recordID) throws Exception
    {
       readLock();
@@ -1452,6 +1587,10 @@ public class JournalStorageManager implements StorageManager
 
          ArrayList<LargeServerMessage> largeMessages = new ArrayList<LargeServerMessage>();
 
+         Map<Long, LargeMessageBodyShareEncoding> bodyShares = new HashMap<Long, LargeMessageBodyShareEncoding>();
+
+         Map<Long, DuplicateIDSegmentEncoding> duplicateIDSegments = new HashMap<Long, DuplicateIDSegmentEncoding>();
+
          Map<Long, Map<Long, AddMessageRecord>> queueMap = new HashMap<Long, Map<Long, AddMessageRecord>>();
 
          Map<Long, PageSubscription> pageSubscriptions = new HashMap<Long, PageSubscription>();
@@ -1500,11 +1639,34 @@ public class JournalStorageManager implements StorageManager
 
                   break;
                }
+               case LARGE_MESSAGE_BODY_SHARE:
+               {
+                  LargeMessageBodyShareEncoding share = new LargeMessageBodyShareEncoding();
+
+                  share.decode(buff);
+
+                  bodyShares.put(record.id, share);
+
+                  break;
+               }
                case ADD_MESSAGE:
                {
-                  ServerMessage message = new ServerMessageImpl(record.id, 50);
+                  ServerMessage message;
 
-                  message.decode(buff);
+                  if (record.isTrimmed())
+                  {
+                     LazyServerMessageImpl lazyMessage = new LazyServerMessageImpl(lazyBodyCache, record.id);
+
+                     lazyMessage.decodeWithoutBody(buff);
+
+                     message = lazyMessage;
+                  }
+                  else
+                  {
+                     message = new ServerMessageImpl(record.id, 50);
+
+                     message.decode(buff);
+                  }
 
                   messages.put(record.id, message);
 
@@ -1671,6 +1833,41 @@ public class JournalStorageManager implements StorageManager
 
                   break;
                }
+               case DUPLICATE_ID_SEGMENT:
+               {
+                  // The header is updated with the ids trimmed from the record
+                  DuplicateIDSegmentEncoding encoding = new DuplicateIDSegmentEncoding();
+
+                  encoding.decode(buff);
+
+                  duplicateIDSegments.put(record.id, encoding);
+
+                  break;
+               }
+               case DUPLICATE_IDS:
+               {
+                  DuplicateIDSegmentEncoding segment = duplicateIDSegments.get(record.id);
+
+                  DuplicateIDsEncoding encoding = new DuplicateIDsEncoding();
+
+                  encoding.decode(buff);
+
+                  List<Pair<byte[], Long>> ids = duplicateIDMap.get(segment.address);
+
+                  if (ids == null)
+                  {
+                     ids = new ArrayList<Pair<byte[], Long>>();
+
+                     duplicateIDMap.put(segment.address, ids);
+                  }
+
+                  for (byte[] duplID : encoding.duplIDs)
+                  {
+                     ids.add(new Pair<byte[], Long>(duplID, record.id));
+                  }
+
+                  break;
+               }
                case HEURISTIC_COMPLETION:
                {
                   HeuristicCompletionEncoding encoding = new HeuristicCompletionEncoding();
@@ -1840,9 +2037,40 @@ public class JournalStorageManager implements StorageManager
             queueInfos,
             preparedTransactions,
             duplicateIDMap,
+            duplicateIDSegments,
             pageSubscriptions,
             pendingLargeMessages);
 
+         trimDuplicateIDs(duplicateIDMap, duplicateIDSegments, preparedTransactions);
+
+         Set<Long> storedMessages = new HashSet<Long>(messages.keySet());
+
+         // recordID -> ID of the prepared transaction it belongs to
+         Map<Long, Long> preparedBodyShares = new HashMap<Long, Long>();
+
+         for (PreparedTransactionInfo preparedTransaction : preparedTransactions)
+         {
+            for (RecordInfo record : preparedTransaction.records)
+            {
+               if (record.getUserRecordType() == ADD_LARGE_MESSAGE)
+               {
+                  storedMessages.add(record.id);
+               }
+               else if (record.getUserRecordType() == LARGE_MESSAGE_BODY_SHARE)
+               {
+                  LargeMessageBodyShareEncoding share = new LargeMessageBodyShareEncoding();
+
+                  share.decode(HornetQBuffers.wrappedBuffer(record.data));
+
+                  bodyShares.put(record.id, share);
+
+                  preparedBodyShares.put(record.id, preparedTransaction.id);
+               }
+            }
+         }
+
+         reloadLargeMessageBodyShares(bodyShares, preparedBodyShares, storedMessages);
+
          for (PageSubscription sub : pageSubscriptions.values())
          {
             sub.getCounter().processReload();
@@ -1904,6 +2132,116 @@ public class JournalStorageManager implements StorageManager
       }
    }
 
+   /**
+    * Keeps only the last ids of each address written on segment records, as many as the id-cache-size on its newest
+    * record. The records left with no ids are deleted and the others get the number of ids dropped on their header, so
+    * they are not loaded back if the id-cache-size grows.
+    */
+   private void trimDuplicateIDs(final Map<SimpleString, List<Pair<byte[], Long>>> duplicateIDMap,
+                                 final Map<Long, DuplicateIDSegmentEncoding> duplicateIDSegments,
+                                 final List<PreparedTransactionInfo> preparedTransactions) throws Exception
+   {
+      // The number of ids read from each record, and how many of them are loaded
+      Map<Long, int[]> counts = new HashMap<Long, int[]>();
+
+      Map<SimpleString, Long> newestSegments = new HashMap<SimpleString, Long>();
+
+      for (Map.Entry<Long, DuplicateIDSegmentEncoding> entry : duplicateIDSegments.entrySet())
+      {
+         counts.put(entry.getKey(), new int[2]);
+
+         Long newest = newestSegments.get(entry.getValue().address);
+
+         if (newest == null || newest < entry.getKey())
+         {
+            newestSegments.put(entry.getValue().address, entry.getKey());
+         }
+      }
+
+      for (Map.Entry<SimpleString, Long> entry : newestSegments.entrySet())
+      {
+         List<Pair<byte[], Long>> ids = duplicateIDMap.get(entry.getKey());
+
+         if (ids == null)
+         {
+            continue;
+         }
+
+         List<Pair<byte[], Long>> loaded = new ArrayList<Pair<byte[], Long>>(ids.size());
+
+         for (Pair<byte[], Long> id : ids)
+         {
+            DuplicateIDSegmentEncoding segment = duplicateIDSegments.get(id.getB());
+
+            if (segment == null || counts.get(id.getB())[0]++ >= segment.trimmed)
+            {
+               loaded.add(id);
+            }
+         }
+
+         int cacheSize = duplicateIDSegments.get(entry.getValue()).cacheSize;
+
+         if (loaded.size() > cacheSize)
+         {
+            loaded = new ArrayList<Pair<byte[], Long>>(loaded.subList(loaded.size() - cacheSize, loaded.size()));
+         }
+
+         for (Pair<byte[], Long> id : loaded)
+         {
+            int[] count = counts.get(id.getB());
+
+            if (count != null)
+            {
+               count[1]++;
+            }
+         }
+
+         if (loaded.isEmpty())
+         {
+            duplicateIDMap.remove(entry.getKey());
+         }
+         else
+         {
+            duplicateIDMap.put(entry.getKey(), loaded);
+         }
+      }
+
+      // The records a prepared transaction still adds ids on
+      Set<Long> preparedSegments = new HashSet<Long>();
+
+      for (PreparedTransactionInfo preparedTransaction : preparedTransactions)
+      {
+         for (RecordInfo record : preparedTransaction.records)
+         {
+            if (record.getUserRecordType() == DUPLICATE_IDS)
+            {
+               preparedSegments.add(record.id);
+            }
+         }
+      }
+
+      for (Map.Entry<Long, DuplicateIDSegmentEncoding> entry : duplicateIDSegments.entrySet())
+      {
+         DuplicateIDSegmentEncoding segment = entry.getValue();
+
+         int[] count = counts.get(entry.getKey());
+
+         if (count[1] == 0)
+         {
+            if (!preparedSegments.contains(entry.getKey()))
+            {
+               messageJournal.appendDeleteRecord(entry.getKey(), false);
+            }
+         }
+         else if (count[0] - count[1] > segment.trimmed)
+         {
+            segment.trimmed = count[0] - count[1];
+
+            messageJournal.appendUpdateRecord(entry.getKey(), DUPLICATE_ID_SEGMENT, segment, false);
+         }
+      }
+   }
+
    /**
     * @param queueID
     * @param pageSubscriptions
@@ -2318,13 +2656,8 @@ public class JournalStorageManager implements StorageManager
    // Package protected ---------------------------------------------
 
    // This should be accessed from this package only
-   void deleteLargeMessageFile(final LargeServerMessage largeServerMessageImpl) throws HornetQException
+   void deleteLargeMessageFile(final SequentialFile file, final long bodyID)
    {
-      final SequentialFile file = largeServerMessageImpl.getFile();
-      if (file == null)
-      {
-         return;
-      }
       Runnable deleteAction = new Runnable()
       {
          public void run()
@@ -2336,7 +2669,7 @@ public class JournalStorageManager implements StorageManager
                {
                   if (replicator != null)
                   {
-                     replicator.largeMessageDelete(largeServerMessageImpl.getMessageID());
+                     replicator.largeMessageDelete(bodyID);
                   }
                   file.delete();
                }
@@ -2347,7 +2680,7 @@ public class JournalStorageManager implements StorageManager
             }
             catch (Exception e)
             {
-               HornetQLogger.LOGGER.journalErrorDeletingMessage(e, largeServerMessageImpl.getMessageID());
+               HornetQLogger.LOGGER.journalErrorDeletingMessage(e, bodyID);
             }
          }
 
@@ -2363,38 +2696,126 @@ public class JournalStorageManager implements StorageManager
       }
    }
 
-   SequentialFile createFileForLargeMessage(final long messageID, final boolean durable)
+   /**
+    * Records that the message copyID shares the body file of the message messageID, instead of having a copy of it.
+    * The first time a body is shared both messages are recorded.
+    * <p>
+    * Nothing is stored yet: the share records go to the journal with the copy, in the transaction routing it.
+    */
+   void shareLargeMessageBody(final long bodyID, final long messageID, final long copyID)
    {
-      if (durable)
+      synchronized (sharedLargeMessageBodies)
       {
-         return createFileForLargeMessage(messageID, ".msg");
-      }
-      else
-      {
-         return createFileForLargeMessage(messageID, ".tmp");
+         Map<Long, LargeMessageBodyShare> sharers = sharedLargeMessageBodies.get(bodyID);
+
+         if (sharers == null)
+         {
+            sharers = new HashMap<Long, LargeMessageBodyShare>();
+            sharedLargeMessageBodies.put(bodyID, sharers);
+         }
+
+         if (!sharers.containsKey(messageID))
+         {
+            sharers.put(messageID, new LargeMessageBodyShare());
+         }
+
+         sharers.put(copyID, new LargeMessageBodyShare());
       }
    }
 
-
-   public SequentialFile createFileForLargeMessage(final long messageID, String extension)
+   boolean isLargeMessageBodyShared(final long bodyID)
    {
-      return largeMessagesFactory.createSequentialFile(messageID + extension, -1);
+      synchronized (sharedLargeMessageBodies)
+      {
+         return sharedLargeMessageBodies.containsKey(bodyID);
+      }
    }
 
-
-   // Private ----------------------------------------------------------------------------------
-
-   private void checkAndCreateDir(final String dir, final boolean create)
+   /**
+    * Called when a message using the body is deleted.
+    *
+    * @return true if no other message uses the body, and its file should be deleted
+    */
+   boolean releaseLargeMessageBody(final long bodyID, final long messageID) throws Exception
    {
-      File f = new File(dir);
-
-      if (!f.exists())
+      readLock();
+      try
       {
-         if (create)
+         synchronized (sharedLargeMessageBodies)
          {
-            if (!f.mkdirs())
+            Map<Long, LargeMessageBodyShare> sharers = sharedLargeMessageBodies.get(bodyID);
+
+            if (sharers == null)
             {
-               throw new IllegalStateException("Failed to create directory " + dir);
+               return true;
+            }
+
+            LargeMessageBodyShare share = sharers.remove(messageID);
+
+            if (share == null)
+            {
+               // released already
+               return false;
+            }
+
+            if (share.txID >= 0)
+            {
+               // The transaction that stored it is being rolled back
+               messageJournal.appendDeleteRecordTransactional(share.txID, share.recordID);
+            }
+            else if (share.recordID >= 0)
+            {
+               messageJournal.appendDeleteRecord(share.recordID, false);
+            }
+
+            if (sharers.isEmpty())
+            {
+               sharedLargeMessageBodies.remove(bodyID);
+
+               return true;
+            }
+
+            return false;
+         }
+      }
+      finally
+      {
+         readUnLock();
+      }
+   }
+
+   SequentialFile createFileForLargeMessage(final long messageID, final boolean durable)
+   {
+      if (durable)
+      {
+         return createFileForLargeMessage(messageID, ".msg");
+      }
+      else
+      {
+         return createFileForLargeMessage(messageID, ".tmp");
+      }
+   }
+
+
+   public SequentialFile createFileForLargeMessage(final long messageID, String extension)
+   {
+      return largeMessagesFactory.createSequentialFile(messageID + extension, -1);
+   }
+
+
+   // Private ----------------------------------------------------------------------------------
+
+   private void checkAndCreateDir(final String dir, final boolean create)
+   {
+      File f = new File(dir);
+
+      if (!f.exists())
+      {
+         if (create)
+         {
+            if (!f.mkdirs())
+            {
+               throw new IllegalStateException("Failed to create directory " + dir);
             }
          }
          else
@@ -2404,6 +2825,173 @@ public class JournalStorageManager implements StorageManager
       }
    }
 
+   /**
+    * Stores the share record of a large message sharing the body of other messages, just before the message itself,
+    * and in the same transaction. The message the body belongs to gets its record with the first copy stored.
+    */
+   private void storeLargeMessageBodyShares(final long txID, final ServerMessage message) throws Exception
+   {
+      if (!(message instanceof LargeServerMessageImpl))
+      {
+         return;
+      }
+
+      long bodyID = ((LargeServerMessageImpl)message).getBodyID();
+
+      if (bodyID == message.getMessageID())
+      {
+         return;
+      }
+
+      synchronized (sharedLargeMessageBodies)
+      {
+         Map<Long, LargeMessageBodyShare> sharers = sharedLargeMessageBodies.get(bodyID);
+
+         if (sharers != null)
+         {
+            storeLargeMessageBodyShare(txID, bodyID, bodyID, sharers.get(bodyID));
+
+            storeLargeMessageBodyShare(txID, bodyID, message.getMessageID(), sharers.get(message.getMessageID()));
+         }
+      }
+   }
+
+   private void storeLargeMessageBodyShare(final long txID,
+                                           final long bodyID,
+                                           final long messageID,
+                                           final LargeMessageBodyShare share) throws Exception
+   {
+      if (share == null || share.recordID >= 0)
+      {
+         return;
+      }
+
+      share.recordID = generateUniqueID();
+
+      LargeMessageBodyShareEncoding encoding = new LargeMessageBodyShareEncoding(bodyID, messageID);
+
+      if (txID >= 0)
+      {
+         messageJournal.appendAddRecordTransactional(txID, share.recordID, LARGE_MESSAGE_BODY_SHARE, encoding);
+
+         share.txID = txID;
+
+         List<LargeMessageBodyShare> shares = transactionalBodyShares.get(txID);
+
+         if (shares == null)
+         {
+            shares = new ArrayList<LargeMessageBodyShare>();
+            transactionalBodyShares.put(txID, shares);
+         }
+
+         shares.add(share);
+      }
+      else
+      {
+         // Not synced: the message record comes after it, and it's synced if needed
+         messageJournal.appendAddRecord(share.recordID, LARGE_MESSAGE_BODY_SHARE, encoding, false);
+      }
+   }
+
+   /**
+    * The share records of a transaction are on the journal once it commits, and gone if it rolls back
+    */
+   private void completeLargeMessageBodyShares(final long txID, final boolean committed)
+   {
+      List<LargeMessageBodyShare> shares = transactionalBodyShares.remove(txID);
+
+      if (shares != null)
+      {
+         synchronized (sharedLargeMessageBodies)
+         {
+            for (LargeMessageBodyShare share : shares)
+            {
+               share.txID = -1;
+
+               if (!committed)
+               {
+                  share.recordID = -1;
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * Rebuilds which messages share the large message bodies.
+    * <p>
+    * The record of a copy is stored before the copy itself, and deleted after it, so a failure in between leaves a
+    * record for a message that isn't on the journal. Those records are deleted, and so is a body file no longer used
+    * by any message.
+    */
+   private void reloadLargeMessageBodyShares(final Map<Long, LargeMessageBodyShareEncoding> bodyShares,
+                                             final Map<Long, Long> preparedBodyShares,
+                                             final Set<Long> storedMessages) throws Exception
+   {
+      Set<Long> unusedBodies = new HashSet<Long>();
+
+      synchronized (sharedLargeMessageBodies)
+      {
+         for (Map.Entry<Long, LargeMessageBodyShareEncoding> entry : bodyShares.entrySet())
+         {
+            LargeMessageBodyShareEncoding share = entry.getValue();
+
+            Long txID = preparedBodyShares.get(entry.getKey());
+
+            if (storedMessages.contains(share.messageID) || txID != null)
+            {
+               Map<Long, LargeMessageBodyShare> sharers = sharedLargeMessageBodies.get(share.bodyID);
+
+               if (sharers == null)
+               {
+                  sharers = new HashMap<Long, LargeMessageBodyShare>();
+                  sharedLargeMessageBodies.put(share.bodyID, sharers);
+               }
+
+               LargeMessageBodyShare reloaded = new LargeMessageBodyShare();
+
+               reloaded.recordID = entry.getKey();
+
+               if (txID != null)
+               {
+                  // It completes with the prepared transaction
+                  reloaded.txID = txID;
+
+                  List<LargeMessageBodyShare> shares = transactionalBodyShares.get(txID);
+
+                  if (shares == null)
+                  {
+                     shares = new ArrayList<LargeMessageBodyShare>();
+                     transactionalBodyShares.put(txID, shares);
+                  }
+
+                  shares.add(reloaded);
+               }
+
+               sharers.put(share.messageID, reloaded);
+            }
+            else
+            {
+               messageJournal.appendDeleteRecord(entry.getKey(), false);
+
+               unusedBodies.add(share.bodyID);
+            }
+         }
+
+         unusedBodies.removeAll(sharedLargeMessageBodies.keySet());
+      }
+
+      for (Long bodyID : unusedBodies)
+      {
+         SequentialFile file = createFileForLargeMessage(bodyID, true);
+
+         if (file.exists())
+         {
+            deleteLargeMessageFile(file, bodyID);
+         }
+      }
+   }
+
    /**
     * @param messages
     * @param buff
@@ -2418,7 +3006,8 @@ public class JournalStorageManager implements StorageManager
 
       messageEncoding.decode(buff);
 
-      if (largeMessage.containsProperty(Message.HDR_ORIG_MESSAGE_ID))
+      if (largeMessage.containsProperty(Message.HDR_ORIG_MESSAGE_ID) &&
+          !largeMessage.containsProperty(LargeServerMessageImpl.HDR_LARGE_BODY_ID))
       {
          // for compatibility: couple with old behaviour, copying the old file to avoid message loss
          long originalMessageID = largeMessage.getLongProperty(Message.HDR_ORIG_MESSAGE_ID);
@@ -2448,6 +3037,7 @@ public class JournalStorageManager implements StorageManager
                                          final Map<Long, QueueBindingInfo> queueInfos,
                                          final List<PreparedTransactionInfo> preparedTransactions,
                                          final Map<SimpleString, List<Pair<byte[], Long>>> duplicateIDMap,
+                                         final Map<Long, DuplicateIDSegmentEncoding> duplicateIDSegments,
                                          final Map<Long, PageSubscription> pageSubscriptions,
                                          final Set<Pair<Long, Long>> pendingLargeMessages) throws Exception
    {
@@ -2592,7 +3182,25 @@ public class JournalStorageManager implements StorageManager
 
                   DuplicateIDCache cache = postOffice.getDuplicateIDCache(encoding.address);
 
-                  cache.load(tx, encoding.duplID);
+                  // The record is only there if the transaction commits, it's deleted with the others after a restart
+                  cache.load(tx, encoding.duplID, -1);
+
+                  break;
+               }
+               case DUPLICATE_IDS:
+               {
+                  DuplicateIDSegmentEncoding segment = duplicateIDSegments.get(record.id);
+
+                  DuplicateIDsEncoding encoding = new DuplicateIDsEncoding();
+
+                  encoding.decode(buff);
+
+                  DuplicateIDCache cache = postOffice.getDuplicateIDCache(segment.address);
+
+                  for (byte[] duplID : encoding.duplIDs)
+                  {
+                     cache.load(tx, duplID, record.id);
+                  }
 
                   break;
                }
@@ -2649,6 +3257,12 @@ public class JournalStorageManager implements StorageManager
                   break;
                }
 
+               case LARGE_MESSAGE_BODY_SHARE:
+               {
+                  // reloaded with the committed ones, see reloadLargeMessageBodyShares
+                  break;
+               }
+
                default:
                {
                   HornetQLogger.LOGGER.journalInvalidRecordType(recordType);
@@ -3086,6 +3700,58 @@ public class JournalStorageManager implements StorageManager
 
    }
 
+   /**
+    * The LARGE_MESSAGE_BODY_SHARE record of a message, while it uses a shared body
+    */
+   private static final class LargeMessageBodyShare
+   {
+      // -1 while not on the journal
+      long recordID = -1;
+
+      // The transaction storing the record, -1 once it is completed
+      long txID = -1;
+   }
+
+   public static class LargeMessageBodyShareEncoding implements EncodingSupport
+   {
+      public long bodyID;
+
+      public long messageID;
+
+      public LargeMessageBodyShareEncoding(final long bodyID, final long messageID)
+      {
+         this.bodyID = bodyID;
+         this.messageID = messageID;
+      }
+
+      public LargeMessageBodyShareEncoding()
+      {
+      }
+
+      public void decode(final HornetQBuffer buffer)
+      {
+         bodyID = buffer.readLong();
+         messageID = buffer.readLong();
+      }
+
+      public void encode(final HornetQBuffer buffer)
+      {
+         buffer.writeLong(bodyID);
+         buffer.writeLong(messageID);
+      }
+
+      public int getEncodeSize()
+      {
+         return DataConstants.SIZE_LONG * 2;
+      }
+
+      @Override
+      public String toString()
+      {
+         return "LargeMessageBodyShareEncoding::BodyID=" + bodyID + ", MessageID=" + messageID;
+      }
+   }
+
    public static class DeliveryCountUpdateEncoding implements EncodingSupport
    {
       public long queueID;
@@ -3372,6 +4038,121 @@ public class JournalStorageManager implements StorageManager
 
    }
 
+   /**
+    * The header of a record holding duplicate ids, the ids are written as {@link DuplicateIDsEncoding} updates of the
+    * record.
+    */
+   public static class DuplicateIDSegmentEncoding implements EncodingSupport
+   {
+      SimpleString address;
+
+      // Only the last cacheSize ids of the address are loaded, as given by its newest record
+      int cacheSize;
+
+      // The first ids of the record, no longer loaded
+      int trimmed;
+
+      public DuplicateIDSegmentEncoding(final SimpleString address, final int cacheSize)
+      {
+         this.address = address;
+
+         this.cacheSize = cacheSize;
+      }
+
+      public DuplicateIDSegmentEncoding()
+      {
+      }
+
+      public void decode(final HornetQBuffer buffer)
+      {
+         address = buffer.readSimpleString();
+
+         cacheSize = buffer.readInt();
+
+         trimmed = buffer.readInt();
+      }
+
+      public void encode(final HornetQBuffer buffer)
+      {
+         buffer.writeSimpleString(address);
+
+         buffer.writeInt(cacheSize);
+
+         buffer.writeInt(trimmed);
+      }
+
+      public int getEncodeSize()
+      {
+         return SimpleString.sizeofString(address) + DataConstants.SIZE_INT * 2;
+      }
+
+      @Override
+      public String toString()
+      {
+         return "DuplicateIDSegmentEncoding [address=" + address + ", cacheSize=" + cacheSize + ", trimmed=" + trimmed + "]";
+      }
+   }
+
+   public static class DuplicateIDsEncoding implements EncodingSupport
+   {
+      List<byte[]> duplIDs;
+
+      public DuplicateIDsEncoding(final List<byte[]> duplIDs)
+      {
+         this.duplIDs = duplIDs;
+      }
+
+      public DuplicateIDsEncoding()
+      {
+      }
+
+      public void decode(final HornetQBuffer buffer)
+      {
+         int count = buffer.readInt();
+
+         duplIDs = new ArrayList<byte[]>(count);
+
+         for (int i = 0; i < count; i++)
+         {
+            byte[] duplID = new byte[buffer.readInt()];
+
+            buffer.readBytes(duplID);
+
+            duplIDs.add(duplID);
+         }
+      }
+
+      public void encode(final HornetQBuffer buffer)
+      {
+         buffer.writeInt(duplIDs.size());
+
+         for (byte[] duplID : duplIDs)
+         {
+            buffer.writeInt(duplID.length);
+
+            buffer.writeBytes(duplID);
+         }
+      }
+
+      public int getEncodeSize()
+      {
+         int size = DataConstants.SIZE_INT;
+
+         for (byte[] duplID : duplIDs)
+         {
+            size += DataConstants.SIZE_INT + duplID.length;
+         }
+
+         return size;
+      }
+
+      @Override
+      public String toString()
+      {
+         return "DuplicateIDsEncoding [count=" + duplIDs.size() + "]";
+      }
+   }
+
    /** This is only used when loading a transaction
     it might be possible to merge the functionality of this class with {@link PagingStoreImpl.FinishPageMessageOperation}
 
@@ -3583,6 +4364,40 @@ public class JournalStorageManager implements StorageManager
       }
    }
 
+   /**
+    * Leaves the bodies of the messages of at least a size on the journal while it is loaded.
+    */
+   private static final class MessageBodyTrimmer implements RecordDataTrimmer
+   {
+      private final int minBodySize;
+
+      MessageBodyTrimmer(final int minBodySize)
+      {
+         this.minBodySize = minBodySize;
+      }
+
+      public byte[] trim(final byte userRecordType, final ByteBuffer data)
+      {
+         if (userRecordType != ADD_MESSAGE)
+         {
+            return null;
+         }
+
+         HornetQBuffer buff = HornetQBuffers.wrappedBuffer(data);
+
+         buff.writerIndex(buff.capacity());
+
+         int bodySize = LazyServerMessageImpl.getBodySize(buff);
+
+         if (bodySize == 0 || bodySize < minBodySize)
+         {
+            return null;
+         }
+
+         return LazyServerMessageImpl.removeBody(buff);
+      }
+   }
+
    private class LargeMessageTXFailureCallback implements TransactionFailureCallback
    {
       private final Map<Long, ServerMessage> messages;
@@ -3607,8 +4422,13 @@ public class JournalStorageManager implements StorageManager
 
                try
                {
-                  LargeServerMessage serverMessage = parseLargeMessage(messages, buff);
-                  serverMessage.decrementDelayDeletionCount();
+                  LargeServerMessageImpl serverMessage = (LargeServerMessageImpl)parseLargeMessage(messages, buff);
+
+                  // A copy sharing its body leaves it to the other messages, its share is removed on the reload
+                  if (serverMessage.getBodyID() == serverMessage.getMessageID())
+                  {
+                     serverMessage.decrementDelayDeletionCount();
+                  }
                }
                catch (Exception e)
                {
@@ -3656,6 +4476,13 @@ public class JournalStorageManager implements StorageManager
 
             return lmEncoding;
          }
+         case LARGE_MESSAGE_BODY_SHARE:
+         {
+            LargeMessageBodyShareEncoding shareEncoding = new LargeMessageBodyShareEncoding();
+            shareEncoding.decode(buffer);
+
+            return shareEncoding;
+         }
          case ADD_LARGE_MESSAGE:
          {
 
@@ -3734,6 +4561,22 @@ public class JournalStorageManager implements StorageManager
 
             return encoding;
          }
+         case DUPLICATE_ID_SEGMENT:
+         {
+            DuplicateIDSegmentEncoding encoding = new DuplicateIDSegmentEncoding();
+
+            encoding.decode(buffer);
+
+            return encoding;
+         }
+         case DUPLICATE_IDS:
+         {
+            DuplicateIDsEncoding encoding = new DuplicateIDsEncoding();
+
+            encoding.decode(buffer);
+
+            return encoding;
+         }
          case HEURISTIC_COMPLETION:
          {
             HeuristicCompletionEncoding encoding = new HeuristicCompletionEncoding();
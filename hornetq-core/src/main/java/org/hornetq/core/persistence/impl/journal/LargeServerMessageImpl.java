@@ -21,6 +21,7 @@ import org.hornetq.api.core.HornetQException;
 import org.hornetq.api.core.HornetQExceptionType;
 import org.hornetq.api.core.HornetQInternalErrorException;
 import org.hornetq.api.core.Message;
+import org.hornetq.api.core.SimpleString;
 import org.hornetq.core.journal.SequentialFile;
 import org.hornetq.core.message.BodyEncoder;
 import org.hornetq.core.server.HornetQLogger;
@@ -44,6 +45,11 @@ public class LargeServerMessageImpl extends ServerMessageImpl implements LargeSe
    // Constants -----------------------------------------------------
    private static boolean isTrace = HornetQLogger.LOGGER.isTraceEnabled();
 
+   /**
+    * Set on a copy sharing the body file of other messages, to the ID of the message the file was created for
+    */
+   static final SimpleString HDR_LARGE_BODY_ID = new SimpleString("_HQ_LARGE_BODY_ID");
+
    // Attributes ----------------------------------------------------
 
    private final JournalStorageManager storageManager;
@@ -61,6 +67,9 @@ public class LargeServerMessageImpl extends ServerMessageImpl implements LargeSe
 
    private long bodySize = -1;
 
+   // The shared body used before the message got its own copy of it, released when the message is deleted
+   private long detachedBodyID = -1;
+
    private final AtomicInteger delayDeletionCount = new AtomicInteger(0);
 
    // Static --------------------------------------------------------
@@ -106,6 +115,67 @@ public class LargeServerMessageImpl extends ServerMessageImpl implements LargeSe
    {
       paged = true;
    }
+
+   /**
+    * @return the ID the body file is named after, which is the message ID unless the body is shared with other messages
+    */
+   long getBodyID()
+   {
+      if (containsProperty(HDR_LARGE_BODY_ID))
+      {
+         return getLongProperty(HDR_LARGE_BODY_ID);
+      }
+      else
+      {
+         return messageID;
+      }
+   }
+
+   /**
+    * The sharing of a body is only accounted for messages on the journal, so a message sharing its body gets its own
+    * copy of it before being paged.
+    */
+   public synchronized void detachSharedBody() throws Exception
+   {
+      long bodyID = getBodyID();
+
+      if (detachedBodyID >= 0 || !storageManager.isLargeMessageBodyShared(bodyID))
+      {
+         return;
+      }
+
+      long newBodyID = bodyID == messageID ? storageManager.generateUniqueID() : messageID;
+
+      SequentialFile source = createFile();
+
+      SequentialFile target = storageManager.createFileForLargeMessage(newBodyID, durable);
+
+      try
+      {
+         target.open();
+         source.open();
+         source.copyTo(target);
+      }
+      finally
+      {
+         target.close();
+         source.close();
+      }
+
+      closeFile();
+      file = null;
+
+      if (newBodyID == messageID)
+      {
+         removeProperty(HDR_LARGE_BODY_ID);
+      }
+      else
+      {
+         putLongProperty(HDR_LARGE_BODY_ID, newBodyID);
+      }
+
+      detachedBodyID = bodyID;
+   }
    
    @Override
    public synchronized void addBytes(final byte[] bytes) throws Exception
@@ -244,7 +314,25 @@ public class LargeServerMessageImpl extends ServerMessageImpl implements LargeSe
    {
       validateFile();
       releaseResources();
-      storageManager.deleteLargeMessageFile(this);
+
+      long bodyID = getBodyID();
+
+      if (storageManager.releaseLargeMessageBody(bodyID, messageID))
+      {
+         storageManager.deleteLargeMessageFile(file, bodyID);
+      }
+
+      if (detachedBodyID >= 0)
+      {
+         if (storageManager.releaseLargeMessageBody(detachedBodyID, messageID))
+         {
+            storageManager.deleteLargeMessageFile(storageManager.createFileForLargeMessage(detachedBodyID, durable),
+                                                  detachedBodyID);
+         }
+
+         detachedBodyID = -1;
+      }
+
       if (pendingRecordID >= 0)
       {
          storageManager.confirmPendingLargeMessage(pendingRecordID);
@@ -254,7 +342,7 @@ public class LargeServerMessageImpl extends ServerMessageImpl implements LargeSe
 
    public boolean isFileExists() throws Exception
    {
-      SequentialFile localfile = storageManager.createFileForLargeMessage(getMessageID(), durable);
+      SequentialFile localfile = createFile();
       return localfile.exists();
    }
 
@@ -308,7 +396,7 @@ public class LargeServerMessageImpl extends ServerMessageImpl implements LargeSe
    @Override
    public synchronized ServerMessage copy()
    {
-      SequentialFile newfile = storageManager.createFileForLargeMessage(messageID, durable);
+      SequentialFile newfile = createFile();
 
       ServerMessage newMessage = new LargeServerMessageImpl(this,
                                                             properties,
@@ -349,21 +437,36 @@ public class LargeServerMessageImpl extends ServerMessageImpl implements LargeSe
       }
    }
 
-   /** 
-    * The copy of the file itself will be done later by {@link LargeServerMessageImpl#finishCopy()}
+   /**
+    * The copy shares the body file with this message, only the headers and properties are new.
+    * <p>
+    * A paged message has its file copied instead, the copy of the file itself will be done later by
+    * {@link LargeServerMessageImpl#finishCopy()}
     * */
    @Override
    public synchronized ServerMessage copy(final long newID)
    {
       try
       {
-         SequentialFile newfile = storageManager.createFileForLargeMessage(newID, durable);
+         if (paged)
+         {
+            SequentialFile newfile = storageManager.createFileForLargeMessage(newID, durable);
+
+            LargeServerMessageImpl newMessage = new LargeServerMessageImpl(this,
+                                                                           properties,
+                                                                           newfile,
+                                                                           newID);
+            newMessage.removeProperty(HDR_LARGE_BODY_ID);
+            newMessage.copyFrom(createFile());
+            return newMessage;
+         }
+
+         long bodyID = getBodyID();
+
+         storageManager.shareLargeMessageBody(bodyID, messageID, newID);
 
-         LargeServerMessageImpl newMessage = new LargeServerMessageImpl(this,
-                                                               properties,
-                                                               newfile,
-                                                               newID);
-         newMessage.copyFrom(createFile());
+         LargeServerMessageImpl newMessage = new LargeServerMessageImpl(this, properties, createFile(), newID);
+         newMessage.putLongProperty(HDR_LARGE_BODY_ID, bodyID);
          return newMessage;
       }
       catch (Exception e)
@@ -431,7 +534,7 @@ public class LargeServerMessageImpl extends ServerMessageImpl implements LargeSe
     */
    protected SequentialFile createFile()
    {
-      return storageManager.createFileForLargeMessage(getMessageID(), durable);
+      return storageManager.createFileForLargeMessage(getBodyID(), durable);
    }
    
    protected void openFile() throws Exception
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.persistence.impl.journal;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hornetq.core.journal.impl.JournalImpl;
+
+/**
+ * Reads the bodies of the {@link LazyServerMessageImpl}s back from the message journal, and bounds how much memory
+ * they take once read: when the bodies in memory are over the maximum size, the ones read first are released.
+ */
+final class LazyMessageBodyCache
+{
+   private final JournalImpl journal;
+
+   private final long maxSize;
+
+   private long size;
+
+   // The messages with their bodies in memory, by the order the bodies were read
+   private final Map<LazyServerMessageImpl, Integer> bodies = new LinkedHashMap<LazyServerMessageImpl, Integer>();
+
+   LazyMessageBodyCache(final JournalImpl journal, final long maxSize)
+   {
+      this.journal = journal;
+      this.maxSize = maxSize;
+   }
+
+   /**
+    * @return the encoding of the message on the journal, or {@code null} if the message is no longer there
+    */
+   byte[] read(final long messageID) throws Exception
+   {
+      return journal.readAddRecord(messageID);
+   }
+
+   /**
+    * Accounts for a body just read, releasing the bodies read before it while they take too much memory.
+    * <p>
+    * This must be called without holding the lock of any message, as the released messages are locked.
+    */
+   void loaded(final LazyServerMessageImpl message, final int bodySize)
+   {
+      List<LazyServerMessageImpl> released = null;
+
+      synchronized (this)
+      {
+         Integer previous = bodies.remove(message);
+
+         size += bodySize - (previous == null ? 0 : previous);
+
+         bodies.put(message, bodySize);
+
+         Iterator<Map.Entry<LazyServerMessageImpl, Integer>> iterator = bodies.entrySet().iterator();
+
+         // The body just read is the last one, and it is always kept
+         while (size > maxSize && bodies.size() > 1)
+         {
+            Map.Entry<LazyServerMessageImpl, Integer> entry = iterator.next();
+
+            size -= entry.getValue();
+
+            iterator.remove();
+
+            if (released == null)
+            {
+               released = new ArrayList<LazyServerMessageImpl>();
+            }
+
+            released.add(entry.getKey());
+         }
+      }
+
+      if (released != null)
+      {
+         for (LazyServerMessageImpl releasedMessage : released)
+         {
+            releasedMessage.releaseBody();
+         }
+      }
+   }
+
+   /**
+    * Stops accounting for the body of a message no longer needing it.
+    */
+   synchronized void removed(final LazyServerMessageImpl message)
+   {
+      Integer previous = bodies.remove(message);
+
+      if (previous != null)
+      {
+         size -= previous;
+      }
+   }
+
+   synchronized long getSize()
+   {
+      return size;
+   }
+}
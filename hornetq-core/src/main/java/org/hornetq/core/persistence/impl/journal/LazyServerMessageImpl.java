@@ -0,0 +1,361 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.persistence.impl.journal;
+
+import org.hornetq.api.core.HornetQBuffer;
+import org.hornetq.api.core.HornetQBuffers;
+import org.hornetq.api.core.HornetQException;
+import org.hornetq.core.message.BodyEncoder;
+import org.hornetq.core.server.ServerMessage;
+import org.hornetq.core.server.impl.ServerMessageImpl;
+import org.hornetq.utils.DataConstants;
+
+/**
+ * A message loaded from the journal with its headers and properties only.
+ * <p>
+ * Its body stays on the journal until something needs it, usually a consumer receiving the message, and it is then
+ * read back from the journal file. The {@link LazyMessageBodyCache} may release the body again once other bodies have
+ * been read, so the bodies in memory stay bounded.
+ */
+public class LazyServerMessageImpl extends ServerMessageImpl
+{
+   private final LazyMessageBodyCache bodyCache;
+
+   private boolean bodyLoaded;
+
+   // Set once the body in memory may differ from the one on the journal, or is being read, so it is never released
+   private boolean keepBody;
+
+   LazyServerMessageImpl(final LazyMessageBodyCache bodyCache, final long messageID)
+   {
+      super(messageID, 50);
+
+      this.bodyCache = bodyCache;
+   }
+
+   /**
+    * @return the size of the body of the message encoded on the buffer, as written by {@link #encode(HornetQBuffer)}
+    */
+   static int getBodySize(final HornetQBuffer buff)
+   {
+      return buff.getInt(buff.readerIndex()) - BODY_OFFSET;
+   }
+
+   /**
+    * @return the encoding of the message on the buffer without its body, as read by {@link #decodeWithoutBody}
+    */
+   static byte[] removeBody(final HornetQBuffer buff)
+   {
+      int start = buff.readerIndex();
+
+      int headersStart = start + buff.getInt(start) - BUFFER_HEADER_SPACE + DataConstants.SIZE_INT;
+
+      int headersSize = buff.writerIndex() - headersStart;
+
+      byte[] encoding = new byte[DataConstants.SIZE_INT + headersSize];
+
+      buff.getBytes(start, encoding, 0, DataConstants.SIZE_INT);
+
+      buff.getBytes(headersStart, encoding, DataConstants.SIZE_INT, headersSize);
+
+      return encoding;
+   }
+
+   /**
+    * Decodes the headers and properties from the encoding given by {@link #removeBody}.
+    */
+   void decodeWithoutBody(final HornetQBuffer buff)
+   {
+      buff.readInt();
+
+      decodeHeadersAndProperties(buff);
+   }
+
+   public synchronized boolean isBodyLoaded()
+   {
+      return bodyLoaded;
+   }
+
+   /**
+    * Drops the body from memory, it is read from the journal again the next time it is needed.
+    */
+   synchronized void releaseBody()
+   {
+      if (bodyLoaded && !keepBody)
+      {
+         createBody(50);
+
+         bodyBuffer = null;
+
+         bufferValid = false;
+
+         bodyLoaded = false;
+      }
+   }
+
+   @Override
+   public void bodyChanged()
+   {
+      keepBody();
+
+      super.bodyChanged();
+   }
+
+   @Override
+   public HornetQBuffer getEncodedBuffer()
+   {
+      HornetQBuffer encoded;
+
+      int loaded;
+
+      synchronized (this)
+      {
+         loaded = loadBody();
+
+         encoded = super.getEncodedBuffer();
+      }
+
+      accountBody(loaded);
+
+      return encoded;
+   }
+
+   @Override
+   public void encode(final HornetQBuffer buff)
+   {
+      int loaded;
+
+      synchronized (this)
+      {
+         loaded = loadBody();
+
+         super.encode(buff);
+      }
+
+      accountBody(loaded);
+   }
+
+   @Override
+   public int getEndOfBodyPosition()
+   {
+      int position;
+
+      int loaded;
+
+      synchronized (this)
+      {
+         loaded = loadBody();
+
+         position = super.getEndOfBodyPosition();
+      }
+
+      accountBody(loaded);
+
+      return position;
+   }
+
+   @Override
+   public HornetQBuffer getBodyBuffer()
+   {
+      HornetQBuffer body;
+
+      int loaded;
+
+      synchronized (this)
+      {
+         loaded = loadBody();
+
+         body = super.getBodyBuffer();
+      }
+
+      accountBody(loaded);
+
+      return body;
+   }
+
+   @Override
+   public HornetQBuffer getBodyBufferCopy()
+   {
+      HornetQBuffer body;
+
+      int loaded;
+
+      synchronized (this)
+      {
+         loaded = loadBody();
+
+         body = super.getBodyBufferCopy();
+      }
+
+      accountBody(loaded);
+
+      return body;
+   }
+
+   @Override
+   public HornetQBuffer getWholeBuffer()
+   {
+      HornetQBuffer whole;
+
+      int loaded;
+
+      synchronized (this)
+      {
+         loaded = loadBody();
+
+         whole = super.getWholeBuffer();
+      }
+
+      accountBody(loaded);
+
+      return whole;
+   }
+
+   @Override
+   public BodyEncoder getBodyEncoder() throws HornetQException
+   {
+      // The encoder reads the buffer of the message for as long as it is open
+      keepBody();
+
+      return super.getBodyEncoder();
+   }
+
+   @Override
+   public ServerMessage copy(final long newID)
+   {
+      ServerMessage copy;
+
+      int loaded;
+
+      synchronized (this)
+      {
+         loaded = loadBody();
+
+         copy = super.copy(newID);
+      }
+
+      accountBody(loaded);
+
+      return copy;
+   }
+
+   @Override
+   public ServerMessage copy()
+   {
+      ServerMessage copy;
+
+      int loaded;
+
+      synchronized (this)
+      {
+         loaded = loadBody();
+
+         copy = super.copy();
+      }
+
+      accountBody(loaded);
+
+      return copy;
+   }
+
+   @Override
+   public int decrementRefCount() throws Exception
+   {
+      int count = super.decrementRefCount();
+
+      if (count == 0)
+      {
+         bodyCache.removed(this);
+      }
+
+      return count;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "LazyServerMessage[messageID=" + messageID + ", bodyLoaded=" + isBodyLoaded() + ", durable=" + durable +
+             ", address=" + getAddress() + ",properties=" + properties.toString() + "]@" +
+             System.identityHashCode(this);
+   }
+
+   // Private -------------------------------------------------------
+
+   private synchronized void keepBody()
+   {
+      if (!keepBody)
+      {
+         loadBody();
+
+         keepBody = true;
+
+         bodyCache.removed(this);
+      }
+   }
+
+   /**
+    * Reads the body from the journal when it is not in memory. It has to be called holding the lock of the message.
+    * @return the size of the body read, or -1 if it was in memory already
+    */
+   private int loadBody()
+   {
+      if (bodyLoaded)
+      {
+         return -1;
+      }
+
+      byte[] data;
+
+      try
+      {
+         data = bodyCache.read(messageID);
+      }
+      catch (Exception e)
+      {
+         throw new RuntimeException(e.getMessage(), e);
+      }
+
+      if (data == null)
+      {
+         throw new IllegalStateException("Message " + messageID + " is no longer on the journal");
+      }
+
+      HornetQBuffer buff = HornetQBuffers.wrappedBuffer(data);
+
+      int bodySize = getBodySize(buff);
+
+      createBody(BUFFER_HEADER_SPACE + data.length);
+
+      buffer.writeBytes(data, DataConstants.SIZE_INT, bodySize);
+
+      bodyBuffer = null;
+
+      bufferValid = false;
+
+      bodyLoaded = true;
+
+      return bodySize;
+   }
+
+   /**
+    * Called once the lock of the message is released, as the cache may release the bodies of other messages.
+    */
+   private void accountBody(final int loaded)
+   {
+      if (loaded >= 0)
+      {
+         bodyCache.loaded(this, loaded);
+      }
+   }
+}
@@ -146,6 +146,11 @@ public class NullStorageLargeServerMessage extends ServerMessageImpl implements
    {
    }
 
+   @Override
+   public void detachSharedBody()
+   {
+   }
+
    @Override
    public void setPendingRecordID(long pendingRecordID)
    {
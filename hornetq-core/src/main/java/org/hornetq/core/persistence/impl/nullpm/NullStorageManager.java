@@ -217,6 +217,16 @@ public class NullStorageManager implements StorageManager
    {
    }
 
+   @Override
+   public void storeDuplicateIDSegment(final SimpleString address, final int cacheSize, final long recordID) throws Exception
+   {
+   }
+
+   @Override
+   public void updateDuplicateIDs(final List<byte[]> duplIDs, final long recordID) throws Exception
+   {
+   }
+
    @Override
    public void storeDuplicateIDTransactional(final long txID, final SimpleString address, final byte[] duplID,
                                              final long recordID) throws Exception
@@ -229,6 +239,17 @@ public class NullStorageManager implements StorageManager
    {
    }
 
+   @Override
+   public void storeDuplicateIDSegmentTransactional(final long txID, final SimpleString address, final int cacheSize,
+                                                    final long recordID) throws Exception
+   {
+   }
+
+   @Override
+   public void updateDuplicateIDsTransactional(final long txID, final List<byte[]> duplIDs, final long recordID) throws Exception
+   {
+   }
+
    @Override
    public long storeHeuristicCompletion(final Xid xid, final boolean isCommit) throws Exception
    {
@@ -37,5 +37,9 @@ public interface DuplicateIDCache
 
    void load(List<Pair<byte[], Long>> theIds) throws Exception;
 
-   void load(final Transaction tx, final byte[] duplID);
+   /**
+    * Loads an id added by a prepared transaction, it is added to the cache if the transaction commits.
+    * @param recordID the journal record the id was written on
+    */
+   void load(final Transaction tx, final byte[] duplID, final long recordID);
 }
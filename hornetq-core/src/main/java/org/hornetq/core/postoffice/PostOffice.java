@@ -75,6 +75,9 @@ public interface PostOffice extends HornetQComponent
    MessageReference reroute(ServerMessage message, Queue queue, Transaction tx) throws Exception;
 
    Pair<RoutingContext, ServerMessage> redistribute(ServerMessage message, final Queue originatingQueue, Transaction tx) throws Exception;
+
+   /** Like the other redistribute, but the message only goes to the target binding, if the binding accepts it */
+   Pair<RoutingContext, ServerMessage> redistribute(ServerMessage message, Binding target, Transaction tx) throws Exception;
    
    void processRoute(final ServerMessage message, final RoutingContext context, final boolean direct) throws Exception;
 
@@ -101,71 +101,47 @@ public class AddressImpl implements Address
       {
          return address.equals(add.getAddress());
       }
-      int pos = 0;
-      int matchPos = 0;
+      return AddressImpl.matches(addressParts, 0, add.getAddressParts(), 0);
+   }
 
-      SimpleString nextToMatch;
-      for (; matchPos < add.getAddressParts().length;)
+   /**
+    * Same rules as the searches of {@link AddressTrie}: '*' is one word, '#' is any number of words including none.
+    */
+   private static boolean matches(final SimpleString[] words,
+                                  final int pos,
+                                  final SimpleString[] pattern,
+                                  final int patternPos)
+   {
+      if (patternPos == pattern.length)
       {
-         if (pos >= addressParts.length)
-         {
-            // test for # as last address part
-            return pos + 1 == add.getAddressParts().length && add.getAddressParts()[pos].equals(WildcardAddressManager.ANY_WORDS_SIMPLESTRING);
-         }
-         SimpleString curr = addressParts[pos];
-         SimpleString next = addressParts.length > pos + 1 ? addressParts[pos + 1] : null;
-         SimpleString currMatch = add.getAddressParts()[matchPos];
-         if (currMatch.equals(WildcardAddressManager.SINGLE_WORD_SIMPLESTRING))
-         {
-            pos++;
-            matchPos++;
-         }
-         else if (currMatch.equals(WildcardAddressManager.ANY_WORDS_SIMPLESTRING))
+         return pos == words.length;
+      }
+
+      SimpleString currMatch = pattern[patternPos];
+
+      if (currMatch.equals(WildcardAddressManager.ANY_WORDS_SIMPLESTRING))
+      {
+         for (int next = pos; next <= words.length; next++)
          {
-            if (matchPos == addressParts.length - 1)
-            {
-               pos++;
-               matchPos++;
-            }
-            else if (next == null)
-            {
-               return false;
-            }
-            else if (matchPos == add.getAddressParts().length - 1)
+            if (AddressImpl.matches(words, next, pattern, patternPos + 1))
             {
                return true;
             }
-            else
-            {
-               nextToMatch = add.getAddressParts()[matchPos + 1];
-               while (curr != null)
-               {
-                  if (curr.equals(nextToMatch))
-                  {
-                     break;
-                  }
-                  pos++;
-                  curr = next;
-                  next = addressParts.length > pos + 1 ? addressParts[pos + 1] : null;
-               }
-               if (curr == null)
-               {
-                  return false;
-               }
-               matchPos++;
-            }
-         }
-         else
-         {
-            if (!curr.equals(currMatch))
-            {
-               return false;
-            }
-            pos++;
-            matchPos++;
          }
+         return false;
+      }
+
+      if (pos == words.length)
+      {
+         return false;
       }
-      return pos == addressParts.length;
+
+      if (currMatch.equals(WildcardAddressManager.SINGLE_WORD_SIMPLESTRING) || currMatch.equals(words[pos]))
+      {
+         return AddressImpl.matches(words, pos + 1, pattern, patternPos + 1);
+      }
+
+      return false;
    }
 
    @Override
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.postoffice.impl;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.hornetq.api.core.SimpleString;
+
+/**
+ * A trie of addresses keyed by the words between the '.' delimiters.
+ * <p>
+ * A trie of plain addresses is searched with a wildcard address, and a trie of wildcard addresses is searched with a
+ * plain address, where '*' stands for one word and '#' for any number of words, including none. Both searches visit a
+ * number of nodes that depends on the depth of the address and not on the number of addresses in the trie.
+ * <p>
+ * Changes must be serialized by the caller. Searches can happen concurrently with them, and may or may not see the
+ * addresses being added or removed at the time.
+ */
+final class AddressTrie
+{
+   private final Node root = new Node();
+
+   private volatile int size;
+
+   /**
+    * @return false if the address was already on the trie
+    */
+   boolean add(final SimpleString address)
+   {
+      Node node = root;
+
+      for (SimpleString word : split(address))
+      {
+         Node child = node.children.get(word);
+
+         if (child == null)
+         {
+            child = new Node();
+            node.children.put(word, child);
+         }
+
+         node = child;
+      }
+
+      if (node.address != null)
+      {
+         return false;
+      }
+
+      node.address = address;
+
+      size++;
+
+      return true;
+   }
+
+   /**
+    * @return false if the address was not on the trie
+    */
+   boolean remove(final SimpleString address)
+   {
+      SimpleString[] words = split(address);
+
+      Node[] path = new Node[words.length + 1];
+
+      path[0] = root;
+
+      for (int i = 0; i < words.length; i++)
+      {
+         path[i + 1] = path[i].children.get(words[i]);
+
+         if (path[i + 1] == null)
+         {
+            return false;
+         }
+      }
+
+      if (path[words.length].address == null)
+      {
+         return false;
+      }
+
+      path[words.length].address = null;
+
+      size--;
+
+      // Prune the branch that isn't leading to any address anymore
+      for (int i = words.length; i > 0 && path[i].address == null && path[i].children.isEmpty(); i--)
+      {
+         path[i - 1].children.remove(words[i - 1]);
+      }
+
+      return true;
+   }
+
+   boolean contains(final SimpleString address)
+   {
+      Node node = root;
+
+      for (SimpleString word : split(address))
+      {
+         node = node.children.get(word);
+
+         if (node == null)
+         {
+            return false;
+         }
+      }
+
+      return node.address != null;
+   }
+
+   boolean isEmpty()
+   {
+      return size == 0;
+   }
+
+   /**
+    * Searches a trie of plain addresses.
+    *
+    * @return the addresses matched by the wildcard address
+    */
+   Set<SimpleString> getMatchedBy(final SimpleString wildcardAddress)
+   {
+      Set<SimpleString> addresses = new LinkedHashSet<SimpleString>();
+
+      matchedBy(root, split(wildcardAddress), 0, addresses);
+
+      return addresses;
+   }
+
+   /**
+    * Searches a trie of wildcard addresses.
+    *
+    * @return the wildcard addresses matching the address
+    */
+   Set<SimpleString> getMatching(final SimpleString address)
+   {
+      Set<SimpleString> addresses = new LinkedHashSet<SimpleString>();
+
+      matching(root, split(address), 0, addresses);
+
+      return addresses;
+   }
+
+   void clear()
+   {
+      root.children.clear();
+      root.address = null;
+      size = 0;
+   }
+
+   // Private -------------------------------------------------------
+
+   private static void matchedBy(final Node node,
+                                 final SimpleString[] pattern,
+                                 final int pos,
+                                 final Collection<SimpleString> addresses)
+   {
+      if (pos == pattern.length)
+      {
+         addIfSet(node, addresses);
+         return;
+      }
+
+      SimpleString word = pattern[pos];
+
+      if (word.equals(WildcardAddressManager.ANY_WORDS_SIMPLESTRING))
+      {
+         // Consecutive '#' are the same as one
+         int next = pos + 1;
+         while (next < pattern.length && pattern[next].equals(WildcardAddressManager.ANY_WORDS_SIMPLESTRING))
+         {
+            next++;
+         }
+
+         // '#' matching no more words
+         matchedBy(node, pattern, next, addresses);
+
+         // or taking one more word and staying on the '#'
+         for (Node child : node.children.values())
+         {
+            matchedBy(child, pattern, pos, addresses);
+         }
+      }
+      else if (word.equals(WildcardAddressManager.SINGLE_WORD_SIMPLESTRING))
+      {
+         for (Node child : node.children.values())
+         {
+            matchedBy(child, pattern, pos + 1, addresses);
+         }
+      }
+      else
+      {
+         Node child = node.children.get(word);
+
+         if (child != null)
+         {
+            matchedBy(child, pattern, pos + 1, addresses);
+         }
+      }
+   }
+
+   private static void matching(final Node node,
+                                final SimpleString[] words,
+                                final int pos,
+                                final Collection<SimpleString> addresses)
+   {
+      Node anyWords = node.children.get(WildcardAddressManager.ANY_WORDS_SIMPLESTRING);
+
+      if (anyWords != null)
+      {
+         // '#' taking none or any number of the remaining words
+         for (int next = pos; next <= words.length; next++)
+         {
+            matching(anyWords, words, next, addresses);
+         }
+      }
+
+      if (pos == words.length)
+      {
+         addIfSet(node, addresses);
+         return;
+      }
+
+      Node child = node.children.get(words[pos]);
+
+      if (child != null)
+      {
+         matching(child, words, pos + 1, addresses);
+      }
+
+      Node singleWord = node.children.get(WildcardAddressManager.SINGLE_WORD_SIMPLESTRING);
+
+      if (singleWord != null)
+      {
+         matching(singleWord, words, pos + 1, addresses);
+      }
+   }
+
+   private static void addIfSet(final Node node, final Collection<SimpleString> addresses)
+   {
+      SimpleString address = node.address;
+
+      if (address != null)
+      {
+         addresses.add(address);
+      }
+   }
+
+   private static SimpleString[] split(final SimpleString address)
+   {
+      return address.split(WildcardAddressManager.DELIM);
+   }
+
+   private static final class Node
+   {
+      final ConcurrentMap<SimpleString, Node> children = new ConcurrentHashMap<SimpleString, Node>();
+
+      // set if an address ends on this node
+      volatile SimpleString address;
+   }
+}
@@ -60,6 +60,9 @@ public class BindingsImpl implements Bindings
 
    private final List<Binding> exclusiveBindings = new CopyOnWriteArrayList<Binding>();
 
+   // Avoids evaluating the filters of the routing names that can't accept a message
+   private final RoutingIndex routingIndex = new RoutingIndex();
+
    private volatile boolean routeWhenNoConsumers;
 
    private final GroupingHandler groupingHandler;
@@ -114,6 +117,8 @@ public class BindingsImpl implements Bindings
          }
 
          bindings.add(binding);
+
+         routingIndex.addBinding(binding);
       }
 
       bindingsMap.put(binding.getID(), binding);
@@ -146,6 +151,8 @@ public class BindingsImpl implements Bindings
                routingNameBindingMap.remove(routingName);
             }
          }
+
+         routingIndex.removeBinding(binding);
       }
 
       bindingsMap.remove(binding.getID());
@@ -288,24 +295,34 @@ public class BindingsImpl implements Bindings
             {
                HornetQLogger.LOGGER.trace("Routing message " + message + " on binding=" + this);
             }
-            for (Map.Entry<SimpleString, List<Binding>> entry : routingNameBindingMap.entrySet())
+            if (routingIndex.isEmpty())
             {
-               SimpleString routingName = entry.getKey();
+               for (Map.Entry<SimpleString, List<Binding>> entry : routingNameBindingMap.entrySet())
+               {
+                  SimpleString routingName = entry.getKey();
 
-               List<Binding> bindings = entry.getValue();
+                  List<Binding> bindings = entry.getValue();
+
+                  if (bindings == null)
+                  {
+                     // The value can become null if it's concurrently removed while we're iterating - this is expected
+                     // ConcurrentHashMap behaviour!
+                     continue;
+                  }
 
-               if (bindings == null)
+                  routeToNextBinding(message, context, routingName, bindings);
+               }
+            }
+            else
+            {
+               for (SimpleString routingName : routingIndex.getUnindexedRoutingNames())
                {
-                  // The value can become null if it's concurrently removed while we're iterating - this is expected
-                  // ConcurrentHashMap behaviour!
-                  continue;
+                  routeToNextBinding(message, context, routingName);
                }
 
-               Binding theBinding = getNextBinding(message, routingName, bindings);
-
-               if (theBinding != null)
+               for (SimpleString routingName : routingIndex.getIndexedRoutingNames(message))
                {
-                  theBinding.route(message, context);
+                  routeToNextBinding(message, context, routingName);
                }
             }
          }
@@ -318,6 +335,34 @@ public class BindingsImpl implements Bindings
       return "BindingsImpl [name=" + name + "]";
    }
 
+   private void routeToNextBinding(final ServerMessage message,
+                                   final RoutingContext context,
+                                   final SimpleString routingName) throws Exception
+   {
+      List<Binding> bindings = routingNameBindingMap.get(routingName);
+
+      if (bindings == null)
+      {
+         // Concurrently removed
+         return;
+      }
+
+      routeToNextBinding(message, context, routingName, bindings);
+   }
+
+   private void routeToNextBinding(final ServerMessage message,
+                                   final RoutingContext context,
+                                   final SimpleString routingName,
+                                   final List<Binding> bindings) throws Exception
+   {
+      Binding theBinding = getNextBinding(message, routingName, bindings);
+
+      if (theBinding != null)
+      {
+         theBinding.route(message, context);
+      }
+   }
+
    /**
     * This code has a race on the assigned value to routing names.
     * <p>
@@ -14,9 +14,17 @@
 package org.hornetq.core.postoffice.impl;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.hornetq.api.core.SimpleString;
 import org.hornetq.core.persistence.StorageManager;
@@ -25,12 +33,22 @@ import org.hornetq.core.server.HornetQLogger;
 import org.hornetq.core.server.MessageReference;
 import org.hornetq.core.transaction.Transaction;
 import org.hornetq.core.transaction.TransactionOperation;
+import org.hornetq.core.transaction.TransactionPropertyIndexes;
 import org.hornetq.utils.Pair;
 
 /**
  * A DuplicateIDCacheImpl
  *
  * A fixed size rotating cache of last X duplicate ids.
+ * <p>
+ * Large caches are split in stripes by the hash of the ids, each with its own lock. A stripe keeps its ids in
+ * segments, each with a bloom filter so looking up an id not in the cache rarely touches the segment maps. Every id
+ * gets a sequence number across the whole cache, only the last X of them are duplicates, and the oldest segment of a
+ * stripe is dropped as a whole once all its ids are older than that.
+ * <p>
+ * The ids are persisted the same way: a journal record is added for every X / 3 ids, the ids of a transaction are
+ * written as a single update of it, and the record is deleted once all its ids left the cache, instead of adding and
+ * deleting one record per id.
  *
  * @author <a href="mailto:tim.fox@jboss.com">Tim Fox</a>
  *
@@ -38,16 +56,21 @@ import org.hornetq.utils.Pair;
  */
 public class DuplicateIDCacheImpl implements DuplicateIDCache
 {
-   // ByteHolder, position
-   private final Map<ByteArrayHolder, Integer> cache = new ConcurrentHashMap<ByteArrayHolder, Integer>();
+   // A cache gets one more stripe for each this many ids
+   private static final int MIN_STRIPE_SIZE = 4096;
 
-   private final SimpleString address;
+   private static final int MAX_STRIPES = 16;
+
+   private static final int SEGMENTS = 4;
+
+   private static final int BLOOM_BITS_PER_ID = 10;
+
+   private static final int BLOOM_HASHES = 4;
 
-   // Note - deliberately typed as ArrayList since we want to ensure fast indexed
-   // based array access
-   private final ArrayList<Pair<ByteArrayHolder, Long>> ids;
+   // The most ids written on a single journal update
+   private static final int MAX_UPDATE_IDS = 1024;
 
-   private int pos;
+   private final SimpleString address;
 
    private final int cacheSize;
 
@@ -55,6 +78,23 @@ public class DuplicateIDCacheImpl implements DuplicateIDCache
 
    private final boolean persist;
 
+   private final Stripe[] stripes;
+
+   private final int segmentSize;
+
+   private final int recordSize;
+
+   // The sequence of the last id added, the ones older than the last cacheSize ids are no longer duplicates
+   private final AtomicLong sequence = new AtomicLong();
+
+   // The record new ids are written on
+   private final AtomicReference<Record> currentRecord = new AtomicReference<Record>();
+
+   private final Object recordLock = new Object();
+
+   // The records of the ids loaded by ID, only used while loading
+   private final Map<Long, Record> loadedRecords = new HashMap<Long, Record>();
+
    public DuplicateIDCacheImpl(final SimpleString address,
                                final int size,
                                final StorageManager storageManager,
@@ -64,7 +104,21 @@ public class DuplicateIDCacheImpl implements DuplicateIDCache
 
       cacheSize = size;
 
-      ids = new ArrayList<Pair<ByteArrayHolder, Long>>(size);
+      int stripeCount = Math.max(1, Math.min(MAX_STRIPES, size / MIN_STRIPE_SIZE));
+
+      int stripeSize = (size + stripeCount - 1) / stripeCount;
+
+      // Once the oldest segment of a stripe is dropped, the others still hold the ids of the stripe
+      segmentSize = Math.max(1, (stripeSize + SEGMENTS - 2) / (SEGMENTS - 1));
+
+      recordSize = Math.max(1, (size + SEGMENTS - 2) / (SEGMENTS - 1));
+
+      stripes = new Stripe[stripeCount];
+
+      for (int i = 0; i < stripeCount; i++)
+      {
+         stripes[i] = new Stripe();
+      }
 
       this.storageManager = storageManager;
 
@@ -73,206 +127,474 @@ public class DuplicateIDCacheImpl implements DuplicateIDCache
 
    public void load(final List<Pair<byte[], Long>> theIds) throws Exception
    {
-      int count = 0;
+      List<Pair<byte[], Long>> ids = theIds;
 
       long txID = -1;
 
-      for (Pair<byte[], Long> id : theIds)
+      Record rewritten = null;
+
+      if (theIds.size() > cacheSize)
       {
-         if (count < cacheSize)
-         {
-            ByteArrayHolder bah = new ByteArrayHolder(id.getA());
+         // cache size has been reduced in config - the ids kept move to a new record and the old records are
+         // deleted, or the extra ids would be loaded again on the next start
+         ids = theIds.subList(0, cacheSize);
+
+         txID = storageManager.generateUniqueID();
+
+         rewritten = new Record(storageManager.generateUniqueID());
 
-            Pair<ByteArrayHolder, Long> pair = new Pair<ByteArrayHolder, Long>(bah, id.getB());
+         storageManager.storeDuplicateIDSegmentTransactional(txID, address, cacheSize, rewritten.id);
 
-            cache.put(bah, ids.size());
+         Set<Long> deleted = new HashSet<Long>();
 
-            ids.add(pair);
+         for (Pair<byte[], Long> id : theIds)
+         {
+            // A prepared transaction loaded before still has ids to add on the record
+            if (getLoadedRecord(id.getB()).references.get() == 0 && deleted.add(id.getB()))
+            {
+               storageManager.deleteDuplicateIDTransactional(txID, id.getB());
+            }
          }
-         else
+      }
+
+      List<byte[]> update = new ArrayList<byte[]>();
+
+      for (Pair<byte[], Long> id : ids)
+      {
+         ByteArrayHolder holder = new ByteArrayHolder(id.getA());
+
+         holder.record = getLoadedRecord(id.getB());
+
+         if (rewritten != null && holder.record.references.get() == 0)
          {
-            // cache size has been reduced in config - delete the extra records
-            if (txID == -1)
+            update.add(id.getA());
+
+            if (update.size() == MAX_UPDATE_IDS)
             {
-               txID = storageManager.generateUniqueID();
+               storageManager.updateDuplicateIDsTransactional(txID, update, rewritten.id);
+
+               update = new ArrayList<byte[]>();
             }
 
-            storageManager.deleteDuplicateIDTransactional(txID, id.getB());
+            holder.record = rewritten;
          }
 
-         count++;
+         holder.record.references.incrementAndGet();
+
+         getStripe(holder).add(holder);
       }
 
       if (txID != -1)
       {
+         if (!update.isEmpty())
+         {
+            storageManager.updateDuplicateIDsTransactional(txID, update, rewritten.id);
+         }
+
          storageManager.commit(txID);
       }
 
-      pos = ids.size();
+      loadedRecords.clear();
+   }
+
+   public void deleteFromCache(byte [] duplicateID) throws Exception
+   {
+      ByteArrayHolder holder = new ByteArrayHolder(duplicateID);
+
+      getStripe(holder).remove(holder);
+   }
+
+   public boolean contains(final byte[] duplID)
+   {
+      ByteArrayHolder holder = new ByteArrayHolder(duplID);
+
+      return getStripe(holder).contains(holder);
+   }
+
+   public void addToCache(final byte[] duplID, final Transaction tx) throws Exception
+   {
+      ByteArrayHolder holder = new ByteArrayHolder(duplID);
+
+      if (persist)
+      {
+         holder.record = reserveRecord();
+      }
+
+      if (tx == null)
+      {
+         if (persist)
+         {
+            try
+            {
+               storageManager.updateDuplicateIDs(Collections.singletonList(duplID), holder.record.id);
+            }
+            catch (Exception e)
+            {
+               holder.record.release();
+
+               throw e;
+            }
+         }
+
+         getStripe(holder).add(holder);
+      }
+      else
+      {
+         // For a tx, it's important that the entry is not added to the cache until commit
+         // since if the client fails then resends them tx we don't want it to get rejected
+         getOperation(tx).holders.add(holder);
+      }
+   }
+
+   public void load(final Transaction tx, final byte[] duplID, final long recordID)
+   {
+      ByteArrayHolder holder = new ByteArrayHolder(duplID);
 
-      if (pos == cacheSize)
+      if (recordID >= 0)
       {
-         pos = 0;
+         holder.record = getLoadedRecord(recordID);
+
+         holder.record.references.incrementAndGet();
       }
 
+      AddDuplicateIDOperation operation = getOperation(tx);
+
+      // The ids were written when the transaction was prepared
+      operation.stored = true;
+
+      operation.holders.add(holder);
    }
 
+   private Stripe getStripe(final ByteArrayHolder holder)
+   {
+      return stripes[(int)((holder.hash >>> 33) % stripes.length)];
+   }
 
-   public void deleteFromCache(byte [] duplicateID) throws Exception
+   private Record getLoadedRecord(final long recordID)
    {
-      ByteArrayHolder bah = new ByteArrayHolder(duplicateID);
+      Record record = loadedRecords.get(recordID);
+
+      if (record == null)
+      {
+         record = new Record(recordID);
 
-      Integer posUsed = cache.remove(bah);
+         loadedRecords.put(recordID, record);
+      }
+
+      return record;
+   }
 
-      if (posUsed != null)
+   /**
+    * Takes a place for one more id on the current record, adding a new record when it is full.
+    */
+   private Record reserveRecord() throws Exception
+   {
+      while (true)
       {
-         Pair<ByteArrayHolder, Long> id;
+         Record record = currentRecord.get();
 
-         synchronized (this)
+         if (record != null && record.written.incrementAndGet() <= recordSize && record.acquire())
          {
-            id = ids.get(posUsed.intValue());
+            return record;
+         }
 
-            if (id.getA().equals(bah))
+         synchronized (recordLock)
+         {
+            if (currentRecord.get() == record)
             {
-               id.setA(null);
-               storageManager.deleteDuplicateID(id.getB());
-               id.setB(null);
+               Record newRecord = new Record(storageManager.generateUniqueID());
+
+               // The record is kept while it still gets new ids
+               newRecord.references.set(1);
+
+               storageManager.storeDuplicateIDSegment(address, cacheSize, newRecord.id);
+
+               currentRecord.set(newRecord);
+
+               if (record != null)
+               {
+                  record.release();
+               }
             }
          }
       }
-
    }
 
-
-   public boolean contains(final byte[] duplID)
+   @SuppressWarnings("unchecked")
+   private AddDuplicateIDOperation getOperation(final Transaction tx)
    {
-      return cache.get(new ByteArrayHolder(duplID)) != null;
+      Map<DuplicateIDCacheImpl, AddDuplicateIDOperation> operations =
+         (Map<DuplicateIDCacheImpl, AddDuplicateIDOperation>)tx.getProperty(TransactionPropertyIndexes.DUPLICATE_IDS);
+
+      if (operations == null)
+      {
+         operations = new HashMap<DuplicateIDCacheImpl, AddDuplicateIDOperation>();
+
+         tx.putProperty(TransactionPropertyIndexes.DUPLICATE_IDS, operations);
+      }
+
+      AddDuplicateIDOperation operation = operations.get(this);
+
+      if (operation == null)
+      {
+         operation = new AddDuplicateIDOperation();
+
+         operations.put(this, operation);
+
+         tx.addOperation(operation);
+      }
+
+      return operation;
    }
 
-   public synchronized void addToCache(final byte[] duplID, final Transaction tx) throws Exception
+   private final class Stripe
    {
-      long recordID = -1;
+      // From the oldest segment to the newest one
+      private final LinkedList<Segment> segments = new LinkedList<Segment>();
 
-      if (tx == null)
+      synchronized boolean contains(final ByteArrayHolder holder)
       {
-         if (persist)
+         Iterator<Segment> iterator = segments.descendingIterator();
+
+         while (iterator.hasNext())
          {
-            recordID = storageManager.generateUniqueID();
-            storageManager.storeDuplicateID(address, duplID, recordID);
+            ByteArrayHolder found = iterator.next().get(holder);
+
+            if (found != null)
+            {
+               return found.sequence > sequence.get() - cacheSize;
+            }
          }
 
-         addToCacheInMemory(duplID, recordID);
+         return false;
       }
-      else
+
+      synchronized void add(final ByteArrayHolder holder)
       {
-         if (persist)
+         Segment segment = segments.peekLast();
+
+         if (segment == null || segment.added == segmentSize)
          {
-            recordID = storageManager.generateUniqueID();
-            storageManager.storeDuplicateIDTransactional(tx.getID(), address, duplID, recordID);
+            segment = new Segment();
 
-            tx.setContainsPersistent();
+            segments.add(segment);
          }
 
-         // For a tx, it's important that the entry is not added to the cache until commit
-         // since if the client fails then resends them tx we don't want it to get rejected
-         tx.addOperation(new AddDuplicateIDOperation(duplID, recordID));
+         holder.sequence = sequence.incrementAndGet();
+
+         segment.add(holder);
+
+         while (segments.getFirst() != segment && segments.getFirst().last <= holder.sequence - cacheSize)
+         {
+            segments.removeFirst().release();
+         }
       }
-   }
 
-   public void load(final Transaction tx, final byte[] duplID)
-   {
-      tx.addOperation(new AddDuplicateIDOperation(duplID, tx.getID()));
+      synchronized void remove(final ByteArrayHolder holder)
+      {
+         for (Segment segment : segments)
+         {
+            segment.remove(holder);
+         }
+      }
    }
 
-   private synchronized void addToCacheInMemory(final byte[] duplID, final long recordID)
+   private final class Segment
    {
-      ByteArrayHolder holder = new ByteArrayHolder(duplID);
+      private final Map<ByteArrayHolder, ByteArrayHolder> ids = new HashMap<ByteArrayHolder, ByteArrayHolder>();
+
+      private final long[] bloom = new long[(segmentSize * BLOOM_BITS_PER_ID + 63) / 64];
 
-      cache.put(holder, pos);
+      private int added;
 
-      Pair<ByteArrayHolder, Long> id;
+      // The sequence of the newest id of the segment
+      private long last;
 
-      if (pos < ids.size())
+      ByteArrayHolder get(final ByteArrayHolder holder)
       {
-         // Need fast array style access here -hence ArrayList typing
-         id = ids.get(pos);
+         int bits = bloom.length * 64;
 
-         // The id here might be null if it was explicit deleted
-         if (id.getA() != null)
-         {
-            cache.remove(id.getA());
+         int hash1 = (int)holder.hash;
+
+         int hash2 = (int)(holder.hash >>> 32);
 
-            // Record already exists - we delete the old one and add the new one
-            // Note we can't use update since journal update doesn't let older records get
-            // reclaimed
+         for (int i = 0; i < BLOOM_HASHES; i++)
+         {
+            int bit = ((hash1 + i * hash2) & Integer.MAX_VALUE) % bits;
 
-            if (id.getB() != null)
+            if ((bloom[bit >>> 6] & 1L << bit) == 0)
             {
-               try
-               {
-                  storageManager.deleteDuplicateID(id.getB());
-               }
-               catch (Exception e)
-               {
-                  HornetQLogger.LOGGER.errorDeletingDuplicateCache(e);
-               }
+               return null;
             }
          }
 
-         id.setA(holder);
+         return ids.get(holder);
+      }
+
+      void add(final ByteArrayHolder holder)
+      {
+         ByteArrayHolder replaced = ids.put(holder, holder);
+
+         if (replaced != null)
+         {
+            replaced.release();
+         }
+
+         int bits = bloom.length * 64;
+
+         int hash1 = (int)holder.hash;
+
+         int hash2 = (int)(holder.hash >>> 32);
+
+         for (int i = 0; i < BLOOM_HASHES; i++)
+         {
+            int bit = ((hash1 + i * hash2) & Integer.MAX_VALUE) % bits;
+
+            bloom[bit >>> 6] |= 1L << bit;
+         }
 
-         // The recordID could be negative if the duplicateCache is configured to not persist,
-         // -1 would mean null on this case
-         id.setB(recordID >= 0 ? recordID : null);
+         added++;
 
-         holder.pos = pos;
+         last = holder.sequence;
       }
-      else
-      {
-         id = new Pair<ByteArrayHolder, Long>(holder, recordID >= 0 ? recordID : null);
 
-         ids.add(id);
+      void remove(final ByteArrayHolder holder)
+      {
+         // The id stays on the bloom filter, which only costs a map lookup when it is looked up again
+         ByteArrayHolder removed = ids.remove(holder);
 
-         holder.pos = pos;
+         if (removed != null)
+         {
+            removed.release();
+         }
       }
 
-      if (pos++ == cacheSize - 1)
+      /**
+       * Called when the segment is dropped.
+       */
+      void release()
       {
-         pos = 0;
+         for (ByteArrayHolder holder : ids.values())
+         {
+            holder.release();
+         }
       }
    }
 
-   private class AddDuplicateIDOperation implements TransactionOperation
+   private final class Record
    {
-      final byte[] duplID;
+      final long id;
 
-      final long recordID;
+      // The ids on the record still in the cache or on a transaction not completed yet, and one more while the record
+      // gets new ids
+      final AtomicInteger references = new AtomicInteger();
 
-      volatile boolean done;
+      // The ids written on the record, or about to be
+      final AtomicInteger written = new AtomicInteger();
 
-      AddDuplicateIDOperation(final byte[] duplID, final long recordID)
+      Record(final long id)
       {
-         this.duplID = duplID;
+         this.id = id;
+      }
+
+      /**
+       * @return false if the record was already deleted
+       */
+      boolean acquire()
+      {
+         while (true)
+         {
+            int count = references.get();
+
+            if (count == 0)
+            {
+               return false;
+            }
 
-         this.recordID = recordID;
+            if (references.compareAndSet(count, count + 1))
+            {
+               return true;
+            }
+         }
       }
 
-      private void process()
+      void release()
       {
-         if (!done)
+         if (references.decrementAndGet() == 0)
+         {
+            try
+            {
+               storageManager.deleteDuplicateID(id);
+            }
+            catch (Exception e)
+            {
+               HornetQLogger.LOGGER.errorDeletingDuplicateCache(e);
+            }
+         }
+      }
+   }
+
+   /**
+    * The ids a transaction adds to the cache.
+    */
+   private final class AddDuplicateIDOperation implements TransactionOperation
+   {
+      final List<ByteArrayHolder> holders = new ArrayList<ByteArrayHolder>();
+
+      // Whether the ids were written, they are not written again on commit after a prepare
+      boolean stored;
+
+      volatile boolean done;
+
+      /**
+       * Writes the ids as one update of each record they took a place on.
+       */
+      private void store(final Transaction tx) throws Exception
+      {
+         if (!persist || stored)
          {
-            addToCacheInMemory(duplID, recordID);
+            return;
+         }
 
-            done = true;
+         stored = true;
+
+         tx.setContainsPersistent();
+
+         List<byte[]> update = new ArrayList<byte[]>();
+
+         Record record = null;
+
+         for (ByteArrayHolder holder : holders)
+         {
+            if (holder.record != record || update.size() == MAX_UPDATE_IDS)
+            {
+               if (!update.isEmpty())
+               {
+                  storageManager.updateDuplicateIDsTransactional(tx.getID(), update, record.id);
+
+                  update = new ArrayList<byte[]>();
+               }
+
+               record = holder.record;
+            }
+
+            update.add(holder.bytes);
+         }
+
+         if (!update.isEmpty())
+         {
+            storageManager.updateDuplicateIDsTransactional(tx.getID(), update, record.id);
          }
       }
 
       public void beforeCommit(final Transaction tx) throws Exception
       {
+         store(tx);
       }
 
       public void beforePrepare(final Transaction tx) throws Exception
       {
+         store(tx);
       }
 
       public void beforeRollback(final Transaction tx) throws Exception
@@ -281,7 +603,16 @@ public class DuplicateIDCacheImpl implements DuplicateIDCache
 
       public void afterCommit(final Transaction tx)
       {
-         process();
+         if (!done)
+         {
+            // The places taken on the records now belong to the ids in the cache
+            for (ByteArrayHolder holder : holders)
+            {
+               getStripe(holder).add(holder);
+            }
+
+            done = true;
+         }
       }
 
       public void afterPrepare(final Transaction tx)
@@ -290,6 +621,15 @@ public class DuplicateIDCacheImpl implements DuplicateIDCache
 
       public void afterRollback(final Transaction tx)
       {
+         if (!done)
+         {
+            for (ByteArrayHolder holder : holders)
+            {
+               holder.release();
+            }
+
+            done = true;
+         }
       }
 
       public List<MessageReference> getRelatedMessageReferences()
@@ -304,13 +644,37 @@ public class DuplicateIDCacheImpl implements DuplicateIDCache
       ByteArrayHolder(final byte[] bytes)
       {
          this.bytes = bytes;
+
+         // 64 bit FNV-1a, finished with the murmur3 mix so all the bits depend on all the bytes
+         long h = 0xcbf29ce484222325L;
+
+         for (byte b : bytes)
+         {
+            h = (h ^ (b & 0xff)) * 0x100000001b3L;
+         }
+
+         h = (h ^ h >>> 33) * 0xff51afd7ed558ccdL;
+         h = (h ^ h >>> 33) * 0xc4ceb9fe1a85ec53L;
+
+         hash = h ^ h >>> 33;
       }
 
       final byte[] bytes;
 
-      int hash;
+      final long hash;
 
-      int pos;
+      // The journal record the id is written on, null if it is not persisted
+      Record record;
+
+      long sequence;
+
+      void release()
+      {
+         if (record != null)
+         {
+            record.release();
+         }
+      }
 
       @Override
       public boolean equals(final Object other)
@@ -343,15 +707,7 @@ public class DuplicateIDCacheImpl implements DuplicateIDCache
       @Override
       public int hashCode()
       {
-         if (hash == 0)
-         {
-            for (byte b : bytes)
-            {
-               hash = 31 * hash + b;
-            }
-         }
-
-         return hash;
+         return (int)(hash ^ hash >>> 32);
       }
    }
 }
@@ -768,6 +768,24 @@ public class PostOfficeImpl implements PostOffice, NotificationListener, Binding
       return null;
    }
 
+   public Pair<RoutingContext, ServerMessage> redistribute(final ServerMessage message, final Binding target, final Transaction tx) throws Exception
+   {
+      Filter filter = target.getFilter();
+
+      if (!target.isHighAcceptPriority(message) || filter != null && !filter.match(message))
+      {
+         return null;
+      }
+
+      ServerMessage copyRedistribute = message.copy(storageManager.generateUniqueID());
+
+      RoutingContext context = new RoutingContextImpl(tx);
+
+      target.route(copyRedistribute, context);
+
+      return new Pair<RoutingContext, ServerMessage>(context, copyRedistribute);
+   }
+
    public PagingManager getPagingManager()
    {
       return pagingManager;
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.postoffice.impl;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.hornetq.api.core.SimpleString;
+import org.hornetq.core.filter.Filter;
+import org.hornetq.core.filter.impl.FilterImpl;
+import org.hornetq.core.filter.impl.IndexablePredicate;
+import org.hornetq.core.postoffice.Binding;
+import org.hornetq.core.server.ServerMessage;
+
+/**
+ * Finds the routing names of a {@link BindingsImpl} that may have a binding accepting a message, without evaluating the
+ * filters of all the bindings.
+ * <p>
+ * Bindings with a filter holding an {@link IndexablePredicate} are kept on a hash index from property values to
+ * bindings. The routing names of the other bindings are always candidates. The bindings of the candidates are then
+ * evaluated as usual, so routing on a topic with thousands of selective subscriptions only evaluates the filters of
+ * the subscriptions that may accept the message.
+ * <p>
+ * Changes are serialized, lookups can happen concurrently with them.
+ */
+final class RoutingIndex
+{
+   // property -> key of the value -> bindings
+   private final ConcurrentMap<SimpleString, ConcurrentMap<Object, List<Binding>>> index = new ConcurrentHashMap<SimpleString, ConcurrentMap<Object, List<Binding>>>();
+
+   // routing name -> number of its bindings not on the index
+   private final ConcurrentMap<SimpleString, Integer> unindexedRoutingNames = new ConcurrentHashMap<SimpleString, Integer>();
+
+   private volatile int indexedBindings;
+
+   synchronized void addBinding(final Binding binding)
+   {
+      IndexablePredicate predicate = getPredicate(binding);
+
+      if (predicate == null)
+      {
+         Integer count = unindexedRoutingNames.get(binding.getRoutingName());
+
+         unindexedRoutingNames.put(binding.getRoutingName(), count == null ? 1 : count + 1);
+
+         return;
+      }
+
+      ConcurrentMap<Object, List<Binding>> values = index.get(predicate.getProperty());
+
+      if (values == null)
+      {
+         values = new ConcurrentHashMap<Object, List<Binding>>();
+
+         index.put(predicate.getProperty(), values);
+      }
+
+      for (Object value : predicate.getValues())
+      {
+         List<Binding> bindings = values.get(value);
+
+         if (bindings == null)
+         {
+            bindings = new CopyOnWriteArrayList<Binding>();
+
+            values.put(value, bindings);
+         }
+
+         bindings.add(binding);
+      }
+
+      indexedBindings++;
+   }
+
+   synchronized void removeBinding(final Binding binding)
+   {
+      IndexablePredicate predicate = getPredicate(binding);
+
+      if (predicate == null)
+      {
+         Integer count = unindexedRoutingNames.get(binding.getRoutingName());
+
+         if (count == null)
+         {
+            return;
+         }
+
+         if (count == 1)
+         {
+            unindexedRoutingNames.remove(binding.getRoutingName());
+         }
+         else
+         {
+            unindexedRoutingNames.put(binding.getRoutingName(), count - 1);
+         }
+
+         return;
+      }
+
+      ConcurrentMap<Object, List<Binding>> values = index.get(predicate.getProperty());
+
+      if (values == null)
+      {
+         return;
+      }
+
+      boolean removed = false;
+
+      for (Object value : predicate.getValues())
+      {
+         List<Binding> bindings = values.get(value);
+
+         if (bindings != null && bindings.remove(binding))
+         {
+            removed = true;
+
+            if (bindings.isEmpty())
+            {
+               values.remove(value);
+            }
+         }
+      }
+
+      if (values.isEmpty())
+      {
+         index.remove(predicate.getProperty());
+      }
+
+      if (removed)
+      {
+         indexedBindings--;
+      }
+   }
+
+   /**
+    * @return true if no binding is on the index, in which case every routing name is a candidate
+    */
+   boolean isEmpty()
+   {
+      return indexedBindings == 0;
+   }
+
+   /**
+    * @return the routing names with bindings not on the index, which are always candidates. This is a live view, not a
+    *         copy
+    */
+   Collection<SimpleString> getUnindexedRoutingNames()
+   {
+      return unindexedRoutingNames.keySet();
+   }
+
+   /**
+    * @return the routing names with an indexed binding that may accept the message, leaving out the ones already
+    *         returned by {@link #getUnindexedRoutingNames()}
+    */
+   Set<SimpleString> getIndexedRoutingNames(final ServerMessage message)
+   {
+      Set<SimpleString> routingNames = null;
+
+      for (Map.Entry<SimpleString, ConcurrentMap<Object, List<Binding>>> entry : index.entrySet())
+      {
+         Object key = IndexablePredicate.getKey(message, entry.getKey());
+
+         if (key == null)
+         {
+            continue;
+         }
+
+         List<Binding> bindings = entry.getValue().get(key);
+
+         if (bindings != null)
+         {
+            for (Binding binding : bindings)
+            {
+               SimpleString routingName = binding.getRoutingName();
+
+               if (unindexedRoutingNames.containsKey(routingName))
+               {
+                  continue;
+               }
+
+               if (routingNames == null)
+               {
+                  routingNames = new HashSet<SimpleString>();
+               }
+
+               routingNames.add(routingName);
+            }
+         }
+      }
+
+      return routingNames == null ? Collections.<SimpleString> emptySet() : routingNames;
+   }
+
+   private static IndexablePredicate getPredicate(final Binding binding)
+   {
+      Filter filter = binding.getFilter();
+
+      return filter instanceof FilterImpl ? ((FilterImpl)filter).getIndexablePredicate() : null;
+   }
+}
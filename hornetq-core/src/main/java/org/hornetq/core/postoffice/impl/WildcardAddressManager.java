@@ -12,19 +12,20 @@
  */
 package org.hornetq.core.postoffice.impl;
 
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 import org.hornetq.api.core.SimpleString;
-import org.hornetq.core.postoffice.Address;
 import org.hornetq.core.postoffice.Binding;
 import org.hornetq.core.postoffice.Bindings;
 import org.hornetq.core.postoffice.BindingsFactory;
 
 /**
  * extends the simple manager to allow wildcard addresses to be used.
+ * <p>
+ * The plain and wildcard addresses are kept on {@link AddressTrie}s, so finding the addresses affected by a new or
+ * removed binding doesn't depend on the number of addresses. Routing only takes the lock the first time a message is
+ * sent to an address without bindings of its own.
  *
  * @author <a href="mailto:andy.taylor@jboss.org">Andy Taylor</a>
  */
@@ -41,12 +42,14 @@ public class WildcardAddressManager extends SimpleAddressManager
    static final SimpleString ANY_WORDS_SIMPLESTRING = new SimpleString("#");
 
    /**
-    * These are all the addresses, we use this so we can link back from the actual address to its linked wilcard addresses
-    * or vice versa
+    * The plain addresses with a mapping, a new wildcard binding is also added to the ones it matches
     */
-   private final Map<SimpleString, Address> addresses = new HashMap<SimpleString, Address>();
+   private final AddressTrie addresses = new AddressTrie();
 
-   private final Map<SimpleString, Address> wildCardAddresses = new HashMap<SimpleString, Address>();
+   /**
+    * The wildcard addresses with bindings, a plain address also gets the bindings of the ones matching it
+    */
+   private final AddressTrie wildCardAddresses = new AddressTrie();
 
    public WildcardAddressManager(final BindingsFactory bindingsFactory)
    {
@@ -59,25 +62,20 @@ public class WildcardAddressManager extends SimpleAddressManager
       Bindings bindings = super.getBindingsForRoutingAddress(address);
 
       // this should only happen if we're routing to an address that has no mappings when we're running checkAllowable
-      if (bindings == null && !wildCardAddresses.isEmpty())
+      if (bindings == null && !wildCardAddresses.isEmpty() && !containsWildCard(address) &&
+          !wildCardAddresses.getMatching(address).isEmpty())
       {
-         Address add = addAndUpdateAddressMap(address);
-         if (!add.containsWildCard())
+         synchronized (this)
          {
-            for (Address destAdd : add.getLinkedAddresses())
+            bindings = super.getBindingsForRoutingAddress(address);
+
+            if (bindings == null)
             {
-               Bindings b = super.getBindingsForRoutingAddress(destAdd.getAddress());
-               if (b != null)
-               {
-                  Collection<Binding> theBindings = b.getBindings();
-                  for (Binding theBinding : theBindings)
-                  {
-                     super.addMappingInternal(address, theBinding);
-                  }
-               }
+               linkAddress(address);
+
+               bindings = super.getBindingsForRoutingAddress(address);
             }
          }
-         bindings = super.getBindingsForRoutingAddress(address);
       }
       return bindings;
    }
@@ -90,31 +88,25 @@ public class WildcardAddressManager extends SimpleAddressManager
     * @return true if the address was a new mapping
     */
    @Override
-   public boolean addBinding(final Binding binding) throws Exception
+   public synchronized boolean addBinding(final Binding binding) throws Exception
    {
       boolean exists = super.addBinding(binding);
-      if (!exists)
+
+      SimpleString address = binding.getAddress();
+
+      if (containsWildCard(address))
       {
-         Address add = addAndUpdateAddressMap(binding.getAddress());
-         if (add.containsWildCard())
-         {
-            for (Address destAdd : add.getLinkedAddresses())
-            {
-               super.addMappingInternal(destAdd.getAddress(), binding);
-            }
-         }
-         else
+         wildCardAddresses.add(address);
+
+         for (SimpleString destAddress : addresses.getMatchedBy(address))
          {
-            for (Address destAdd : add.getLinkedAddresses())
-            {
-               Bindings bindings = super.getBindingsForRoutingAddress(destAdd.getAddress());
-               for (Binding b : bindings.getBindings())
-               {
-                  super.addMappingInternal(binding.getAddress(), b);
-               }
-            }
+            super.addMappingInternal(destAddress, binding);
          }
       }
+      else
+      {
+         linkAddress(address);
+      }
       return exists;
    }
 
@@ -126,145 +118,110 @@ public class WildcardAddressManager extends SimpleAddressManager
     * @return true if this was the last mapping for a specific address
     */
    @Override
-   public Binding removeBinding(final SimpleString uniqueName) throws Exception
+   public synchronized Binding removeBinding(final SimpleString uniqueName) throws Exception
    {
       Binding binding = super.removeBinding(uniqueName);
       if (binding != null)
       {
-         Address add = getAddress(binding.getAddress());
-         if (!add.containsWildCard())
+         SimpleString address = binding.getAddress();
+
+         if (containsWildCard(address))
          {
-            for (Address theAddress : add.getLinkedAddresses())
+            for (SimpleString destAddress : addresses.getMatchedBy(address))
             {
-               Bindings bindings = super.getBindingsForRoutingAddress(theAddress.getAddress());
-               if (bindings != null)
+               super.removeBindingInternal(destAddress, uniqueName);
+
+               if (super.getBindingsForRoutingAddress(destAddress) == null)
                {
-                  for (Binding b : bindings.getBindings())
-                  {
-                     super.removeBindingInternal(binding.getAddress(), b.getUniqueName());
-                  }
+                  addresses.remove(destAddress);
                }
             }
+
+            if (super.getBindingsForRoutingAddress(address) == null)
+            {
+               wildCardAddresses.remove(address);
+            }
          }
          else
          {
-            for (Address theAddress : add.getLinkedAddresses())
-            {
-               super.removeBindingInternal(theAddress.getAddress(), uniqueName);
-            }
+            unlinkAddress(address);
          }
-         removeAndUpdateAddressMap(add);
       }
       return binding;
    }
 
    @Override
-   public void clear()
+   public synchronized void clear()
    {
       super.clear();
       addresses.clear();
       wildCardAddresses.clear();
    }
 
-   private Address getAddress(final SimpleString address)
+   /**
+    * Adds the bindings of the wildcard addresses matching the address to its mappings, if that wasn't done yet. Must be
+    * called holding the lock on this.
+    */
+   private void linkAddress(final SimpleString address) throws Exception
    {
-      Address add = new AddressImpl(address);
-      Address actualAddress;
-      if (add.containsWildCard())
+      if (addresses.contains(address))
       {
-         actualAddress = wildCardAddresses.get(address);
+         return;
       }
-      else
-      {
-         actualAddress = addresses.get(address);
-      }
-      return actualAddress != null ? actualAddress : add;
-   }
 
-   private synchronized Address addAndUpdateAddressMap(final SimpleString address)
-   {
-      Address add = new AddressImpl(address);
-      Address actualAddress;
-      if (add.containsWildCard())
+      for (SimpleString wildCardAddress : wildCardAddresses.getMatching(address))
       {
-         actualAddress = wildCardAddresses.get(address);
-      }
-      else
-      {
-         actualAddress = addresses.get(address);
-      }
-      if (actualAddress == null)
-      {
-         actualAddress = add;
-         addAddress(address, actualAddress);
-      }
-      if (actualAddress.containsWildCard())
-      {
-         for (Address destAdd : addresses.values())
-         {
-            if (destAdd.matches(actualAddress))
-            {
-               destAdd.addLinkedAddress(actualAddress);
-               actualAddress.addLinkedAddress(destAdd);
-            }
-         }
-      }
-      else
-      {
-         for (Address destAdd : wildCardAddresses.values())
+         Bindings bindings = super.getBindingsForRoutingAddress(wildCardAddress);
+
+         if (bindings != null)
          {
-            if (actualAddress.matches(destAdd))
+            for (Binding binding : bindings.getBindings())
             {
-               destAdd.addLinkedAddress(actualAddress);
-               actualAddress.addLinkedAddress(destAdd);
-
+               super.addMappingInternal(address, binding);
             }
          }
       }
-      return actualAddress;
-   }
 
-   private void addAddress(final SimpleString address, final Address actualAddress)
-   {
-      if (actualAddress.containsWildCard())
+      if (super.getBindingsForRoutingAddress(address) != null)
       {
-         wildCardAddresses.put(address, actualAddress);
-      }
-      else
-      {
-         addresses.put(address, actualAddress);
+         addresses.add(address);
       }
    }
 
-   private synchronized void removeAndUpdateAddressMap(final Address address) throws Exception
+   /**
+    * Removes the bindings of the wildcard addresses from the mappings of the address once it has no binding of its own.
+    * Must be called holding the lock on this.
+    */
+   private void unlinkAddress(final SimpleString address) throws Exception
    {
-      // we only remove if there are no bindings left
-      Bindings bindings = super.getBindingsForRoutingAddress(address.getAddress());
-      if (bindings == null || bindings.getBindings().size() == 0)
+      Bindings bindings = super.getBindingsForRoutingAddress(address);
+
+      if (bindings != null)
       {
-         List<Address> addresses = address.getLinkedAddresses();
-         for (Address address1 : addresses)
+         List<Binding> wildCardBindings = new ArrayList<Binding>();
+
+         for (Binding binding : bindings.getBindings())
          {
-            address1.removeLinkedAddress(address);
-            Bindings linkedBindings = super.getBindingsForRoutingAddress(address1.getAddress());
-            if (linkedBindings == null || linkedBindings.getBindings().size() == 0)
+            if (address.equals(binding.getAddress()))
             {
-               removeAddress(address1);
+               // still in use
+               return;
             }
+
+            wildCardBindings.add(binding);
+         }
+
+         for (Binding binding : wildCardBindings)
+         {
+            super.removeBindingInternal(address, binding.getUniqueName());
          }
-         removeAddress(address);
       }
+
+      addresses.remove(address);
    }
 
-   private void removeAddress(final Address add)
+   private static boolean containsWildCard(final SimpleString address)
    {
-      if (add.containsWildCard())
-      {
-         wildCardAddresses.remove(add.getAddress());
-      }
-      else
-      {
-         addresses.remove(add.getAddress());
-      }
+      return address.contains(WildcardAddressManager.SINGLE_WORD) || address.contains(WildcardAddressManager.ANY_WORDS);
    }
 }
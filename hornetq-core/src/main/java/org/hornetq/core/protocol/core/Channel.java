@@ -70,6 +70,18 @@ public interface Channel
     */
    Packet sendBlocking(Packet packet) throws HornetQException;
 
+   /**
+    * sends a packet on this channel without waiting for its response, which is given to the handler instead.
+    * <p/>
+    * Several requests can be outstanding on the channel, blocking or not. If no response comes within the blocking
+    * call timeout of the connection, the handler is given a timeout exception by {@link #checkCallTimeouts()}.
+    *
+    * @param packet the packet to send
+    * @param handler the handler called with the response
+    * @throws HornetQException if the packet could not be sent
+    */
+   void sendBlocking(Packet packet, ResponseHandler handler) throws HornetQException;
+
    /**
     * Sets the {@link org.hornetq.core.protocol.core.ChannelHandler} that this channel should
     * forward received packets to.
@@ -122,7 +134,8 @@ public interface Channel
    void unlock();
 
    /**
-    * forces any {@link org.hornetq.core.protocol.core.Channel#sendBlocking(Packet)} request to return with an exception.
+    * forces any {@link org.hornetq.core.protocol.core.Channel#sendBlocking(Packet)} request to return with an exception,
+    * and any pending {@link ResponseHandler} to be called with it.
     */
    void returnBlocking();
 
@@ -157,6 +170,12 @@ public interface Channel
     */
    void flushConfirmations();
 
+   /**
+    * fails the requests sent with {@link #sendBlocking(Packet, ResponseHandler)} that have waited longer than the
+    * blocking call timeout for their response.
+    */
+   void checkCallTimeouts();
+
    /**
     * Called by {@link org.hornetq.core.protocol.core.CoreRemotingConnection} when a packet is received.
     * <p/>
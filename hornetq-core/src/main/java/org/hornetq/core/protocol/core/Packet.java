@@ -38,6 +38,22 @@ public interface Packet
     */
    long getChannelID();
 
+   /**
+    * Sets the id matching a blocking request with its response, or -1 if the packet isn't correlated.
+    * <p/>
+    * A response must carry the id of the request it answers.
+    *
+    * @param correlationID the id of the request
+    */
+   void setCorrelationID(long correlationID);
+
+   /**
+    * Returns the id matching a blocking request with its response.
+    *
+    * @return the correlation id, or -1 if the packet isn't correlated
+    */
+   long getCorrelationID();
+
    /**
     * returns true if this packet is being sent in response to a previously received packet
     *
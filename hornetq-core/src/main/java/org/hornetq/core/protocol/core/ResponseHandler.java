@@ -0,0 +1,39 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.protocol.core;
+
+import org.hornetq.api.core.HornetQException;
+
+/**
+ * A ResponseHandler is called by the channel when the response to a request sent with
+ * {@link Channel#sendBlocking(Packet, ResponseHandler)} is received.
+ * <p/>
+ * It is called from the thread reading the connection, so it must not block.
+ */
+public interface ResponseHandler
+{
+   /**
+    * called by the channel when the response is received.
+    *
+    * @param response the response packet
+    */
+   void handleResponse(Packet response);
+
+   /**
+    * called by the channel when the server replied with an exception, or when the request will never get a response.
+    *
+    * @param exception the error
+    */
+   void handleException(HornetQException exception);
+}
@@ -592,6 +592,12 @@ public class ServerSessionPacketHandler implements ChannelHandler
 
       if (response != null)
       {
+         if (confirmPacket != null)
+         {
+            // matches the response with the call waiting for it on the client
+            response.setCorrelationID(confirmPacket.getCorrelationID());
+         }
+
          channel.send(response);
       }
 
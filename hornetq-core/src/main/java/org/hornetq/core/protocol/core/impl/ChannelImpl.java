@@ -13,7 +13,11 @@
 
 package org.hornetq.core.protocol.core.impl;
 
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -28,10 +32,12 @@ import org.hornetq.core.protocol.core.ChannelHandler;
 import org.hornetq.core.protocol.core.CommandConfirmationHandler;
 import org.hornetq.core.protocol.core.CoreRemotingConnection;
 import org.hornetq.core.protocol.core.Packet;
+import org.hornetq.core.protocol.core.ResponseHandler;
 import org.hornetq.core.protocol.core.impl.wireformat.HornetQExceptionMessage;
 import org.hornetq.core.protocol.core.impl.wireformat.PacketsConfirmedMessage;
 import org.hornetq.core.server.HornetQLogger;
 import org.hornetq.core.server.HornetQMessageBundle;
+import org.hornetq.utils.DataConstants;
 
 /**
  * A ChannelImpl
@@ -78,7 +84,13 @@ public final class ChannelImpl implements Channel
 
    private ChannelHandler handler;
 
-   private Packet response;
+   // The requests waiting for a response by their call id, in the order they were sent. A response carrying the
+   // correlation id of its request is matched by it, a peer older than 123 answers the requests in the order it
+   // receives them (the same as the confirmations), so its response belongs to the first call here
+   private final LinkedHashMap<Long, PendingCall> pendingCalls = new LinkedHashMap<Long, PendingCall>();
+
+   // Guarded by sendBlockingLock
+   private long nextCallID;
 
    private final java.util.Queue<Packet> resendCache;
 
@@ -92,8 +104,6 @@ public final class ChannelImpl implements Channel
 
    private final Lock lock = new ReentrantLock();
 
-   private final Condition sendCondition = lock.newCondition();
-
    private final Condition failoverCondition = lock.newCondition();
 
    private final Object sendLock = new Object();
@@ -136,6 +146,8 @@ public final class ChannelImpl implements Channel
       {
          case PacketImpl.CLUSTER_TOPOLOGY_V2:
             return version >= 122;
+         case PacketImpl.REPLICATION_RESPONSE_V2:
+            return version >= 123;
          default:
             return true;
       }
@@ -163,18 +175,7 @@ public final class ChannelImpl implements Channel
 
    public void returnBlocking()
    {
-      lock.lock();
-
-      try
-      {
-         response = new HornetQExceptionMessage(HornetQMessageBundle.BUNDLE.unblockingACall());
-
-         sendCondition.signal();
-      }
-      finally
-      {
-         lock.unlock();
-      }
+      failPendingCalls(HornetQMessageBundle.BUNDLE.unblockingACall());
    }
 
    public void sendAndFlush(final Packet packet)
@@ -210,7 +211,7 @@ public final class ChannelImpl implements Channel
             HornetQLogger.LOGGER.trace("Sending packet nonblocking " + packet + " on channeID=" + id);
          }
 
-         HornetQBuffer buffer = packet.encode(connection);
+         HornetQBuffer buffer = encode(packet);
 
          lock.lock();
 
@@ -258,106 +259,132 @@ public final class ChannelImpl implements Channel
 
    public Packet sendBlocking(final Packet packet) throws HornetQException
    {
-      if (closed)
-      {
-         throw HornetQMessageBundle.BUNDLE.connectionDestroyed();
-      }
+      PendingCall call = new PendingCall(null);
 
-      if (connection.getBlockingCallTimeout() == -1)
-      {
-         throw new IllegalStateException("Cannot do a blocking call timeout on a server side connection");
-      }
+      writeRequest(packet, call);
 
-      // Synchronized since can't be called concurrently by more than one thread and this can occur
-      // E.g. blocking acknowledge() from inside a message handler at some time as other operation on main thread
-      synchronized (sendBlockingLock)
+      lock.lock();
+
+      try
       {
-         packet.setChannelID(id);
+         long toWait = connection.getBlockingCallTimeout();
 
-         final HornetQBuffer buffer = packet.encode(connection);
+         long start = System.currentTimeMillis();
 
-         lock.lock();
-
-         try
+         while (!closed && call.response == null && toWait > 0)
          {
-            if (failingOver)
+            try
+            {
+               call.responseCondition.await(toWait, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e)
             {
-               try
-               {
-                  if(connection.getBlockingCallFailoverTimeout() < 0)
-                  {
-                     failoverCondition.await();
-                  }
-                  else
-                  {
-                     if (!failoverCondition.await(connection.getBlockingCallFailoverTimeout(), TimeUnit.MILLISECONDS))
-                     {
-                        HornetQLogger.LOGGER.debug("timed-out waiting for failover condition");
-                     }
-                  }
-               }
-               catch (InterruptedException e)
-               {
-               }
             }
 
-            response = null;
-
-            if (resendCache != null && packet.isRequiresConfirmations())
+            if (closed)
             {
-               resendCache.add(packet);
+               break;
             }
 
-            connection.getTransportConnection().write(buffer, false, false);
+            final long now = System.currentTimeMillis();
 
-            long toWait = connection.getBlockingCallTimeout();
+            toWait -= now - start;
 
-            long start = System.currentTimeMillis();
+            start = now;
+         }
 
-            while (!closed && response == null && toWait > 0)
-            {
-               try
-               {
-                  sendCondition.await(toWait, TimeUnit.MILLISECONDS);
-               }
-               catch (InterruptedException e)
-               {
-               }
+         if (call.response == null)
+         {
+            abandon(call);
 
-               if (closed)
-               {
-                  break;
-               }
+            throw HornetQMessageBundle.BUNDLE.timedOutSendingPacket(packet.getType());
+         }
 
-               final long now = System.currentTimeMillis();
+         if (call.response.getType() == PacketImpl.EXCEPTION)
+         {
+            final HornetQExceptionMessage mem = (HornetQExceptionMessage)call.response;
 
-               toWait -= now - start;
+            HornetQException e = mem.getException();
 
-               start = now;
-            }
+            e.fillInStackTrace();
 
-            if (response == null)
+            throw e;
+         }
+
+         return call.response;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   public void sendBlocking(final Packet packet, final ResponseHandler responseHandler) throws HornetQException
+   {
+      if (responseHandler == null)
+      {
+         throw new NullPointerException("responseHandler parameter need to be set");
+      }
+
+      writeRequest(packet, new PendingCall(responseHandler));
+   }
+
+   public void checkCallTimeouts()
+   {
+      List<PendingCall> expired = null;
+
+      lock.lock();
+
+      try
+      {
+         final long now = System.currentTimeMillis();
+
+         Iterator<PendingCall> iter = pendingCalls.values().iterator();
+
+         while (iter.hasNext())
+         {
+            PendingCall call = iter.next();
+
+            // The calls are sent in order with the same timeout, so the ones after this haven't expired either
+            if (call.deadline > now)
             {
-               throw HornetQMessageBundle.BUNDLE.timedOutSendingPacket(packet.getType());
+               break;
             }
 
-            if (response.getType() == PacketImpl.EXCEPTION)
+            // A blocked thread times out its own call
+            if (call.responseHandler == null || call.abandoned)
             {
-               final HornetQExceptionMessage mem = (HornetQExceptionMessage)response;
+               continue;
+            }
 
-               HornetQException e = mem.getException();
+            if (expired == null)
+            {
+               expired = new ArrayList<PendingCall>();
+            }
 
-               e.fillInStackTrace();
+            expired.add(call);
 
-               throw e;
+            if (call.correlated)
+            {
+               iter.remove();
+            }
+            else
+            {
+               call.abandoned = true;
             }
          }
-         finally
+      }
+      finally
+      {
+         lock.unlock();
+      }
+
+      if (expired != null)
+      {
+         for (PendingCall call : expired)
          {
-            lock.unlock();
+            call.responseHandler.handleException(HornetQMessageBundle.BUNDLE.timedOutSendingPacket(call.type));
          }
-
-         return response;
       }
    }
 
@@ -395,6 +422,9 @@ public final class ChannelImpl implements Channel
          unlock();
       }
       closed = true;
+
+      // Calls waiting for a response will see the channel closed
+      failPendingCalls(HornetQMessageBundle.BUNDLE.connectionDestroyed());
    }
 
    public void transferConnection(final CoreRemotingConnection newConnection)
@@ -531,17 +561,44 @@ public final class ChannelImpl implements Channel
          {
             confirm(packet);
 
+            PendingCall call;
+
             lock.lock();
 
             try
             {
-               response = packet;
-               sendCondition.signal();
+               if (packet.getCorrelationID() >= 0)
+               {
+                  call = pendingCalls.remove(packet.getCorrelationID());
+               }
+               else
+               {
+                  call = pollFirstCall();
+               }
+
+               if (call != null && !call.abandoned && call.responseHandler == null)
+               {
+                  call.response = packet;
+                  call.responseCondition.signal();
+               }
             }
             finally
             {
                lock.unlock();
             }
+
+            if (call == null || call.abandoned)
+            {
+               // The response of a call that timed out
+               if (isTrace)
+               {
+                  HornetQLogger.LOGGER.trace("Discarding response with no pending call " + packet + " on channelID=" + id);
+               }
+            }
+            else if (call.responseHandler != null)
+            {
+               call.complete(packet);
+            }
          }
          else if (handler != null)
          {
@@ -550,13 +607,185 @@ public final class ChannelImpl implements Channel
       }
    }
 
+   private void writeRequest(final Packet packet, final PendingCall call) throws HornetQException
+   {
+      if (closed)
+      {
+         throw HornetQMessageBundle.BUNDLE.connectionDestroyed();
+      }
+
+      if (connection.getBlockingCallTimeout() == -1)
+      {
+         throw new IllegalStateException("Cannot do a blocking call timeout on a server side connection");
+      }
+
+      // Only the write is serialized, so other requests can be sent while this one waits for its response. The
+      // request has to be added to pendingCalls in the same order it goes to the wire.
+      synchronized (sendBlockingLock)
+      {
+         packet.setChannelID(id);
+
+         call.id = nextCallID++;
+
+         call.correlated = isCorrelating();
+
+         call.type = packet.getType();
+
+         packet.setCorrelationID(call.correlated ? call.id : -1);
+
+         final HornetQBuffer buffer = encode(packet);
+
+         lock.lock();
+
+         try
+         {
+            if (failingOver)
+            {
+               try
+               {
+                  if(connection.getBlockingCallFailoverTimeout() < 0)
+                  {
+                     failoverCondition.await();
+                  }
+                  else
+                  {
+                     if (!failoverCondition.await(connection.getBlockingCallFailoverTimeout(), TimeUnit.MILLISECONDS))
+                     {
+                        HornetQLogger.LOGGER.debug("timed-out waiting for failover condition");
+                     }
+                  }
+               }
+               catch (InterruptedException e)
+               {
+               }
+            }
+
+            call.deadline = System.currentTimeMillis() + connection.getBlockingCallTimeout();
+
+            pendingCalls.put(call.id, call);
+
+            if (resendCache != null && packet.isRequiresConfirmations())
+            {
+               resendCache.add(packet);
+            }
+
+            connection.getTransportConnection().write(buffer, false, false);
+         }
+         finally
+         {
+            lock.unlock();
+         }
+      }
+   }
+
+   private void failPendingCalls(final HornetQException exception)
+   {
+      List<PendingCall> failed;
+
+      lock.lock();
+
+      try
+      {
+         if (pendingCalls.isEmpty())
+         {
+            return;
+         }
+
+         failed = new ArrayList<PendingCall>(pendingCalls.values());
+
+         pendingCalls.clear();
+
+         for (PendingCall call : failed)
+         {
+            if (call.responseHandler == null && !call.abandoned)
+            {
+               call.response = new HornetQExceptionMessage(exception);
+               call.responseCondition.signal();
+            }
+         }
+      }
+      finally
+      {
+         lock.unlock();
+      }
+
+      for (PendingCall call : failed)
+      {
+         if (call.responseHandler != null && !call.abandoned)
+         {
+            call.responseHandler.handleException(exception);
+         }
+      }
+   }
+
    private void doWrite(final Packet packet)
    {
-      final HornetQBuffer buffer = packet.encode(connection);
+      final HornetQBuffer buffer = encode(packet);
 
       connection.getTransportConnection().write(buffer, false, false);
    }
 
+   /**
+    * Encodes the packet, followed by its correlation id if it has one the other side can read: a request replayed to
+    * an older backup goes without it, while a response only has the id its request came with.
+    */
+   private HornetQBuffer encode(final Packet packet)
+   {
+      final HornetQBuffer buffer = packet.encode(connection);
+
+      if (packet.getCorrelationID() >= 0 && (packet.isResponse() || isCorrelating()))
+      {
+         buffer.setLong(PacketImpl.CHANNEL_ID_POSITION, packet.getChannelID() | PacketImpl.CORRELATED_FLAG);
+
+         buffer.writeLong(packet.getCorrelationID());
+
+         buffer.setInt(0, buffer.writerIndex() - DataConstants.SIZE_INT);
+      }
+
+      return buffer;
+   }
+
+   /**
+    * On a server connection this is the version of the client. A client connection learns the version of the server
+    * when it creates a session.
+    */
+   private boolean isCorrelating()
+   {
+      return connection.getClientVersion() >= 123;
+   }
+
+   private PendingCall pollFirstCall()
+   {
+      Iterator<PendingCall> iter = pendingCalls.values().iterator();
+
+      if (!iter.hasNext())
+      {
+         return null;
+      }
+
+      PendingCall call = iter.next();
+
+      iter.remove();
+
+      return call;
+   }
+
+   /**
+    * Gives up on a call that timed out. Its correlated response is discarded when it comes, while an older peer still
+    * answers it in turn, so it stays on pendingCalls to keep its response from going to the calls sent after it.
+    */
+   private void abandon(final PendingCall call)
+   {
+      if (call.correlated)
+      {
+         pendingCalls.remove(call.id);
+      }
+      else
+      {
+         call.abandoned = true;
+      }
+   }
+
    private void clearUpTo(final int lastReceivedCommandID)
    {
       final int numberToClear = 1 + lastReceivedCommandID - firstStoredCommandID;
@@ -598,4 +827,48 @@ public final class ChannelImpl implements Channel
    {
       return "Channel[id=" + CHANNEL_ID.idToString(id) + ", handler=" + handler + "]";
    }
+
+   /**
+    * A request waiting for its response, either on a thread blocked on {@link #sendBlocking(Packet)} or on a
+    * {@link ResponseHandler}.
+    */
+   private final class PendingCall
+   {
+      private final ResponseHandler responseHandler;
+
+      private final Condition responseCondition;
+
+      private Packet response;
+
+      private long id;
+
+      // Whether the request was sent with its correlation id
+      private boolean correlated;
+
+      private byte type;
+
+      private long deadline;
+
+      // Timed out, the response is discarded when it comes
+      private boolean abandoned;
+
+      PendingCall(final ResponseHandler responseHandler)
+      {
+         this.responseHandler = responseHandler;
+
+         responseCondition = responseHandler == null ? lock.newCondition() : null;
+      }
+
+      void complete(final Packet packet)
+      {
+         if (packet.getType() == PacketImpl.EXCEPTION)
+         {
+            responseHandler.handleException(((HornetQExceptionMessage)packet).getException());
+         }
+         else
+         {
+            responseHandler.handleResponse(packet);
+         }
+      }
+   }
 }
@@ -12,8 +12,11 @@
  */
 package org.hornetq.core.protocol.core.impl;
 
+import java.nio.channels.FileChannel;
+
 import org.hornetq.api.core.SimpleString;
 import org.hornetq.core.protocol.core.Channel;
+import org.hornetq.core.protocol.core.CoreRemotingConnection;
 import org.hornetq.core.protocol.core.Packet;
 import org.hornetq.core.protocol.core.impl.wireformat.SessionProducerCreditsFailMessage;
 import org.hornetq.core.protocol.core.impl.wireformat.SessionProducerCreditsMessage;
@@ -23,6 +26,7 @@ import org.hornetq.core.protocol.core.impl.wireformat.SessionReceiveMessage;
 import org.hornetq.core.server.ServerMessage;
 import org.hornetq.spi.core.protocol.ProtocolManager;
 import org.hornetq.spi.core.protocol.SessionCallback;
+import org.hornetq.spi.core.remoting.Connection;
 import org.hornetq.spi.core.remoting.ReadyListener;
 
 /**
@@ -67,6 +71,45 @@ public final class CoreSessionCallback implements SessionCallback
       return packet.getPacketSize();
    }
 
+   public boolean isFileRegionSupported()
+   {
+      // A packet kept to be resent on reattach needs its body in memory
+      if (channel.getConfirmationWindowSize() >= 0)
+      {
+         return false;
+      }
+
+      return channel.getConnection().getTransportConnection().isFileRegionSupported();
+   }
+
+   public int sendLargeMessageContinuation(final long consumerID,
+                                           final FileChannel file,
+                                           final long position,
+                                           final int length,
+                                           final boolean continues,
+                                           final Runnable written)
+   {
+      SessionReceiveContinuationMessage packet = new SessionReceiveContinuationMessage(consumerID,
+                                                                                       null,
+                                                                                       continues,
+                                                                                       false);
+
+      packet.setChannelID(channel.getID());
+
+      CoreRemotingConnection connection = channel.getConnection();
+
+      Connection transportConnection = connection.getTransportConnection();
+
+      transportConnection.writeFileRegion(packet.encodeHeader(connection, length),
+                                          file,
+                                          position,
+                                          length,
+                                          packet.encodeTrailer(connection),
+                                          written);
+
+      return packet.getPacketSize();
+   }
+
    public int sendMessage(ServerMessage message, long consumerID, int deliveryCount)
    {
       Packet packet = new SessionReceiveMessage(consumerID, message, deliveryCount);
@@ -206,6 +206,8 @@ public class HornetQPacketHandler implements ChannelHandler
          response = new HornetQExceptionMessage(new HornetQInternalErrorException());
       }
 
+      response.setCorrelationID(request.getCorrelationID());
+
       // send the exception to the client and destroy
       // the connection if the client and server versions
       // are not compatible
@@ -273,6 +275,8 @@ public class HornetQPacketHandler implements ChannelHandler
          response = new HornetQExceptionMessage(new HornetQInternalErrorException());
       }
 
+      response.setCorrelationID(request.getCorrelationID());
+
       channel1.send(response);
    }
 
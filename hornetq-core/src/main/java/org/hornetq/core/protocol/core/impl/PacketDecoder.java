@@ -118,7 +118,10 @@ import org.hornetq.core.protocol.core.impl.wireformat.ReplicationPageEventMessag
 import org.hornetq.core.protocol.core.impl.wireformat.ReplicationPageWriteMessage;
 import org.hornetq.core.protocol.core.impl.wireformat.ReplicationPrepareMessage;
 import org.hornetq.core.protocol.core.impl.wireformat.ReplicationResponseMessage;
+import org.hornetq.core.protocol.core.impl.wireformat.ReplicationResponseMessageV2;
 import org.hornetq.core.protocol.core.impl.wireformat.ReplicationStartSyncMessage;
+import org.hornetq.core.protocol.core.impl.wireformat.ReplicationSyncDigestMessage;
+import org.hornetq.core.protocol.core.impl.wireformat.ReplicationSyncDigestResponseMessage;
 import org.hornetq.core.protocol.core.impl.wireformat.ReplicationSyncFileMessage;
 import org.hornetq.core.protocol.core.impl.wireformat.RollbackMessage;
 import org.hornetq.core.protocol.core.impl.wireformat.SessionAcknowledgeMessage;
@@ -577,6 +580,21 @@ public final class PacketDecoder
             packet = new LiveIsStoppingMessage();
             break;
          }
+         case PacketImpl.REPLICATION_SYNC_DIGEST:
+         {
+            packet = new ReplicationSyncDigestMessage();
+            break;
+         }
+         case PacketImpl.REPLICATION_SYNC_DIGEST_RESPONSE:
+         {
+            packet = new ReplicationSyncDigestResponseMessage();
+            break;
+         }
+         case PacketImpl.REPLICATION_RESPONSE_V2:
+         {
+            packet = new ReplicationResponseMessageV2();
+            break;
+         }
          default:
          {
             throw HornetQMessageBundle.BUNDLE.invalidType(packetType);
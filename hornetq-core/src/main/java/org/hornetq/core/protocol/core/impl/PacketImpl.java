@@ -34,8 +34,16 @@ public class PacketImpl implements Packet
 
    private static final int INITIAL_PACKET_SIZE = 1500;
 
+   // Set on the channel id of the header when the packet is followed by its correlation id, see
+   // ChannelImpl#encode(Packet). Channel ids are never negative
+   public static final long CORRELATED_FLAG = Long.MIN_VALUE;
+
+   public static final int CHANNEL_ID_POSITION = DataConstants.SIZE_INT + DataConstants.SIZE_BYTE;
+
    protected long channelID;
 
+   private long correlationID = -1;
+
    private final byte type;
 
    protected int size = -1;
@@ -207,6 +215,9 @@ public class PacketImpl implements Packet
 
    public static final byte REPLICATION_START_FINISH_SYNC = 120;
    public static final byte REPLICATION_SCHEDULED_FAILOVER = 121;
+   public static final byte REPLICATION_SYNC_DIGEST = 122;
+   public static final byte REPLICATION_SYNC_DIGEST_RESPONSE = 123;
+   public static final byte REPLICATION_RESPONSE_V2 = 124;
 
    // Static --------------------------------------------------------
 
@@ -232,6 +243,16 @@ public class PacketImpl implements Packet
       this.channelID = channelID;
    }
 
+   public long getCorrelationID()
+   {
+      return correlationID;
+   }
+
+   public void setCorrelationID(final long correlationID)
+   {
+      this.correlationID = correlationID;
+   }
+
    public HornetQBuffer encode(final RemotingConnection connection)
    {
       HornetQBuffer buffer = connection.createBuffer(PacketImpl.INITIAL_PACKET_SIZE);
@@ -258,6 +279,18 @@ public class PacketImpl implements Packet
    {
       channelID = buffer.readLong();
 
+      if (channelID < 0)
+      {
+         // The correlation id follows the packet, so the packet itself decodes as if it wasn't there
+         channelID &= ~PacketImpl.CORRELATED_FLAG;
+
+         int end = buffer.writerIndex() - DataConstants.SIZE_LONG;
+
+         correlationID = buffer.getLong(end);
+
+         buffer.writerIndex(end);
+      }
+
       decodeRest(buffer);
 
       size = buffer.readerIndex();
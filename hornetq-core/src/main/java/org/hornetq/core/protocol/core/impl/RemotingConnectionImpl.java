@@ -446,7 +446,7 @@ public class RemotingConnectionImpl implements BufferHandler, CoreRemotingConnec
    }
 
    //We flush any confirmations on the connection - this prevents idle bridges for example
-   //sitting there with many unacked messages
+   //sitting there with many unacked messages. This is also when the calls waiting on a response handler time out
    public void flush()
    {
       synchronized (transferLock)
@@ -454,6 +454,8 @@ public class RemotingConnectionImpl implements BufferHandler, CoreRemotingConnec
          for (Channel channel : channels.values())
          {
             channel.flushConfirmations();
+
+            channel.checkCallTimeouts();
          }
       }
    }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.protocol.core.impl.wireformat;
+
+import org.hornetq.api.core.HornetQBuffer;
+import org.hornetq.core.protocol.core.impl.PacketImpl;
+
+/**
+ * Acknowledges several replicated packets at once, where a {@link ReplicationResponseMessage}
+ * acknowledges a single one: the live completes that many of its oldest pending operations.
+ * <p>
+ * The live sends one to a backup of a version that supports them (see
+ * {@link org.hornetq.core.protocol.core.Channel#supports(byte)}) when replication starts, which
+ * tells the backup it may acknowledge packets this way.
+ */
+public final class ReplicationResponseMessageV2 extends PacketImpl
+{
+   private int count;
+
+   public ReplicationResponseMessageV2()
+   {
+      super(REPLICATION_RESPONSE_V2);
+   }
+
+   /**
+    * @param count number of replicated packets acknowledged
+    */
+   public ReplicationResponseMessageV2(final int count)
+   {
+      this();
+      this.count = count;
+   }
+
+   public int getCount()
+   {
+      return count;
+   }
+
+   @Override
+   public void encodeRest(final HornetQBuffer buffer)
+   {
+      buffer.writeInt(count);
+   }
+
+   @Override
+   public void decodeRest(final HornetQBuffer buffer)
+   {
+      count = buffer.readInt();
+   }
+
+   @Override
+   public int hashCode()
+   {
+      final int prime = 31;
+      int result = super.hashCode();
+      result = prime * result + count;
+      return result;
+   }
+
+   @Override
+   public boolean equals(Object obj)
+   {
+      if (this == obj)
+         return true;
+      if (!super.equals(obj))
+         return false;
+      if (!(obj instanceof ReplicationResponseMessageV2))
+         return false;
+      ReplicationResponseMessageV2 other = (ReplicationResponseMessageV2)obj;
+      return count == other.count;
+   }
+
+   @Override
+   public String toString()
+   {
+      return getParentString() + ", count=" + count + "]";
+   }
+}
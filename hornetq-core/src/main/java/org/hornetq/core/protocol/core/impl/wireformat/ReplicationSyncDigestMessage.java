@@ -0,0 +1,242 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.protocol.core.impl.wireformat;
+
+import java.util.Arrays;
+
+import org.hornetq.api.core.HornetQBuffer;
+import org.hornetq.api.core.SimpleString;
+import org.hornetq.core.persistence.impl.journal.JournalStorageManager.JournalContent;
+import org.hornetq.core.protocol.core.impl.PacketImpl;
+import org.hornetq.core.protocol.core.impl.wireformat.ReplicationSyncFileMessage.FileType;
+
+/**
+ * Lists the size and checksum of files the live is about to synchronize, before sending their
+ * content with {@link ReplicationSyncFileMessage}s.
+ * <p>
+ * The backup answers with a {@link ReplicationSyncDigestResponseMessage}. Without checksums, it
+ * holds the ids of the files the backup had with the same size. With checksums, it holds the ids of
+ * the files the backup had with the same content, which the live doesn't send.
+ */
+public final class ReplicationSyncDigestMessage extends PacketImpl
+{
+   private FileType fileType;
+
+   /**
+    * The JournalType or {@code null} if not sync'ing journal files.
+    */
+   private JournalContent journalType;
+
+   private SimpleString pageStoreName;
+
+   private long[] ids;
+
+   private long[] sizes;
+
+   private long[] checksums;
+
+   public ReplicationSyncDigestMessage()
+   {
+      super(REPLICATION_SYNC_DIGEST);
+   }
+
+   /**
+    * @param content journal type or {@code null} for large-messages and pages
+    * @param storeName page store name for pages, or {@code null} otherwise
+    * @param ids journal file ids, (large) message ids or page numbers
+    * @param sizes number of bytes of each file that is going to be synchronized
+    * @param checksums CRC32 of those bytes, or {@code null} to only compare the sizes
+    */
+   public ReplicationSyncDigestMessage(JournalContent content, SimpleString storeName, long[] ids, long[] sizes,
+                                       long[] checksums)
+   {
+      this();
+      this.journalType = content;
+      this.pageStoreName = storeName;
+      this.ids = ids;
+      this.sizes = sizes;
+      this.checksums = checksums;
+      if (content != null)
+      {
+         fileType = FileType.JOURNAL;
+      }
+      else if (storeName != null)
+      {
+         fileType = FileType.PAGE;
+      }
+      else
+      {
+         fileType = FileType.LARGE_MESSAGE;
+      }
+   }
+
+   @Override
+   public void encodeRest(final HornetQBuffer buffer)
+   {
+      buffer.writeByte(fileType.getCode());
+      switch (fileType)
+      {
+         case JOURNAL:
+         {
+            buffer.writeByte(journalType.typeByte);
+            break;
+         }
+         case PAGE:
+         {
+            buffer.writeSimpleString(pageStoreName);
+            break;
+         }
+         case LARGE_MESSAGE:
+         default:
+            // no-op
+      }
+
+      buffer.writeBoolean(checksums != null);
+      buffer.writeInt(ids.length);
+      for (int i = 0; i < ids.length; i++)
+      {
+         buffer.writeLong(ids[i]);
+         buffer.writeLong(sizes[i]);
+         if (checksums != null)
+         {
+            buffer.writeLong(checksums[i]);
+         }
+      }
+   }
+
+   @Override
+   public void decodeRest(final HornetQBuffer buffer)
+   {
+      fileType = FileType.getFileType(buffer.readByte());
+      switch (fileType)
+      {
+         case JOURNAL:
+         {
+            journalType = JournalContent.getType(buffer.readByte());
+            break;
+         }
+         case PAGE:
+         {
+            pageStoreName = buffer.readSimpleString();
+            break;
+         }
+         case LARGE_MESSAGE:
+         default:
+            // no-op
+      }
+
+      boolean hasChecksums = buffer.readBoolean();
+      int length = buffer.readInt();
+      ids = new long[length];
+      sizes = new long[length];
+      checksums = hasChecksums ? new long[length] : null;
+      for (int i = 0; i < length; i++)
+      {
+         ids[i] = buffer.readLong();
+         sizes[i] = buffer.readLong();
+         if (hasChecksums)
+         {
+            checksums[i] = buffer.readLong();
+         }
+      }
+   }
+
+   public FileType getFileType()
+   {
+      return fileType;
+   }
+
+   public JournalContent getJournalContent()
+   {
+      return journalType;
+   }
+
+   public SimpleString getPageStore()
+   {
+      return pageStoreName;
+   }
+
+   public long[] getIds()
+   {
+      return ids;
+   }
+
+   public long[] getSizes()
+   {
+      return sizes;
+   }
+
+   /**
+    * @return the checksums, or {@code null} if only the sizes are compared
+    */
+   public long[] getChecksums()
+   {
+      return checksums;
+   }
+
+   @Override
+   public int hashCode()
+   {
+      final int prime = 31;
+      int result = super.hashCode();
+      result = prime * result + Arrays.hashCode(checksums);
+      result = prime * result + ((fileType == null) ? 0 : fileType.hashCode());
+      result = prime * result + Arrays.hashCode(ids);
+      result = prime * result + ((journalType == null) ? 0 : journalType.hashCode());
+      result = prime * result + ((pageStoreName == null) ? 0 : pageStoreName.hashCode());
+      result = prime * result + Arrays.hashCode(sizes);
+      return result;
+   }
+
+   @Override
+   public boolean equals(Object obj)
+   {
+      if (this == obj)
+         return true;
+      if (!super.equals(obj))
+         return false;
+      if (!(obj instanceof ReplicationSyncDigestMessage))
+         return false;
+      ReplicationSyncDigestMessage other = (ReplicationSyncDigestMessage)obj;
+      if (fileType != other.fileType)
+         return false;
+      if (journalType != other.journalType)
+         return false;
+      if (pageStoreName == null)
+      {
+         if (other.pageStoreName != null)
+            return false;
+      }
+      else if (!pageStoreName.equals(other.pageStoreName))
+         return false;
+      if (!Arrays.equals(ids, other.ids))
+         return false;
+      if (!Arrays.equals(sizes, other.sizes))
+         return false;
+      if (!Arrays.equals(checksums, other.checksums))
+         return false;
+      return true;
+   }
+
+   @Override
+   public String toString()
+   {
+      return ReplicationSyncDigestMessage.class.getSimpleName() + "(" + fileType +
+               (journalType != null ? ", " + journalType : "") +
+               (pageStoreName != null ? ", " + pageStoreName : "") +
+               ", files=" +
+               (ids == null ? 0 : ids.length) +
+               ")";
+   }
+}
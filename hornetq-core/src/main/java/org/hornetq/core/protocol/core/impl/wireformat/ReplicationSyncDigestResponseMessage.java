@@ -0,0 +1,96 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.protocol.core.impl.wireformat;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.hornetq.api.core.HornetQBuffer;
+import org.hornetq.core.protocol.core.impl.PacketImpl;
+
+/**
+ * Answers a {@link ReplicationSyncDigestMessage} with the ids of the files the backup had with the
+ * same size or, for a digest with checksums, with the same content, and so doesn't need to receive.
+ * Digests are answered apart from the {@link ReplicationResponseMessage}s of the other packets.
+ */
+public final class ReplicationSyncDigestResponseMessage extends PacketImpl
+{
+   private long[] ids;
+
+   public ReplicationSyncDigestResponseMessage()
+   {
+      super(REPLICATION_SYNC_DIGEST_RESPONSE);
+   }
+
+   public ReplicationSyncDigestResponseMessage(List<Long> heldIds)
+   {
+      this();
+      ids = new long[heldIds.size()];
+      for (int i = 0; i < ids.length; i++)
+      {
+         ids[i] = heldIds.get(i);
+      }
+   }
+
+   @Override
+   public void encodeRest(final HornetQBuffer buffer)
+   {
+      buffer.writeInt(ids.length);
+      for (long id : ids)
+      {
+         buffer.writeLong(id);
+      }
+   }
+
+   @Override
+   public void decodeRest(final HornetQBuffer buffer)
+   {
+      int length = buffer.readInt();
+      ids = new long[length];
+      for (int i = 0; i < length; i++)
+      {
+         ids[i] = buffer.readLong();
+      }
+   }
+
+   /**
+    * @return the ids of the files the backup already had
+    */
+   public long[] getHeldIds()
+   {
+      return ids;
+   }
+
+   @Override
+   public int hashCode()
+   {
+      final int prime = 31;
+      int result = super.hashCode();
+      result = prime * result + Arrays.hashCode(ids);
+      return result;
+   }
+
+   @Override
+   public boolean equals(Object obj)
+   {
+      if (this == obj)
+         return true;
+      if (!super.equals(obj))
+         return false;
+      if (!(obj instanceof ReplicationSyncDigestResponseMessage))
+         return false;
+      ReplicationSyncDigestResponseMessage other = (ReplicationSyncDigestResponseMessage)obj;
+      return Arrays.equals(ids, other.ids);
+   }
+}
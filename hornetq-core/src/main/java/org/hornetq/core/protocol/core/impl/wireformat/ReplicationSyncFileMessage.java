@@ -44,6 +44,11 @@ public final class ReplicationSyncFileMessage extends PacketImpl
          this.code = (byte)code;
       }
 
+      byte getCode()
+      {
+         return code;
+      }
+
       /**
        * @param readByte
        * @return {@link FileType} corresponding to the byte code.
@@ -15,6 +15,7 @@ package org.hornetq.core.protocol.core.impl.wireformat;
 
 import org.hornetq.api.core.HornetQBuffer;
 import org.hornetq.core.protocol.core.impl.PacketImpl;
+import org.hornetq.spi.core.protocol.RemotingConnection;
 import org.hornetq.utils.DataConstants;
 
 /**
@@ -77,6 +78,39 @@ public class SessionReceiveContinuationMessage extends SessionContinuationMessag
       super.encodeRest(buffer);
       buffer.writeLong(consumerID);
    }
+   /**
+    * Encodes this packet up to its body, for a body of the given size written separately to the connection.
+    * The rest of the packet is given by {@link #encodeTrailer(RemotingConnection)}.
+    */
+   public HornetQBuffer encodeHeader(final RemotingConnection connection, final int bodySize)
+   {
+      HornetQBuffer buffer = connection.createBuffer(PacketImpl.PACKET_HEADERS_SIZE + DataConstants.SIZE_INT);
+
+      size = SessionReceiveContinuationMessage.SESSION_RECEIVE_CONTINUATION_BASE_SIZE + bodySize;
+
+      // The length doesn't include the actual length byte
+      buffer.writeInt(size - DataConstants.SIZE_INT);
+      buffer.writeByte(getType());
+      buffer.writeLong(channelID);
+
+      buffer.writeInt(bodySize);
+
+      return buffer;
+   }
+
+   /**
+    * Encodes what follows the body of this packet.
+    */
+   public HornetQBuffer encodeTrailer(final RemotingConnection connection)
+   {
+      HornetQBuffer buffer = connection.createBuffer(DataConstants.SIZE_BOOLEAN + DataConstants.SIZE_LONG);
+
+      buffer.writeBoolean(continues);
+      buffer.writeLong(consumerID);
+
+      return buffer;
+   }
+
    @Override
    public int getPacketSize()
    {
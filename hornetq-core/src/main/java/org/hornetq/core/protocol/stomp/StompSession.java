@@ -12,6 +12,10 @@
  */
 package org.hornetq.core.protocol.stomp;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -21,6 +25,7 @@ import org.hornetq.utils.Pair;
 import org.hornetq.api.core.SimpleString;
 import org.hornetq.core.persistence.OperationContext;
 import org.hornetq.core.remoting.impl.netty.TransportConstants;
+import org.hornetq.core.server.HornetQLogger;
 import org.hornetq.core.server.QueueQueryResult;
 import org.hornetq.core.server.ServerMessage;
 import org.hornetq.core.server.ServerSession;
@@ -122,6 +127,44 @@ public class StompSession implements SessionCallback
       return 0;
    }
 
+   public boolean isFileRegionSupported()
+   {
+      return false;
+   }
+
+   public int sendLargeMessageContinuation(long consumerID,
+                                           FileChannel file,
+                                           long position,
+                                           int length,
+                                           boolean continues,
+                                           Runnable written)
+   {
+      // Stomp frames are encoded in memory, so the chunk is read and sent like any other
+      try
+      {
+         ByteBuffer body = ByteBuffer.allocate(length);
+
+         while (body.hasRemaining())
+         {
+            if (file.read(body, position + body.position()) < 0)
+            {
+               throw new EOFException("Large message body ends before " + (position + length));
+            }
+         }
+
+         return sendLargeMessageContinuation(consumerID, body.array(), continues, false);
+      }
+      catch (IOException e)
+      {
+         HornetQLogger.LOGGER.warn(e.getMessage(), e);
+         return 0;
+      }
+      finally
+      {
+         written.run();
+      }
+   }
+
    public int sendLargeMessage(ServerMessage msg, long consumerID, long bodySize, int deliveryCount)
    {
       return 0;
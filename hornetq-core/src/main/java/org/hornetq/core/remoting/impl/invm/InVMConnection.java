@@ -12,6 +12,7 @@
  */
 package org.hornetq.core.remoting.impl.invm;
 
+import java.nio.channels.FileChannel;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
@@ -212,6 +213,21 @@ public class InVMConnection implements Connection
 
    }
 
+   public boolean isFileRegionSupported()
+   {
+      return false;
+   }
+
+   public void writeFileRegion(final HornetQBuffer header,
+                               final FileChannel file,
+                               final long position,
+                               final int count,
+                               final HornetQBuffer trailer,
+                               final Runnable written)
+   {
+      throw new UnsupportedOperationException("File regions can't be written to an InVM connection");
+   }
+
    public String getRemoteAddress()
    {
       return "invm:" + serverID;
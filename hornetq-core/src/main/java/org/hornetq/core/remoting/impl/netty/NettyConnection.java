@@ -13,6 +13,7 @@
 
 package org.hornetq.core.remoting.impl.netty;
 
+import java.nio.channels.FileChannel;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Semaphore;
@@ -32,6 +33,12 @@ import org.hornetq.utils.ConcurrentHashSet;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.DefaultFileRegion;
+import org.jboss.netty.channel.socket.SocketChannel;
+import org.jboss.netty.handler.codec.http.HttpRequestEncoder;
+import org.jboss.netty.handler.codec.http.HttpResponseEncoder;
 import org.jboss.netty.handler.ssl.SslHandler;
 
 /**
@@ -249,6 +256,77 @@ public class NettyConnection implements Connection
       }
    }
 
+   /**
+    * @return true if {@link #writeFileRegion(HornetQBuffer, FileChannel, long, int, HornetQBuffer, Runnable)} can be
+    *         used. The file is transferred to the socket as it is, so this is only possible on a plain socket, without
+    *         SSL or HTTP encoding.
+    */
+   public boolean isFileRegionSupported()
+   {
+      if (!(channel instanceof SocketChannel))
+      {
+         return false;
+      }
+
+      ChannelPipeline pipeline = channel.getPipeline();
+
+      return pipeline.get(SslHandler.class) == null && pipeline.get(HttpResponseEncoder.class) == null &&
+             pipeline.get(HttpRequestEncoder.class) == null;
+   }
+
+   /**
+    * Writes a frame whose body is transferred straight from the file to the socket, without being copied on the heap.
+    *
+    * @param header the part of the frame before the body
+    * @param trailer the part of the frame after the body
+    * @param written called once the body has been written, or failed to be. The file must be kept open until then
+    */
+   public void writeFileRegion(final HornetQBuffer header,
+                               final FileChannel file,
+                               final long position,
+                               final int count,
+                               final HornetQBuffer trailer,
+                               final Runnable written)
+   {
+      try
+      {
+         writeLock.acquire();
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         written.run();
+         return;
+      }
+
+      try
+      {
+         // Anything batched before goes first
+         if (batchBuffer != null && batchBuffer.readable())
+         {
+            channel.write(batchBuffer.channelBuffer());
+
+            batchBuffer = HornetQBuffers.dynamicBuffer(BATCHING_BUFFER_SIZE);
+         }
+
+         channel.write(header.channelBuffer());
+
+         channel.write(new DefaultFileRegion(file, position, count, false)).addListener(new ChannelFutureListener()
+         {
+            public void operationComplete(final ChannelFuture future) throws Exception
+            {
+               written.run();
+            }
+         });
+
+         channel.write(trailer.channelBuffer());
+      }
+      finally
+      {
+         writeLock.release();
+      }
+   }
+
    public String getRemoteAddress()
    {
       return channel.getRemoteAddress().toString();
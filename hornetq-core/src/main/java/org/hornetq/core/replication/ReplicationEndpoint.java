@@ -13,17 +13,23 @@
 
 package org.hornetq.core.replication;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 
 import org.hornetq.api.core.HornetQException;
 import org.hornetq.api.core.SimpleString;
@@ -63,12 +69,17 @@ import org.hornetq.core.protocol.core.impl.wireformat.ReplicationPageEventMessag
 import org.hornetq.core.protocol.core.impl.wireformat.ReplicationPageWriteMessage;
 import org.hornetq.core.protocol.core.impl.wireformat.ReplicationPrepareMessage;
 import org.hornetq.core.protocol.core.impl.wireformat.ReplicationResponseMessage;
+import org.hornetq.core.protocol.core.impl.wireformat.ReplicationResponseMessageV2;
 import org.hornetq.core.protocol.core.impl.wireformat.ReplicationStartSyncMessage;
 import org.hornetq.core.protocol.core.impl.wireformat.ReplicationStartSyncMessage.SyncDataType;
+import org.hornetq.core.protocol.core.impl.wireformat.ReplicationSyncDigestMessage;
+import org.hornetq.core.protocol.core.impl.wireformat.ReplicationSyncDigestResponseMessage;
 import org.hornetq.core.protocol.core.impl.wireformat.ReplicationSyncFileMessage;
+import org.hornetq.core.protocol.core.impl.wireformat.ReplicationSyncFileMessage.FileType;
 import org.hornetq.core.server.HornetQComponent;
 import org.hornetq.core.server.HornetQLogger;
 import org.hornetq.core.server.HornetQMessageBundle;
+import org.hornetq.core.server.JournalType;
 import org.hornetq.core.server.ServerMessage;
 import org.hornetq.core.server.impl.HornetQServerImpl;
 import org.hornetq.core.server.impl.QuorumManager;
@@ -111,12 +122,53 @@ public final class ReplicationEndpoint implements ChannelHandler, HornetQCompone
    private final ConcurrentMap<Long, ReplicatedLargeMessage> largeMessages =
             new ConcurrentHashMap<Long, ReplicatedLargeMessage>();
 
+   /**
+    * Where the data directories were moved to when this backup was started, by data directory, or
+    * {@code null} values if there was no data.
+    */
+   private final Map<String, File> previousDirectories = new HashMap<String, File>();
+
+   /** The page store directories among the previous data, by store name */
+   private Map<SimpleString, File> previousPageStores;
+
    // Used on tests, to simulate failures on delete pages
    private boolean deletePages = true;
    private boolean started;
 
    private QuorumManager quorumManager;
 
+   private final Object responseLock = new Object();
+
+   /** Packets handled and not acknowledged yet, guarded by {@link #responseLock} */
+   private int pendingAcknowledgements;
+
+   private Channel acknowledgeChannel;
+
+   private boolean acknowledgeScheduled;
+
+   /**
+    * Whether the live takes a {@link ReplicationResponseMessageV2} for several packets, guarded by
+    * {@link #responseLock}
+    */
+   private boolean countedAcknowledgements;
+
+   private Executor responseExecutor;
+
+   /** Answers the {@link ReplicationSyncDigestMessage}s, which may have to read a lot of files */
+   private Executor syncExecutor;
+
+   private final Runnable acknowledger = new Runnable()
+   {
+      public void run()
+      {
+         synchronized (responseLock)
+         {
+            acknowledgeScheduled = false;
+            flushAcknowledgements();
+         }
+      }
+   };
+
    // Constructors --------------------------------------------------
    public ReplicationEndpoint(final HornetQServerImpl server, IOCriticalErrorListener criticalErrorListener,
                               boolean wantedFailBack)
@@ -150,7 +202,7 @@ public final class ReplicationEndpoint implements ChannelHandler, HornetQCompone
    @Override
    public void handlePacket(final Packet packet)
    {
-      PacketImpl response = new ReplicationResponseMessage();
+      PacketImpl response = null;
       final byte type=packet.getType();
 
       try
@@ -217,6 +269,21 @@ public final class ReplicationEndpoint implements ChannelHandler, HornetQCompone
             {
                handleReplicationSynchronization((ReplicationSyncFileMessage) packet);
             }
+            else if (type == PacketImpl.REPLICATION_RESPONSE_V2)
+            {
+               // the live supports counted acknowledgements, and doesn't expect one for this
+               synchronized (responseLock)
+               {
+                  countedAcknowledgements = true;
+               }
+               return;
+            }
+            else if (type == PacketImpl.REPLICATION_SYNC_DIGEST)
+            {
+               // answered from the syncExecutor, so not acknowledged
+               handleSyncDigest((ReplicationSyncDigestMessage) packet);
+               return;
+            }
          else if (type == PacketImpl.REPLICATION_SCHEDULED_FAILOVER)
          {
             handleLiveStopping();
@@ -242,7 +309,67 @@ public final class ReplicationEndpoint implements ChannelHandler, HornetQCompone
                   new HornetQExceptionMessage(HornetQMessageBundle.BUNDLE.replicationUnhandledError(e));
       }
 
-      channel.send(response);
+      if (response == null)
+      {
+         acknowledge(channel);
+      }
+      else
+      {
+         response.setCorrelationID(packet.getCorrelationID());
+         sendResponse(channel, response);
+      }
+   }
+
+   /**
+    * Counts a packet as handled. The count is sent to the live once the packets already received
+    * are handled, as a single response if the live supports it, so the live gets a response per
+    * batch of packets rather than per packet.
+    */
+   private void acknowledge(final Channel responseChannel)
+   {
+      synchronized (responseLock)
+      {
+         if (responseChannel != acknowledgeChannel)
+         {
+            flushAcknowledgements();
+            acknowledgeChannel = responseChannel;
+         }
+         pendingAcknowledgements++;
+         if (!acknowledgeScheduled)
+         {
+            acknowledgeScheduled = true;
+            responseExecutor.execute(acknowledger);
+         }
+      }
+   }
+
+   private void sendResponse(final Channel responseChannel, final Packet response)
+   {
+      synchronized (responseLock)
+      {
+         // responses are matched to the packets in order
+         flushAcknowledgements();
+         responseChannel.send(response);
+      }
+   }
+
+   private void flushAcknowledgements()
+   {
+      if (pendingAcknowledgements > 0)
+      {
+         if (countedAcknowledgements)
+         {
+            acknowledgeChannel.send(new ReplicationResponseMessageV2(pendingAcknowledgements));
+         }
+         else
+         {
+            for (int i = 0; i < pendingAcknowledgements; i++)
+            {
+               acknowledgeChannel.send(new ReplicationResponseMessage());
+            }
+         }
+         pendingAcknowledgements = 0;
+      }
    }
 
    /**
@@ -272,6 +399,9 @@ public final class ReplicationEndpoint implements ChannelHandler, HornetQCompone
       Configuration config = server.getConfiguration();
       try
       {
+      responseExecutor = server.getExecutorFactory().getExecutor();
+      syncExecutor = server.getExecutorFactory().getExecutor();
+
       storage = server.getStorageManager();
       storage.start();
 
@@ -291,7 +421,8 @@ public final class ReplicationEndpoint implements ChannelHandler, HornetQCompone
                                                                     config.getJournalBufferSize_NIO(),
                                                                     server.getScheduledPool(),
                                                                     server.getExecutorFactory(),
-                                                                    config.isJournalSyncNonTransactional(), criticalErrorListener),
+                                                                    config.isJournalSyncNonTransactional(), criticalErrorListener,
+                                                                    config.getJournalType() == JournalType.MAPPED),
                                           storage,
                                           server.getAddressSettingsRepository());
 
@@ -479,10 +610,19 @@ public final class ReplicationEndpoint implements ChannelHandler, HornetQCompone
     */
    private synchronized void handleReplicationSynchronization(ReplicationSyncFileMessage msg) throws Exception
    {
-      Long id = Long.valueOf(msg.getId());
-      byte[] data = msg.getData();
+      writeSyncData(msg.getFileType(), msg.getJournalContent(), msg.getPageStore(), msg.getId(), msg.getData());
+   }
+
+   /**
+    * Writes data to a file being synchronized.
+    * @param data the data to append, or {@code null} to close the file
+    */
+   private void writeSyncData(FileType fileType, JournalContent content, SimpleString pageStore, long fileId,
+                              byte[] data) throws Exception
+   {
+      Long id = Long.valueOf(fileId);
       SequentialFile channel;
-      switch (msg.getFileType())
+      switch (fileType)
       {
          case LARGE_MESSAGE:
          {
@@ -498,13 +638,13 @@ public final class ReplicationEndpoint implements ChannelHandler, HornetQCompone
          }
          case PAGE:
          {
-            Page page = getPage(msg.getPageStore(), (int)msg.getId());
+            Page page = getPage(pageStore, (int)fileId);
             channel = page.getFile();
             break;
          }
          case JOURNAL:
          {
-            JournalSyncFile journalSyncFile = filesReservedForSync.get(msg.getJournalContent()).get(id);
+            JournalSyncFile journalSyncFile = filesReservedForSync.get(content).get(id);
             FileChannel channel2 = journalSyncFile.getChannel();
             if (data == null)
             {
@@ -515,7 +655,7 @@ public final class ReplicationEndpoint implements ChannelHandler, HornetQCompone
             return;
          }
          default:
-            throw HornetQMessageBundle.BUNDLE.replicationUnhandledFileType(msg.getFileType());
+            throw HornetQMessageBundle.BUNDLE.replicationUnhandledFileType(fileType);
       }
 
       if (data == null)
@@ -531,6 +671,252 @@ public final class ReplicationEndpoint implements ChannelHandler, HornetQCompone
       channel.writeDirect(ByteBuffer.wrap(data), true);
    }
 
+   /**
+    * Looks for the files of the digest among the data this backup had before being started, which
+    * {@link HornetQServerImpl} moves away to directories with a numeric suffix, so a restarted
+    * backup only has to receive the files that changed since it last ran.
+    * <p>
+    * A digest without checksums is answered with the files found with the same size. Those with
+    * the same checksum too are copied in place of the ones being synchronized. As that means
+    * reading them, the digest is answered from the {@link #syncExecutor} rather than holding up the
+    * packets that follow it.
+    */
+   private void handleSyncDigest(final ReplicationSyncDigestMessage msg)
+   {
+      final Channel responseChannel = channel;
+      syncExecutor.execute(new Runnable()
+      {
+         public void run()
+         {
+            if (!started)
+            {
+               return;
+            }
+            Packet response;
+            try
+            {
+               List<Long> held =
+                        msg.getChecksums() == null ? findPreviousFiles(msg) : copyPreviousFiles(msg);
+               response = new ReplicationSyncDigestResponseMessage(held);
+            }
+            catch (HornetQException e)
+            {
+               HornetQLogger.LOGGER.errorHandlingReplicationPacket(e, msg);
+               response = new HornetQExceptionMessage(e);
+            }
+            catch (Exception e)
+            {
+               HornetQLogger.LOGGER.errorHandlingReplicationPacket(e, msg);
+               response = new HornetQExceptionMessage(HornetQMessageBundle.BUNDLE.replicationUnhandledError(e));
+            }
+            sendResponse(responseChannel, response);
+         }
+      });
+   }
+
+   /**
+    * @return the ids of the files found with the same size
+    */
+   private List<Long> findPreviousFiles(ReplicationSyncDigestMessage msg) throws Exception
+   {
+      List<Long> found = new ArrayList<Long>();
+      long[] ids = msg.getIds();
+      for (int i = 0; i < ids.length; i++)
+      {
+         File previous = getPreviousFile(msg.getFileType(), msg.getJournalContent(), msg.getPageStore(), ids[i]);
+         if (previous != null && previous.length() == msg.getSizes()[i])
+         {
+            found.add(ids[i]);
+         }
+      }
+      return found;
+   }
+
+   /**
+    * @return the ids of the files found with the same size and checksum, which were copied
+    */
+   private List<Long> copyPreviousFiles(ReplicationSyncDigestMessage msg) throws Exception
+   {
+      List<Long> held = new ArrayList<Long>();
+      long[] ids = msg.getIds();
+      for (int i = 0; i < ids.length; i++)
+      {
+         long size = msg.getSizes()[i];
+         File previous = getPreviousFile(msg.getFileType(), msg.getJournalContent(), msg.getPageStore(), ids[i]);
+         if (previous != null && previous.length() == size &&
+                  ReplicationManager.checksum(previous, size) == msg.getChecksums()[i])
+         {
+            copySyncData(previous, msg.getFileType(), msg.getJournalContent(), msg.getPageStore(), ids[i]);
+            held.add(ids[i]);
+         }
+      }
+      if (!held.isEmpty())
+      {
+         HornetQLogger.LOGGER.debug("Backup reused " + held.size() + " of " + ids.length + " files for " + msg);
+      }
+      return held;
+   }
+
+   /**
+    * Copies a file chunk by chunk, as the packets received meanwhile are written to the files
+    * being synchronized.
+    */
+   private void copySyncData(File previous, FileType fileType, JournalContent content, SimpleString pageStore,
+                             long id) throws Exception
+   {
+      FileInputStream input = new FileInputStream(previous);
+      try
+      {
+         FileChannel source = input.getChannel();
+         ByteBuffer buffer = ByteBuffer.allocate(1 << 17);
+         while (true)
+         {
+            buffer.clear();
+            int bytesRead = source.read(buffer);
+            if (bytesRead <= 0)
+            {
+               break;
+            }
+            byte[] data = new byte[bytesRead];
+            System.arraycopy(buffer.array(), 0, data, 0, bytesRead);
+            synchronized (this)
+            {
+               writeSyncData(fileType, content, pageStore, id, data);
+            }
+         }
+      }
+      finally
+      {
+         input.close();
+      }
+      synchronized (this)
+      {
+         writeSyncData(fileType, content, pageStore, id, null);
+      }
+   }
+
+   /**
+    * @return the file with the same name as the one being synchronized among the previous data, or
+    *         {@code null}
+    */
+   private synchronized File getPreviousFile(FileType fileType, JournalContent content, SimpleString pageStore,
+                                             long id) throws Exception
+   {
+      Configuration config = server.getConfiguration();
+      File directory;
+      String fileName;
+      switch (fileType)
+      {
+         case JOURNAL:
+         {
+            JournalSyncFile syncFile = filesReservedForSync.get(content).get(id);
+            if (syncFile == null)
+            {
+               return null;
+            }
+            directory = getPreviousDirectory(content == JournalContent.BINDINGS ? config.getBindingsDirectory()
+                                                                                : config.getJournalDirectory());
+            fileName = syncFile.file.getName();
+            break;
+         }
+         case LARGE_MESSAGE:
+         {
+            ReplicatedLargeMessage largeMessage = largeMessages.get(id);
+            if (!(largeMessage instanceof LargeServerMessageInSync))
+            {
+               return null;
+            }
+            directory = getPreviousDirectory(config.getLargeMessagesDirectory());
+            fileName = ((LargeServerMessageInSync)largeMessage).getSyncFile().getFileName();
+            break;
+         }
+         case PAGE:
+         {
+            directory = getPreviousPageStore(pageStore);
+            if (directory == null)
+            {
+               return null;
+            }
+            fileName = getPage(pageStore, (int)id).getFile().getFileName();
+            break;
+         }
+         default:
+            throw HornetQMessageBundle.BUNDLE.replicationUnhandledFileType(fileType);
+      }
+      if (directory == null)
+      {
+         return null;
+      }
+      File file = new File(directory, fileName);
+      return file.isFile() ? file : null;
+   }
+
+   /**
+    * @return the most recent directory the data directory was moved to, or {@code null}
+    */
+   private File getPreviousDirectory(String directory)
+   {
+      if (previousDirectories.containsKey(directory))
+      {
+         return previousDirectories.get(directory);
+      }
+      File dir = new File(directory).getAbsoluteFile();
+      File parent = dir.getParentFile();
+      String[] names = parent == null ? null : parent.list();
+      File previous = null;
+      long highestSuffix = 0;
+      if (names != null)
+      {
+         for (String name : names)
+         {
+            String suffix = name.substring(Math.min(name.length(), dir.getName().length()));
+            if (name.startsWith(dir.getName()) && suffix.length() > 0 && suffix.length() < 10 &&
+                     suffix.matches("[0-9]+") && Long.parseLong(suffix) > highestSuffix)
+            {
+               highestSuffix = Long.parseLong(suffix);
+               previous = new File(parent, name);
+            }
+         }
+      }
+      previousDirectories.put(directory, previous);
+      return previous;
+   }
+
+   private File getPreviousPageStore(SimpleString storeName) throws IOException
+   {
+      if (previousPageStores == null)
+      {
+         previousPageStores = new HashMap<SimpleString, File>();
+         File pagingDirectory = getPreviousDirectory(server.getConfiguration().getPagingDirectory());
+         File[] stores = pagingDirectory == null ? null : pagingDirectory.listFiles();
+         if (stores != null)
+         {
+            for (File store : stores)
+            {
+               File addressFile = new File(store, PagingStoreFactoryNIO.ADDRESS_FILE);
+               if (!addressFile.isFile())
+               {
+                  continue;
+               }
+               BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(addressFile)));
+               try
+               {
+                  String address = reader.readLine();
+                  if (address != null)
+                  {
+                     previousPageStores.put(new SimpleString(address), store);
+                  }
+               }
+               finally
+               {
+                  reader.close();
+               }
+            }
+         }
+      }
+      return previousPageStores.get(storeName);
+   }
+
    /**
     * Reserves files (with the given fileID) in the specified journal, and places a
     * {@link FileWrapperJournal} in place to store messages while synchronization is going on.
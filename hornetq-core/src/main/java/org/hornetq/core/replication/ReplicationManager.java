@@ -13,21 +13,36 @@
 
 package org.hornetq.core.replication;
 
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
 
 import org.hornetq.api.core.HornetQBuffer;
 import org.hornetq.api.core.HornetQException;
 import org.hornetq.api.core.HornetQExceptionType;
 import org.hornetq.api.core.SimpleString;
+import org.hornetq.api.core.client.HornetQClient;
 import org.hornetq.api.core.client.SessionFailureListener;
 import org.hornetq.core.journal.EncodingSupport;
+import org.hornetq.core.journal.IOAsyncTask;
 import org.hornetq.core.journal.JournalLoadInformation;
 import org.hornetq.core.journal.SequentialFile;
 import org.hornetq.core.journal.impl.JournalFile;
@@ -41,6 +56,7 @@ import org.hornetq.core.protocol.core.CoreRemotingConnection;
 import org.hornetq.core.protocol.core.Packet;
 import org.hornetq.core.protocol.core.impl.ChannelImpl.CHANNEL_ID;
 import org.hornetq.core.protocol.core.impl.PacketImpl;
+import org.hornetq.core.protocol.core.impl.wireformat.HornetQExceptionMessage;
 import org.hornetq.core.protocol.core.impl.wireformat.LiveIsStoppingMessage;
 import org.hornetq.core.protocol.core.impl.wireformat.ReplicationAddMessage;
 import org.hornetq.core.protocol.core.impl.wireformat.ReplicationAddTXMessage;
@@ -54,11 +70,17 @@ import org.hornetq.core.protocol.core.impl.wireformat.ReplicationLargeMessageWri
 import org.hornetq.core.protocol.core.impl.wireformat.ReplicationPageEventMessage;
 import org.hornetq.core.protocol.core.impl.wireformat.ReplicationPageWriteMessage;
 import org.hornetq.core.protocol.core.impl.wireformat.ReplicationPrepareMessage;
+import org.hornetq.core.protocol.core.impl.wireformat.ReplicationResponseMessageV2;
 import org.hornetq.core.protocol.core.impl.wireformat.ReplicationStartSyncMessage;
+import org.hornetq.core.protocol.core.impl.wireformat.ReplicationSyncDigestMessage;
+import org.hornetq.core.protocol.core.impl.wireformat.ReplicationSyncDigestResponseMessage;
 import org.hornetq.core.protocol.core.impl.wireformat.ReplicationSyncFileMessage;
 import org.hornetq.core.server.HornetQComponent;
 import org.hornetq.core.server.HornetQLogger;
+import org.hornetq.core.server.HornetQMessageBundle;
+import org.hornetq.spi.core.remoting.Connection;
 import org.hornetq.utils.ExecutorFactory;
+import org.hornetq.utils.Pair;
 
 /**
  * Manages replication tasks on the live server (that is the live server side of a "remote backup"
@@ -72,6 +94,19 @@ public class ReplicationManager implements HornetQComponent
 {
 
    // Constants -----------------------------------------------------
+
+   /** How long to wait for the backup to answer a {@link ReplicationSyncDigestMessage} */
+   private static final long DIGEST_TIMEOUT = HornetQClient.DEFAULT_CALL_TIMEOUT;
+
+   /** The most bytes of files the backup is asked to checksum and copy in a single digest */
+   private static final long DIGEST_MAX_BYTES = 256L * 1024 * 1024;
+
+   /** How many files are sent at once during synchronization */
+   private static final int SYNC_CONCURRENCY = 4;
+
+   /** How many chunks of files are sent ahead of the backup's acknowledgements */
+   private static final int SYNC_WINDOW = 32;
+
    // Attributes ----------------------------------------------------
 
    private final ResponseHandler responseHandler = new ResponseHandler();
@@ -86,12 +121,35 @@ public class ReplicationManager implements HornetQComponent
 
    private final Queue<OperationContext> pendingTokens = new ConcurrentLinkedQueue<OperationContext>();
 
+   /**
+    * Packets waiting to be written by {@link #packetFlusher}, guarded by {@link #replicationLock}.
+    * They are encoded right away, as the records they refer to may change afterwards.
+    */
+   private List<HornetQBuffer> pendingPackets = new ArrayList<HornetQBuffer>();
+
+   private boolean flushScheduled;
+
+   /** Keeps the packets in order when they are flushed from different threads */
+   private final Object flushLock = new Object();
+
+   private final Executor flushExecutor;
+
+   private final Runnable packetFlusher = new Runnable()
+   {
+      public void run()
+      {
+         flushPackets();
+      }
+   };
+
    private final ExecutorFactory executorFactory;
 
    private SessionFailureListener failureListener;
 
    private CoreRemotingConnection remotingConnection;
 
+   private volatile DigestResponse pendingDigest;
+
    // Static --------------------------------------------------------
 
    // Constructors --------------------------------------------------
@@ -102,6 +160,7 @@ public class ReplicationManager implements HornetQComponent
    public ReplicationManager(CoreRemotingConnection remotingConnection, final ExecutorFactory executorFactory)
    {
       this.executorFactory = executorFactory;
+      this.flushExecutor = executorFactory.getExecutor();
       this.replicatingChannel = remotingConnection.getChannel(CHANNEL_ID.REPLICATION.id, -1);
       this.remotingConnection = remotingConnection;
    }
@@ -275,6 +334,12 @@ public class ReplicationManager implements HornetQComponent
       started = true;
 
       enabled = true;
+
+      if (replicatingChannel.supports(PacketImpl.REPLICATION_RESPONSE_V2))
+      {
+         // lets the backup acknowledge the packets of a whole group with a single response
+         sendUnacknowledgedPacket(new ReplicationResponseMessageV2(0));
+      }
    }
 
    public void stop() throws Exception
@@ -284,10 +349,15 @@ public class ReplicationManager implements HornetQComponent
          return;
       }
 
+      // what was already replicated must still reach the backup, for instance the live stopping
+      flushPackets();
+
       synchronized (replicationLock)
       {
          enabled = false;
 
+         pendingPackets.clear();
+
       clearReplicationTokens();
       }
       if (replicatingChannel != null)
@@ -376,7 +446,7 @@ public class ReplicationManager implements HornetQComponent
          if (enabled)
          {
             pendingTokens.add(repliToken);
-            replicatingChannel.send(packet);
+            queuePacket(packet);
          }
          else
          {
@@ -394,20 +464,90 @@ public class ReplicationManager implements HornetQComponent
    }
 
    /**
+    * Sends a packet the backup answers on its own instead of acknowledging it, so no replication
+    * token is lined up for it.
+    */
+   private void sendUnacknowledgedPacket(final Packet packet)
+   {
+      synchronized (replicationLock)
+      {
+         if (enabled)
+         {
+            queuePacket(packet);
+         }
+      }
+   }
+
+   /**
+    * Must be called holding {@link #replicationLock}.
+    */
+   private void queuePacket(final Packet packet)
+   {
+      packet.setChannelID(replicatingChannel.getID());
+      pendingPackets.add(packet.encode(remotingConnection));
+      if (!flushScheduled)
+      {
+         flushScheduled = true;
+         flushExecutor.execute(packetFlusher);
+      }
+   }
+
+   /**
+    * Writes the pending packets to the backup together, as a group commit: the packets replicated
+    * while a group is being written go in the next one, so a busy live pays for a write and for the
+    * backup's response per group rather than per operation.
+    */
+   private void flushPackets()
+   {
+      synchronized (flushLock)
+      {
+         List<HornetQBuffer> packets;
+         CoreRemotingConnection connection;
+         synchronized (replicationLock)
+         {
+            flushScheduled = false;
+            if (pendingPackets.isEmpty())
+            {
+               return;
+            }
+            packets = pendingPackets;
+            pendingPackets = new ArrayList<HornetQBuffer>();
+            connection = remotingConnection;
+         }
+         // The replicating channel doesn't keep packets for resending, so they can go straight to
+         // the connection. All but the last are batched, so where the transport batches writes the
+         // group takes as few writes as it allows.
+         if (connection != null)
+         {
+            Connection transportConnection = connection.getTransportConnection();
+            int last = packets.size() - 1;
+            for (int i = 0; i <= last; i++)
+            {
+               transportConnection.write(packets.get(i), false, i < last);
+            }
+         }
+      }
+   }
+
+   /**
+    * @param count number of packets acknowledged by the backup
     * @throws IllegalStateException By default, all replicated packets generate a replicated
     *            response. If your packets are triggering this exception, it may be because the
     *            packets were not sent with {@link #sendReplicatePacket(Packet)}.
     */
-   private void replicated()
+   private void replicated(final int count)
    {
-      OperationContext ctx = pendingTokens.poll();
-
-      if (ctx == null)
+      for (int i = 0; i < count; i++)
       {
-         throw new IllegalStateException("Missing replication token on the queue.");
-      }
+         OperationContext ctx = pendingTokens.poll();
+
+         if (ctx == null)
+         {
+            throw new IllegalStateException("Missing replication token on the queue.");
+         }
 
-      ctx.replicationDone();
+         ctx.replicationDone();
+      }
    }
 
    // Inner classes -------------------------------------------------
@@ -447,10 +587,107 @@ public class ReplicationManager implements HornetQComponent
       {
          if (packet.getType() == PacketImpl.REPLICATION_RESPONSE)
          {
-            replicated();
+            replicated(1);
+         }
+         else if (packet.getType() == PacketImpl.REPLICATION_RESPONSE_V2)
+         {
+            replicated(((ReplicationResponseMessageV2)packet).getCount());
          }
+         else if (packet.getType() == PacketImpl.REPLICATION_SYNC_DIGEST_RESPONSE)
+         {
+            DigestResponse digest = pendingDigest;
+            if (digest != null)
+            {
+               digest.received((ReplicationSyncDigestResponseMessage)packet);
+            }
+         }
+         else if (packet.getType() == PacketImpl.EXCEPTION)
+         {
+            // the backup failed to answer a digest
+            DigestResponse digest = pendingDigest;
+            if (digest != null)
+            {
+               digest.failed(((HornetQExceptionMessage)packet).getException());
+            }
+         }
+      }
+
+   }
+
+   /**
+    * Waits for the answer to a {@link ReplicationSyncDigestMessage}, which the backup sends once it
+    * has looked for the files among its previous data. The wait also ends if replication is
+    * stopped.
+    */
+   private final class DigestResponse
+   {
+      private Set<Long> held;
+
+      private HornetQException failure;
+
+      synchronized void received(final ReplicationSyncDigestResponseMessage response)
+      {
+         held = new HashSet<Long>();
+         for (long id : response.getHeldIds())
+         {
+            held.add(id);
+         }
+         notifyAll();
+      }
+
+      synchronized void failed(final HornetQException e)
+      {
+         failure = e;
+         notifyAll();
+      }
+
+      /**
+       * @throws HornetQException if the backup failed to answer, or didn't answer within
+       *            {@link #DIGEST_TIMEOUT}, which fails the synchronization
+       */
+      synchronized Set<Long> waitForResponse() throws Exception
+      {
+         long deadline = System.currentTimeMillis() + DIGEST_TIMEOUT;
+         while (held == null && failure == null && enabled)
+         {
+            long toWait = deadline - System.currentTimeMillis();
+            if (toWait <= 0)
+            {
+               throw HornetQMessageBundle.BUNDLE.timedOutSendingPacket(PacketImpl.REPLICATION_SYNC_DIGEST);
+            }
+            wait(Math.min(toWait, 1000));
+         }
+         if (failure != null)
+         {
+            throw failure;
+         }
+         return held == null ? Collections.<Long> emptySet() : held;
       }
+   }
+
+   /**
+    * A file to send to the backup with {@link ReplicationManager#sendFiles(List)}.
+    */
+   private static final class FileToSync
+   {
+      private final JournalContent content;
+
+      private final SimpleString pageStore;
+
+      private final long id;
 
+      private final SequentialFile file;
+
+      private final long maxBytesToSend;
+
+      FileToSync(JournalContent content, SimpleString pageStore, long id, SequentialFile file, long maxBytesToSend)
+      {
+         this.content = content;
+         this.pageStore = pageStore;
+         this.id = id;
+         this.file = file;
+         this.maxBytesToSend = maxBytesToSend;
+      }
    }
 
    private static class NullEncoding implements EncodingSupport
@@ -507,6 +744,306 @@ public class ReplicationManager implements HornetQComponent
          sendLargeFile(null, queueName, id, file, Long.MAX_VALUE);
    }
 
+   /**
+    * Sends the whole content of the journal files the backup doesn't have yet.
+    * @see #getFilesHeldByBackup(JournalContent, SimpleString, long[], SequentialFile[], long[])
+    */
+   public void syncJournalFiles(JournalFile[] journalFiles, JournalContent content) throws Exception
+   {
+      if (!enabled)
+      {
+         return;
+      }
+      long[] ids = new long[journalFiles.length];
+      SequentialFile[] files = new SequentialFile[journalFiles.length];
+      long[] sizes = new long[journalFiles.length];
+      for (int i = 0; i < journalFiles.length; i++)
+      {
+         ids[i] = journalFiles[i].getFileID();
+         files[i] = journalFiles[i].getFile();
+         sizes[i] = Long.MAX_VALUE;
+      }
+      Set<Long> held = getFilesHeldByBackup(content, null, ids, files, sizes);
+      List<FileToSync> toSend = new ArrayList<FileToSync>();
+      List<SequentialFile> clones = new ArrayList<SequentialFile>();
+      try
+      {
+         for (JournalFile jf : journalFiles)
+         {
+            if (!held.contains(jf.getFileID()))
+            {
+               SequentialFile file = jf.getFile().cloneFile();
+               clones.add(file);
+               HornetQLogger.LOGGER.journalSynch(jf, file.size(), file);
+               toSend.add(new FileToSync(content, null, jf.getFileID(), file, Long.MAX_VALUE));
+            }
+         }
+         sendFiles(toSend);
+      }
+      finally
+      {
+         for (SequentialFile file : clones)
+         {
+            if (file.isOpen())
+               file.close();
+         }
+      }
+   }
+
+   /**
+    * Sends the large messages the backup doesn't have yet.
+    * @param largeMessages the file and the number of bytes to send of each message, by message id
+    */
+   public void syncLargeMessageFiles(Map<Long, Pair<SequentialFile, Long>> largeMessages) throws Exception
+   {
+      if (!enabled)
+      {
+         return;
+      }
+      long[] ids = new long[largeMessages.size()];
+      SequentialFile[] files = new SequentialFile[largeMessages.size()];
+      long[] sizes = new long[largeMessages.size()];
+      int i = 0;
+      for (Entry<Long, Pair<SequentialFile, Long>> entry : largeMessages.entrySet())
+      {
+         ids[i] = entry.getKey();
+         files[i] = entry.getValue().getA();
+         sizes[i] = entry.getValue().getB();
+         i++;
+      }
+      Set<Long> held = getFilesHeldByBackup(null, null, ids, files, sizes);
+      List<FileToSync> toSend = new ArrayList<FileToSync>();
+      for (i = 0; i < ids.length; i++)
+      {
+         if (!held.contains(ids[i]))
+         {
+            toSend.add(new FileToSync(null, null, ids[i], files[i], sizes[i]));
+         }
+      }
+      sendFiles(toSend);
+   }
+
+   /**
+    * Sends the pages of a store the backup doesn't have yet.
+    * @param pages the page files by page number
+    */
+   public void syncPages(Map<Integer, SequentialFile> pages, SimpleString storeName) throws Exception
+   {
+      if (!enabled)
+      {
+         return;
+      }
+      long[] ids = new long[pages.size()];
+      SequentialFile[] files = new SequentialFile[pages.size()];
+      long[] sizes = new long[pages.size()];
+      int i = 0;
+      for (Entry<Integer, SequentialFile> entry : pages.entrySet())
+      {
+         ids[i] = entry.getKey();
+         files[i] = entry.getValue();
+         sizes[i] = Long.MAX_VALUE;
+         i++;
+      }
+      Set<Long> held = getFilesHeldByBackup(null, storeName, ids, files, sizes);
+      List<FileToSync> toSend = new ArrayList<FileToSync>();
+      for (i = 0; i < ids.length; i++)
+      {
+         if (!held.contains(ids[i]))
+         {
+            toSend.add(new FileToSync(null, storeName, ids[i], files[i], Long.MAX_VALUE));
+         }
+      }
+      sendFiles(toSend);
+   }
+
+   /**
+    * Sends the files to the backup, {@link #SYNC_CONCURRENCY} of them at a time. Their chunks are
+    * interleaved on the replicating channel, which the backup handles as it writes each chunk to
+    * the file with its id. At most {@link #SYNC_WINDOW} chunks are sent ahead of the backup's
+    * acknowledgements, so the files are not read into memory faster than they can be sent.
+    * @throws Exception the first failure of sending a file, once no file is being sent anymore
+    */
+   private void sendFiles(final List<FileToSync> files) throws Exception
+   {
+      if (files.isEmpty())
+      {
+         return;
+      }
+      final Queue<FileToSync> queue = new ConcurrentLinkedQueue<FileToSync>(files);
+      final Semaphore window = new Semaphore(SYNC_WINDOW);
+      final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+      int senders = Math.min(SYNC_CONCURRENCY, files.size());
+      final CountDownLatch sent = new CountDownLatch(senders);
+      for (int i = 0; i < senders; i++)
+      {
+         // the chunks are lined up on a context of their own, to know when they're replicated. Its
+         // executor releases the window, so it can't be the one blocked on it.
+         final OperationContext context = new OperationContextImpl(executorFactory.getExecutor());
+         executorFactory.getExecutor().execute(new Runnable()
+         {
+            public void run()
+            {
+               OperationContext previousContext = OperationContextImpl.getContext();
+               OperationContextImpl.setContext(context);
+               try
+               {
+                  FileToSync file;
+                  while (failure.get() == null && (file = queue.poll()) != null)
+                  {
+                     sendLargeFile(file.content, file.pageStore, file.id, file.file, file.maxBytesToSend, window);
+                  }
+               }
+               catch (Exception e)
+               {
+                  failure.compareAndSet(null, e);
+               }
+               finally
+               {
+                  OperationContextImpl.setContext(previousContext);
+                  sent.countDown();
+               }
+            }
+         });
+      }
+      sent.await();
+      if (failure.get() != null)
+      {
+         throw failure.get();
+      }
+   }
+
+   /**
+    * Finds the files about to be synchronized which a backup still holds from a previous run (see
+    * {@link ReplicationEndpoint}), so it only needs the others.
+    * <p>
+    * The sizes of the files are sent first, and only the files the backup has with the same size
+    * are checksummed, then sent again with their checksums for the backup to take the ones that
+    * match. Each digest covers a whole group of files, which costs a single round trip, though the
+    * checksums are sent in groups of at most {@link #DIGEST_MAX_BYTES} so the backup answers each
+    * of them well within {@link #DIGEST_TIMEOUT}.
+    * @param content journal type or {@code null} for large-messages and pages
+    * @param pageStore page store name for pages, or {@code null} otherwise
+    * @param sizes the maximum number of bytes that will be sent of each file
+    * @return the ids of the files the backup already holds
+    */
+   private Set<Long> getFilesHeldByBackup(JournalContent content, SimpleString pageStore, long[] ids,
+                                          SequentialFile[] files, long[] sizes) throws Exception
+   {
+      if (ids.length == 0)
+      {
+         return Collections.emptySet();
+      }
+      long[] fileSizes = new long[ids.length];
+      for (int i = 0; i < ids.length; i++)
+      {
+         fileSizes[i] = Math.min(sizes[i], files[i].getJavaFile().length());
+      }
+      Set<Long> candidates = askBackup(new ReplicationSyncDigestMessage(content, pageStore, ids, fileSizes, null));
+      if (candidates.isEmpty())
+      {
+         return candidates;
+      }
+
+      Set<Long> held = new HashSet<Long>();
+      List<Integer> group = new ArrayList<Integer>();
+      long groupBytes = 0;
+      for (int i = 0; i < ids.length; i++)
+      {
+         if (!candidates.contains(ids[i]))
+         {
+            continue;
+         }
+         group.add(i);
+         groupBytes += fileSizes[i];
+         if (groupBytes >= DIGEST_MAX_BYTES)
+         {
+            held.addAll(confirmFilesHeldByBackup(content, pageStore, ids, files, fileSizes, group));
+            group.clear();
+            groupBytes = 0;
+         }
+      }
+      if (!group.isEmpty())
+      {
+         held.addAll(confirmFilesHeldByBackup(content, pageStore, ids, files, fileSizes, group));
+      }
+      return held;
+   }
+
+   /**
+    * Sends the checksums of some of the files the backup has with the same size.
+    * @param indexes the indexes of those files in {@code ids}, {@code files} and {@code sizes}
+    * @return the ids of the files the backup holds with the same content
+    */
+   private Set<Long> confirmFilesHeldByBackup(JournalContent content, SimpleString pageStore, long[] ids,
+                                              SequentialFile[] files, long[] sizes, List<Integer> indexes)
+      throws Exception
+   {
+      long[] groupIds = new long[indexes.size()];
+      long[] groupSizes = new long[indexes.size()];
+      long[] checksums = new long[indexes.size()];
+      for (int i = 0; i < groupIds.length; i++)
+      {
+         int index = indexes.get(i);
+         groupIds[i] = ids[index];
+         groupSizes[i] = sizes[index];
+         checksums[i] = checksum(files[index].getJavaFile(), sizes[index]);
+      }
+      return askBackup(new ReplicationSyncDigestMessage(content, pageStore, groupIds, groupSizes, checksums));
+   }
+
+   /**
+    * @throws HornetQException if the backup doesn't answer the digest in time
+    */
+   private Set<Long> askBackup(final ReplicationSyncDigestMessage digest) throws Exception
+   {
+      // the live is the server side of the replicating connection, which can't make blocking calls
+      DigestResponse response = new DigestResponse();
+      pendingDigest = response;
+      try
+      {
+         sendUnacknowledgedPacket(digest);
+         return response.waitForResponse();
+      }
+      finally
+      {
+         pendingDigest = null;
+      }
+   }
+
+   /**
+    * @return the CRC32 of the first {@code size} bytes of the file
+    */
+   static long checksum(File file, long size) throws IOException
+   {
+      CRC32 crc = new CRC32();
+      FileInputStream input = new FileInputStream(file);
+      try
+      {
+         FileChannel channel = input.getChannel();
+         ByteBuffer buffer = ByteBuffer.allocate(1 << 17);
+         while (size > 0)
+         {
+            buffer.clear();
+            if (size < buffer.capacity())
+            {
+               buffer.limit((int)size);
+            }
+            int bytesRead = channel.read(buffer);
+            if (bytesRead <= 0)
+            {
+               break;
+            }
+            crc.update(buffer.array(), 0, bytesRead);
+            size -= bytesRead;
+         }
+      }
+      finally
+      {
+         input.close();
+      }
+      return crc.getValue();
+   }
+
    /**
     * Sends large files in reasonably sized chunks to the backup during replication synchronization.
     * @param content journal type or {@code null} for large-messages and pages
@@ -518,6 +1055,16 @@ public class ReplicationManager implements HornetQComponent
     */
    private void sendLargeFile(JournalContent content, SimpleString pageStore, final long id, SequentialFile file,
       long maxBytesToSend) throws Exception
+   {
+      sendLargeFile(content, pageStore, id, file, maxBytesToSend, null);
+   }
+
+   /**
+    * @param window the chunks that can be sent ahead of the backup's acknowledgements, or
+    *           {@code null} to send them right away
+    */
+   private void sendLargeFile(JournalContent content, SimpleString pageStore, final long id, SequentialFile file,
+      long maxBytesToSend, final Semaphore window) throws Exception
    {
       if (!enabled)
          return;
@@ -549,8 +1096,35 @@ public class ReplicationManager implements HornetQComponent
             }
             buffer.rewind();
 
+            if (window != null)
+            {
+               while (!window.tryAcquire(1, TimeUnit.SECONDS))
+               {
+                  if (!enabled)
+                  {
+                     return;
+                  }
+               }
+            }
+
             // sending -1 or 0 bytes will close the file at the backup
             sendReplicatePacket(new ReplicationSyncFileMessage(content, pageStore, id, toSend, buffer));
+
+            if (window != null)
+            {
+               OperationContextImpl.getContext().executeOnCompletion(new IOAsyncTask()
+               {
+                  public void done()
+                  {
+                     window.release();
+                  }
+
+                  public void onError(int errorCode, String errorMessage)
+                  {
+                     window.release();
+                  }
+               });
+            }
             if (bytesRead == -1 || bytesRead == 0 || maxBytesToSend == 0)
                break;
          }
@@ -610,7 +1184,10 @@ public class ReplicationManager implements HornetQComponent
    public void sendLiveIsStopping()
    {
       if (enabled)
+      {
          sendReplicatePacket(new LiveIsStoppingMessage());
+         flushPackets();
+      }
    }
 
    /**
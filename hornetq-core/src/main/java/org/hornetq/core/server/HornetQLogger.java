@@ -72,6 +72,7 @@ import org.hornetq.core.server.impl.HornetQServerImpl;
 import org.hornetq.core.server.impl.ServerSessionImpl;
 import org.hornetq.spi.core.protocol.ProtocolType;
 import org.hornetq.utils.FutureLatch;
+import org.hornetq.utils.ShardedExecutorFactory;
 import org.jboss.logging.BasicLogger;
 import org.jboss.logging.Cause;
 import org.jboss.logging.LogMessage;
@@ -282,6 +283,10 @@ public interface HornetQLogger extends BasicLogger
             format = Message.Format.MESSAGE_FORMAT)
    void deprecatedConfigurationOption(String deprecatedOption);
 
+   @LogMessage(level = Logger.Level.INFO)
+   @Message(id = 111046, value = "Using Mapped Journal", format = Message.Format.MESSAGE_FORMAT)
+   void journalUseMapped();
+
    @LogMessage(level = Logger.Level.WARN)
    @Message(id = 112001, value = "HornetQServer is being finalized and has not been stopped. Please remember to stop the server before letting it go out of scope",
          format = Message.Format.MESSAGE_FORMAT)
@@ -1234,6 +1239,14 @@ public interface HornetQLogger extends BasicLogger
    @Message(id = 112217, value = "Error when trying to start replication {0}", format = Message.Format.MESSAGE_FORMAT)
    void errorStartingReplication(BackupReplicationStartFailedMessage.BackupRegistrationProblem problem);
 
+   @LogMessage(level = Logger.Level.WARN)
+   @Message(id = 112218, value = "Timed out waiting for the executor shards to terminate {0}", format = Message.Format.MESSAGE_FORMAT)
+   void timedOutStoppingExecutorShards(ShardedExecutorFactory factory);
+
+   @LogMessage(level = Logger.Level.WARN)
+   @Message(id = 112219, value = "Error reporting the load of the queues on {0}", format = Message.Format.MESSAGE_FORMAT)
+   void errorReportingQueueLoad(@Cause Exception e, ClusterConnectionImpl clusterConnection);
+
    @LogMessage(level = Logger.Level.ERROR)
    @Message(id = 114001, value = "Failed to call onMessage", format = Message.Format.MESSAGE_FORMAT)
    void onMessageError(@Cause Throwable e);
@@ -38,6 +38,11 @@ public interface LargeServerMessage extends ServerMessage, ReplicatedLargeMessag
     * For that we need to pre-mark the LargeMessage with a flag when it is paged
     */
    void setPaged();
+
+   /**
+    * Gives the message its own copy of the body if it shares it with other messages, as it is about to be paged
+    */
+   void detachSharedBody() throws Exception;
    
    /** Close the files if opened */
    void releaseResources();
@@ -20,6 +20,7 @@ import java.util.concurrent.Executor;
 import org.hornetq.api.core.SimpleString;
 import org.hornetq.core.filter.Filter;
 import org.hornetq.core.paging.cursor.PageSubscription;
+import org.hornetq.core.postoffice.Binding;
 import org.hornetq.core.transaction.Transaction;
 import org.hornetq.utils.LinkedListIterator;
 
@@ -96,6 +97,9 @@ public interface Queue extends Bindable
    
    long getInstantMessagesAdded();
 
+   /** The number of references acknowledged since the queue was created, not counting the paged ones */
+   long getMessagesAcknowledged();
+
    MessageReference removeReferenceWithID(long id) throws Exception;
 
    MessageReference getReference(long id);
@@ -137,6 +141,12 @@ public interface Queue extends Bindable
 
    void cancelRedistributor() throws Exception;
 
+   /**
+    * Moves up to the given number of messages to the target binding, while the local consumers keep taking their share
+    * of the queue.
+    */
+   void redistributeLoad(Binding target, int messages);
+
    boolean hasMatchingConsumer(ServerMessage message);
 
    Collection<Consumer> getConsumers();
@@ -145,6 +155,12 @@ public interface Queue extends Bindable
 
    LinkedListIterator<MessageReference> iterator();
 
+   /**
+    * Returns an iterator over the messages in memory and then over the ones still paged, which doesn't change the
+    * queue. Its view of the queue is weakly consistent, and it has to be closed once done.
+    */
+   LinkedListIterator<MessageReference> browserIterator();
+
    void setExpiryAddress(SimpleString expiryAddress);
 
    /**
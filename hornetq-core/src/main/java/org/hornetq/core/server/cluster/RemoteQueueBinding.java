@@ -30,4 +30,17 @@ public interface RemoteQueueBinding extends QueueBinding
    void addConsumer(SimpleString filterString) throws Exception;
 
    void removeConsumer(SimpleString filterString) throws Exception;
+
+   /**
+    * Updates the load last reported by the node of the remote queue.
+    * @param messageCount the messages waiting on the remote queue
+    * @param acknowledgeRate the messages per second acknowledged on the remote queue
+    */
+   void updateLoad(long messageCount, long acknowledgeRate);
+
+   /**
+    * @return how many messages the local queue with the same name should move to the remote queue, given the load of
+    *         both, or 0 if they should stay where they are
+    */
+   int calculateLoadToMove(long localMessageCount, long localAcknowledgeRate, int localConsumerCount, long period);
 }
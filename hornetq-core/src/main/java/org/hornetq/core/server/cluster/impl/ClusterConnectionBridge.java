@@ -270,6 +270,8 @@ public class ClusterConnectionBridge extends BridgeImpl
                                                 NotificationType.PROPOSAL +
                                                 "','" +
                                                 NotificationType.PROPOSAL_RESPONSE +
+                                                "','" +
+                                                NotificationType.QUEUE_LOAD +
                                                 "') AND " +
                                                 ManagementHelper.HDR_DISTANCE +
                                                 "<" +
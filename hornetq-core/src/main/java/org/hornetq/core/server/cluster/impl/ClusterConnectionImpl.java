@@ -15,6 +15,7 @@ package org.hornetq.core.server.cluster.impl;
 
 import static org.hornetq.api.core.management.NotificationType.CONSUMER_CLOSED;
 import static org.hornetq.api.core.management.NotificationType.CONSUMER_CREATED;
+import static org.hornetq.api.core.management.NotificationType.QUEUE_LOAD;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -28,6 +29,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import org.hornetq.api.core.DiscoveryGroupConfiguration;
@@ -46,6 +48,7 @@ import org.hornetq.core.client.impl.ServerLocatorInternal;
 import org.hornetq.core.client.impl.Topology;
 import org.hornetq.core.client.impl.TopologyMemberImpl;
 import org.hornetq.core.postoffice.Binding;
+import org.hornetq.core.postoffice.BindingType;
 import org.hornetq.core.postoffice.Bindings;
 import org.hornetq.core.postoffice.PostOffice;
 import org.hornetq.core.postoffice.impl.PostOfficeImpl;
@@ -64,6 +67,7 @@ import org.hornetq.core.server.group.impl.Proposal;
 import org.hornetq.core.server.group.impl.Response;
 import org.hornetq.core.server.management.ManagementService;
 import org.hornetq.core.server.management.Notification;
+import org.hornetq.core.settings.impl.AddressSettings;
 import org.hornetq.utils.ExecutorFactory;
 import org.hornetq.utils.FutureLatch;
 import org.hornetq.utils.Pair;
@@ -156,6 +160,13 @@ public final class ClusterConnectionImpl implements ClusterConnection, AfterConn
    private volatile boolean announcingBackup;
    private volatile boolean stopping = false;
 
+   // How often the load of the local queues is reported to the other nodes, -1 if it isn't
+   private volatile long loadRedistributionPeriod = -1;
+
+   private ScheduledFuture<?> loadFuture;
+
+   private final Map<SimpleString, LoadSample> loadSamples = new ConcurrentHashMap<SimpleString, LoadSample>();
+
    /**
     * @param staticTranspConfigs notice if {@code null} this is a cluster which won't connect to
     *           anyone, but that can still accept incoming connections.
@@ -434,6 +445,15 @@ public final class ClusterConnectionImpl implements ClusterConnection, AfterConn
             {
             }
          }
+
+         if (loadFuture != null)
+         {
+            loadFuture.cancel(false);
+
+            loadFuture = null;
+         }
+
+         loadSamples.clear();
       }
 
       if (managementService != null)
@@ -742,6 +762,26 @@ public final class ClusterConnectionImpl implements ClusterConnection, AfterConn
          serverLocator.start(server.getExecutorFactory().getExecutor());
       }
 
+      loadRedistributionPeriod = server.getConfiguration().getLoadRedistributionPeriod();
+
+      if (loadRedistributionPeriod > 0 && loadFuture == null)
+      {
+         loadFuture = scheduledExecutor.scheduleWithFixedDelay(new Runnable()
+         {
+            public void run()
+            {
+               try
+               {
+                  executor.execute(new LoadReporter());
+               }
+               catch (RejectedExecutionException ignored)
+               {
+                  // the cluster connection is being stopped
+               }
+            }
+         }, loadRedistributionPeriod, loadRedistributionPeriod, TimeUnit.MILLISECONDS);
+      }
+
       if (managementService != null)
       {
          TypedProperties props = new TypedProperties();
@@ -1268,6 +1308,12 @@ public final class ClusterConnectionImpl implements ClusterConnection, AfterConn
 
                   break;
                }
+               case QUEUE_LOAD:
+               {
+                  doQueueLoad(message);
+
+                  break;
+               }
                default:
                {
                   throw HornetQMessageBundle.BUNDLE.invalidType(ntype);
@@ -1563,6 +1609,219 @@ public final class ClusterConnectionImpl implements ClusterConnection, AfterConn
          managementService.sendNotification(notification);
       }
 
+      private synchronized void doQueueLoad(final ClientMessage message) throws Exception
+      {
+         if (HornetQLogger.LOGGER.isTraceEnabled())
+         {
+            HornetQLogger.LOGGER.trace(ClusterConnectionImpl.this + " Queue load " + message);
+         }
+         if (!message.containsProperty(ManagementHelper.HDR_DISTANCE))
+         {
+            throw new IllegalStateException("distance is null");
+         }
+
+         if (!message.containsProperty(ManagementHelper.HDR_CLUSTER_NAME))
+         {
+            throw new IllegalStateException("clusterName is null");
+         }
+
+         Integer distance = message.getIntProperty(ManagementHelper.HDR_DISTANCE);
+
+         SimpleString clusterName = message.getSimpleStringProperty(ManagementHelper.HDR_CLUSTER_NAME);
+
+         long messageCount = message.getLongProperty(ManagementHelper.HDR_MESSAGE_COUNT);
+
+         long acknowledgeRate = message.getLongProperty(ManagementHelper.HDR_ACKNOWLEDGE_RATE);
+
+         RemoteQueueBinding binding = bindings.get(clusterName);
+
+         if (binding == null)
+         {
+            // The binding is gone already, or it didn't reach this node yet. The load is reported again anyway
+            return;
+         }
+
+         binding.updateLoad(messageCount, acknowledgeRate);
+
+         // Need to propagate the load
+         TypedProperties props = new TypedProperties();
+
+         props.putSimpleStringProperty(ManagementHelper.HDR_ADDRESS, binding.getAddress());
+
+         props.putSimpleStringProperty(ManagementHelper.HDR_CLUSTER_NAME, clusterName);
+
+         props.putSimpleStringProperty(ManagementHelper.HDR_ROUTING_NAME, binding.getRoutingName());
+
+         props.putIntProperty(ManagementHelper.HDR_DISTANCE, distance + 1);
+
+         props.putLongProperty(ManagementHelper.HDR_MESSAGE_COUNT, messageCount);
+
+         props.putLongProperty(ManagementHelper.HDR_ACKNOWLEDGE_RATE, acknowledgeRate);
+
+         Notification notification = new Notification(null, QUEUE_LOAD, props);
+
+         managementService.sendNotification(notification);
+
+         redistributeLoad(binding);
+      }
+
+      private synchronized void collectRoutingNames(final Set<SimpleString> routingNames)
+      {
+         for (RemoteQueueBinding binding : bindings.values())
+         {
+            routingNames.add(binding.getRoutingName());
+         }
+      }
+
+   }
+
+   /**
+    * Sends the depth and the acknowledge rate of the local queues that also exist on other nodes.
+    */
+   private void reportLoad() throws Exception
+   {
+      Set<SimpleString> routingNames = new HashSet<SimpleString>();
+
+      for (MessageFlowRecord record : records.values())
+      {
+         ((MessageFlowRecordImpl)record).collectRoutingNames(routingNames);
+      }
+
+      loadSamples.keySet().retainAll(routingNames);
+
+      long now = System.currentTimeMillis();
+
+      for (SimpleString routingName : routingNames)
+      {
+         Binding binding = postOffice.getBinding(routingName);
+
+         if (binding == null || binding.getType() != BindingType.LOCAL_QUEUE)
+         {
+            continue;
+         }
+
+         Queue queue = (Queue)binding.getBindable();
+
+         long acknowledged = queue.getMessagesAcknowledged();
+
+         LoadSample sample = loadSamples.get(routingName);
+
+         if (sample == null)
+         {
+            sample = new LoadSample();
+
+            loadSamples.put(routingName, sample);
+         }
+         else if (now > sample.time)
+         {
+            sample.rate = (acknowledged - sample.acknowledged) * 1000 / (now - sample.time);
+         }
+
+         sample.time = now;
+
+         sample.acknowledged = acknowledged;
+
+         TypedProperties props = new TypedProperties();
+
+         props.putSimpleStringProperty(ManagementHelper.HDR_ADDRESS, binding.getAddress());
+
+         props.putSimpleStringProperty(ManagementHelper.HDR_CLUSTER_NAME, binding.getClusterName());
+
+         props.putSimpleStringProperty(ManagementHelper.HDR_ROUTING_NAME, binding.getRoutingName());
+
+         props.putIntProperty(ManagementHelper.HDR_DISTANCE, binding.getDistance());
+
+         props.putLongProperty(ManagementHelper.HDR_MESSAGE_COUNT, getWaitingMessages(queue));
+
+         props.putLongProperty(ManagementHelper.HDR_ACKNOWLEDGE_RATE, sample.rate);
+
+         managementService.sendNotification(new Notification(null, QUEUE_LOAD, props));
+      }
+   }
+
+   /**
+    * Moves messages from the local queue to the remote one when the local consumers are falling behind the remote
+    * consumers. Without local consumers the redistributor moves every message already, as configured by the
+    * redistribution-delay.
+    */
+   private void redistributeLoad(final RemoteQueueBinding remoteBinding) throws Exception
+   {
+      if (loadRedistributionPeriod <= 0)
+      {
+         return;
+      }
+
+      Binding localBinding = postOffice.getBinding(remoteBinding.getRoutingName());
+
+      if (localBinding == null || localBinding.getType() != BindingType.LOCAL_QUEUE)
+      {
+         return;
+      }
+
+      AddressSettings addressSettings = server.getAddressSettingsRepository().getMatch(localBinding.getAddress()
+                                                                                                   .toString());
+
+      if (addressSettings.getRedistributionDelay() == -1)
+      {
+         return;
+      }
+
+      Queue localQueue = (Queue)localBinding.getBindable();
+
+      LoadSample sample = loadSamples.get(localBinding.getRoutingName());
+
+      int messages = remoteBinding.calculateLoadToMove(getWaitingMessages(localQueue),
+                                                       sample == null ? 0 : sample.rate,
+                                                       localQueue.getConsumerCount(),
+                                                       loadRedistributionPeriod);
+
+      if (messages > 0)
+      {
+         if (isTrace)
+         {
+            HornetQLogger.LOGGER.trace("Moving " + messages + " messages from " + localQueue + " to " + remoteBinding);
+         }
+
+         localQueue.redistributeLoad(remoteBinding, messages);
+      }
+   }
+
+   /**
+    * Messages delivered already sit on the buffers of the consumers until they are acknowledged, and can't be moved.
+    */
+   private static long getWaitingMessages(final Queue queue)
+   {
+      return Math.max(0, queue.getInstantMessageCount() - queue.getDeliveringCount());
+   }
+
+   private final class LoadReporter implements Runnable
+   {
+      public void run()
+      {
+         if (!started || stopping)
+         {
+            return;
+         }
+
+         try
+         {
+            reportLoad();
+         }
+         catch (Exception e)
+         {
+            HornetQLogger.LOGGER.errorReportingQueueLoad(e, ClusterConnectionImpl.this);
+         }
+      }
+   }
+
+   private static final class LoadSample
+   {
+      long time;
+
+      long acknowledged;
+
+      // messages acknowledged per second between the last two samples
+      volatile long rate;
    }
 
    // for testing only
@@ -15,10 +15,12 @@ package org.hornetq.core.server.cluster.impl;
 
 import java.util.concurrent.Executor;
 
+import org.hornetq.api.core.Message;
 import org.hornetq.utils.Pair;
 import org.hornetq.core.filter.Filter;
 import org.hornetq.core.journal.IOAsyncTask;
 import org.hornetq.core.persistence.StorageManager;
+import org.hornetq.core.postoffice.Binding;
 import org.hornetq.core.postoffice.PostOffice;
 import org.hornetq.core.server.Consumer;
 import org.hornetq.core.server.HandleStatus;
@@ -56,6 +58,11 @@ public class Redistributor implements Consumer
 
    private int count;
 
+   // When set, the messages only go to this binding, and no more than remaining of them
+   private Binding target;
+
+   private int remaining = -1;
+
    public Redistributor(final Queue queue,
                         final StorageManager storageManager,
                         final PostOffice postOffice,
@@ -88,6 +95,17 @@ public class Redistributor implements Consumer
       active = true;
    }
 
+   /**
+    * Moves up to the given number of messages to the target only, while there are consumers on the queue.
+    * A null target goes back to moving every message to any binding with consumers.
+    */
+   public synchronized void setTarget(final Binding target, final int messages)
+   {
+      this.target = target;
+
+      remaining = messages;
+   }
+
    public synchronized void stop() throws Exception
    {
       active = false;
@@ -128,16 +146,46 @@ public class Redistributor implements Consumer
       {
          return HandleStatus.BUSY;
       }
-      
+
+      if (target != null)
+      {
+         if (remaining == 0)
+         {
+            return HandleStatus.BUSY;
+         }
+
+         // Groups stay with the local consumers
+         if (reference.getMessage().containsProperty(Message.HDR_GROUP_ID))
+         {
+            return HandleStatus.NO_MATCH;
+         }
+      }
+
       final Transaction tx = new TransactionImpl(storageManager);
 
-      final Pair<RoutingContext, ServerMessage> routingInfo = postOffice.redistribute(reference.getMessage(), queue, tx);
+      final Pair<RoutingContext, ServerMessage> routingInfo;
 
-      if (routingInfo == null)
+      if (target == null)
       {
-         return HandleStatus.BUSY;
+         routingInfo = postOffice.redistribute(reference.getMessage(), queue, tx);
+
+         if (routingInfo == null)
+         {
+            return HandleStatus.BUSY;
+         }
       }
-      
+      else
+      {
+         routingInfo = postOffice.redistribute(reference.getMessage(), target, tx);
+
+         if (routingInfo == null)
+         {
+            return HandleStatus.NO_MATCH;
+         }
+
+         remaining--;
+      }
+
       if (!reference.getMessage().isLargeMessage())
       {
          routingInfo.getB().finishCopy();
@@ -43,6 +43,16 @@ import org.hornetq.core.server.cluster.RemoteQueueBinding;
  */
 public class RemoteQueueBindingImpl implements RemoteQueueBinding
 {
+   // A queue needs at least this backlog before messages start moving away from its consumers, and this is the least
+   // moved after each load report
+   public static final int LOAD_BATCH_SIZE = 100;
+
+   // Messages start moving when the local queue takes this many times longer to drain than the remote one,
+   // and keep moving until it is down to STOP_LOAD_RATIO. The gap between the two stops messages going back and forth
+   private static final double START_LOAD_RATIO = 2;
+
+   private static final double STOP_LOAD_RATIO = 1.25;
+
    private final SimpleString address;
 
    private final Queue storeAndForwardQueue;
@@ -67,6 +77,13 @@ public class RemoteQueueBindingImpl implements RemoteQueueBinding
 
    private final int distance;
 
+   private long messageCount;
+
+   // -1 until the remote node reports its load
+   private long acknowledgeRate = -1;
+
+   private boolean receivingLoad;
+
    public RemoteQueueBindingImpl(final long id,
                                  final SimpleString address,
                                  final SimpleString uniqueName,
@@ -245,12 +262,78 @@ public class RemoteQueueBindingImpl implements RemoteQueueBinding
       return consumerCount;
    }
 
+   public synchronized void updateLoad(final long messageCount, final long acknowledgeRate)
+   {
+      this.messageCount = messageCount;
+
+      this.acknowledgeRate = acknowledgeRate;
+   }
+
+   public synchronized int calculateLoadToMove(final long localMessageCount,
+                                               final long localAcknowledgeRate,
+                                               final int localConsumerCount,
+                                               final long period)
+   {
+      if (consumerCount == 0 || localConsumerCount == 0 || acknowledgeRate < 0)
+      {
+         receivingLoad = false;
+
+         return 0;
+      }
+
+      long remoteAcknowledgeRate = acknowledgeRate;
+
+      if (messageCount == 0)
+      {
+         // An empty queue acknowledges only as fast as messages arrive, which says nothing about how fast its consumers
+         // could go. Those are taken to be as fast as the local ones then
+         remoteAcknowledgeRate = Math.max(remoteAcknowledgeRate, localAcknowledgeRate * consumerCount /
+                                                                 localConsumerCount);
+      }
+
+      long localRate = Math.max(1, localAcknowledgeRate);
+
+      long remoteRate = Math.max(1, remoteAcknowledgeRate);
+
+      // The time to drain each queue, in milliseconds
+      long localTime = localMessageCount * 1000 / localRate;
+
+      long remoteTime = messageCount * 1000 / remoteRate;
+
+      if (receivingLoad)
+      {
+         receivingLoad = localMessageCount > 0 && localTime > remoteTime * STOP_LOAD_RATIO;
+      }
+      else
+      {
+         receivingLoad = localMessageCount >= LOAD_BATCH_SIZE && localTime > remoteTime * START_LOAD_RATIO;
+      }
+
+      if (!receivingLoad)
+      {
+         return 0;
+      }
+
+      // Enough to make both queues take the same time to drain, but no more than the remote consumers get through
+      // until the next report
+      long even = (localMessageCount * remoteRate - messageCount * localRate + localRate + remoteRate - 1) /
+                  (localRate + remoteRate);
+
+      long capacity = Math.max(LOAD_BATCH_SIZE, remoteAcknowledgeRate * period / 1000);
+
+      return (int)Math.max(0, Math.min(even, capacity));
+   }
+
    @Override
    public String toString()
    {
       return "RemoteQueueBindingImpl [address=" + address +
              ", consumerCount=" +
              consumerCount +
+             ", messageCount=" +
+             messageCount +
+             ", acknowledgeRate=" +
+             acknowledgeRate +
              ", distance=" +
              distance +
              ", filters=" +
@@ -152,6 +152,7 @@ import org.hornetq.utils.HornetQThreadFactory;
 import org.hornetq.utils.OrderedExecutorFactory;
 import org.hornetq.utils.Pair;
 import org.hornetq.utils.SecurityFormatter;
+import org.hornetq.utils.ShardedExecutorFactory;
 import org.hornetq.utils.VersionLoader;
 
 /**
@@ -654,6 +655,23 @@ public class HornetQServerImpl implements HornetQServer
             }
          }
 
+         if (executorFactory instanceof ShardedExecutorFactory)
+         {
+            ShardedExecutorFactory shards = (ShardedExecutorFactory)executorFactory;
+            shards.shutdown();
+            try
+            {
+               if (!shards.awaitTermination(10, TimeUnit.SECONDS))
+               {
+                  HornetQLogger.LOGGER.timedOutStoppingExecutorShards(shards);
+               }
+            }
+            catch (InterruptedException e)
+            {
+               // Ignore
+            }
+         }
+
          scheduledPool = null;
          threadPool = null;
 
@@ -1286,7 +1304,8 @@ public class HornetQServerImpl implements HornetQServer
          scheduledPool,
          executorFactory,
          configuration.isJournalSyncNonTransactional(),
-         shutdownOnCriticalIO),
+         shutdownOnCriticalIO,
+         configuration.getJournalType() == JournalType.MAPPED),
          storageManager,
          addressSettingsRepository);
    }
@@ -1345,7 +1364,15 @@ public class HornetQServerImpl implements HornetQServer
          threadPool = Executors.newFixedThreadPool(configuration.getThreadPoolMaxSize(), tFactory);
       }
 
-      executorFactory = new OrderedExecutorFactory(threadPool);
+      if (configuration.getThreadPoolShards() > 0)
+      {
+         executorFactory = new ShardedExecutorFactory(configuration.getThreadPoolShards(),
+            new HornetQThreadFactory("HornetQ-server-shards-" + this.toString(), false, getThisClassLoader()));
+      }
+      else
+      {
+         executorFactory = new OrderedExecutorFactory(threadPool);
+      }
 
       scheduledPool = new ScheduledThreadPoolExecutor(configuration.getScheduledThreadPoolMaxSize(),
          new HornetQThreadFactory("HornetQ-scheduled-threads",
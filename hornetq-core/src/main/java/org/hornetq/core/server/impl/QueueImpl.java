@@ -22,6 +22,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
@@ -36,9 +37,11 @@ import java.util.concurrent.atomic.AtomicLong;
 import org.hornetq.api.core.Message;
 import org.hornetq.api.core.SimpleString;
 import org.hornetq.core.filter.Filter;
+import org.hornetq.core.paging.cursor.PagePosition;
 import org.hornetq.core.paging.cursor.PageSubscription;
 import org.hornetq.core.paging.cursor.PagedReference;
 import org.hornetq.core.persistence.StorageManager;
+import org.hornetq.core.postoffice.Binding;
 import org.hornetq.core.postoffice.Bindings;
 import org.hornetq.core.postoffice.DuplicateIDCache;
 import org.hornetq.core.postoffice.PostOffice;
@@ -59,6 +62,7 @@ import org.hornetq.core.transaction.TransactionPropertyIndexes;
 import org.hornetq.core.transaction.impl.TransactionImpl;
 import org.hornetq.utils.ConcurrentHashSet;
 import org.hornetq.utils.FutureLatch;
+import org.hornetq.utils.LinkedListImpl;
 import org.hornetq.utils.LinkedListIterator;
 import org.hornetq.utils.PriorityLinkedList;
 import org.hornetq.utils.PriorityLinkedListImpl;
@@ -107,13 +111,22 @@ public class QueueImpl implements Queue
 
    private LinkedListIterator<PagedReference> pageIterator;
 
+   // The last position depaged, the messages after it are only on the pages
+   private volatile PagePosition depagedPosition;
+
    // Messages will first enter intermediateMessageReferences
    // Before they are added to messageReferences
    // This is to avoid locking the queue on the producer
    private final ConcurrentLinkedQueue<MessageReference> intermediateMessageReferences = new ConcurrentLinkedQueue<MessageReference>();
 
    // This is where messages are stored
-   private final PriorityLinkedList<MessageReference> messageReferences = new PriorityLinkedListImpl<MessageReference>(QueueImpl.NUM_PRIORITIES);
+   private final PriorityLinkedListImpl<MessageReference> messageReferences = new PriorityLinkedListImpl<MessageReference>(QueueImpl.NUM_PRIORITIES);
+
+   // When consumerFilterIndexed, references are also classified against each distinct consumer filter on arrival
+   // Each index holds the nodes of messageReferences, so references can be removed from both lists in constant time
+   private final Map<SimpleString, FilterIndex> filterIndexes = new HashMap<SimpleString, FilterIndex>();
+
+   private final boolean consumerFilterIndexed;
 
    // The quantity of pagedReferences on messageReferences priority list
    private final AtomicInteger pagedReferences = new AtomicInteger(0);
@@ -129,6 +142,8 @@ public class QueueImpl implements Queue
 
    protected final AtomicInteger deliveringCount = new AtomicInteger(0);
 
+   private final AtomicLong messagesAcknowledged = new AtomicLong(0);
+
    private boolean paused;
 
    private final Runnable deliverRunner = new DeliverRunner();
@@ -280,11 +295,18 @@ public class QueueImpl implements Queue
 
       if (addressSettingsRepository != null)
       {
-         expiryAddress = addressSettingsRepository.getMatch(address.toString()).getExpiryAddress();
+         AddressSettings settings = addressSettingsRepository.getMatch(address.toString());
+
+         expiryAddress = settings.getExpiryAddress();
+
+         // A last value queue replaces the message of a reference in place, what would invalidate its classification
+         consumerFilterIndexed = settings.isConsumerFilterIndex() && !settings.isLastValueQueue();
       }
       else
       {
          expiryAddress = null;
+
+         consumerFilterIndexed = false;
       }
 
       if (pageSubscription != null)
@@ -571,12 +593,19 @@ public class QueueImpl implements Queue
 
       cancelRedistributor();
 
+      ConsumerHolder holder = new ConsumerHolder(consumer);
+
       if (consumer.getFilter() != null)
       {
          consumerWithFilterCount.incrementAndGet();
+
+         if (consumerFilterIndexed)
+         {
+            holder.index = addFilterIndex(consumer.getFilter());
+         }
       }
 
-      consumerList.add(new ConsumerHolder(consumer));
+      consumerList.add(holder);
 
       consumerSet.add(consumer);
    }
@@ -596,6 +625,11 @@ public class QueueImpl implements Queue
                holder.iter.close();
             }
 
+            if (holder.index != null)
+            {
+               removeFilterIndex(holder);
+            }
+
             iter.remove();
 
             break;
@@ -668,8 +702,6 @@ public class QueueImpl implements Queue
       {
          redistributor.stop();
 
-         redistributor = null;
-
          Iterator<ConsumerHolder> iter = consumerList.iterator();
 
          while (iter.hasNext())
@@ -684,6 +716,8 @@ public class QueueImpl implements Queue
             }
          }
 
+         redistributor = null;
+
          if (pos > 0 && pos >= consumerList.size())
          {
             pos = consumerList.size() - 1;
@@ -698,6 +732,32 @@ public class QueueImpl implements Queue
       }
    }
 
+   public synchronized void redistributeLoad(final Binding target, final int messages)
+   {
+      if (consumerSet.isEmpty())
+      {
+         // Without local consumers the whole queue is redistributed already
+         return;
+      }
+
+      if (redistributor == null)
+      {
+         redistributor = new Redistributor(this,
+                                           storageManager,
+                                           postOffice,
+                                           executor,
+                                           QueueImpl.REDISTRIBUTOR_BATCH_SIZE);
+
+         consumerList.add(new ConsumerHolder(redistributor));
+
+         redistributor.start();
+      }
+
+      redistributor.setTarget(target, messages);
+
+      deliverAsync();
+   }
+
    @Override
    protected void finalize() throws Throwable
    {
@@ -754,6 +814,11 @@ public class QueueImpl implements Queue
       return new SynchronizedIterator(messageReferences.iterator());
    }
 
+   public LinkedListIterator<MessageReference> browserIterator()
+   {
+      return new BrowserIterator();
+   }
+
    public synchronized MessageReference removeReferenceWithID(final long id) throws Exception
    {
       LinkedListIterator<MessageReference> iterator = iterator();
@@ -1054,6 +1119,11 @@ public class QueueImpl implements Queue
       }
     }
 
+   public long getMessagesAcknowledged()
+   {
+      return messagesAcknowledged.get();
+   }
+
    public int deleteAllReferences() throws Exception
    {
       return deleteMatchingReferences(null);
@@ -1536,6 +1606,13 @@ public class QueueImpl implements Queue
             holder.iter.close();
          }
          holder.iter = null;
+
+         if (holder.indexIter != null)
+         {
+            holder.indexIter.close();
+         }
+         holder.indexIter = null;
+         holder.node = null;
       }
    }
 
@@ -1612,7 +1689,14 @@ public class QueueImpl implements Queue
    private void internalAddTail(final MessageReference ref)
    {
       refAdded(ref);
-      messageReferences.addTail(ref, ref.getMessage().getPriority());
+      if (filterIndexes.isEmpty())
+      {
+         messageReferences.addTail(ref, ref.getMessage().getPriority());
+      }
+      else
+      {
+         indexReference(messageReferences.addTailNode(ref, ref.getMessage().getPriority()), false);
+      }
    }
 
    /**
@@ -1622,7 +1706,186 @@ public class QueueImpl implements Queue
    {
       queueMemorySize.addAndGet(ref.getMessageMemoryEstimate());
       refAdded(ref);
-      messageReferences.addHead(ref, ref.getMessage().getPriority());
+      if (filterIndexes.isEmpty())
+      {
+         messageReferences.addHead(ref, ref.getMessage().getPriority());
+      }
+      else
+      {
+         indexReference(messageReferences.addHeadNode(ref, ref.getMessage().getPriority()), true);
+      }
+   }
+
+   /**
+    * Adds the node to the index of every consumer filter matching its message.
+    * The nodes added on the tail of an index still classifying its backlog are left to {@link #classifyBacklog}.
+    */
+   private void indexReference(final LinkedListImpl.Node<MessageReference> node, final boolean head)
+   {
+      ServerMessage message = node.getValue().getMessage();
+
+      for (FilterIndex index : filterIndexes.values())
+      {
+         if ((head || index.backlog == null) && index.filter.match(message))
+         {
+            if (head)
+            {
+               index.nodes.addHead(node, message.getPriority());
+            }
+            else
+            {
+               index.nodes.addTail(node, message.getPriority());
+            }
+         }
+      }
+   }
+
+   private FilterIndex addFilterIndex(final Filter consumerFilter)
+   {
+      FilterIndex index = filterIndexes.get(consumerFilter.getFilterString());
+
+      if (index == null)
+      {
+         index = new FilterIndex(consumerFilter);
+
+         // The references already queued are classified later, as the consumers of the index move along it
+         index.backlog = new ArrayList<LinkedListIterator<LinkedListImpl.Node<MessageReference>>>(QueueImpl.NUM_PRIORITIES);
+
+         for (int i = 0; i < QueueImpl.NUM_PRIORITIES; i++)
+         {
+            index.backlog.add(messageReferences.nodeIterator(i));
+         }
+
+         filterIndexes.put(consumerFilter.getFilterString(), index);
+      }
+
+      index.consumers++;
+
+      return index;
+   }
+
+   private void removeFilterIndex(final ConsumerHolder holder)
+   {
+      if (holder.indexIter != null)
+      {
+         holder.indexIter.close();
+
+         holder.indexIter = null;
+      }
+
+      FilterIndex index = holder.index;
+
+      if (--index.consumers == 0)
+      {
+         filterIndexes.remove(index.filter.getFilterString());
+
+         closeBacklog(index);
+
+         index.nodes.clear();
+      }
+   }
+
+   /**
+    * Classifies the references queued before the index was created, up to the next one matching its filter.
+    * The levels are scanned again from the highest priority on each call, so the references added on the tail
+    * meanwhile are classified in order as well.
+    *
+    * @return false once the whole backlog is classified, the references are then indexed as they are added
+    */
+   private boolean classifyBacklog(final FilterIndex index)
+   {
+      if (index.backlog == null)
+      {
+         return false;
+      }
+
+      for (int i = index.backlog.size() - 1; i >= 0; i--)
+      {
+         LinkedListIterator<LinkedListImpl.Node<MessageReference>> iter = index.backlog.get(i);
+
+         while (iter.hasNext())
+         {
+            LinkedListImpl.Node<MessageReference> node = iter.next();
+
+            if (index.filter.match(node.getValue().getMessage()))
+            {
+               index.nodes.addTail(node, i);
+
+               return true;
+            }
+         }
+      }
+
+      closeBacklog(index);
+
+      return false;
+   }
+
+   private void closeBacklog(final FilterIndex index)
+   {
+      if (index.backlog != null)
+      {
+         for (LinkedListIterator<LinkedListImpl.Node<MessageReference>> iter : index.backlog)
+         {
+            iter.close();
+         }
+
+         index.backlog = null;
+      }
+   }
+
+   /**
+    * Moves the consumer along its filter index, discarding the nodes already removed from the queue
+    */
+   private MessageReference nextIndexedReference(final ConsumerHolder holder)
+   {
+      if (holder.indexIter == null)
+      {
+         holder.indexIter = holder.index.nodes.iterator();
+      }
+
+      do
+      {
+         while (holder.indexIter.hasNext())
+         {
+            LinkedListImpl.Node<MessageReference> node = holder.indexIter.next();
+
+            if (node.isRemoved())
+            {
+               holder.indexIter.remove();
+            }
+            else
+            {
+               holder.node = node;
+
+               return node.getValue();
+            }
+         }
+      }
+      while (classifyBacklog(holder.index));
+
+      holder.node = null;
+
+      return null;
+   }
+
+   /**
+    * Removes the reference the consumer is positioned on, from the queue and from the consumer's filter index
+    */
+   private void removeCurrentReference(final ConsumerHolder holder)
+   {
+      if (holder.index == null)
+      {
+         holder.iter.remove();
+      }
+      else
+      {
+         holder.indexIter.remove();
+
+         messageReferences.removeNode(holder.node, holder.node.getValue().getMessage().getPriority());
+
+         holder.node = null;
+      }
    }
 
    private synchronized void doPoll()
@@ -1702,20 +1965,27 @@ public class QueueImpl implements Queue
 
             Consumer consumer = holder.consumer;
 
-            if (holder.iter == null)
-            {
-               holder.iter = messageReferences.iterator();
-            }
-
             MessageReference ref;
 
-            if (holder.iter.hasNext())
+            if (holder.index != null)
             {
-               ref = holder.iter.next();
+               ref = nextIndexedReference(holder);
             }
             else
             {
-               ref = null;
+               if (holder.iter == null)
+               {
+                  holder.iter = messageReferences.iterator();
+               }
+
+               if (holder.iter.hasNext())
+               {
+                  ref = holder.iter.next();
+               }
+               else
+               {
+                  ref = null;
+               }
             }
 
             if (ref == null)
@@ -1730,7 +2000,7 @@ public class QueueImpl implements Queue
                   {
                      HornetQLogger.LOGGER.trace("Reference " + ref + " being expired");
                   }
-                  holder.iter.remove();
+                  removeCurrentReference(holder);
 
                   refRemoved(ref);
 
@@ -1764,7 +2034,7 @@ public class QueueImpl implements Queue
 
                if (status == HandleStatus.HANDLED)
                {
-                  holder.iter.remove();
+                  removeCurrentReference(holder);
 
                   refRemoved(ref);
 
@@ -1777,7 +2047,14 @@ public class QueueImpl implements Queue
                }
                else if (status == HandleStatus.BUSY)
                {
-                  holder.iter.repeat();
+                  if (holder.index != null)
+                  {
+                     holder.indexIter.repeat();
+                  }
+                  else
+                  {
+                     holder.iter.repeat();
+                  }
 
                   busyCount++;
                }
@@ -1885,6 +2162,12 @@ public class QueueImpl implements Queue
          }
          addTail(reference, false);
          pageIterator.remove();
+
+         // A redelivery can be older than the messages depaged before it
+         if (depagedPosition == null || reference.getPosition().compareTo(depagedPosition) > 0)
+         {
+            depagedPosition = reference.getPosition();
+         }
       }
       
       if (HornetQLogger.LOGGER.isDebugEnabled())
@@ -1920,6 +2203,14 @@ public class QueueImpl implements Queue
 
    private void internalAddRedistributor(final Executor executor)
    {
+      if (consumerSet.isEmpty() && redistributor != null)
+      {
+         // The redistributor was only moving part of the load away from the consumers, now it takes everything
+         redistributor.setTarget(null, -1);
+
+         deliverAsync();
+      }
+
       // create the redistributor only once if there are no local consumers
       if (consumerSet.isEmpty() && redistributor == null)
       {
@@ -2245,6 +2536,8 @@ public class QueueImpl implements Queue
 
       queue.deliveringCount.decrementAndGet();
 
+      queue.messagesAcknowledged.incrementAndGet();
+
       if (ref.isPaged())
       {
          // nothing to be done
@@ -2330,6 +2623,38 @@ public class QueueImpl implements Queue
       final Consumer consumer;
 
       LinkedListIterator<MessageReference> iter;
+
+      // Only set when the consumer has a filter and the queue is using consumer filter indexes
+      FilterIndex index;
+
+      LinkedListIterator<LinkedListImpl.Node<MessageReference>> indexIter;
+
+      LinkedListImpl.Node<MessageReference> node;
+   }
+
+   /**
+    * The nodes of messageReferences whose message matched a consumer filter, shared by all the consumers using the same
+    * filter string.
+    * <p>
+    * A node removed from the queue by another index, by expiry or by management stays on the index until one of its
+    * consumers walks past it, as finding it would mean scanning the index, so its message is kept in memory until then.
+    * The index is cleared once its last consumer is removed.
+    */
+   private static final class FilterIndex
+   {
+      FilterIndex(final Filter filter)
+      {
+         this.filter = filter;
+      }
+
+      final Filter filter;
+
+      final PriorityLinkedList<LinkedListImpl.Node<MessageReference>> nodes = new PriorityLinkedListImpl<LinkedListImpl.Node<MessageReference>>(QueueImpl.NUM_PRIORITIES);
+
+      // The iterators over each priority level of messageReferences still to classify, null once done
+      List<LinkedListIterator<LinkedListImpl.Node<MessageReference>>> backlog;
+
+      int consumers;
    }
 
    private final class RefsOperation implements TransactionOperation
@@ -2511,6 +2836,71 @@ public class QueueImpl implements Queue
       }
    }
 
+   /* Browses the messages in memory, then the ones not depaged yet */
+   private class BrowserIterator implements LinkedListIterator<MessageReference>
+   {
+      private final LinkedListIterator<MessageReference> messagesIterator = iterator();
+
+      private LinkedListIterator<PagedReference> pagingIterator;
+
+      public void close()
+      {
+         messagesIterator.close();
+
+         if (pagingIterator != null)
+         {
+            pagingIterator.close();
+         }
+      }
+
+      public void repeat()
+      {
+         if (pagingIterator == null)
+         {
+            messagesIterator.repeat();
+         }
+         else
+         {
+            pagingIterator.repeat();
+         }
+      }
+
+      public boolean hasNext()
+      {
+         if (pagingIterator == null)
+         {
+            if (messagesIterator.hasNext())
+            {
+               return true;
+            }
+
+            if (pageSubscription == null)
+            {
+               return false;
+            }
+
+            pagingIterator = pageSubscription.browserIterator(depagedPosition);
+         }
+
+         return pagingIterator.hasNext();
+      }
+
+      public MessageReference next()
+      {
+         if (!hasNext())
+         {
+            throw new NoSuchElementException();
+         }
+
+         return pagingIterator == null ? messagesIterator.next() : pagingIterator.next();
+      }
+
+      public void remove()
+      {
+         throw new UnsupportedOperationException("Browsing doesn't remove messages");
+      }
+   }
+
    /* For external use we need to use a synchronized version since the list is not thread safe */
    private class SynchronizedIterator implements LinkedListIterator<MessageReference>
    {
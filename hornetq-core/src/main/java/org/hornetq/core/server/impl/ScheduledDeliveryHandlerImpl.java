@@ -13,12 +13,17 @@
 package org.hornetq.core.server.impl;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import org.hornetq.core.filter.Filter;
@@ -26,10 +31,24 @@ import org.hornetq.core.server.HornetQLogger;
 import org.hornetq.core.server.MessageReference;
 import org.hornetq.core.server.Queue;
 import org.hornetq.core.server.ScheduledDeliveryHandler;
+import org.hornetq.utils.LinkedListImpl;
+import org.hornetq.utils.LinkedListIterator;
 
 /**
  * Handles scheduling deliveries to a queue at the correct time.
- * 
+ * <p>
+ * The references are kept on a hashed timing wheel: a ring of {@link #WHEEL_SIZE} slots of {@link #TICK} milliseconds
+ * each, where a reference goes on the slot of its delivery time (modulo the size of the ring), so scheduling is a
+ * list insertion. The wheel only holds the references due within its current turn, the ones further away wait on an
+ * overflow list per tick, sorted by tick, and are moved to their slot once the wheel gets a turn from them. A single
+ * task is kept on the scheduled executor, for the next tick holding a reference. When it runs it takes every reference
+ * from the slots it went through, all of them due, and gives them back to the queue in one call.
+ * <p>
+ * The node of each reference on its slot is also kept by message ID, so a reference is removed by ID in constant time.
+ * The scheduled references are listed in delivery order, and cancelled in scheduling order.
+ * <p>
+ * References are never delivered before their time, but they may be delivered up to a tick later.
+ *
  * @author <a href="mailto:tim.fox@jboss.com">Tim Fox</a>
  * @author <a href="ataylor@redhat.com">Andy Taylor</a>
  * @author <a href="jmesnil@redhat.com">Jeff Mesnil</a>
@@ -39,11 +58,36 @@ public class ScheduledDeliveryHandlerImpl implements ScheduledDeliveryHandler
 {
    private static final boolean trace = HornetQLogger.LOGGER.isTraceEnabled();
 
+   /** Milliseconds per slot */
+   static final long TICK = 10;
+
+   /** Number of slots, a power of 2 */
+   static final int WHEEL_SIZE = 1024;
+
    private final ScheduledExecutorService scheduledExecutor;
-   
+
    private final Object lockDelivery = new Object();
-   
-   private final LinkedList<MessageReference> scheduledReferences = new LinkedList<MessageReference>();
+
+   // Guards the wheel and the scheduling of the delivery task
+   private final Object lockWheel = new Object();
+
+   // Created on the first scheduled reference, only holds the ticks from currentTick to currentTick + WHEEL_SIZE - 1
+   private LinkedListImpl<MessageReference>[] wheel;
+
+   // tick -> the references scheduled on a tick after the current turn of the wheel
+   private final TreeMap<Long, LinkedListImpl<MessageReference>> overflow =
+            new TreeMap<Long, LinkedListImpl<MessageReference>>();
+
+   // message ID -> where the reference is on the wheel, in the order the references were scheduled
+   private final Map<Long, ScheduledReference> scheduledReferences = new LinkedHashMap<Long, ScheduledReference>();
+
+   // The first tick not completely processed yet, nothing is scheduled before it
+   private long currentTick;
+
+   // The delivery task on the executor, and the time it will run
+   private ScheduledDeliveryRunnable pendingRunnable;
+
+   private ScheduledFuture<?> pendingFuture;
 
    public ScheduledDeliveryHandlerImpl(final ScheduledExecutorService scheduledExecutor)
    {
@@ -61,23 +105,49 @@ public class ScheduledDeliveryHandlerImpl implements ScheduledDeliveryHandler
             HornetQLogger.LOGGER.trace("Scheduling delivery for " + ref + " to occur at " + deliveryTime);
          }
 
-         ScheduledDeliveryRunnable runnable = new ScheduledDeliveryRunnable(ref.getScheduledDeliveryTime());
-
-         synchronized (scheduledReferences)
+         synchronized (lockWheel)
          {
+            if (scheduledReferences.isEmpty())
+            {
+               currentTick = tick(System.currentTimeMillis());
+            }
+
+            long tick = Math.max(currentTick, tick(deliveryTime));
+
+            LinkedListImpl<MessageReference> slot;
+
+            if (tick < currentTick + WHEEL_SIZE)
+            {
+               slot = getSlot(tick);
+            }
+            else
+            {
+               slot = overflow.get(tick);
+
+               if (slot == null)
+               {
+                  slot = new LinkedListImpl<MessageReference>();
+                  overflow.put(tick, slot);
+               }
+            }
+
+            LinkedListImpl.Node<MessageReference> node;
+
             if (tail)
             {
-               // We do the opposite what the parameter says as the Runnable will always add it to the head
-               scheduledReferences.addFirst(ref);
+               // We do the opposite what the parameter says as the delivery will always add it to the head
+               node = slot.addHeadNode(ref);
             }
             else
             {
-               // We do the opposite what the parameter says as the Runnable will always add it to the head
-               scheduledReferences.add(ref);
+               // We do the opposite what the parameter says as the delivery will always add it to the head
+               node = slot.addTailNode(ref);
             }
-         }
 
-         scheduleDelivery(runnable, deliveryTime);
+            scheduledReferences.put(ref.getMessage().getMessageID(), new ScheduledReference(tick, slot, node));
+
+            scheduleDelivery(runTime(tick(deliveryTime)));
+         }
 
          return true;
       }
@@ -86,7 +156,7 @@ public class ScheduledDeliveryHandlerImpl implements ScheduledDeliveryHandler
 
    public int getScheduledCount()
    {
-      synchronized (scheduledReferences)
+      synchronized (lockWheel)
       {
          return scheduledReferences.size();
       }
@@ -96,10 +166,18 @@ public class ScheduledDeliveryHandlerImpl implements ScheduledDeliveryHandler
    {
       List<MessageReference> refs = new ArrayList<MessageReference>();
 
-      synchronized (scheduledReferences)
+      synchronized (lockWheel)
       {
-         refs.addAll(scheduledReferences);
+         for (ScheduledReference scheduled : scheduledReferences.values())
+         {
+            refs.add(scheduled.node.getValue());
+         }
+
+         // The map is in scheduling order, the listing is in delivery order. The sort is stable, the references on
+         // the same time stay in scheduling order
+         Collections.sort(refs, DELIVERY_TIME_ORDER);
       }
+
       return refs;
    }
 
@@ -107,16 +185,20 @@ public class ScheduledDeliveryHandlerImpl implements ScheduledDeliveryHandler
    {
       List<MessageReference> refs = new ArrayList<MessageReference>();
 
-      synchronized (scheduledReferences)
+      synchronized (lockWheel)
       {
-         Iterator<MessageReference> iter = scheduledReferences.iterator();
-         
+         Iterator<ScheduledReference> iter = scheduledReferences.values().iterator();
+
          while (iter.hasNext())
          {
-            MessageReference ref = iter.next();
+            ScheduledReference scheduled = iter.next();
+
+            MessageReference ref = scheduled.node.getValue();
+
             if (filter == null || filter.match(ref.getMessage()))
             {
                iter.remove();
+               unlink(scheduled);
                refs.add(ref);
             }
          }
@@ -126,75 +208,345 @@ public class ScheduledDeliveryHandlerImpl implements ScheduledDeliveryHandler
 
    public MessageReference removeReferenceWithID(final long id)
    {
-      synchronized (scheduledReferences)
+      synchronized (lockWheel)
+      {
+         ScheduledReference scheduled = scheduledReferences.remove(id);
+
+         if (scheduled == null)
+         {
+            return null;
+         }
+
+         unlink(scheduled);
+
+         return scheduled.node.getValue();
+      }
+   }
+
+   // Private -------------------------------------------------------
+
+   /**
+    * Makes sure the delivery task will run at the time given or before. Must be called holding lockWheel.
+    */
+   private void scheduleDelivery(final long runTime)
+   {
+      if (pendingRunnable != null)
+      {
+         if (pendingRunnable.runTime <= runTime)
+         {
+            return;
+         }
+
+         // This task would be too late for the new reference. If it's already running it will find nothing to do
+         pendingFuture.cancel(false);
+      }
+
+      long delay = runTime - System.currentTimeMillis();
+
+      if (delay < 0)
+      {
+         delay = 0;
+      }
+
+      pendingRunnable = new ScheduledDeliveryRunnable(runTime);
+
+      pendingFuture = scheduledExecutor.schedule(pendingRunnable, delay, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * Removes a reference from its slot, and the overflow list of its tick once empty. Must be called holding lockWheel.
+    */
+   private void unlink(final ScheduledReference scheduled)
+   {
+      scheduled.slot.removeNode(scheduled.node);
+
+      if (scheduled.slot.size() == 0 && overflow.get(scheduled.tick) == scheduled.slot)
+      {
+         overflow.remove(scheduled.tick);
+      }
+   }
+
+   /**
+    * Takes the references due at the given time from the slots not processed yet. Must be called holding lockWheel.
+    *
+    * @return the references, ready to be given to {@link Queue#addHead(List)}
+    */
+   private HashMap<Queue, LinkedList<MessageReference>> removeDueReferences(final long now)
+   {
+      HashMap<Queue, LinkedList<MessageReference>> refs = new HashMap<Queue, LinkedList<MessageReference>>();
+
+      if (scheduledReferences.isEmpty())
+      {
+         return refs;
+      }
+
+      long nowTick = tick(now);
+
+      if (wheel != null)
+      {
+         // If the task was late for more than a turn of the wheel, all the slots are visited only once
+         long firstTick = Math.max(currentTick, nowTick - WHEEL_SIZE + 1);
+
+         for (long tick = firstTick; tick <= nowTick && !scheduledReferences.isEmpty(); tick++)
+         {
+            LinkedListImpl<MessageReference> slot = wheel[slotIndex(tick)];
+
+            if (slot != null && slot.size() > 0)
+            {
+               removeDueReferences(slot, now, refs);
+            }
+         }
+      }
+
+      // Only if the task was late for more than a turn of the wheel, the references of the next turns got due
+      while (!overflow.isEmpty() && overflow.firstKey() <= nowTick)
+      {
+         removeDueReferences(overflow.firstEntry().getValue(), now, refs);
+
+         if (overflow.firstEntry().getValue().size() > 0)
+         {
+            // The references due later on the current tick
+            break;
+         }
+
+         overflow.pollFirstEntry();
+      }
+
+      // The slot of the current tick may still hold references due later on this tick
+      currentTick = nowTick;
+
+      // The wheel gets a turn from its new current tick
+      while (!overflow.isEmpty() && overflow.firstKey() < currentTick + WHEEL_SIZE)
+      {
+         Map.Entry<Long, LinkedListImpl<MessageReference>> entry = overflow.pollFirstEntry();
+
+         LinkedListImpl<MessageReference> slot = getSlot(entry.getKey());
+
+         LinkedListIterator<MessageReference> iter = entry.getValue().iterator();
+
+         try
+         {
+            while (iter.hasNext())
+            {
+               MessageReference reference = iter.next();
+
+               ScheduledReference scheduled = scheduledReferences.get(reference.getMessage().getMessageID());
+
+               scheduled.slot = slot;
+               scheduled.node = slot.addTailNode(reference);
+            }
+         }
+         finally
+         {
+            iter.close();
+         }
+      }
+
+      return refs;
+   }
+
+   /**
+    * Takes the references due at the given time from a slot. Must be called holding lockWheel.
+    */
+   private void removeDueReferences(final LinkedListImpl<MessageReference> slot,
+                                    final long now,
+                                    final HashMap<Queue, LinkedList<MessageReference>> refs)
+   {
+      HashMap<Queue, LinkedList<MessageReference>> slotRefs = null;
+
+      LinkedListIterator<MessageReference> iter = slot.iterator();
+
+      try
       {
-         Iterator<MessageReference> iter = scheduledReferences.iterator();
          while (iter.hasNext())
          {
-            MessageReference ref = iter.next();
-            if (ref.getMessage().getMessageID() == id)
+            MessageReference reference = iter.next();
+
+            // Only the references of the current tick may not be due yet
+            if (reference.getScheduledDeliveryTime() <= now)
             {
                iter.remove();
-               return ref;
+               scheduledReferences.remove(reference.getMessage().getMessageID());
+
+               reference.setScheduledDeliveryTime(0);
+
+               if (slotRefs == null)
+               {
+                  slotRefs = new HashMap<Queue, LinkedList<MessageReference>>();
+               }
+
+               LinkedList<MessageReference> references = slotRefs.get(reference.getQueue());
+
+               if (references == null)
+               {
+                  references = new LinkedList<MessageReference>();
+                  slotRefs.put(reference.getQueue(), references);
+               }
+
+               references.add(reference);
             }
          }
       }
-      
-      return null;
+      finally
+      {
+         iter.close();
+      }
+
+      if (slotRefs == null)
+      {
+         return;
+      }
+
+      for (Map.Entry<Queue, LinkedList<MessageReference>> entry : slotRefs.entrySet())
+      {
+         LinkedList<MessageReference> references = refs.get(entry.getKey());
+
+         if (references == null)
+         {
+            refs.put(entry.getKey(), entry.getValue());
+         }
+         else
+         {
+            // addHead puts every reference in front of the previous one: the references of a later slot go
+            // first so the earlier ones end up ahead on the queue
+            references.addAll(0, entry.getValue());
+         }
+      }
    }
 
-   private void scheduleDelivery(final ScheduledDeliveryRunnable runnable, final long deliveryTime)
+   /**
+    * Must be called holding lockWheel.
+    *
+    * @return the run time for the next tick holding a reference, or -1 if there are no references
+    */
+   private long nextRunTime()
    {
-      long now = System.currentTimeMillis();
+      if (scheduledReferences.isEmpty())
+      {
+         return -1;
+      }
 
-      long delay = deliveryTime - now;
-      
-      if (delay < 0)
+      if (wheel != null)
       {
-         delay = 0;
+         // Everything on the wheel is due on its current turn, the first slot not empty is the next tick
+         for (int i = 0; i < WHEEL_SIZE; i++)
+         {
+            long tick = currentTick + i;
+
+            LinkedListImpl<MessageReference> slot = wheel[slotIndex(tick)];
+
+            if (slot != null && slot.size() > 0)
+            {
+               return runTime(tick);
+            }
+         }
+      }
+
+      // Everything is at least a turn of the wheel away
+      return runTime(overflow.firstKey());
+   }
+
+   @SuppressWarnings("unchecked")
+   private LinkedListImpl<MessageReference> getSlot(final long tick)
+   {
+      if (wheel == null)
+      {
+         wheel = new LinkedListImpl[WHEEL_SIZE];
+      }
+
+      int index = slotIndex(tick);
+
+      LinkedListImpl<MessageReference> slot = wheel[index];
+
+      if (slot == null)
+      {
+         slot = new LinkedListImpl<MessageReference>();
+         wheel[index] = slot;
+      }
+
+      return slot;
+   }
+
+   private static long tick(final long time)
+   {
+      return time / TICK;
+   }
+
+   /**
+    * @return the end of the tick, when everything scheduled on it is due
+    */
+   private static long runTime(final long tick)
+   {
+      return (tick + 1) * TICK - 1;
+   }
+
+   private static int slotIndex(final long tick)
+   {
+      return (int)(tick & WHEEL_SIZE - 1);
+   }
+
+   private static final Comparator<MessageReference> DELIVERY_TIME_ORDER = new Comparator<MessageReference>()
+   {
+      public int compare(final MessageReference ref1, final MessageReference ref2)
+      {
+         long time1 = ref1.getScheduledDeliveryTime();
+         long time2 = ref2.getScheduledDeliveryTime();
+         return time1 < time2 ? -1 : time1 == time2 ? 0 : 1;
       }
+   };
+
+   /**
+    * A scheduled reference, with its tick, its slot or overflow list, and its node on it.
+    */
+   private static final class ScheduledReference
+   {
+      private final long tick;
+
+      // Moved from the overflow list to the wheel when the wheel gets a turn from the tick
+      private LinkedListImpl<MessageReference> slot;
 
-      scheduledExecutor.schedule(runnable, delay, TimeUnit.MILLISECONDS);
+      private LinkedListImpl.Node<MessageReference> node;
+
+      private ScheduledReference(final long tick,
+                                 final LinkedListImpl<MessageReference> slot,
+                                 final LinkedListImpl.Node<MessageReference> node)
+      {
+         this.tick = tick;
+         this.slot = slot;
+         this.node = node;
+      }
    }
 
    private class ScheduledDeliveryRunnable implements Runnable
    {
-      private final long scheduledTime;
+      private final long runTime;
 
-      public ScheduledDeliveryRunnable(final long scheduledTime)
+      public ScheduledDeliveryRunnable(final long runTime)
       {
-         this.scheduledTime = scheduledTime;
+         this.runTime = runTime;
       }
 
       public void run()
       {
-         HashMap<Queue, LinkedList<MessageReference>> refs = new HashMap<Queue, LinkedList<MessageReference>>();
-
          synchronized (lockDelivery)
          {
-            synchronized (scheduledReferences)
+            HashMap<Queue, LinkedList<MessageReference>> refs;
+
+            synchronized (lockWheel)
             {
-               
-               Iterator<MessageReference> iter = scheduledReferences.iterator();
-               while (iter.hasNext())
+               if (pendingRunnable == this)
                {
-                  MessageReference reference = iter.next();
-                  if (reference.getScheduledDeliveryTime() <= this.scheduledTime)
-                  {
-                     iter.remove();
-   
-                     reference.setScheduledDeliveryTime(0);
-                     
-                     LinkedList<MessageReference> references = refs.get(reference.getQueue());
-                     
-                     if (references == null)
-                     {
-                        references = new LinkedList<MessageReference>();
-                        refs.put(reference.getQueue(), references);
-                     }
-                     
-                     references.add(reference);
-                  }
+                  pendingRunnable = null;
+                  pendingFuture = null;
+               }
+
+               refs = removeDueReferences(System.currentTimeMillis());
+
+               long next = nextRunTime();
+
+               if (next >= 0)
+               {
+                  scheduleDelivery(next);
                }
             }
 
@@ -202,7 +554,7 @@ public class ScheduledDeliveryHandlerImpl implements ScheduledDeliveryHandler
             {
                entry.getKey().addHead(entry.getValue());
             }
-            
+
             // Just to speed up GC
             refs.clear();
          }
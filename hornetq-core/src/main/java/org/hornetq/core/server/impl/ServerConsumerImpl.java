@@ -13,6 +13,10 @@
 
 package org.hornetq.core.server.impl;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -28,6 +32,7 @@ import org.hornetq.api.core.management.ManagementHelper;
 import org.hornetq.api.core.management.NotificationType;
 import org.hornetq.core.client.impl.ClientConsumerImpl;
 import org.hornetq.core.filter.Filter;
+import org.hornetq.core.journal.SequentialFile;
 import org.hornetq.core.message.BodyEncoder;
 import org.hornetq.core.persistence.StorageManager;
 import org.hornetq.core.postoffice.Binding;
@@ -852,6 +857,9 @@ public class ServerConsumerImpl implements ServerConsumer, ReadyListener
 
       private BodyEncoder context;
 
+      /** The body file, when the chunks are sent straight from it */
+      private LargeMessageBodyFile bodyFile;
+
       public LargeMessageDeliverer(final LargeServerMessage message, final MessageReference ref) throws Exception
       {
          largeMessage = message;
@@ -887,7 +895,12 @@ public class ServerConsumerImpl implements ServerConsumer, ReadyListener
 
                sizePendingLargeMessage = context.getLargeBodySize();
 
-               context.open();
+               bodyFile = openBodyFile();
+
+               if (bodyFile == null)
+               {
+                  context.open();
+               }
 
                sentInitialPacket = true;
 
@@ -933,19 +946,38 @@ public class ServerConsumerImpl implements ServerConsumer, ReadyListener
                int localChunkLen = 0;
 
                localChunkLen = (int)Math.min(sizePendingLargeMessage - positionPendingLargeMessage, minLargeMessageSize);
-               
-               HornetQBuffer bodyBuffer = HornetQBuffers.fixedBuffer(localChunkLen);
 
-               context.encode(bodyBuffer, localChunkLen);
+               int packetSize;
+
+               int chunkLen;
 
-               byte[] body = bodyBuffer.toByteBuffer().array();
+               if (bodyFile != null)
+               {
+                  // The chunk goes from the file to the connection without being read here
+                  packetSize = callback.sendLargeMessageContinuation(id,
+                                                                     bodyFile.getChannel(),
+                                                                     positionPendingLargeMessage,
+                                                                     localChunkLen,
+                                                                     positionPendingLargeMessage + localChunkLen < sizePendingLargeMessage,
+                                                                     bodyFile.newRegion());
+
+                  chunkLen = localChunkLen;
+               }
+               else
+               {
+                  HornetQBuffer bodyBuffer = HornetQBuffers.fixedBuffer(localChunkLen);
 
-               int packetSize = callback.sendLargeMessageContinuation(id,
-                                                                      body,
-                                                                      positionPendingLargeMessage + localChunkLen < sizePendingLargeMessage,
-                                                                      false);
+                  context.encode(bodyBuffer, localChunkLen);
 
-               int chunkLen = body.length;
+                  byte[] body = bodyBuffer.toByteBuffer().array();
+
+                  packetSize = callback.sendLargeMessageContinuation(id,
+                                                                     body,
+                                                                     positionPendingLargeMessage + localChunkLen < sizePendingLargeMessage,
+                                                                     false);
+
+                  chunkLen = body.length;
+               }
 
                if (availableCredits != null)
                {
@@ -992,7 +1024,18 @@ public class ServerConsumerImpl implements ServerConsumer, ReadyListener
                // On that case we just ignore this call
                return;
             }
-            context.close();
+
+            if (bodyFile != null)
+            {
+               // Netty may still be writing chunks from the file: it is then closed by the callback of the last one
+               bodyFile.deliveryFinished();
+
+               bodyFile = null;
+            }
+            else
+            {
+               context.close();
+            }
 
             largeMessage.releaseResources();
 
@@ -1009,6 +1052,110 @@ public class ServerConsumerImpl implements ServerConsumer, ReadyListener
             largeMessage = null;
          }
       }
+
+      /**
+       * @return the body file to send the chunks from, or null if they have to be read through the body encoder
+       */
+      private LargeMessageBodyFile openBodyFile() throws Exception
+      {
+         if (!callback.isFileRegionSupported())
+         {
+            return null;
+         }
+
+         SequentialFile file = largeMessage.getFile();
+
+         if (file == null)
+         {
+            return null;
+         }
+
+         try
+         {
+            return new LargeMessageBodyFile(file.getJavaFile());
+         }
+         catch (IOException e)
+         {
+            HornetQLogger.LOGGER.debug("Couldn't open " + file.getFileName() + ", sending " + largeMessage + " in memory", e);
+
+            return null;
+         }
+      }
+   }
+
+   /**
+    * The body file of a large message sent through file regions. It is closed by the completion callback of the last
+    * region written from it, or when the delivery finishes if no region is pending then.
+    */
+   private static final class LargeMessageBodyFile
+   {
+      private final RandomAccessFile file;
+
+      private int pendingRegions;
+
+      private boolean deliveryFinished;
+
+      LargeMessageBodyFile(final File javaFile) throws IOException
+      {
+         file = new RandomAccessFile(javaFile, "r");
+      }
+
+      FileChannel getChannel()
+      {
+         return file.getChannel();
+      }
+
+      /**
+       * @return the completion callback of a region about to be written from the file
+       */
+      synchronized Runnable newRegion()
+      {
+         pendingRegions++;
+
+         return new Runnable()
+         {
+            private boolean written;
+
+            public void run()
+            {
+               synchronized (LargeMessageBodyFile.this)
+               {
+                  if (written)
+                  {
+                     return;
+                  }
+
+                  written = true;
+
+                  pendingRegions--;
+
+                  closeIfDone();
+               }
+            }
+         };
+      }
+
+      synchronized void deliveryFinished()
+      {
+         deliveryFinished = true;
+
+         closeIfDone();
+      }
+
+      private void closeIfDone()
+      {
+         if (deliveryFinished && pendingRegions == 0)
+         {
+            try
+            {
+               file.close();
+            }
+            catch (IOException e)
+            {
+               HornetQLogger.LOGGER.warn(e.getMessage(), e);
+            }
+         }
+      }
    }
 
    private class BrowserDeliverer implements Runnable
@@ -59,6 +59,8 @@ public class AddressSettings implements Mergeable<AddressSettings>, Serializable
 
    public static final boolean DEFAULT_SEND_TO_DLA_ON_NO_ROUTE = false;
 
+   public static final boolean DEFAULT_CONSUMER_FILTER_INDEX = false;
+
    private AddressFullMessagePolicy addressFullMessagePolicy = null;
 
    private Long maxSizeBytes = null;
@@ -91,6 +93,8 @@ public class AddressSettings implements Mergeable<AddressSettings>, Serializable
 
    private Boolean sendToDLAOnNoRoute = null;
 
+   private Boolean consumerFilterIndex = null;
+
    public boolean isLastValueQueue()
    {
       return lastValueQueue != null ? lastValueQueue : AddressSettings.DEFAULT_LAST_VALUE_QUEUE;
@@ -233,6 +237,20 @@ public class AddressSettings implements Mergeable<AddressSettings>, Serializable
       sendToDLAOnNoRoute = value;
    }
 
+   /**
+    * When true, queues keep one list of references per distinct consumer filter, so consumers with a selector only
+    * visit the references they can accept
+    */
+   public boolean isConsumerFilterIndex()
+   {
+      return consumerFilterIndex != null ? consumerFilterIndex : AddressSettings.DEFAULT_CONSUMER_FILTER_INDEX;
+   }
+
+   public void setConsumerFilterIndex(final boolean consumerFilterIndex)
+   {
+      this.consumerFilterIndex = consumerFilterIndex;
+   }
+
    public long getRedistributionDelay()
    {
       return redistributionDelay != null ? redistributionDelay : AddressSettings.DEFAULT_REDISTRIBUTION_DELAY;
@@ -309,6 +327,10 @@ public class AddressSettings implements Mergeable<AddressSettings>, Serializable
       {
          addressFullMessagePolicy = merged.addressFullMessagePolicy;
       }
+      if (consumerFilterIndex == null)
+      {
+         consumerFilterIndex = merged.consumerFilterIndex;
+      }
    }
 
    /* (non-Javadoc)
@@ -356,6 +378,12 @@ public class AddressSettings implements Mergeable<AddressSettings>, Serializable
       redistributionDelay = BufferHelper.readNullableLong(buffer);
 
       sendToDLAOnNoRoute = BufferHelper.readNullableBoolean(buffer);
+
+      // settings persisted by previous versions finish here
+      if (buffer.readable())
+      {
+         consumerFilterIndex = BufferHelper.readNullableBoolean(buffer);
+      }
    }
 
    /* (non-Javadoc)
@@ -379,7 +407,8 @@ public class AddressSettings implements Mergeable<AddressSettings>, Serializable
              BufferHelper.sizeOfNullableLong(expiryDelay) +
              BufferHelper.sizeOfNullableBoolean(lastValueQueue) +
              BufferHelper.sizeOfNullableLong(redistributionDelay) +
-             BufferHelper.sizeOfNullableBoolean(sendToDLAOnNoRoute);
+             BufferHelper.sizeOfNullableBoolean(sendToDLAOnNoRoute) +
+             BufferHelper.sizeOfNullableBoolean(consumerFilterIndex);
    }
 
    /* (non-Javadoc)
@@ -419,6 +448,8 @@ public class AddressSettings implements Mergeable<AddressSettings>, Serializable
       BufferHelper.writeNullableLong(buffer, redistributionDelay);
 
       BufferHelper.writeNullableBoolean(buffer, sendToDLAOnNoRoute);
+
+      BufferHelper.writeNullableBoolean(buffer, consumerFilterIndex);
    }
 
    /* (non-Javadoc)
@@ -446,6 +477,7 @@ public class AddressSettings implements Mergeable<AddressSettings>, Serializable
       result = prime * result + ((maxRedeliveryDelay == null) ? 0 : maxRedeliveryDelay.hashCode());
       result = prime * result + ((redistributionDelay == null) ? 0 : redistributionDelay.hashCode());
       result = prime * result + ((sendToDLAOnNoRoute == null) ? 0 : sendToDLAOnNoRoute.hashCode());
+      result = prime * result + ((consumerFilterIndex == null) ? 0 : consumerFilterIndex.hashCode());
       return result;
    }
 
@@ -574,6 +606,13 @@ public class AddressSettings implements Mergeable<AddressSettings>, Serializable
       }
       else if (!sendToDLAOnNoRoute.equals(other.sendToDLAOnNoRoute))
          return false;
+      if (consumerFilterIndex == null)
+      {
+         if (other.consumerFilterIndex != null)
+            return false;
+      }
+      else if (!consumerFilterIndex.equals(other.consumerFilterIndex))
+         return false;
       return true;
    }
 
@@ -614,6 +653,8 @@ public class AddressSettings implements Mergeable<AddressSettings>, Serializable
              redistributionDelay +
              ", sendToDLAOnNoRoute=" +
              sendToDLAOnNoRoute +
+             ", consumerFilterIndex=" +
+             consumerFilterIndex +
              "]";
    }
 }
@@ -40,4 +40,6 @@ public class TransactionPropertyIndexes
    public static final int PAGE_DELIVERY = 7;
    
    public static final int PAGE_CURSOR_POSITIONS = 8;
+
+   public static final int DUPLICATE_IDS = 9;
 }
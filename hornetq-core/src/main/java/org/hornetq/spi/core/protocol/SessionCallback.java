@@ -13,6 +13,8 @@
 
 package org.hornetq.spi.core.protocol;
 
+import java.nio.channels.FileChannel;
+
 import org.hornetq.api.core.SimpleString;
 import org.hornetq.core.server.ServerMessage;
 import org.hornetq.spi.core.remoting.ReadyListener;
@@ -35,6 +37,26 @@ public interface SessionCallback
    int sendLargeMessage(ServerMessage message, long consumerID, long bodySize, int deliveryCount);
 
    int sendLargeMessageContinuation(long consumerID, byte[] body, boolean continues, boolean requiresResponse);
+
+   /**
+    * @return true if the body of large messages can be sent straight from their files, through
+    *         {@link #sendLargeMessageContinuation(long, FileChannel, long, int, boolean, Runnable)}
+    */
+   boolean isFileRegionSupported();
+
+   /**
+    * Sends a chunk of a large message body without reading it: it is transferred from the file to the connection.
+    *
+    * @param written called once the chunk has been written to the connection, or failed to be. The file must be kept
+    *           open until then
+    * @return the size of the packet sent
+    */
+   int sendLargeMessageContinuation(long consumerID,
+                                    FileChannel file,
+                                    long position,
+                                    int length,
+                                    boolean continues,
+                                    Runnable written);
    
    void closed();
    
@@ -13,6 +13,8 @@
 
 package org.hornetq.spi.core.remoting;
 
+import java.nio.channels.FileChannel;
+
 import org.hornetq.api.core.HornetQBuffer;
 import org.hornetq.api.core.TransportConfiguration;
 import org.hornetq.core.security.HornetQPrincipal;
@@ -56,6 +58,27 @@ public interface Connection
     */
    void write(HornetQBuffer buffer);
 
+   /**
+    * @return true if {@link #writeFileRegion(HornetQBuffer, FileChannel, long, int, HornetQBuffer, Runnable)} can be
+    *         used on this connection
+    */
+   boolean isFileRegionSupported();
+
+   /**
+    * Writes a frame whose body is transferred straight from the file to the connection, without being copied on the
+    * heap. Only to be called when {@link #isFileRegionSupported()} returns true.
+    *
+    * @param header the part of the frame before the body
+    * @param trailer the part of the frame after the body
+    * @param written called once the body has been written, or failed to be. The file must be kept open until then
+    */
+   void writeFileRegion(HornetQBuffer header,
+                        FileChannel file,
+                        long position,
+                        int count,
+                        HornetQBuffer trailer,
+                        Runnable written);
+
    /**
     * Closes the connection.
     */
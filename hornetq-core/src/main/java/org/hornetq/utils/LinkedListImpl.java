@@ -50,6 +50,15 @@ public class LinkedListImpl<E> implements LinkedList<E>
    }
 
    public void addHead(E e)
+   {
+      addHeadNode(e);
+   }
+
+   /**
+    * Same as {@link #addHead(Object)}, returning the node that holds the element so it can later be removed in
+    * constant time through {@link #removeNode(Node)}
+    */
+   public Node<E> addHeadNode(E e)
    {
       Node<E> node = new Node<E>(e);
       
@@ -70,13 +79,24 @@ public class LinkedListImpl<E> implements LinkedList<E>
       }
 
       size++;
+
+      return node;
    }
 
    public void addTail(E e)
+   {
+      addTailNode(e);
+   }
+
+   /**
+    * Same as {@link #addTail(Object)}, returning the node that holds the element so it can later be removed in
+    * constant time through {@link #removeNode(Node)}
+    */
+   public Node<E> addTailNode(E e)
    {
       if (size == 0)
       {
-         addHead(e);
+         return addHeadNode(e);
       }
       else
       {
@@ -89,9 +109,31 @@ public class LinkedListImpl<E> implements LinkedList<E>
          tail = node;
 
          size++;
+
+         return node;
       }
    }
 
+   /**
+    * Removes a node previously returned by {@link #addHeadNode(Object)} or {@link #addTailNode(Object)}.
+    * Iterators positioned on the node are nudged the same way as on an iterator removal.
+    * <p>
+    * Nodes must not be used after {@link #clear()} was called on the list.
+    *
+    * @return false if the node had already been removed from the list
+    */
+   public boolean removeNode(Node<E> node)
+   {
+      if (node.prev == null)
+      {
+         return false;
+      }
+
+      removeAfter(node.prev);
+
+      return true;
+   }
+
    public E poll()
    {
       Node<E> ret = head.next;
@@ -125,6 +167,45 @@ public class LinkedListImpl<E> implements LinkedList<E>
       return new Iterator();
    }
 
+   /**
+    * An iterator returning the nodes of the list rather than their elements, so they can be removed later through
+    * {@link #removeNode(Node)}. It sees the elements added and removed the same way as {@link #iterator()}.
+    */
+   public LinkedListIterator<Node<E>> nodeIterator()
+   {
+      final Iterator iter = new Iterator();
+
+      return new LinkedListIterator<Node<E>>()
+      {
+         public boolean hasNext()
+         {
+            return iter.hasNext();
+         }
+
+         public Node<E> next()
+         {
+            iter.next();
+
+            return iter.last;
+         }
+
+         public void remove()
+         {
+            iter.remove();
+         }
+
+         public void repeat()
+         {
+            iter.repeat();
+         }
+
+         public void close()
+         {
+            iter.close();
+         }
+      };
+   }
+
    public String toString()
    {
       StringBuilder str = new StringBuilder("LinkedListImpl [ ");
@@ -248,21 +329,35 @@ public class LinkedListImpl<E> implements LinkedList<E>
       throw new IllegalStateException("Cannot find iter to remove");
    }
 
-   private static final class Node<E>
+   public static final class Node<E>
    {
-      Node<E> next;
+      private Node<E> next;
 
-      Node<E> prev;
+      private Node<E> prev;
 
-      final E val;
+      private final E val;
 
-      int iterCount;
+      private int iterCount;
 
       Node(E e)
       {
          val = e;
       }
 
+      public E getValue()
+      {
+         return val;
+      }
+
+      /**
+       * @return true once the node was unlinked from its list, either through an iterator, a poll or
+       *         {@link LinkedListImpl#removeNode(Node)}
+       */
+      public boolean isRemoved()
+      {
+         return prev == null;
+      }
+
       public String toString()
       {
          return "Node, value = " + val;
@@ -88,6 +88,59 @@ public class PriorityLinkedListImpl<T> implements PriorityLinkedList<T>
       size++;
    }
 
+   /**
+    * Same as {@link #addHead(Object, int)}, returning the node holding the element
+    * @see LinkedListImpl#addHeadNode(Object)
+    */
+   public LinkedListImpl.Node<T> addHeadNode(final T t, final int priority)
+   {
+      checkHighest(priority);
+
+      size++;
+
+      return levels[priority].addHeadNode(t);
+   }
+
+   /**
+    * Same as {@link #addTail(Object, int)}, returning the node holding the element
+    * @see LinkedListImpl#addTailNode(Object)
+    */
+   public LinkedListImpl.Node<T> addTailNode(final T t, final int priority)
+   {
+      checkHighest(priority);
+
+      size++;
+
+      return levels[priority].addTailNode(t);
+   }
+
+   /**
+    * Removes in constant time a node returned by {@link #addHeadNode(Object, int)} or
+    * {@link #addTailNode(Object, int)}
+    *
+    * @param priority the same priority used when the node was added
+    * @return false if the node had already been removed
+    */
+   public boolean removeNode(final LinkedListImpl.Node<T> node, final int priority)
+   {
+      if (!levels[priority].removeNode(node))
+      {
+         return false;
+      }
+
+      size--;
+
+      if (priority == highestPriority)
+      {
+         while (highestPriority >= 0 && levels[highestPriority].size() == 0)
+         {
+            highestPriority--;
+         }
+      }
+
+      return true;
+   }
+
    public T poll()
    {
       T t = null;
@@ -151,6 +204,15 @@ public class PriorityLinkedListImpl<T> implements PriorityLinkedList<T>
       return new PriorityLinkedListIterator();
    }
 
+   /**
+    * @return an iterator over the nodes of a single priority level
+    * @see LinkedListImpl#nodeIterator()
+    */
+   public LinkedListIterator<LinkedListImpl.Node<T>> nodeIterator(final int priority)
+   {
+      return levels[priority].nodeIterator();
+   }
+
    private class PriorityLinkedListIterator implements LinkedListIterator<T>
    {
       private int index;
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock free priority list for one producer thread and one consumer thread.
+ * <p>
+ * {@link #addTail(Object, int)} must only be called by the producer, while {@link #poll()} and {@link #clear()} must
+ * only be called by the consumer, or by threads taking turns as the consumer under a lock of their own. Neither side
+ * waits for the other. {@link #size()} and {@link #isEmpty()} can be called by any thread.
+ * <p>
+ * Every priority has its own linked queue. Only the priorities that were ever added are looked at by the consumer, so
+ * when all the elements share one priority a poll reads a single queue.
+ */
+public final class SPSCPriorityLinkedList<T>
+{
+   private final Level<T>[] levels;
+
+   // bit i is set once priority i was added, only written by the producer
+   private volatile int priorities;
+
+   private final AtomicLong added = new AtomicLong();
+
+   private final AtomicLong removed = new AtomicLong();
+
+   @SuppressWarnings("unchecked")
+   public SPSCPriorityLinkedList(final int numPriorities)
+   {
+      if (numPriorities > Integer.SIZE)
+      {
+         throw new IllegalArgumentException("Can't have more than " + Integer.SIZE + " priorities");
+      }
+
+      levels = new Level[numPriorities];
+
+      for (int i = 0; i < numPriorities; i++)
+      {
+         levels[i] = new Level<T>();
+      }
+   }
+
+   public void addTail(final T t, final int priority)
+   {
+      // counted before it is visible, so the size is never below the number of elements the consumer can see
+      added.set(added.get() + 1);
+
+      levels[priority].offer(t);
+
+      int mask = 1 << priority;
+
+      if ((priorities & mask) == 0)
+      {
+         priorities |= mask;
+      }
+   }
+
+   /**
+    * @return the oldest element of the highest priority, or null if the list is empty
+    */
+   public T poll()
+   {
+      int mask = priorities;
+
+      while (mask != 0)
+      {
+         int priority = Integer.SIZE - 1 - Integer.numberOfLeadingZeros(mask);
+
+         T t = levels[priority].poll();
+
+         if (t != null)
+         {
+            removed.set(removed.get() + 1);
+
+            return t;
+         }
+
+         mask &= ~(1 << priority);
+      }
+
+      return null;
+   }
+
+   public void clear()
+   {
+      while (poll() != null)
+      {
+      }
+   }
+
+   /**
+    * The size includes an element being added, which a poll might not return yet.
+    */
+   public int size()
+   {
+      // read removed first, so the result can't be negative
+      long removedCount = removed.get();
+
+      return (int)(added.get() - removedCount);
+   }
+
+   public boolean isEmpty()
+   {
+      return size() == 0;
+   }
+
+   // Inner classes -------------------------------------------------
+
+   /**
+    * A linked queue where the producer owns the tail and the consumer owns the head, which always points at a node
+    * that was already consumed.
+    */
+   private static final class Level<T>
+   {
+      private Node<T> head = new Node<T>(null);
+
+      private Node<T> tail = head;
+
+      void offer(final T t)
+      {
+         Node<T> node = new Node<T>(t);
+
+         // the volatile write publishes the node to the consumer
+         tail.next = node;
+
+         tail = node;
+      }
+
+      T poll()
+      {
+         Node<T> next = head.next;
+
+         if (next == null)
+         {
+            return null;
+         }
+
+         T t = next.value;
+
+         next.value = null;
+
+         head = next;
+
+         return t;
+      }
+   }
+
+   private static final class Node<T>
+   {
+      T value;
+
+      volatile Node<T> next;
+
+      Node(final T value)
+      {
+         this.value = value;
+      }
+   }
+}
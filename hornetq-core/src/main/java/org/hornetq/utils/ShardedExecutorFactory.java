@@ -0,0 +1,373 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.utils;
+
+import java.util.LinkedList;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.hornetq.core.server.HornetQLogger;
+
+/**
+ * A factory for executors that run all their tasks in order, on a fixed number of shards with a thread each.
+ * <p>
+ * Every executor belongs to a shard, assigned in turns as the executors are created. When an executor gets a task
+ * while it has nothing to run, the executor is queued on its shard, whose thread then runs a batch of its tasks. A
+ * shard with nothing to run steals a whole executor waiting on another shard and keeps it as its own, so the executors
+ * move away from busy shards. An executor is only queued on one shard at a time, which keeps its tasks in order.
+ * <p>
+ * Unlike {@link OrderedExecutorFactory} on a thread pool, an executor keeps running on the same thread while it has
+ * work, and a task that blocks holds its shard until it returns. The number of shards is usually the number of cores.
+ */
+public final class ShardedExecutorFactory implements ExecutorFactory
+{
+   // Tasks run from an executor before it goes back to the end of the queue
+   private static final int BATCH_SIZE = 64;
+
+   // An idle shard looks for executors to steal at least this often
+   private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+   private final Shard[] shards;
+
+   private final AtomicInteger nextShard = new AtomicInteger();
+
+   private volatile boolean stopped;
+
+   public ShardedExecutorFactory(final int numberOfShards, final ThreadFactory threadFactory)
+   {
+      if (numberOfShards <= 0)
+      {
+         throw new IllegalArgumentException("Number of shards must be greater than zero");
+      }
+
+      shards = new Shard[numberOfShards];
+
+      for (int i = 0; i < numberOfShards; i++)
+      {
+         shards[i] = new Shard(i);
+      }
+
+      for (Shard shard : shards)
+      {
+         shard.thread = threadFactory.newThread(shard);
+         shard.thread.start();
+      }
+   }
+
+   public Executor getExecutor()
+   {
+      int shard = (nextShard.getAndIncrement() & Integer.MAX_VALUE) % shards.length;
+
+      return new ShardedExecutor(shards[shard]);
+   }
+
+   public int getShardCount()
+   {
+      return shards.length;
+   }
+
+   /**
+    * @return the number of executors waiting to run on the shard
+    */
+   public int getQueueDepth(final int shard)
+   {
+      return shards[shard].queue.size();
+   }
+
+   /**
+    * @return the number of tasks run by the shard
+    */
+   public long getExecutedTasks(final int shard)
+   {
+      return shards[shard].executedTasks;
+   }
+
+   /**
+    * @return the number of executors the shard took from other shards
+    */
+   public long getStolenExecutors(final int shard)
+   {
+      return shards[shard].stolenExecutors;
+   }
+
+   /**
+    * The shards run what was queued already and then stop. Executors can't queue tasks after this.
+    */
+   public void shutdown()
+   {
+      stopped = true;
+
+      for (Shard shard : shards)
+      {
+         LockSupport.unpark(shard.thread);
+      }
+   }
+
+   /**
+    * @return true if all the shards stopped within the timeout
+    */
+   public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException
+   {
+      long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+
+      for (Shard shard : shards)
+      {
+         long toWait = deadline - System.currentTimeMillis();
+
+         if (toWait > 0)
+         {
+            shard.thread.join(toWait);
+         }
+
+         if (shard.thread.isAlive())
+         {
+            return false;
+         }
+      }
+
+      return true;
+   }
+
+   @Override
+   public String toString()
+   {
+      StringBuilder builder = new StringBuilder("ShardedExecutorFactory(queueDepths=");
+
+      for (int i = 0; i < shards.length; i++)
+      {
+         builder.append(i == 0 ? "" : ",").append(shards[i].queue.size());
+      }
+
+      return builder.append(")").toString();
+   }
+
+   // Private -------------------------------------------------------
+
+   private void wakeIdleShard()
+   {
+      for (Shard shard : shards)
+      {
+         if (shard.idle)
+         {
+            LockSupport.unpark(shard.thread);
+            return;
+         }
+      }
+   }
+
+   private ShardedExecutor steal(final Shard thief)
+   {
+      // Start on a different shard every time, so the same victim isn't always picked
+      int start = thief.id + 1 + (int)(thief.stolenExecutors % shards.length);
+
+      for (int i = 0; i < shards.length; i++)
+      {
+         Shard victim = shards[(start + i) % shards.length];
+
+         if (victim == thief)
+         {
+            continue;
+         }
+
+         // The most recently queued one, which is the last the victim would get to
+         ShardedExecutor executor = victim.queue.pollLast();
+
+         if (executor != null)
+         {
+            executor.shard = thief;
+            thief.stolenExecutors++;
+            return executor;
+         }
+      }
+
+      return null;
+   }
+
+   // Inner classes -------------------------------------------------
+
+   private final class Shard implements Runnable
+   {
+      final int id;
+
+      // Executors with tasks to run
+      final BlockingDeque<ShardedExecutor> queue = new LinkedBlockingDeque<ShardedExecutor>();
+
+      volatile Thread thread;
+
+      volatile boolean idle;
+
+      // Only written by the thread of the shard
+      volatile long executedTasks;
+
+      volatile long stolenExecutors;
+
+      Shard(final int id)
+      {
+         this.id = id;
+      }
+
+      void submit(final ShardedExecutor executor)
+      {
+         if (stopped)
+         {
+            throw new RejectedExecutionException("Executor factory was shut down");
+         }
+
+         queue.add(executor);
+
+         if (idle)
+         {
+            LockSupport.unpark(thread);
+         }
+         else
+         {
+            // This shard is busy, another one may take it
+            wakeIdleShard();
+         }
+      }
+
+      public void run()
+      {
+         while (true)
+         {
+            ShardedExecutor executor = queue.pollFirst();
+
+            if (executor == null)
+            {
+               executor = steal(this);
+            }
+
+            if (executor != null)
+            {
+               executor.runTasks(this);
+               continue;
+            }
+
+            if (stopped)
+            {
+               return;
+            }
+
+            idle = true;
+
+            // Checked again after idle is set, as submit only wakes the shard when it sees it idle
+            if (queue.isEmpty() && !stopped)
+            {
+               LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+
+            idle = false;
+         }
+      }
+   }
+
+   /**
+    * An executor that runs all its tasks in order, see {@link OrderedExecutorFactory}.
+    */
+   private static final class ShardedExecutor implements Executor
+   {
+      // @protectedby tasks
+      private final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+
+      // @protectedby tasks
+      private boolean running;
+
+      volatile Shard shard;
+
+      ShardedExecutor(final Shard shard)
+      {
+         this.shard = shard;
+      }
+
+      public void execute(final Runnable command)
+      {
+         synchronized (tasks)
+         {
+            tasks.add(command);
+            if (running)
+            {
+               return;
+            }
+            running = true;
+         }
+
+         try
+         {
+            shard.submit(this);
+         }
+         catch (RejectedExecutionException e)
+         {
+            synchronized (tasks)
+            {
+               tasks.remove(command);
+               running = false;
+            }
+            throw e;
+         }
+      }
+
+      void runTasks(final Shard current)
+      {
+         for (int i = 0; i < BATCH_SIZE; i++)
+         {
+            final Runnable task;
+            synchronized (tasks)
+            {
+               task = tasks.poll();
+               if (task == null)
+               {
+                  running = false;
+                  return;
+               }
+            }
+            try
+            {
+               task.run();
+            }
+            catch (Throwable t)
+            {
+               HornetQLogger.LOGGER.caughtunexpectedThrowable(t);
+            }
+            finally
+            {
+               current.executedTasks++;
+            }
+         }
+
+         // More to run, give the other executors of the shard their turn first
+         synchronized (tasks)
+         {
+            if (tasks.isEmpty())
+            {
+               running = false;
+               return;
+            }
+         }
+
+         current.queue.add(this);
+      }
+
+      @Override
+      public String toString()
+      {
+         return "ShardedExecutor(running=" + running + ", tasks=" + tasks + ")";
+      }
+   }
+}
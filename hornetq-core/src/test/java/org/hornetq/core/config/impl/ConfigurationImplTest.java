@@ -70,12 +70,14 @@ public class ConfigurationImplTest extends UnitTestCase
                           conf.getManagementNotificationAddress()); // OK
       Assert.assertEquals(ConfigurationImpl.DEFAULT_CLUSTER_USER, conf.getClusterUser()); // OK
       Assert.assertEquals(ConfigurationImpl.DEFAULT_CLUSTER_PASSWORD, conf.getClusterPassword()); // OK
+      Assert.assertEquals(ConfigurationImpl.DEFAULT_LOAD_REDISTRIBUTION_PERIOD, conf.getLoadRedistributionPeriod());
       Assert.assertEquals(ConfigurationImpl.DEFAULT_PERSISTENCE_ENABLED, conf.isPersistenceEnabled());
       Assert.assertEquals(ConfigurationImpl.DEFAULT_FILE_DEPLOYMENT_ENABLED, conf.isFileDeploymentEnabled());
       Assert.assertEquals(ConfigurationImpl.DEFAULT_PERSIST_DELIVERY_COUNT_BEFORE_DELIVERY,
                           conf.isPersistDeliveryCountBeforeDelivery());
       Assert.assertEquals(ConfigurationImpl.DEFAULT_FILE_DEPLOYER_SCAN_PERIOD, conf.getFileDeployerScanPeriod());
       Assert.assertEquals(ConfigurationImpl.DEFAULT_THREAD_POOL_MAX_SIZE, conf.getThreadPoolMaxSize());
+      Assert.assertEquals(ConfigurationImpl.DEFAULT_THREAD_POOL_SHARDS, conf.getThreadPoolShards());
       Assert.assertEquals(ConfigurationImpl.DEFAULT_JMX_MANAGEMENT_ENABLED, conf.isJMXManagementEnabled());
       Assert.assertEquals(ConfigurationImpl.DEFAULT_CONNECTION_TTL_OVERRIDE, conf.getConnectionTTLOverride());
       Assert.assertEquals(ConfigurationImpl.DEFAULT_ASYNC_CONNECTION_EXECUTION_ENABLED,
@@ -83,6 +85,11 @@ public class ConfigurationImplTest extends UnitTestCase
       Assert.assertEquals(ConfigurationImpl.DEFAULT_PAGING_DIR, conf.getPagingDirectory());
       Assert.assertEquals(ConfigurationImpl.DEFAULT_LARGE_MESSAGES_DIR, conf.getLargeMessagesDirectory());
       Assert.assertEquals(ConfigurationImpl.DEFAULT_JOURNAL_COMPACT_PERCENTAGE, conf.getJournalCompactPercentage());
+      Assert.assertEquals(ConfigurationImpl.DEFAULT_JOURNAL_LOAD_THREADS, conf.getJournalLoadThreads());
+      Assert.assertEquals(ConfigurationImpl.DEFAULT_JOURNAL_LOAD_PREFETCH, conf.getJournalLoadPrefetch());
+      Assert.assertEquals(ConfigurationImpl.DEFAULT_JOURNAL_CHECKPOINT_PERIOD, conf.getJournalCheckpointPeriod());
+      Assert.assertEquals(ConfigurationImpl.DEFAULT_JOURNAL_LAZY_BODY_SIZE, conf.getJournalLazyBodySize());
+      Assert.assertEquals(ConfigurationImpl.DEFAULT_JOURNAL_LAZY_BODY_CACHE_SIZE, conf.getJournalLazyBodyCacheSize());
       Assert.assertEquals(JournalConstants.DEFAULT_JOURNAL_BUFFER_TIMEOUT_AIO, conf.getJournalBufferTimeout_AIO());
       Assert.assertEquals(JournalConstants.DEFAULT_JOURNAL_BUFFER_TIMEOUT_NIO, conf.getJournalBufferTimeout_NIO());
       Assert.assertEquals(JournalConstants.DEFAULT_JOURNAL_BUFFER_SIZE_AIO, conf.getJournalBufferSize_AIO());
@@ -213,6 +220,10 @@ public class ConfigurationImplTest extends UnitTestCase
          conf.setThreadPoolMaxSize(i);
          Assert.assertEquals(i, conf.getThreadPoolMaxSize());
 
+         i = RandomUtil.randomInt();
+         conf.setThreadPoolShards(i);
+         Assert.assertEquals(i, conf.getThreadPoolShards());
+
          SimpleString ss = RandomUtil.randomSimpleString();
          conf.setManagementNotificationAddress(ss);
          Assert.assertEquals(ss, conf.getManagementNotificationAddress());
@@ -237,6 +248,26 @@ public class ConfigurationImplTest extends UnitTestCase
          conf.setJournalCompactPercentage(i);
          Assert.assertEquals(i, conf.getJournalCompactPercentage());
 
+         i = RandomUtil.randomInt();
+         conf.setJournalLoadThreads(i);
+         Assert.assertEquals(i, conf.getJournalLoadThreads());
+
+         i = RandomUtil.randomInt();
+         conf.setJournalLoadPrefetch(i);
+         Assert.assertEquals(i, conf.getJournalLoadPrefetch());
+
+         l = RandomUtil.randomLong();
+         conf.setJournalCheckpointPeriod(l);
+         Assert.assertEquals(l, conf.getJournalCheckpointPeriod());
+
+         i = RandomUtil.randomInt();
+         conf.setJournalLazyBodySize(i);
+         Assert.assertEquals(i, conf.getJournalLazyBodySize());
+
+         l = RandomUtil.randomLong();
+         conf.setJournalLazyBodyCacheSize(l);
+         Assert.assertEquals(l, conf.getJournalLazyBodyCacheSize());
+
          i = RandomUtil.randomInt();
          conf.setJournalBufferSize_AIO(i);
          Assert.assertEquals(i, conf.getJournalBufferSize_AIO());
@@ -300,6 +331,10 @@ public class ConfigurationImplTest extends UnitTestCase
          s = RandomUtil.randomString();
          conf.setClusterPassword(s);
          Assert.assertEquals(s, conf.getClusterPassword());
+
+         l = RandomUtil.randomLong();
+         conf.setLoadRedistributionPeriod(l);
+         Assert.assertEquals(l, conf.getLoadRedistributionPeriod());
       }
    }
 
@@ -426,6 +461,10 @@ public class ConfigurationImplTest extends UnitTestCase
       conf.setThreadPoolMaxSize(i);
       Assert.assertEquals(i, conf.getThreadPoolMaxSize());
 
+      i = RandomUtil.randomInt();
+      conf.setThreadPoolShards(i);
+      Assert.assertEquals(i, conf.getThreadPoolShards());
+
 
       SimpleString ss = RandomUtil.randomSimpleString();
       conf.setManagementNotificationAddress(ss);
@@ -451,6 +490,26 @@ public class ConfigurationImplTest extends UnitTestCase
       conf.setJournalCompactPercentage(i);
       Assert.assertEquals(i, conf.getJournalCompactPercentage());
 
+      i = RandomUtil.randomInt();
+      conf.setJournalLoadThreads(i);
+      Assert.assertEquals(i, conf.getJournalLoadThreads());
+
+      i = RandomUtil.randomInt();
+      conf.setJournalLoadPrefetch(i);
+      Assert.assertEquals(i, conf.getJournalLoadPrefetch());
+
+      l = RandomUtil.randomLong();
+      conf.setJournalCheckpointPeriod(l);
+      Assert.assertEquals(l, conf.getJournalCheckpointPeriod());
+
+      i = RandomUtil.randomInt();
+      conf.setJournalLazyBodySize(i);
+      Assert.assertEquals(i, conf.getJournalLazyBodySize());
+
+      l = RandomUtil.randomLong();
+      conf.setJournalLazyBodyCacheSize(l);
+      Assert.assertEquals(l, conf.getJournalLazyBodyCacheSize());
+
       i = RandomUtil.randomInt();
       conf.setJournalBufferSize_AIO(i);
       Assert.assertEquals(i, conf.getJournalBufferSize_AIO());
@@ -515,6 +574,10 @@ public class ConfigurationImplTest extends UnitTestCase
       conf.setClusterPassword(s);
       Assert.assertEquals(s, conf.getClusterPassword());
 
+      l = RandomUtil.randomLong();
+      conf.setLoadRedistributionPeriod(l);
+      Assert.assertEquals(l, conf.getLoadRedistributionPeriod());
+
       ByteArrayOutputStream baos = new ByteArrayOutputStream();
       ObjectOutputStream oos = new ObjectOutputStream(baos);
       oos.writeObject(conf);
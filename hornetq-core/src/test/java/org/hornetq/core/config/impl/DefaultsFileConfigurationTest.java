@@ -42,6 +42,8 @@ public class DefaultsFileConfigurationTest extends ConfigurationImplTest
 
       Assert.assertEquals(ConfigurationImpl.DEFAULT_THREAD_POOL_MAX_SIZE, conf.getThreadPoolMaxSize());
 
+      Assert.assertEquals(ConfigurationImpl.DEFAULT_THREAD_POOL_SHARDS, conf.getThreadPoolShards());
+
       Assert.assertEquals(ConfigurationImpl.DEFAULT_SECURITY_INVALIDATION_INTERVAL,
                           conf.getSecurityInvalidationInterval());
 
@@ -80,6 +82,8 @@ public class DefaultsFileConfigurationTest extends ConfigurationImplTest
 
       Assert.assertEquals(ConfigurationImpl.DEFAULT_CLUSTER_PASSWORD, conf.getClusterPassword());
 
+      Assert.assertEquals(ConfigurationImpl.DEFAULT_LOAD_REDISTRIBUTION_PERIOD, conf.getLoadRedistributionPeriod());
+
       Assert.assertEquals(ConfigurationImpl.DEFAULT_ID_CACHE_SIZE, conf.getIDCacheSize());
 
       Assert.assertEquals(ConfigurationImpl.DEFAULT_PERSIST_ID_CACHE, conf.isPersistIDCache());
@@ -101,6 +105,16 @@ public class DefaultsFileConfigurationTest extends ConfigurationImplTest
 
       Assert.assertEquals(ConfigurationImpl.DEFAULT_JOURNAL_COMPACT_PERCENTAGE, conf.getJournalCompactPercentage());
 
+      Assert.assertEquals(ConfigurationImpl.DEFAULT_JOURNAL_LOAD_THREADS, conf.getJournalLoadThreads());
+
+      Assert.assertEquals(ConfigurationImpl.DEFAULT_JOURNAL_LOAD_PREFETCH, conf.getJournalLoadPrefetch());
+
+      Assert.assertEquals(ConfigurationImpl.DEFAULT_JOURNAL_CHECKPOINT_PERIOD, conf.getJournalCheckpointPeriod());
+
+      Assert.assertEquals(ConfigurationImpl.DEFAULT_JOURNAL_LAZY_BODY_SIZE, conf.getJournalLazyBodySize());
+
+      Assert.assertEquals(ConfigurationImpl.DEFAULT_JOURNAL_LAZY_BODY_CACHE_SIZE, conf.getJournalLazyBodyCacheSize());
+
       Assert.assertEquals(ConfigurationImpl.DEFAULT_JOURNAL_MIN_FILES, conf.getJournalMinFiles());
 
       Assert.assertEquals(ConfigurationImpl.DEFAULT_JOURNAL_MAX_IO_AIO, conf.getJournalMaxIO_AIO());
@@ -115,6 +129,8 @@ public class DefaultsFileConfigurationTest extends ConfigurationImplTest
 
       Assert.assertEquals(JournalConstants.DEFAULT_JOURNAL_BUFFER_SIZE_NIO, conf.getJournalBufferSize_NIO());
 
+      Assert.assertEquals(ConfigurationImpl.DEFAULT_JOURNAL_LOCK_FREE_BUFFER, conf.isJournalLockFreeBuffer());
+
       Assert.assertEquals(ConfigurationImpl.DEFAULT_CREATE_BINDINGS_DIR, conf.isCreateBindingsDir());
 
       Assert.assertEquals(ConfigurationImpl.DEFAULT_CREATE_JOURNAL_DIR, conf.isCreateJournalDir());
@@ -43,6 +43,7 @@ public class FileConfigurationTest extends ConfigurationImplTest
       Assert.assertEquals(true, conf.isFileDeploymentEnabled());
       Assert.assertEquals(12345, conf.getScheduledThreadPoolMaxSize());
       Assert.assertEquals(54321, conf.getThreadPoolMaxSize());
+      Assert.assertEquals(8, conf.getThreadPoolShards());
       Assert.assertEquals(false, conf.isSecurityEnabled());
       Assert.assertEquals(5423, conf.getSecurityInvalidationInterval());
       Assert.assertEquals(true, conf.isWildcardRoutingEnabled());
@@ -50,6 +51,7 @@ public class FileConfigurationTest extends ConfigurationImplTest
       Assert.assertEquals(new SimpleString("Whatever"), conf.getManagementNotificationAddress());
       Assert.assertEquals("Frog", conf.getClusterUser());
       Assert.assertEquals("Wombat", conf.getClusterPassword());
+      Assert.assertEquals(3000, conf.getLoadRedistributionPeriod());
       Assert.assertEquals(false, conf.isJMXManagementEnabled());
       Assert.assertEquals("gro.qtenroh", conf.getJMXDomain());
       Assert.assertEquals(true, conf.isMessageCounterEnabled());
@@ -75,6 +77,7 @@ public class FileConfigurationTest extends ConfigurationImplTest
       Assert.assertEquals(JournalType.NIO, conf.getJournalType());
       Assert.assertEquals(10000, conf.getJournalBufferSize_NIO());
       Assert.assertEquals(1000, conf.getJournalBufferTimeout_NIO());
+      Assert.assertTrue(conf.isJournalLockFreeBuffer());
       Assert.assertEquals(56546, conf.getJournalMaxIO_NIO());
 
       Assert.assertEquals(false, conf.isJournalSyncTransactional());
@@ -83,6 +86,11 @@ public class FileConfigurationTest extends ConfigurationImplTest
       Assert.assertEquals(100, conf.getJournalMinFiles());
       Assert.assertEquals(123, conf.getJournalCompactMinFiles());
       Assert.assertEquals(33, conf.getJournalCompactPercentage());
+      Assert.assertEquals(3, conf.getJournalLoadThreads());
+      Assert.assertEquals(6, conf.getJournalLoadPrefetch());
+      Assert.assertEquals(300000, conf.getJournalCheckpointPeriod());
+      Assert.assertEquals(1024, conf.getJournalLazyBodySize());
+      Assert.assertEquals(5000000, conf.getJournalLazyBodyCacheSize());
 
       Assert.assertEquals("largemessagesdir", conf.getLargeMessagesDirectory());
       Assert.assertEquals(95, conf.getMemoryWarningThreshold());
@@ -13,6 +13,9 @@
 
 package org.hornetq.core.filter.impl;
 
+import java.util.Arrays;
+import java.util.HashSet;
+
 import junit.framework.Assert;
 
 import org.hornetq.api.core.HornetQException;
@@ -686,6 +689,194 @@ public class FilterTest extends SilentTestCase
       parse.getNextToken();
    }
 
+   public void testCompiledMatchesInterpreted() throws Exception
+   {
+      String[] filters = new String[] { "color = 'RED'",
+                                       "color <> 'RED'",
+                                       "color IN ('RED', 'BLUE')",
+                                       "color NOT IN ('RED', 'BLUE')",
+                                       "color LIKE 'R%'",
+                                       "color NOT LIKE 'R_D'",
+                                       "color LIKE 'R\\%' ESCAPE '\\'",
+                                       "color IS NULL",
+                                       "color IS NOT NULL",
+                                       "size > 10",
+                                       "size >= 10.5",
+                                       "size < 10",
+                                       "size <= 10",
+                                       "size = 10",
+                                       "size <> 10",
+                                       "size BETWEEN 5 AND 15",
+                                       "size NOT BETWEEN 5 AND 15",
+                                       "size * 2 + 1 > ratio - 3",
+                                       "-size < 0",
+                                       "size / 3 = 3",
+                                       "ratio * 2 = 5.0",
+                                       "active",
+                                       "active = TRUE",
+                                       "NOT active",
+                                       "active AND size > 10",
+                                       "active OR size > 10",
+                                       "missing > 10 OR active",
+                                       "missing > 10 AND active",
+                                       "NOT (missing > 10)",
+                                       "HQPriority > 3 AND HQDurable = 'DURABLE'",
+                                       "HQExpiration = 0 AND HQTimestamp >= 0" };
+
+      ServerMessage[] messages = new ServerMessage[4];
+      for (int i = 0; i < messages.length; i++)
+      {
+         messages[i] = new ServerMessageImpl(i, 1000);
+      }
+
+      messages[0].putStringProperty(new SimpleString("color"), new SimpleString("RED"));
+      messages[0].putIntProperty(new SimpleString("size"), 10);
+      messages[0].putDoubleProperty(new SimpleString("ratio"), 2.5);
+      messages[0].putBooleanProperty(new SimpleString("active"), true);
+      messages[0].setPriority((byte)5);
+      messages[0].setDurable(true);
+
+      messages[1].putStringProperty(new SimpleString("color"), new SimpleString("R%"));
+      messages[1].putLongProperty(new SimpleString("size"), 12L);
+      messages[1].putFloatProperty(new SimpleString("ratio"), 1.5f);
+      messages[1].putBooleanProperty(new SimpleString("active"), false);
+
+      messages[2].putStringProperty(new SimpleString("color"), new SimpleString("GREEN"));
+      messages[2].putShortProperty(new SimpleString("size"), (short)3);
+
+      // messages[3] has no properties at all
+
+      for (String filterString : filters)
+      {
+         FilterImpl compiled = new FilterImpl(new SimpleString(filterString), true);
+         FilterImpl interpreted = new FilterImpl(new SimpleString(filterString), false);
+
+         Assert.assertTrue(filterString, compiled.isCompiled());
+         Assert.assertFalse(filterString, interpreted.isCompiled());
+
+         for (ServerMessage msg : messages)
+         {
+            Assert.assertEquals(filterString + " on " + msg, interpreted.match(msg), compiled.match(msg));
+         }
+      }
+   }
+
+   public void testIndexablePredicate() throws Exception
+   {
+      assertIndexable("color = 'RED'", "color", new SimpleString("RED"));
+      assertIndexable("'RED' = color", "color", new SimpleString("RED"));
+      assertIndexable("size = 10", "size", 10L);
+      assertIndexable("color IN ('RED', 'BLUE')", "color", new SimpleString("RED"), new SimpleString("BLUE"));
+      assertIndexable("color = 'RED' OR color = 'BLUE'", "color", new SimpleString("RED"), new SimpleString("BLUE"));
+      assertIndexable("size > 10 AND color = 'RED'", "color", new SimpleString("RED"));
+      assertIndexable("color IN ('RED', 'BLUE') AND size = 10", "size", 10L);
+
+      String[] notIndexable = new String[] { "color <> 'RED'",
+                                            "color NOT IN ('RED', 'BLUE')",
+                                            "NOT (color = 'RED')",
+                                            "color = 'RED' OR size = 10",
+                                            "color = 'RED' OR size > 10",
+                                            "color LIKE 'R%'",
+                                            "size = 10.5",
+                                            "size = -10",
+                                            "active = TRUE",
+                                            "HQDurable = 'DURABLE'",
+                                            "HQPriority = 5" };
+
+      for (String filterString : notIndexable)
+      {
+         Assert.assertNull(filterString, ((FilterImpl)FilterImpl.createFilter(filterString)).getIndexablePredicate());
+      }
+
+      // Whenever the filter matches, the message must be found through the index
+      String[] filters = new String[] { "size = 10", "size = 3", "color = 'RED' OR color = 'GREEN'", "ratio = 2" };
+
+      ServerMessage[] messages = new ServerMessage[5];
+      for (int i = 0; i < messages.length; i++)
+      {
+         messages[i] = new ServerMessageImpl(i, 1000);
+      }
+
+      messages[0].putIntProperty(new SimpleString("size"), 10);
+      messages[0].putStringProperty(new SimpleString("color"), new SimpleString("RED"));
+      messages[0].putDoubleProperty(new SimpleString("ratio"), 2.0);
+      messages[1].putLongProperty(new SimpleString("size"), 10L);
+      messages[1].putFloatProperty(new SimpleString("ratio"), 2.5f);
+      messages[2].putShortProperty(new SimpleString("size"), (short)3);
+      messages[2].putStringProperty(new SimpleString("color"), new SimpleString("GREEN"));
+      messages[3].putDoubleProperty(new SimpleString("size"), 3.0);
+      messages[3].putIntProperty(new SimpleString("ratio"), 2);
+      // messages[4] has no properties at all
+
+      for (String filterString : filters)
+      {
+         FilterImpl filter = (FilterImpl)FilterImpl.createFilter(filterString);
+
+         IndexablePredicate predicate = filter.getIndexablePredicate();
+
+         Assert.assertNotNull(filterString, predicate);
+
+         for (ServerMessage msg : messages)
+         {
+            Object key = IndexablePredicate.getKey(msg, predicate.getProperty());
+
+            Assert.assertEquals(filterString + " on " + msg,
+                                filter.match(msg),
+                                key != null && predicate.getValues().contains(key));
+         }
+      }
+   }
+
+   public void testCompiledConcurrentMatch() throws Exception
+   {
+      final Filter compiledFilter = FilterImpl.createFilter(new SimpleString("size BETWEEN 10 AND 20 AND color IN ('RED', 'BLUE')"));
+
+      final int numThreads = 4;
+
+      final int iterations = 10000;
+
+      final Throwable[] errors = new Throwable[numThreads];
+
+      Thread[] threads = new Thread[numThreads];
+
+      for (int i = 0; i < numThreads; i++)
+      {
+         final int threadIndex = i;
+         threads[i] = new Thread()
+         {
+            @Override
+            public void run()
+            {
+               try
+               {
+                  ServerMessage msg = new ServerMessageImpl(threadIndex, 1000);
+                  msg.putStringProperty(new SimpleString("color"), new SimpleString("RED"));
+                  for (int j = 0; j < iterations; j++)
+                  {
+                     int size = j % 30;
+                     msg.putIntProperty(new SimpleString("size"), size);
+                     Assert.assertEquals(size >= 10 && size <= 20, compiledFilter.match(msg));
+                  }
+               }
+               catch (Throwable e)
+               {
+                  errors[threadIndex] = e;
+               }
+            }
+         };
+         threads[i].start();
+      }
+
+      for (int i = 0; i < numThreads; i++)
+      {
+         threads[i].join();
+         if (errors[i] != null)
+         {
+            throw new Exception(errors[i]);
+         }
+      }
+   }
+
    // Private -----------------------------------------------------------------------------------
 
    private void doPutStringProperty(final String key, final String value)
@@ -693,6 +884,15 @@ public class FilterTest extends SilentTestCase
       message.putStringProperty(new SimpleString(key), new SimpleString(value));
    }
 
+   private void assertIndexable(final String filterString, final String property, final Object... values) throws Exception
+   {
+      IndexablePredicate predicate = ((FilterImpl)FilterImpl.createFilter(filterString)).getIndexablePredicate();
+
+      Assert.assertNotNull(filterString, predicate);
+      Assert.assertEquals(filterString, new SimpleString(property), predicate.getProperty());
+      Assert.assertEquals(filterString, new HashSet<Object>(Arrays.asList(values)), predicate.getValues());
+   }
+
    private void testInvalidFilter(final String filterString) throws Exception
    {
       try
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.list;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.hornetq.utils.SPSCPriorityLinkedList;
+
+public final class SPSCPriorityLinkedListTest extends TestCase
+{
+   private SPSCPriorityLinkedList<Integer> list;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+
+      list = new SPSCPriorityLinkedList<Integer>(10);
+   }
+
+   public void testEmpty() throws Exception
+   {
+      Assert.assertTrue(list.isEmpty());
+      Assert.assertEquals(0, list.size());
+      Assert.assertNull(list.poll());
+   }
+
+   public void testSamePriority() throws Exception
+   {
+      for (int i = 0; i < 100; i++)
+      {
+         list.addTail(i, 4);
+      }
+
+      Assert.assertEquals(100, list.size());
+
+      for (int i = 0; i < 100; i++)
+      {
+         Assert.assertEquals(Integer.valueOf(i), list.poll());
+      }
+
+      Assert.assertNull(list.poll());
+      Assert.assertTrue(list.isEmpty());
+   }
+
+   public void testHighestPriorityFirst() throws Exception
+   {
+      list.addTail(1, 0);
+      list.addTail(2, 4);
+      list.addTail(3, 9);
+      list.addTail(4, 4);
+      list.addTail(5, 0);
+      list.addTail(6, 9);
+
+      Assert.assertEquals(Integer.valueOf(3), list.poll());
+      Assert.assertEquals(Integer.valueOf(6), list.poll());
+
+      list.addTail(7, 9);
+
+      Assert.assertEquals(Integer.valueOf(7), list.poll());
+      Assert.assertEquals(Integer.valueOf(2), list.poll());
+      Assert.assertEquals(Integer.valueOf(4), list.poll());
+      Assert.assertEquals(Integer.valueOf(1), list.poll());
+      Assert.assertEquals(Integer.valueOf(5), list.poll());
+      Assert.assertNull(list.poll());
+   }
+
+   public void testClear() throws Exception
+   {
+      for (int i = 0; i < 10; i++)
+      {
+         list.addTail(i, i);
+      }
+
+      list.clear();
+
+      Assert.assertTrue(list.isEmpty());
+      Assert.assertNull(list.poll());
+
+      list.addTail(10, 3);
+
+      Assert.assertEquals(1, list.size());
+      Assert.assertEquals(Integer.valueOf(10), list.poll());
+   }
+
+   public void testConcurrentProducerAndConsumer() throws Exception
+   {
+      final int numberOfElements = 1000000;
+
+      final AtomicReference<String> error = new AtomicReference<String>();
+
+      Thread consumer = new Thread()
+      {
+         @Override
+         public void run()
+         {
+            int expected = 0;
+            while (expected < numberOfElements)
+            {
+               Integer element = list.poll();
+               if (element != null)
+               {
+                  if (element.intValue() != expected)
+                  {
+                     error.set("expected " + expected + " but got " + element);
+                     return;
+                  }
+                  expected++;
+               }
+            }
+         }
+      };
+
+      consumer.start();
+
+      for (int i = 0; i < numberOfElements; i++)
+      {
+         list.addTail(i, 4);
+      }
+
+      consumer.join(60000);
+
+      Assert.assertFalse(consumer.isAlive());
+      Assert.assertNull(error.get(), error.get());
+      Assert.assertTrue(list.isEmpty());
+   }
+}
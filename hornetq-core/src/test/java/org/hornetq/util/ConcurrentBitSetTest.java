@@ -0,0 +1,156 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.util;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.hornetq.utils.ConcurrentBitSet;
+
+public class ConcurrentBitSetTest extends TestCase
+{
+   // Constants -----------------------------------------------------
+
+   // Attributes ----------------------------------------------------
+
+   // Public --------------------------------------------------------
+
+   public void testSetGet() throws Exception
+   {
+      ConcurrentBitSet bits = new ConcurrentBitSet(0);
+
+      Assert.assertTrue(bits.isEmpty());
+      Assert.assertEquals(-1, bits.nextSetBit(0));
+
+      Assert.assertTrue(bits.set(0));
+      Assert.assertFalse(bits.set(0));
+      Assert.assertTrue(bits.set(63));
+      Assert.assertTrue(bits.set(64));
+      // beyond the initial size, the set has to grow
+      Assert.assertTrue(bits.set(100000));
+
+      Assert.assertTrue(bits.get(0));
+      Assert.assertFalse(bits.get(1));
+      Assert.assertTrue(bits.get(63));
+      Assert.assertTrue(bits.get(64));
+      Assert.assertTrue(bits.get(100000));
+      Assert.assertFalse(bits.get(200000));
+
+      Assert.assertEquals(4, bits.cardinality());
+      Assert.assertEquals(0, bits.nextSetBit(0));
+      Assert.assertEquals(63, bits.nextSetBit(1));
+      Assert.assertEquals(100000, bits.nextSetBit(65));
+      Assert.assertEquals(-1, bits.nextSetBit(100001));
+      Assert.assertEquals("ConcurrentBitSet [0, 63, 64, 100000]", bits.toString());
+
+      try
+      {
+         bits.set(-1);
+         Assert.fail("Exception expected");
+      }
+      catch (IndexOutOfBoundsException e)
+      {
+         // expected
+      }
+   }
+
+   public void testSameContentAsBitSet() throws Exception
+   {
+      Random random = new Random(1);
+
+      BitSet reference = new BitSet();
+
+      ConcurrentBitSet bits = new ConcurrentBitSet(1000);
+
+      for (int i = 0; i < 10000; i++)
+      {
+         int index = random.nextInt(50000);
+         Assert.assertEquals(!reference.get(index), bits.set(index));
+         reference.set(index);
+      }
+
+      Assert.assertEquals(reference.cardinality(), bits.cardinality());
+
+      for (int i = reference.nextSetBit(0), j = bits.nextSetBit(0); i >= 0 || j >= 0; i = reference.nextSetBit(i + 1), j = bits.nextSetBit(j + 1))
+      {
+         Assert.assertEquals(i, j);
+      }
+   }
+
+   public void testConcurrentSet() throws Exception
+   {
+      final int numThreads = 8;
+
+      final int numBits = 100000;
+
+      final ConcurrentBitSet bits = new ConcurrentBitSet(0);
+
+      final AtomicInteger added = new AtomicInteger(0);
+
+      final CountDownLatch start = new CountDownLatch(1);
+
+      final Throwable[] errors = new Throwable[numThreads];
+
+      Thread[] threads = new Thread[numThreads];
+
+      for (int i = 0; i < numThreads; i++)
+      {
+         final int threadIndex = i;
+         threads[i] = new Thread()
+         {
+            @Override
+            public void run()
+            {
+               try
+               {
+                  start.await();
+
+                  // All the threads set the same bits, each bit should be reported as new only once
+                  for (int bit = 0; bit < numBits; bit++)
+                  {
+                     if (bits.set(bit))
+                     {
+                        added.incrementAndGet();
+                     }
+                  }
+               }
+               catch (Throwable e)
+               {
+                  errors[threadIndex] = e;
+               }
+            }
+         };
+         threads[i].start();
+      }
+
+      start.countDown();
+
+      for (int i = 0; i < numThreads; i++)
+      {
+         threads[i].join();
+         if (errors[i] != null)
+         {
+            throw new Exception(errors[i]);
+         }
+      }
+
+      Assert.assertEquals(numBits, added.get());
+      Assert.assertEquals(numBits, bits.cardinality());
+   }
+}
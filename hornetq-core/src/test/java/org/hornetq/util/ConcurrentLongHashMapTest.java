@@ -0,0 +1,224 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.hornetq.utils.ConcurrentLongHashMap;
+import org.hornetq.utils.ConcurrentLongHashSet;
+
+public class ConcurrentLongHashMapTest extends TestCase
+{
+   // Constants -----------------------------------------------------
+
+   // Attributes ----------------------------------------------------
+
+   private ConcurrentLongHashMap<String> map;
+
+   // Public --------------------------------------------------------
+
+   public void testPutGetRemove() throws Exception
+   {
+      Assert.assertTrue(map.isEmpty());
+      Assert.assertNull(map.get(1));
+
+      Assert.assertNull(map.put(1, "one"));
+      Assert.assertEquals("one", map.put(1, "uno"));
+      Assert.assertEquals("uno", map.get(1));
+
+      Assert.assertEquals("uno", map.putIfAbsent(1, "one"));
+      Assert.assertNull(map.putIfAbsent(-1, "minus one"));
+      Assert.assertNull(map.putIfAbsent(0, "zero"));
+      Assert.assertNull(map.put(Long.MIN_VALUE, "min"));
+
+      Assert.assertEquals(4, map.size());
+      Assert.assertTrue(map.containsKey(0));
+      Assert.assertTrue(map.containsKey(Long.MIN_VALUE));
+      Assert.assertFalse(map.containsKey(2));
+
+      Assert.assertEquals("minus one", map.remove(-1));
+      Assert.assertNull(map.remove(-1));
+      Assert.assertEquals(3, map.size());
+
+      map.clear();
+
+      Assert.assertTrue(map.isEmpty());
+      Assert.assertNull(map.get(1));
+   }
+
+   public void testNullValue() throws Exception
+   {
+      try
+      {
+         map.put(1, null);
+         Assert.fail("Exception expected");
+      }
+      catch (NullPointerException e)
+      {
+         // expected
+      }
+   }
+
+   public void testSameContentAsHashMap() throws Exception
+   {
+      Random random = new Random(1);
+
+      Map<Long, String> reference = new HashMap<Long, String>();
+
+      // A small range of keys so removals happen in the middle of the probe sequences
+      for (int i = 0; i < 100000; i++)
+      {
+         long key = random.nextInt(2000);
+         if (random.nextBoolean())
+         {
+            Assert.assertEquals(reference.put(key, "v" + i), map.put(key, "v" + i));
+         }
+         else
+         {
+            Assert.assertEquals(reference.remove(key), map.remove(key));
+         }
+      }
+
+      Assert.assertEquals(reference.size(), map.size());
+
+      for (long key = 0; key < 2000; key++)
+      {
+         Assert.assertEquals(reference.get(key), map.get(key));
+      }
+
+      long[] keys = map.keys();
+      Arrays.sort(keys);
+      Assert.assertEquals(reference.size(), keys.length);
+      for (long key : keys)
+      {
+         Assert.assertTrue(reference.containsKey(key));
+      }
+
+      Assert.assertEquals(reference.size(), map.values().size());
+   }
+
+   public void testForEach() throws Exception
+   {
+      for (long i = 0; i < 1000; i++)
+      {
+         map.put(i, Long.toString(i));
+      }
+
+      final long[] sum = new long[1];
+
+      map.forEach(new ConcurrentLongHashMap.EntryProcessor<String>()
+      {
+         public void accept(final long key, final String value)
+         {
+            Assert.assertEquals(Long.toString(key), value);
+            sum[0] += key;
+         }
+      });
+
+      Assert.assertEquals(999 * 1000 / 2, sum[0]);
+   }
+
+   public void testConcurrentUpdates() throws Exception
+   {
+      final int numThreads = 8;
+
+      final int numKeys = 10000;
+
+      final CountDownLatch start = new CountDownLatch(1);
+
+      final Throwable[] errors = new Throwable[numThreads];
+
+      Thread[] threads = new Thread[numThreads];
+
+      for (int i = 0; i < numThreads; i++)
+      {
+         final int threadIndex = i;
+         threads[i] = new Thread()
+         {
+            @Override
+            public void run()
+            {
+               try
+               {
+                  start.await();
+
+                  // Each thread owns the keys where key % numThreads == threadIndex
+                  for (long key = threadIndex; key < numKeys * numThreads; key += numThreads)
+                  {
+                     Assert.assertNull(map.put(key, "value"));
+                  }
+                  for (long key = threadIndex; key < numKeys * numThreads; key += numThreads * 2)
+                  {
+                     Assert.assertEquals("value", map.remove(key));
+                  }
+               }
+               catch (Throwable e)
+               {
+                  errors[threadIndex] = e;
+               }
+            }
+         };
+         threads[i].start();
+      }
+
+      start.countDown();
+
+      for (int i = 0; i < numThreads; i++)
+      {
+         threads[i].join();
+         if (errors[i] != null)
+         {
+            throw new Exception(errors[i]);
+         }
+      }
+
+      Assert.assertEquals(numKeys * numThreads / 2, map.size());
+
+      for (long key = 0; key < numKeys * numThreads; key++)
+      {
+         Assert.assertEquals(key % (numThreads * 2) >= numThreads, map.containsKey(key));
+      }
+   }
+
+   public void testSet() throws Exception
+   {
+      ConcurrentLongHashSet set = new ConcurrentLongHashSet();
+
+      Assert.assertTrue(set.add(10));
+      Assert.assertFalse(set.add(10));
+      Assert.assertTrue(set.contains(10));
+      Assert.assertEquals(1, set.size());
+      Assert.assertTrue(Arrays.equals(new long[] { 10 }, set.values()));
+      Assert.assertTrue(set.remove(10));
+      Assert.assertFalse(set.remove(10));
+      Assert.assertTrue(set.isEmpty());
+   }
+
+   // Protected -----------------------------------------------------
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+
+      map = new ConcurrentLongHashMap<String>();
+   }
+}
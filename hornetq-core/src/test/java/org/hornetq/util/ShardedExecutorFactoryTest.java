@@ -0,0 +1,211 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.hornetq.utils.HornetQThreadFactory;
+import org.hornetq.utils.ShardedExecutorFactory;
+
+public class ShardedExecutorFactoryTest extends TestCase
+{
+   // Attributes ----------------------------------------------------
+
+   private ShardedExecutorFactory factory;
+
+   // Public --------------------------------------------------------
+
+   public void testTasksRunInOrder() throws Exception
+   {
+      factory = newFactory(4);
+
+      final int numberOfExecutors = 100;
+
+      final int tasksPerExecutor = 1000;
+
+      final AtomicInteger errors = new AtomicInteger();
+
+      final CountDownLatch done = new CountDownLatch(numberOfExecutors * tasksPerExecutor);
+
+      Executor[] executors = new Executor[numberOfExecutors];
+
+      final int[] last = new int[numberOfExecutors];
+
+      for (int i = 0; i < numberOfExecutors; i++)
+      {
+         executors[i] = factory.getExecutor();
+         last[i] = -1;
+      }
+
+      for (int task = 0; task < tasksPerExecutor; task++)
+      {
+         for (int i = 0; i < numberOfExecutors; i++)
+         {
+            final int executor = i;
+            final int sequence = task;
+
+            executors[i].execute(new Runnable()
+            {
+               public void run()
+               {
+                  if (last[executor] != sequence - 1)
+                  {
+                     errors.incrementAndGet();
+                  }
+                  last[executor] = sequence;
+                  done.countDown();
+               }
+            });
+         }
+      }
+
+      Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+      Assert.assertEquals(0, errors.get());
+
+      // the counters are updated after each task returns
+      factory.shutdown();
+      Assert.assertTrue(factory.awaitTermination(10, TimeUnit.SECONDS));
+
+      long executed = 0;
+      for (int i = 0; i < factory.getShardCount(); i++)
+      {
+         executed += factory.getExecutedTasks(i);
+      }
+      Assert.assertEquals(numberOfExecutors * tasksPerExecutor, executed);
+   }
+
+   public void testIdleShardStealsExecutors() throws Exception
+   {
+      factory = newFactory(2);
+
+      // executors are given to the shards in turns, so these two are on the first shard
+      Executor blocked = factory.getExecutor();
+      factory.getExecutor();
+      Executor waiting = factory.getExecutor();
+
+      final CountDownLatch started = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+      final CountDownLatch ran = new CountDownLatch(1);
+      final AtomicReference<Thread> blockedThread = new AtomicReference<Thread>();
+      final AtomicReference<Thread> waitingThread = new AtomicReference<Thread>();
+
+      blocked.execute(new Runnable()
+      {
+         public void run()
+         {
+            blockedThread.set(Thread.currentThread());
+            started.countDown();
+            try
+            {
+               release.await(30, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e)
+            {
+            }
+         }
+      });
+
+      Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+      waiting.execute(new Runnable()
+      {
+         public void run()
+         {
+            waitingThread.set(Thread.currentThread());
+            ran.countDown();
+         }
+      });
+
+      // one shard is blocked, the other one has to run it
+      Assert.assertTrue(ran.await(10, TimeUnit.SECONDS));
+      Assert.assertNotSame(blockedThread.get(), waitingThread.get());
+
+      // either the blocked executor or the waiting one left the first shard
+      Assert.assertTrue(factory.getStolenExecutors(0) + factory.getStolenExecutors(1) >= 1);
+      Assert.assertEquals(0, factory.getQueueDepth(0));
+      Assert.assertEquals(0, factory.getQueueDepth(1));
+
+      release.countDown();
+   }
+
+   public void testShutdown() throws Exception
+   {
+      factory = newFactory(2);
+
+      Executor executor = factory.getExecutor();
+
+      final CountDownLatch ran = new CountDownLatch(10);
+
+      for (int i = 0; i < 10; i++)
+      {
+         executor.execute(new Runnable()
+         {
+            public void run()
+            {
+               ran.countDown();
+            }
+         });
+      }
+
+      factory.shutdown();
+
+      Assert.assertTrue(factory.awaitTermination(10, TimeUnit.SECONDS));
+
+      // what was queued before the shutdown still runs
+      Assert.assertEquals(0, ran.getCount());
+
+      try
+      {
+         executor.execute(new Runnable()
+         {
+            public void run()
+            {
+            }
+         });
+         Assert.fail("exception expected");
+      }
+      catch (RejectedExecutionException expected)
+      {
+      }
+   }
+
+   // Protected -----------------------------------------------------
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      if (factory != null)
+      {
+         factory.shutdown();
+         factory.awaitTermination(10, TimeUnit.SECONDS);
+      }
+
+      super.tearDown();
+   }
+
+   // Private -------------------------------------------------------
+
+   private ShardedExecutorFactory newFactory(final int shards)
+   {
+      return new ShardedExecutorFactory(shards, new HornetQThreadFactory("test-shards", false, getClass().getClassLoader()));
+   }
+}
@@ -22,6 +22,7 @@ import org.hornetq.api.core.HornetQBuffers;
 import org.hornetq.api.core.SimpleString;
 import org.hornetq.tests.util.RandomUtil;
 import org.hornetq.tests.util.UnitTestCase;
+import org.hornetq.utils.DataConstants;
 import org.hornetq.utils.TypedProperties;
 
 /**
@@ -76,6 +77,43 @@ public class TypedPropertiesTest extends TestCase
       Assert.assertEquals(props.getProperty(key), copy.getProperty(key));
    }
 
+   public void testCopyOnWrite() throws Exception
+   {
+      SimpleString value = RandomUtil.randomSimpleString();
+      SimpleString otherKey = RandomUtil.randomSimpleString();
+
+      props.putSimpleStringProperty(key, value);
+
+      TypedProperties copy = new TypedProperties(props);
+      TypedProperties copyOfCopy = new TypedProperties(copy);
+
+      copy.putIntProperty(otherKey, 10);
+
+      Assert.assertTrue(copy.containsProperty(otherKey));
+      Assert.assertFalse(props.containsProperty(otherKey));
+      Assert.assertFalse(copyOfCopy.containsProperty(otherKey));
+
+      props.removeProperty(key);
+
+      Assert.assertFalse(props.containsProperty(key));
+      Assert.assertEquals(value, copy.getSimpleStringProperty(key));
+      Assert.assertEquals(value, copyOfCopy.getSimpleStringProperty(key));
+
+      // the last one using the map can change it
+      copyOfCopy.clear();
+
+      Assert.assertFalse(copyOfCopy.containsProperty(key));
+      Assert.assertEquals(value, copy.getSimpleStringProperty(key));
+
+      HornetQBuffer buffer = HornetQBuffers.dynamicBuffer(1024);
+      copy.encode(buffer);
+      Assert.assertEquals(copy.getEncodeSize(), buffer.writerIndex());
+
+      TypedProperties decoded = new TypedProperties();
+      decoded.decode(buffer);
+      TypedPropertiesTest.assertEqualsTypeProperties(copy, decoded);
+   }
+
    public void testRemove() throws Exception
    {
       props.putSimpleStringProperty(key, RandomUtil.randomSimpleString());
@@ -213,6 +251,102 @@ public class TypedPropertiesTest extends TestCase
       Assert.assertEquals(props.getEncodeSize(), buffer.writerIndex());
    }
 
+   public void testLazyDecode() throws Exception
+   {
+      SimpleString byteKey = RandomUtil.randomSimpleString();
+      SimpleString bytesKey = RandomUtil.randomSimpleString();
+      SimpleString intKey = RandomUtil.randomSimpleString();
+      SimpleString longKey = RandomUtil.randomSimpleString();
+      SimpleString doubleKey = RandomUtil.randomSimpleString();
+      SimpleString stringKey = RandomUtil.randomSimpleString();
+      SimpleString nullKey = RandomUtil.randomSimpleString();
+
+      props.putByteProperty(byteKey, (byte)1);
+      props.putBytesProperty(bytesKey, new byte[] { 1, 2, 3 });
+      props.putBooleanProperty(RandomUtil.randomSimpleString(), RandomUtil.randomBoolean());
+      props.putShortProperty(RandomUtil.randomSimpleString(), RandomUtil.randomShort());
+      props.putIntProperty(intKey, 10);
+      props.putLongProperty(longKey, 100L);
+      props.putFloatProperty(RandomUtil.randomSimpleString(), RandomUtil.randomFloat());
+      props.putDoubleProperty(doubleKey, 1.5);
+      props.putCharProperty(RandomUtil.randomSimpleString(), RandomUtil.randomChar());
+      props.putSimpleStringProperty(stringKey, new SimpleString("value"));
+      props.putSimpleStringProperty(nullKey, null);
+
+      HornetQBuffer buffer = HornetQBuffers.dynamicBuffer(1024);
+      props.encode(buffer);
+      buffer.writeInt(12345);
+
+      TypedProperties lazy = new TypedProperties();
+      lazy.decode(buffer, true);
+
+      // the buffer must be positioned after the properties
+      Assert.assertEquals(12345, buffer.readInt());
+
+      Assert.assertEquals(props.getEncodeSize(), lazy.getEncodeSize());
+      Assert.assertFalse(lazy.hasInternalProperties());
+
+      Assert.assertEquals((byte)1, lazy.getByteProperty(byteKey).byteValue());
+      UnitTestCase.assertEqualsByteArrays(new byte[] { 1, 2, 3 }, lazy.getBytesProperty(bytesKey));
+      Assert.assertEquals(10, lazy.getIntProperty(intKey).intValue());
+      ReadValue value = new ReadValue();
+      Assert.assertEquals(DataConstants.LONG, lazy.readProperty(longKey, value));
+      Assert.assertEquals(100L, value.longValue);
+      Assert.assertEquals(DataConstants.DOUBLE, lazy.readProperty(doubleKey, value));
+      Assert.assertEquals(1.5, value.doubleValue, 0);
+      Assert.assertEquals(DataConstants.STRING, lazy.readProperty(stringKey, value));
+      Assert.assertEquals(new SimpleString("value"), value.stringValue);
+      Assert.assertEquals(DataConstants.BYTE, lazy.readProperty(byteKey, value));
+      Assert.assertEquals(1L, value.longValue);
+      Assert.assertEquals(new SimpleString("value"), lazy.getSimpleStringProperty(stringKey));
+      Assert.assertTrue(lazy.containsProperty(nullKey));
+      Assert.assertNull(lazy.getProperty(nullKey));
+      Assert.assertFalse(lazy.containsProperty(key));
+      Assert.assertNull(lazy.getProperty(key));
+      Assert.assertEquals(-1, lazy.readProperty(key, value));
+
+      // Encoding it again is a copy of the bytes
+      HornetQBuffer reencoded = HornetQBuffers.dynamicBuffer(1024);
+      lazy.encode(reencoded);
+      buffer.readerIndex(0);
+      Assert.assertEquals(props.getEncodeSize(), reencoded.writerIndex());
+      for (int i = 0; i < reencoded.writerIndex(); i++)
+      {
+         Assert.assertEquals(buffer.getByte(i), reencoded.getByte(i));
+      }
+
+      TypedProperties copy = new TypedProperties(lazy);
+
+      // changing a property decodes the others
+      lazy.putIntProperty(intKey, 20);
+      lazy.removeProperty(byteKey);
+
+      Assert.assertEquals(20, lazy.getIntProperty(intKey).intValue());
+      Assert.assertEquals(DataConstants.INT, lazy.readProperty(intKey, value));
+      Assert.assertEquals(20L, value.longValue);
+      Assert.assertFalse(lazy.containsProperty(byteKey));
+      Assert.assertEquals(new SimpleString("value"), lazy.getSimpleStringProperty(stringKey));
+
+      Assert.assertEquals(10, copy.getIntProperty(intKey).intValue());
+      Assert.assertTrue(copy.containsProperty(byteKey));
+      TypedPropertiesTest.assertEqualsTypeProperties(props, copy);
+   }
+
+   public void testLazyDecodeInternalProperties() throws Exception
+   {
+      props.putIntProperty(RandomUtil.randomSimpleString(), 1);
+      props.putIntProperty(new SimpleString("_HQ_ROUTE_TO"), 1);
+
+      HornetQBuffer buffer = HornetQBuffers.dynamicBuffer(1024);
+      props.encode(buffer);
+
+      TypedProperties lazy = new TypedProperties();
+      lazy.decode(buffer, true);
+
+      Assert.assertTrue(lazy.hasInternalProperties());
+      Assert.assertEquals(2, lazy.getPropertyNames().size());
+   }
+
    public void testEncodeDecodeEmpty() throws Exception
    {
       TypedProperties emptyProps = new TypedProperties();
@@ -245,4 +379,36 @@ public class TypedPropertiesTest extends TestCase
 
       super.tearDown();
    }
+
+   private static final class ReadValue implements TypedProperties.PropertyReader
+   {
+      long longValue;
+
+      double doubleValue;
+
+      SimpleString stringValue;
+
+      public void setNull()
+      {
+      }
+
+      public void setLong(final long value)
+      {
+         longValue = value;
+      }
+
+      public void setDouble(final double value)
+      {
+         doubleValue = value;
+      }
+
+      public void setBoolean(final boolean value)
+      {
+      }
+
+      public void setString(final SimpleString value)
+      {
+         stringValue = value;
+      }
+   }
 }
@@ -99,6 +99,9 @@ public interface JMSQueueControl extends DestinationControl
    /**
     * Counts the number of messages in this queue matching the specified filter.
     * <br>
+    * With a filter, every message of the queue is read, the messages paged to disk included, so the call takes as long
+    * as browsing the whole queue. The deliveries of the queue go on meanwhile.
+    * <br>
     * Using {@code null} or an empty filter will count <em>all</em> messages from this queue.
     */
    @Operation(desc = "Returns the number of the messages in the queue matching the given filter", impact = MBeanOperationInfo.INFO)
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.journal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Chooses the part of the data of the add records to keep in memory while a journal is loaded.
+ * <p>
+ * The rest of the data stays on the journal file, from where it can be read back with the position and size given
+ * on the {@link RecordInfo}.
+ */
+public interface RecordDataTrimmer
+{
+   /**
+    * @param userRecordType the type of the record
+    * @param data the data of the record, from its position to its limit. It must not be kept after this call.
+    * @return the part of the data to load, smaller than the data, or {@code null} to load the whole data
+    */
+   byte[] trim(byte userRecordType, ByteBuffer data);
+}
@@ -34,6 +34,39 @@ public class RecordInfo
       this.isUpdate = isUpdate;
 
       this.compactCount = compactCount;
+
+      dataPosition = -1;
+
+      dataSize = data == null ? 0 : data.length;
+   }
+
+   /**
+    * A record read from a journal file.
+    * @param data the data of the record, or the part of it kept by a {@link RecordDataTrimmer}
+    * @param dataPosition the position of the data on the file
+    * @param dataSize the size of the data on the file
+    */
+   public RecordInfo(final long id,
+                     final byte userRecordType,
+                     final byte[] data,
+                     final boolean isUpdate,
+                     final short compactCount,
+                     final int dataPosition,
+                     final int dataSize)
+   {
+      this.id = id;
+
+      this.userRecordType = userRecordType;
+
+      this.data = data;
+
+      this.isUpdate = isUpdate;
+
+      this.compactCount = compactCount;
+
+      this.dataPosition = dataPosition;
+
+      this.dataSize = dataSize;
    }
 
    /** How many times this record was compacted (up to 7 times)
@@ -49,11 +82,25 @@ public class RecordInfo
 
    public boolean isUpdate;
 
+   /** The position of the data on the journal file the record was read from, or -1 */
+   public final int dataPosition;
+
+   /** The size of the data on the journal file, which is more than the size of {@link #data} if it was trimmed */
+   public final int dataSize;
+
    public byte getUserRecordType()
    {
       return userRecordType;
    }
 
+   /**
+    * @return whether only part of the data was loaded, the whole data staying on the journal file
+    */
+   public boolean isTrimmed()
+   {
+      return data != null && data.length < dataSize;
+   }
+
    @Override
    public int hashCode()
    {
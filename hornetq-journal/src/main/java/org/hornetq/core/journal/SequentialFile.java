@@ -64,6 +64,13 @@ public interface SequentialFile
 
    void write(EncodingSupport bytes, boolean sync) throws Exception;
 
+   /**
+    * Writes the record only if it fits on the file. Through a lock free TimedBuffer the check and the write are a
+    * single step, so several threads may append to the file at once.
+    * @return false if there is no space left on the file for the record
+    */
+   boolean tryWrite(EncodingSupport bytes, boolean sync, IOAsyncTask callback) throws Exception;
+
    /**
     * Write directly to the file without using any buffer
     * @param bytes the ByteBuffer must be compatible with the SequentialFile implementation (AIO or
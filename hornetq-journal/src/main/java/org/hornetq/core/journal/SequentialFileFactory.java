@@ -33,6 +33,12 @@ public interface SequentialFileFactory
    List<String> listFiles(String extension) throws Exception;
 
    boolean isSupportsCallbacks();
+
+   /**
+    * @return true if the files are written through a lock free TimedBuffer, so records may be appended by several
+    *         threads at once with {@link SequentialFile#tryWrite(EncodingSupport, boolean, IOAsyncTask)}
+    */
+   boolean isLockFreeBuffer();
    
    /** The SequentialFile will call this method when a disk IO Error happens during the live phase. */
    void onIOError(HornetQExceptionType errorCode, String message, SequentialFile file);
@@ -83,7 +83,17 @@ public class AIOSequentialFileFactory extends AbstractSequentialFileFactory
                                    final boolean logRates,
                                    final IOCriticalErrorListener listener)
    {
-      super(journalDir, true, bufferSize, bufferTimeout, logRates, listener);
+      this(journalDir, bufferSize, bufferTimeout, logRates, false, listener);
+   }
+
+   public AIOSequentialFileFactory(final String journalDir,
+                                   final int bufferSize,
+                                   final int bufferTimeout,
+                                   final boolean logRates,
+                                   final boolean lockFreeBuffer,
+                                   final IOCriticalErrorListener listener)
+   {
+      super(journalDir, true, bufferSize, bufferTimeout, logRates, lockFreeBuffer, listener);
    }
 
    public SequentialFile createSequentialFile(final String fileName, final int maxIO)
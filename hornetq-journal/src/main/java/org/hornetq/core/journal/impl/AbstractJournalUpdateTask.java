@@ -16,7 +16,6 @@ package org.hornetq.core.journal.impl;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 
 import org.hornetq.api.core.HornetQBuffer;
 import org.hornetq.api.core.HornetQBuffers;
@@ -25,7 +24,7 @@ import org.hornetq.core.journal.SequentialFileFactory;
 import org.hornetq.core.journal.impl.dataformat.ByteArrayEncoding;
 import org.hornetq.core.journal.impl.dataformat.JournalAddRecord;
 import org.hornetq.core.journal.impl.dataformat.JournalInternalRecord;
-import org.hornetq.utils.ConcurrentHashSet;
+import org.hornetq.utils.ConcurrentLongHashSet;
 import org.hornetq.utils.Pair;
 
 /**
@@ -58,7 +57,7 @@ public abstract class AbstractJournalUpdateTask implements JournalReaderCallback
 
    private HornetQBuffer writingChannel;
 
-   private final Set<Long> recordsSnapshot = new ConcurrentHashSet<Long>();
+   private final ConcurrentLongHashSet recordsSnapshot;
 
    protected final List<JournalFile> newDataFiles = new ArrayList<JournalFile>();
 
@@ -69,7 +68,7 @@ public abstract class AbstractJournalUpdateTask implements JournalReaderCallback
    protected AbstractJournalUpdateTask(final SequentialFileFactory fileFactory,
                                        final JournalImpl journal,
                                        final JournalFilesRepository filesRepository,
-                                       final Set<Long> recordsSnapshot,
+                                       final long[] recordsSnapshot,
                                        final long nextOrderingID)
    {
       super();
@@ -77,7 +76,11 @@ public abstract class AbstractJournalUpdateTask implements JournalReaderCallback
       this.filesRepository = filesRepository;
       this.fileFactory = fileFactory;
       this.nextOrderingID = nextOrderingID;
-      this.recordsSnapshot.addAll(recordsSnapshot);
+      this.recordsSnapshot = new ConcurrentLongHashSet(recordsSnapshot.length);
+      for (long id : recordsSnapshot)
+      {
+         this.recordsSnapshot.add(id);
+      }
    }
 
    // Public --------------------------------------------------------
@@ -243,6 +243,23 @@ public abstract class AbstractSequentialFile implements SequentialFile
       }
    }
 
+   public boolean tryWrite(final EncodingSupport bytes, final boolean sync, final IOAsyncTask callback) throws Exception
+   {
+      if (timedBuffer != null)
+      {
+         return timedBuffer.tryAddBytes(bytes, sync, callback);
+      }
+
+      if (!fits(bytes.getEncodeSize()))
+      {
+         return false;
+      }
+
+      write(bytes, sync, callback);
+
+      return true;
+   }
+
    public void write(final EncodingSupport bytes, final boolean sync, final IOAsyncTask callback) throws Exception
    {
       if (timedBuffer != null)
@@ -69,12 +69,23 @@ abstract class AbstractSequentialFileFactory implements SequentialFileFactory
                                         final int bufferTimeout,
                                         final boolean logRates,
                                         final IOCriticalErrorListener criticalErrorListener)
+   {
+      this(journalDir, buffered, bufferSize, bufferTimeout, logRates, false, criticalErrorListener);
+   }
+
+   AbstractSequentialFileFactory(final String journalDir,
+                                        final boolean buffered,
+                                        final int bufferSize,
+                                        final int bufferTimeout,
+                                        final boolean logRates,
+                                        final boolean lockFreeBuffer,
+                                        final IOCriticalErrorListener criticalErrorListener)
    {
       this.journalDir = journalDir;
 
       if (buffered)
       {
-         timedBuffer = new TimedBuffer(bufferSize, bufferTimeout, logRates);
+         timedBuffer = new TimedBuffer(bufferSize, bufferTimeout, logRates, lockFreeBuffer);
       }
       else
       {
@@ -154,6 +165,11 @@ abstract class AbstractSequentialFileFactory implements SequentialFileFactory
       }
    }
 
+   public boolean isLockFreeBuffer()
+   {
+      return timedBuffer != null && timedBuffer.isLockFree();
+   }
+
    public void flush()
    {
       if (timedBuffer != null)
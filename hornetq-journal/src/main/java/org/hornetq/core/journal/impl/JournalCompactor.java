@@ -14,12 +14,8 @@
 package org.hornetq.core.journal.impl;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.hornetq.api.core.HornetQBuffer;
 import org.hornetq.api.core.HornetQBuffers;
@@ -35,6 +31,8 @@ import org.hornetq.core.journal.impl.dataformat.JournalDeleteRecordTX;
 import org.hornetq.core.journal.impl.dataformat.JournalInternalRecord;
 import org.hornetq.core.journal.impl.dataformat.JournalRollbackRecordTX;
 import org.hornetq.journal.HornetQJournalLogger;
+import org.hornetq.utils.ConcurrentLongHashMap;
+import org.hornetq.utils.DataConstants;
 import org.hornetq.utils.Pair;
 
 /**
@@ -52,11 +50,11 @@ public class JournalCompactor extends AbstractJournalUpdateTask implements Journ
    private static final short COMPACT_SPLIT_LINE = 2;
 
    // Snapshot of transactions that were pending when the compactor started
-   private final Map<Long, PendingTransaction> pendingTransactions = new ConcurrentHashMap<Long, PendingTransaction>();
+   private final ConcurrentLongHashMap<PendingTransaction> pendingTransactions = new ConcurrentLongHashMap<PendingTransaction>();
 
-   private final Map<Long, JournalRecord> newRecords = new HashMap<Long, JournalRecord>();
+   private final ConcurrentLongHashMap<JournalRecord> newRecords = new ConcurrentLongHashMap<JournalRecord>();
 
-   private final Map<Long, JournalTransaction> newTransactions = new HashMap<Long, JournalTransaction>();
+   private final ConcurrentLongHashMap<JournalTransaction> newTransactions = new ConcurrentLongHashMap<JournalTransaction>();
 
    /** Commands that happened during compacting
     *  We can't process any counts during compacting, as we won't know in what files the records are taking place, so
@@ -130,12 +128,12 @@ public class JournalCompactor extends AbstractJournalUpdateTask implements Journ
       return newDataFiles;
    }
 
-   public Map<Long, JournalRecord> getNewRecords()
+   public ConcurrentLongHashMap<JournalRecord> getNewRecords()
    {
       return newRecords;
    }
 
-   public Map<Long, JournalTransaction> getNewTransactions()
+   public ConcurrentLongHashMap<JournalTransaction> getNewTransactions()
    {
       return newTransactions;
    }
@@ -143,7 +141,7 @@ public class JournalCompactor extends AbstractJournalUpdateTask implements Journ
    public JournalCompactor(final SequentialFileFactory fileFactory,
                            final JournalImpl journal,
                            final JournalFilesRepository filesRepository,
-                           final Set<Long> recordsSnapshot,
+                           final long[] recordsSnapshot,
                            final long firstFileID)
    {
       super(fileFactory, journal, filesRepository, recordsSnapshot, firstFileID);
@@ -308,7 +306,7 @@ public class JournalCompactor extends AbstractJournalUpdateTask implements Journ
 
          writeEncoder(addRecord);
 
-         newRecords.put(info.id, new JournalRecord(currentFile, addRecord.getEncodeSize()));
+         newRecords.put(info.id, new JournalRecord(currentFile, addRecord.getEncodeSize(), getDataPosition(info)));
       }
    }
 
@@ -328,9 +326,9 @@ public class JournalCompactor extends AbstractJournalUpdateTask implements Journ
 
          checkSize(record.getEncodeSize(), info.compactCount);
 
-         newTransaction.addPositive(currentFile, info.id, record.getEncodeSize());
-
          writeEncoder(record);
+
+         newTransaction.addPositive(currentFile, info.id, record.getEncodeSize(), getDataPosition(info));
       }
    }
 
@@ -492,6 +490,15 @@ public class JournalCompactor extends AbstractJournalUpdateTask implements Journ
       }
    }
 
+   /**
+    * @return the position on the current file of the data of the record just written, which is followed by the size
+    *         of the record
+    */
+   private int getDataPosition(final RecordInfo info)
+   {
+      return getWritingChannel().writerIndex() - DataConstants.SIZE_INT - info.data.length;
+   }
+
    /**
     * @param transactionID
     * @return
@@ -636,7 +643,7 @@ public class JournalCompactor extends AbstractJournalUpdateTask implements Journ
    /* (non-Javadoc)
     * @see org.hornetq.core.journal.impl.JournalRecordsProvider#getRecords()
     */
-   public Map<Long, JournalRecord> getRecords()
+   public ConcurrentLongHashMap<JournalRecord> getRecords()
    {
       return newRecords;
    }
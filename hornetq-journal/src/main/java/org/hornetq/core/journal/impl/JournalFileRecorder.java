@@ -0,0 +1,178 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.journal.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hornetq.core.journal.RecordInfo;
+
+/**
+ * Keeps the records read from a journal file, so they can be given to another {@link JournalReaderCallback} later, in
+ * the same order they were read.
+ */
+final class JournalFileRecorder implements JournalReaderCallback
+{
+   static final byte DATA_FILE = 0;
+
+   final List<Record> records = new ArrayList<Record>();
+
+   int lastDataPos;
+
+   void replay(final JournalReaderCallback reader) throws Exception
+   {
+      for (Record record : records)
+      {
+         switch (record.recordType)
+         {
+            case JournalImpl.ADD_RECORD:
+            {
+               reader.onReadAddRecord(record.info);
+               break;
+            }
+            case JournalImpl.UPDATE_RECORD:
+            {
+               reader.onReadUpdateRecord(record.info);
+               break;
+            }
+            case JournalImpl.DELETE_RECORD:
+            {
+               reader.onReadDeleteRecord(record.id);
+               break;
+            }
+            case JournalImpl.ADD_RECORD_TX:
+            {
+               reader.onReadAddRecordTX(record.id, record.info);
+               break;
+            }
+            case JournalImpl.UPDATE_RECORD_TX:
+            {
+               reader.onReadUpdateRecordTX(record.id, record.info);
+               break;
+            }
+            case JournalImpl.DELETE_RECORD_TX:
+            {
+               reader.onReadDeleteRecordTX(record.id, record.info);
+               break;
+            }
+            case JournalImpl.PREPARE_RECORD:
+            {
+               reader.onReadPrepareRecord(record.id, record.extraData, record.numberOfRecords);
+               break;
+            }
+            case JournalImpl.COMMIT_RECORD:
+            {
+               reader.onReadCommitRecord(record.id, record.numberOfRecords);
+               break;
+            }
+            case JournalImpl.ROLLBACK_RECORD:
+            {
+               reader.onReadRollbackRecord(record.id);
+               break;
+            }
+            case DATA_FILE:
+            {
+               reader.markAsDataFile(record.file);
+               break;
+            }
+            default:
+            {
+               throw new IllegalStateException("Invalid record type " + record.recordType);
+            }
+         }
+      }
+   }
+
+   public void onReadAddRecord(final RecordInfo info) throws Exception
+   {
+      records.add(new Record(JournalImpl.ADD_RECORD, info.id, info));
+   }
+
+   public void onReadUpdateRecord(final RecordInfo info) throws Exception
+   {
+      records.add(new Record(JournalImpl.UPDATE_RECORD, info.id, info));
+   }
+
+   public void onReadDeleteRecord(final long recordID) throws Exception
+   {
+      records.add(new Record(JournalImpl.DELETE_RECORD, recordID, null));
+   }
+
+   public void onReadAddRecordTX(final long transactionID, final RecordInfo info) throws Exception
+   {
+      records.add(new Record(JournalImpl.ADD_RECORD_TX, transactionID, info));
+   }
+
+   public void onReadUpdateRecordTX(final long transactionID, final RecordInfo info) throws Exception
+   {
+      records.add(new Record(JournalImpl.UPDATE_RECORD_TX, transactionID, info));
+   }
+
+   public void onReadDeleteRecordTX(final long transactionID, final RecordInfo info) throws Exception
+   {
+      records.add(new Record(JournalImpl.DELETE_RECORD_TX, transactionID, info));
+   }
+
+   public void onReadPrepareRecord(final long transactionID, final byte[] extraData, final int numberOfRecords) throws Exception
+   {
+      Record record = new Record(JournalImpl.PREPARE_RECORD, transactionID, null);
+      record.extraData = extraData;
+      record.numberOfRecords = numberOfRecords;
+      records.add(record);
+   }
+
+   public void onReadCommitRecord(final long transactionID, final int numberOfRecords) throws Exception
+   {
+      Record record = new Record(JournalImpl.COMMIT_RECORD, transactionID, null);
+      record.numberOfRecords = numberOfRecords;
+      records.add(record);
+   }
+
+   public void onReadRollbackRecord(final long transactionID) throws Exception
+   {
+      records.add(new Record(JournalImpl.ROLLBACK_RECORD, transactionID, null));
+   }
+
+   public void markAsDataFile(final JournalFile file)
+   {
+      Record record = new Record(DATA_FILE, 0, null);
+      record.file = file;
+      records.add(record);
+   }
+
+   // Inner classes -------------------------------------------------
+
+   static final class Record
+   {
+      final byte recordType;
+
+      // The record ID, or the transaction ID on transactional records
+      final long id;
+
+      final RecordInfo info;
+
+      byte[] extraData;
+
+      int numberOfRecords;
+
+      JournalFile file;
+
+      Record(final byte recordType, final long id, final RecordInfo info)
+      {
+         this.recordType = recordType;
+         this.id = id;
+         this.info = info;
+      }
+   }
+}
@@ -13,21 +13,24 @@
 
 package org.hornetq.core.journal.impl;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -36,6 +39,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -48,6 +52,7 @@ import org.hornetq.core.journal.IOCompletion;
 import org.hornetq.core.journal.JournalLoadInformation;
 import org.hornetq.core.journal.LoaderCallback;
 import org.hornetq.core.journal.PreparedTransactionInfo;
+import org.hornetq.core.journal.RecordDataTrimmer;
 import org.hornetq.core.journal.RecordInfo;
 import org.hornetq.core.journal.SequentialFile;
 import org.hornetq.core.journal.SequentialFileFactory;
@@ -64,6 +69,7 @@ import org.hornetq.core.journal.impl.dataformat.JournalInternalRecord;
 import org.hornetq.core.journal.impl.dataformat.JournalRollbackRecordTX;
 import org.hornetq.journal.HornetQJournalBundle;
 import org.hornetq.journal.HornetQJournalLogger;
+import org.hornetq.utils.ConcurrentLongHashMap;
 import org.hornetq.utils.DataConstants;
 import org.hornetq.utils.Pair;
 
@@ -120,6 +126,13 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
                                              DataConstants.SIZE_BYTE +
                                              DataConstants.SIZE_INT /* + record.length */;
 
+   // The record ID, the data size and the user record type, written just before the data of an add record
+   static final int SIZE_BEFORE_ADD_DATA = DataConstants.SIZE_LONG + DataConstants.SIZE_INT +
+                                                   DataConstants.SIZE_BYTE;
+
+   // How many times an add record is read without waiting for a compacting moving it
+   private static final int READ_ADD_RECORD_ATTEMPTS = 3;
+
    // Record markers - they must be all unique
 
    public static final byte ADD_RECORD = 11;
@@ -179,10 +192,10 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
    private final JournalFilesRepository filesRepository;
 
    // Compacting may replace this structure
-   private final ConcurrentMap<Long, JournalRecord> records = new ConcurrentHashMap<Long, JournalRecord>();
+   private final ConcurrentLongHashMap<JournalRecord> records = new ConcurrentLongHashMap<JournalRecord>();
 
    // Compacting may replace this structure
-   private final ConcurrentMap<Long, JournalTransaction> transactions = new ConcurrentHashMap<Long, JournalTransaction>();
+   private final ConcurrentLongHashMap<JournalTransaction> transactions = new ConcurrentLongHashMap<JournalTransaction>();
 
    // This will be set only while the JournalCompactor is being executed
    private volatile JournalCompactor compactor;
@@ -193,11 +206,17 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
 
    private ExecutorService compactorExecutor = null;
 
-   // Lock used during the append of records
-   // This lock doesn't represent a global lock.
-   // After a record is appended, the usedFile can't be changed until the positives and negatives are updated
+   // Lock used to update the records and transactions after a record is appended
    private final ReentrantLock lockAppend = new ReentrantLock();
 
+   // Moving to the next file takes the write lock. Records are appended holding the write lock too, unless the file
+   // factory has a lock free buffer, where appending only takes the read lock and the buffer reserves the space of
+   // each record. After a record is appended, the usedFile can't be changed until the positives and negatives are
+   // updated
+   private final ReentrantReadWriteLock fileLock = new ReentrantReadWriteLock();
+
+   private final boolean concurrentAppend;
+
    /**
     * We don't lock the journal during the whole compacting operation. During compacting we only
     * lock it (i) when gathering the initial structure, and (ii) when replicating the structures
@@ -214,6 +233,19 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
 
    private final Reclaimer reclaimer = new Reclaimer();
 
+   // The files are read on the loading thread when this is 1
+   private volatile int loadThreads = 1;
+
+   // Same as the journal-load-prefetch default
+   private volatile int loadPrefetch = 4;
+
+   // A checkpoint of the sealed files is written on this period, when it is > 0
+   private volatile long checkpointPeriod = -1;
+
+   private volatile long lastCheckpoint;
+
+   private volatile RecordDataTrimmer loadTrimmer;
+
    // Constructors --------------------------------------------------
 
    public JournalImpl(final int fileSize,
@@ -267,6 +299,8 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
 
       this.fileFactory = fileFactory;
 
+      concurrentAppend = fileFactory.isLockFreeBuffer() && fileFactory.isSupportsCallbacks();
+
       filesRepository = new JournalFilesRepository(fileFactory,
                                                    this,
                                                    filePrefix,
@@ -346,7 +380,7 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
       latch.await();
    }
 
-   public Map<Long, JournalRecord> getRecords()
+   public ConcurrentLongHashMap<JournalRecord> getRecords()
    {
       return records;
    }
@@ -361,6 +395,191 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
       return compactor;
    }
 
+   /**
+    * Sets how many threads read the files when the journal is loaded, and how many files they may read ahead of the
+    * one being loaded. The records are still loaded one file after the other, in the same order.
+    */
+   public void setLoadParallelism(final int threads, final int prefetch)
+   {
+      if (threads < 1 || prefetch < 1)
+      {
+         throw new IllegalArgumentException("Invalid load parallelism, threads=" + threads + ", prefetch=" + prefetch);
+      }
+
+      loadThreads = threads;
+      loadPrefetch = prefetch;
+   }
+
+   /**
+    * Sets the trimmer choosing the part of the data of the add records kept in memory while the journal is loaded. The
+    * records trimmed can be read back whole with {@link #readAddRecord(long)}.
+    * <p>
+    * The trimmer is only used on journals kept on a directory, the records are loaded whole otherwise. It is used on
+    * the records restored from a checkpoint too, as they are read back from the files. The records of transactions not
+    * committed are given whole to the loader.
+    */
+   public void setLoadTrimmer(final RecordDataTrimmer trimmer)
+   {
+      loadTrimmer = trimmer;
+   }
+
+   /**
+    * Sets how often a checkpoint of the journal is written, in milliseconds. A checkpoint is a snapshot of the state of
+    * the files no longer being appended to, which the next load uses instead of reading those files again.
+    * Checkpoints are disabled when the period is not greater than 0.
+    */
+   public void setCheckpointPeriod(final long period)
+   {
+      checkpointPeriod = period;
+   }
+
+   /**
+    * Writes a checkpoint now, waiting for it to be done.
+    */
+   public void checkpoint() throws Exception
+   {
+      final AtomicInteger errors = new AtomicInteger(0);
+
+      final CountDownLatch latch = new CountDownLatch(1);
+
+      compactorExecutor.execute(new Runnable()
+      {
+         public void run()
+         {
+            try
+            {
+               writeCheckpoint();
+            }
+            catch (Throwable e)
+            {
+               errors.incrementAndGet();
+               HornetQJournalLogger.LOGGER.errorWritingCheckpoint(e);
+            }
+            finally
+            {
+               latch.countDown();
+            }
+         }
+      });
+
+      if (!latch.await(60, TimeUnit.SECONDS))
+      {
+         throw new RuntimeException("Didn't finish checkpoint timely");
+      }
+
+      if (errors.get() > 0)
+      {
+         throw new RuntimeException("Could not write the checkpoint, look at the logs");
+      }
+   }
+
+   /**
+    * Reads the data of a live record back from the file it was added on, so the user of the journal doesn't need to
+    * keep it in memory.
+    * <p>
+    * Only the records loaded from a journal kept on a directory, and the records moved by a compacting since, are
+    * known on their files. The read is a single positioned read on the file, which is tried again if a compacting
+    * moved the record meanwhile. It only waits for a compacting after failing that a few times.
+    * @return the data the record was added with, or {@code null} if the record is not live or its position is not
+    *         known
+    */
+   public byte[] readAddRecord(final long id) throws Exception
+   {
+      if (fileFactory.getDirectory() == null)
+      {
+         return null;
+      }
+
+      for (int attempt = 1; attempt < JournalImpl.READ_ADD_RECORD_ATTEMPTS; attempt++)
+      {
+         JournalRecord record = records.get(id);
+
+         if (record == null || record.getDataPosition() < 0)
+         {
+            return null;
+         }
+
+         byte[] data;
+
+         try
+         {
+            data = readRecordData(record.getAddFile(), id, record.getDataPosition());
+         }
+         catch (IOException e)
+         {
+            if (records.get(id) == record)
+            {
+               throw e;
+            }
+
+            // The file was renamed or reused by a compacting
+            continue;
+         }
+
+         // A compacting moves the records to other files before their old files are reused
+         if (records.get(id) == record)
+         {
+            return data;
+         }
+      }
+
+      compactorLock.readLock().lock();
+      try
+      {
+         JournalRecord record = records.get(id);
+
+         if (record == null || record.getDataPosition() < 0)
+         {
+            return null;
+         }
+
+         byte[] data = readRecordData(record.getAddFile(), id, record.getDataPosition());
+
+         return records.get(id) == record ? data : null;
+      }
+      finally
+      {
+         compactorLock.readLock().unlock();
+      }
+   }
+
+   /**
+    * @return the data of the add record at the position, or {@code null} if the file has another record there
+    */
+   private byte[] readRecordData(final JournalFile file, final long id, final int dataPosition) throws IOException
+   {
+      RandomAccessFile randomFile = new RandomAccessFile(new File(fileFactory.getDirectory(),
+                                                                  file.getFile().getFileName()), "r");
+      try
+      {
+         randomFile.seek(dataPosition - JournalImpl.SIZE_BEFORE_ADD_DATA);
+
+         if (randomFile.readLong() != id)
+         {
+            return null;
+         }
+
+         int size = randomFile.readInt();
+
+         if (size < 0 || dataPosition + size > randomFile.length())
+         {
+            return null;
+         }
+
+         byte[] data = new byte[size];
+
+         randomFile.readByte();
+
+         randomFile.readFully(data);
+
+         return data;
+      }
+      finally
+      {
+         randomFile.close();
+      }
+   }
+
    /** this method is used internally only however tools may use it to maintenance.
     *  It won't be part of the interface as the tools should be specific to the implementation */
    public List<JournalFile> orderFiles() throws Exception
@@ -400,6 +619,17 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
    public static int readJournalFile(final SequentialFileFactory fileFactory,
                                      final JournalFile file,
                                      final JournalReaderCallback reader) throws Exception
+   {
+      return readJournalFile(fileFactory, file, reader, null);
+   }
+
+   /**
+    * @param trimmer if not null, it chooses the part of the data of the add records given to the reader
+    */
+   static int readJournalFile(final SequentialFileFactory fileFactory,
+                              final JournalFile file,
+                              final JournalReaderCallback reader,
+                              final RecordDataTrimmer trimmer) throws Exception
    {
       file.getFile().open(1, false);
       ByteBuffer wholeFileBuffer = null;
@@ -512,7 +742,7 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
 
             byte userRecordType = 0;
 
-            byte record[] = null;
+            int dataPosition = -1;
 
             if (JournalImpl.isContainsBody(recordType))
             {
@@ -542,9 +772,10 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
                   continue;
                }
 
-               record = new byte[variableSize];
+               // The data is read once the record is validated
+               dataPosition = wholeFileBuffer.position();
 
-               wholeFileBuffer.get(record);
+               wholeFileBuffer.position(dataPosition + variableSize);
             }
 
             // Case this is a transaction, this will contain the number of pendingTransactions on a transaction, at the
@@ -639,22 +870,59 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
                continue;
             }
 
-            wholeFileBuffer.position(oldPos);
-
             // At this point everything is checked. So we relax and just load
             // the data now.
 
+            byte record[] = null;
+
+            if (dataPosition >= 0)
+            {
+               if (trimmer != null && (recordType == JournalImpl.ADD_RECORD || recordType == JournalImpl.ADD_RECORD_TX))
+               {
+                  ByteBuffer data = wholeFileBuffer.duplicate();
+
+                  data.limit(dataPosition + variableSize);
+
+                  data.position(dataPosition);
+
+                  record = trimmer.trim(userRecordType, data.slice());
+               }
+
+               if (record == null)
+               {
+                  record = new byte[variableSize];
+
+                  wholeFileBuffer.position(dataPosition);
+
+                  wholeFileBuffer.get(record);
+               }
+            }
+
+            wholeFileBuffer.position(oldPos);
+
             switch (recordType)
             {
                case ADD_RECORD:
                {
-                  reader.onReadAddRecord(new RecordInfo(recordID, userRecordType, record, false, compactCount));
+                  reader.onReadAddRecord(new RecordInfo(recordID,
+                                                        userRecordType,
+                                                        record,
+                                                        false,
+                                                        compactCount,
+                                                        dataPosition,
+                                                        variableSize));
                   break;
                }
 
                case UPDATE_RECORD:
                {
-                  reader.onReadUpdateRecord(new RecordInfo(recordID, userRecordType, record, true, compactCount));
+                  reader.onReadUpdateRecord(new RecordInfo(recordID,
+                                                           userRecordType,
+                                                           record,
+                                                           true,
+                                                           compactCount,
+                                                           dataPosition,
+                                                           variableSize));
                   break;
                }
 
@@ -670,7 +938,9 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
                                                                          userRecordType,
                                                                          record,
                                                                          false,
-                                                                         compactCount));
+                                                                         compactCount,
+                                                                         dataPosition,
+                                                                         variableSize));
                   break;
                }
 
@@ -680,7 +950,9 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
                                                                             userRecordType,
                                                                             record,
                                                                             true,
-                                                                            compactCount));
+                                                                            compactCount,
+                                                                            dataPosition,
+                                                                            variableSize));
                   break;
                }
 
@@ -690,7 +962,9 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
                                                                             (byte)0,
                                                                             record,
                                                                             true,
-                                                                            compactCount));
+                                                                            compactCount,
+                                                                            dataPosition,
+                                                                            variableSize));
                   break;
                }
 
@@ -787,7 +1061,8 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
             callback.storeLineUp();
          }
 
-         lockAppend.lock();
+         Lock appendFileLock = appendFileLock();
+         appendFileLock.lock();
          try
          {
             JournalFile usedFile = appendRecord(addRecord, false, sync, null, callback);
@@ -801,11 +1076,19 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
                                        usedFile);
             }
 
-            records.put(id, new JournalRecord(usedFile, addRecord.getEncodeSize()));
+            lockAppend.lock();
+            try
+            {
+               records.put(id, new JournalRecord(usedFile, addRecord.getEncodeSize()));
+            }
+            finally
+            {
+               lockAppend.unlock();
+            }
          }
          finally
          {
-            lockAppend.unlock();
+            appendFileLock.unlock();
          }
       }
       finally
@@ -844,7 +1127,8 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
             callback.storeLineUp();
          }
 
-         lockAppend.lock();
+         Lock appendFileLock = appendFileLock();
+         appendFileLock.lock();
          try
          {
             JournalFile usedFile = appendRecord(updateRecord, false, sync, null, callback);
@@ -858,20 +1142,28 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
                                        usedFile);
             }
 
-            // record== null here could only mean there is a compactor, and computing the delete should be done after
-            // compacting is done
-            if (jrnRecord == null)
+            lockAppend.lock();
+            try
             {
-               compactor.addCommandUpdate(id, usedFile, updateRecord.getEncodeSize());
+               // record== null here could only mean there is a compactor, and computing the delete should be done after
+               // compacting is done
+               if (jrnRecord == null)
+               {
+                  compactor.addCommandUpdate(id, usedFile, updateRecord.getEncodeSize());
+               }
+               else
+               {
+                  jrnRecord.addUpdateFile(usedFile, updateRecord.getEncodeSize());
+               }
             }
-            else
+            finally
             {
-               jrnRecord.addUpdateFile(usedFile, updateRecord.getEncodeSize());
+               lockAppend.unlock();
             }
          }
          finally
          {
-            lockAppend.unlock();
+            appendFileLock.unlock();
          }
       }
       finally
@@ -916,7 +1208,8 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
             callback.storeLineUp();
          }
 
-         lockAppend.lock();
+         Lock appendFileLock = appendFileLock();
+         appendFileLock.lock();
          try
          {
             JournalFile usedFile = appendRecord(deleteRecord, false, sync, null, callback);
@@ -926,21 +1219,28 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
                JournalImpl.traceRecord("appendDeleteRecord::id=" + id + ", usedFile = " + usedFile);
             }
 
-            // record== null here could only mean there is a compactor, and computing the delete should be done after
-            // compacting is done
-            if (record == null)
+            lockAppend.lock();
+            try
             {
-               compactor.addCommandDelete(id, usedFile);
+               // record== null here could only mean there is a compactor, and computing the delete should be done after
+               // compacting is done
+               if (record == null)
+               {
+                  compactor.addCommandDelete(id, usedFile);
+               }
+               else
+               {
+                  record.delete(usedFile);
+               }
             }
-            else
+            finally
             {
-               record.delete(usedFile);
+               lockAppend.unlock();
             }
-
          }
          finally
          {
-            lockAppend.unlock();
+            appendFileLock.unlock();
          }
       }
       finally
@@ -965,7 +1265,8 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
 
          JournalTransaction tx = getTransactionInfo(txID);
 
-         lockAppend.lock();
+         Lock appendFileLock = appendFileLock();
+         appendFileLock.lock();
          try
          {
             JournalFile usedFile = appendRecord(addRecord, false, false, tx, null);
@@ -981,11 +1282,19 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
                                        usedFile);
             }
 
-            tx.addPositive(usedFile, id, addRecord.getEncodeSize());
+            lockAppend.lock();
+            try
+            {
+               tx.addPositive(usedFile, id, addRecord.getEncodeSize());
+            }
+            finally
+            {
+               lockAppend.unlock();
+            }
          }
          finally
          {
-            lockAppend.unlock();
+            appendFileLock.unlock();
          }
       }
       finally
@@ -1023,7 +1332,8 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
 
          JournalTransaction tx = getTransactionInfo(txID);
 
-         lockAppend.lock();
+         Lock appendFileLock = appendFileLock();
+         appendFileLock.lock();
          try
          {
             JournalFile usedFile = appendRecord(updateRecordTX, false, false, tx, null);
@@ -1039,11 +1349,19 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
                                        usedFile);
             }
 
-            tx.addPositive(usedFile, id, updateRecordTX.getEncodeSize());
+            lockAppend.lock();
+            try
+            {
+               tx.addPositive(usedFile, id, updateRecordTX.getEncodeSize());
+            }
+            finally
+            {
+               lockAppend.unlock();
+            }
          }
          finally
          {
-            lockAppend.unlock();
+            appendFileLock.unlock();
          }
       }
       finally
@@ -1066,7 +1384,8 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
 
          JournalTransaction tx = getTransactionInfo(txID);
 
-         lockAppend.lock();
+         Lock appendFileLock = appendFileLock();
+         appendFileLock.lock();
          try
          {
             JournalFile usedFile = appendRecord(deleteRecordTX, false, false, tx, null);
@@ -1080,11 +1399,19 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
                                        usedFile);
             }
 
-            tx.addNegative(usedFile, id);
+            lockAppend.lock();
+            try
+            {
+               tx.addNegative(usedFile, id);
+            }
+            finally
+            {
+               lockAppend.unlock();
+            }
          }
          finally
          {
-            lockAppend.unlock();
+            appendFileLock.unlock();
          }
       }
       finally
@@ -1129,7 +1456,8 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
             callback.storeLineUp();
          }
 
-         lockAppend.lock();
+         Lock appendFileLock = appendFileLock();
+         appendFileLock.lock();
          try
          {
             JournalFile usedFile = appendRecord(prepareRecord, true, sync, tx, callback);
@@ -1139,11 +1467,19 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
                JournalImpl.traceRecord("appendPrepareRecord::txID=" + txID + ", usedFile = " + usedFile);
             }
 
-            tx.prepare(usedFile);
+            lockAppend.lock();
+            try
+            {
+               tx.prepare(usedFile);
+            }
+            finally
+            {
+               lockAppend.unlock();
+            }
          }
          finally
          {
-            lockAppend.unlock();
+            appendFileLock.unlock();
          }
 
       }
@@ -1188,7 +1524,8 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
             callback.storeLineUp();
          }
 
-         lockAppend.lock();
+         Lock appendFileLock = appendFileLock();
+         appendFileLock.lock();
          try
          {
             JournalFile usedFile = appendRecord(commitRecord, true, sync, tx, callback);
@@ -1198,11 +1535,19 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
                JournalImpl.traceRecord("appendCommitRecord::txID=" + txID + ", usedFile = " + usedFile);
             }
 
-            tx.commit(usedFile);
+            lockAppend.lock();
+            try
+            {
+               tx.commit(usedFile);
+            }
+            finally
+            {
+               lockAppend.unlock();
+            }
          }
          finally
          {
-            lockAppend.unlock();
+            appendFileLock.unlock();
          }
 
       }
@@ -1237,16 +1582,25 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
             callback.storeLineUp();
          }
 
-         lockAppend.lock();
+         Lock appendFileLock = appendFileLock();
+         appendFileLock.lock();
          try
          {
             JournalFile usedFile = appendRecord(rollbackRecord, false, sync, tx, callback);
 
-            tx.rollback(usedFile);
+            lockAppend.lock();
+            try
+            {
+               tx.rollback(usedFile);
+            }
+            finally
+            {
+               lockAppend.unlock();
+            }
          }
          finally
          {
-            lockAppend.unlock();
+            appendFileLock.unlock();
          }
 
       }
@@ -1505,13 +1859,13 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
             compactor = new JournalCompactor(fileFactory,
                                              this,
                                              filesRepository,
-                                             records.keySet(),
+                                             records.keys(),
                                              dataFilesToProcess.get(0).getFileID());
 
-            for (Map.Entry<Long, JournalTransaction> entry : transactions.entrySet())
+            for (JournalTransaction transaction : transactions.values())
             {
-               compactor.addPendingTransaction(entry.getKey(), entry.getValue().getPositiveArray());
-               entry.getValue().setCompacting();
+               compactor.addPendingTransaction(transaction.getId(), transaction.getPositiveArray());
+               transaction.setCompacting();
             }
 
             // We will calculate the new records during compacting, what will take the position the records will take
@@ -1567,10 +1921,13 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
             newDatafiles = localCompactor.getNewDataFiles();
 
             // Restore newRecords created during compacting
-            for (Map.Entry<Long, JournalRecord> newRecordEntry : localCompactor.getNewRecords().entrySet())
+            localCompactor.getNewRecords().forEach(new ConcurrentLongHashMap.EntryProcessor<JournalRecord>()
             {
-               records.put(newRecordEntry.getKey(), newRecordEntry.getValue());
-            }
+               public void accept(final long id, final JournalRecord record)
+               {
+                  records.put(id, record);
+               }
+            });
 
             // Restore compacted dataFiles
             for (int i = newDatafiles.size() - 1; i >= 0; i--)
@@ -1737,325 +2094,1004 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
       // AtomicLong is used only as a reference, not as an Atomic value
       final AtomicLong maxID = new AtomicLong(-1);
 
-      for (final JournalFile file : orderedFiles)
-      {
-         JournalImpl.trace("Loading file " + file.getFile().getFileName());
+      List<JournalFile> filesToRead = orderedFiles;
 
-         final AtomicBoolean hasData = new AtomicBoolean(false);
+      JournalSnapshot snapshot = null;
+
+      JournalFile[] snapshotFiles = null;
+
+      if (replicationSync == null)
+      {
+         snapshot = readSnapshot();
 
-         int resultLastPost = JournalImpl.readJournalFile(fileFactory, file, new JournalReaderCallback()
+         if (snapshot != null)
          {
+            snapshotFiles = snapshot.match(fileFactory.getDirectory(), orderedFiles);
 
-            private void checkID(final long id)
+            if (snapshotFiles == null)
             {
-               if (id > maxID.longValue())
-               {
-                  maxID.set(id);
-               }
+               HornetQJournalLogger.LOGGER.debug("Journal snapshot doesn't match the journal files, loading all files");
+               snapshot = null;
+               deleteSnapshot();
             }
+         }
+      }
+      else
+      {
+         deleteSnapshot();
+      }
 
-            public void onReadAddRecord(final RecordInfo info) throws Exception
-            {
-               checkID(info.id);
+      // The trimmed records are read back with their positions on the files of the directory
+      final RecordDataTrimmer trimmer = fileFactory.getDirectory() != null ? loadTrimmer : null;
 
-               hasData.set(true);
+      if (snapshot != null)
+      {
+         restoreSnapshot(snapshot, snapshotFiles, trimmer, maxID, loadManager, loadTransactions, orderedFiles);
 
-               loadManager.addRecord(info);
+         int restoredFiles = 0;
 
-               records.put(info.id, new JournalRecord(file, info.data.length + JournalImpl.SIZE_ADD_RECORD + 1));
-            }
+         for (int i = 0; i < snapshotFiles.length; i++)
+         {
+            JournalFile file = snapshotFiles[i];
 
-            public void onReadUpdateRecord(final RecordInfo info) throws Exception
+            if (file == null)
             {
-               checkID(info.id);
-
-               hasData.set(true);
-
-               loadManager.updateRecord(info);
-
-               JournalRecord posFiles = records.get(info.id);
-
-               if (posFiles != null)
-               {
-                  // It's legal for this to be null. The file(s) with the may
-                  // have been deleted
-                  // just leaving some updates in this file
-
-                  posFiles.addUpdateFile(file, info.data.length + JournalImpl.SIZE_ADD_RECORD + 1); // +1 = compact
-                  // count
-               }
+               continue;
             }
 
-            public void onReadDeleteRecord(final long recordID) throws Exception
-            {
-               hasData.set(true);
-
-               loadManager.deleteRecord(recordID);
+            restoredFiles++;
 
-               JournalRecord posFiles = records.remove(recordID);
-
-               if (posFiles != null)
-               {
-                  posFiles.delete(file);
-               }
+            if (snapshot.files.get(i).hasData)
+            {
+               lastDataPos = snapshot.files.get(i).lastDataPos;
+               filesRepository.addDataFileOnBottom(file);
             }
-
-            public void onReadUpdateRecordTX(final long transactionID, final RecordInfo info) throws Exception
+            else if (changeData)
             {
-               onReadAddRecordTX(transactionID, info);
+               filesRepository.addFreeFile(file, false, false);
             }
+         }
 
-            public void onReadAddRecordTX(final long transactionID, final RecordInfo info) throws Exception
-            {
+         filesToRead = orderedFiles.subList(restoredFiles, orderedFiles.size());
+      }
 
-               checkID(info.id);
+      ParallelJournalReader parallelReader = null;
 
-               hasData.set(true);
+      if (loadThreads > 1 && filesToRead.size() > 1)
+      {
+         parallelReader = new ParallelJournalReader(fileFactory, filesToRead, loadThreads, loadPrefetch, trimmer);
+      }
 
-               TransactionHolder tx = loadTransactions.get(transactionID);
+      for (final JournalFile file : filesToRead)
+      {
+         JournalImpl.trace("Loading file " + file.getFile().getFileName());
 
-               if (tx == null)
-               {
-                  tx = new TransactionHolder(transactionID);
+         final AtomicBoolean hasData = new AtomicBoolean(false);
 
-                  loadTransactions.put(transactionID, tx);
+         JournalReaderCallback fileReader = createLoadReader(file,
+                                                             hasData,
+                                                             maxID,
+                                                             loadManager,
+                                                             loadTransactions,
+                                                             orderedFiles);
+
+         int resultLastPost;
+
+         if (parallelReader != null)
+         {
+            resultLastPost = parallelReader.readJournalFile(file, fileReader);
+         }
+         else
+         {
+            resultLastPost = JournalImpl.readJournalFile(fileFactory, file, fileReader, trimmer);
+         }
+
+         if (hasData.get())
+         {
+            lastDataPos = resultLastPost;
+            filesRepository.addDataFileOnBottom(file);
+         }
+         else
+         {
+            if (changeData)
+            {
+               // Empty dataFiles with no data
+               filesRepository.addFreeFile(file, false, false);
+            }
+         }
+      }
+
+      if (replicationSync == JournalState.SYNCING)
+      {
+         assert filesRepository.getDataFiles().isEmpty();
+         setJournalState(JournalState.SYNCING);
+         return new JournalLoadInformation(0, -1);
+      }
+
+      setUpCurrentFile(lastDataPos);
+
+      if (snapshot != null && Arrays.asList(snapshotFiles).contains(currentFile))
+      {
+         // the snapshot doesn't know about what will be appended to the file
+         deleteSnapshot();
+      }
+
+      lastCheckpoint = System.currentTimeMillis();
+
+      setJournalState(JournalState.LOADED);
+
+      for (TransactionHolder transaction : loadTransactions.values())
+      {
+         if ((!transaction.prepared || transaction.invalid) && replicationSync != JournalState.SYNCING_UP_TO_DATE)
+         {
+            HornetQJournalLogger.LOGGER.uncomittedTxFound(transaction.transactionID);
+
+            untrimRecords(transaction);
+
+            if (changeData)
+            {
+               // I append a rollback record here, because otherwise compacting will be throwing messages because of unknown transactions
+               this.appendRollbackRecord(transaction.transactionID, false);
+            }
+
+            loadManager.failedTransaction(transaction.transactionID,
+                                          transaction.recordInfos,
+                                          transaction.recordsToDelete);
+         }
+         else
+         {
+            untrimRecords(transaction);
+
+            for (RecordInfo info : transaction.recordInfos)
+            {
+               if (info.id > maxID.get())
+               {
+                  maxID.set(info.id);
+               }
+            }
+
+            PreparedTransactionInfo info = new PreparedTransactionInfo(transaction.transactionID, transaction.extraData);
+
+            info.records.addAll(transaction.recordInfos);
+
+            info.recordsToDelete.addAll(transaction.recordsToDelete);
+
+            loadManager.addPreparedTransaction(info);
+         }
+      }
+
+      checkReclaimStatus();
+
+      return new JournalLoadInformation(records.size(), maxID.longValue());
+   }
+
+   /**
+    * The records of the transactions not committed are given whole to the loader, as they are not live records that
+    * could be read back later.
+    */
+   private void untrimRecords(final TransactionHolder transaction) throws Exception
+   {
+      if (transaction.trimmedRecordFiles.isEmpty())
+      {
+         return;
+      }
+
+      for (int i = 0; i < transaction.recordInfos.size(); i++)
+      {
+         RecordInfo info = transaction.recordInfos.get(i);
+
+         JournalFile file = transaction.trimmedRecordFiles.get(info);
+
+         if (file != null)
+         {
+            byte[] data = readRecordData(file, info.id, info.dataPosition);
+
+            if (data == null)
+            {
+               throw new IllegalStateException("Record " + info.id + " is no longer on " + file);
+            }
+
+            transaction.recordInfos.set(i, new RecordInfo(info.id,
+                                                          info.userRecordType,
+                                                          data,
+                                                          info.isUpdate,
+                                                          info.compactCount,
+                                                          info.dataPosition,
+                                                          info.dataSize));
+         }
+      }
+
+      transaction.trimmedRecordFiles.clear();
+   }
+
+   private File getSnapshotFile()
+   {
+      String directory = fileFactory.getDirectory();
+
+      if (directory == null)
+      {
+         return null;
+      }
+
+      return new File(directory, filesRepository.getFilePrefix() + ".snapshot");
+   }
+
+   /**
+    * @return the file with the log of the records of the snapshot, or null if there is no snapshot file
+    */
+   private File getSnapshotLogFile()
+   {
+      File snapshotFile = getSnapshotFile();
+
+      return snapshotFile == null ? null : new File(snapshotFile.getPath() + ".log");
+   }
+
+   private void deleteSnapshot()
+   {
+      File snapshotFile = getSnapshotFile();
+
+      if (snapshotFile == null)
+      {
+         return;
+      }
+
+      for (File file : new File[] { snapshotFile, getSnapshotLogFile() })
+      {
+         if (file.exists() && !file.delete())
+         {
+            HornetQJournalLogger.LOGGER.errorDeletingFile(file);
+         }
+      }
+   }
+
+   /**
+    * @return the snapshot of the last checkpoint, or null if there is none or if checkpoints are disabled
+    */
+   private JournalSnapshot readSnapshot()
+   {
+      File snapshotFile = getSnapshotFile();
+
+      if (snapshotFile == null)
+      {
+         return null;
+      }
+
+      if (checkpointPeriod <= 0)
+      {
+         // an old snapshot could match the files if checkpoints are enabled again later
+         deleteSnapshot();
+         return null;
+      }
+
+      try
+      {
+         JournalSnapshot snapshot = JournalSnapshot.read(snapshotFile, userVersion);
+
+         if (snapshot != null)
+         {
+            // the log is checked before anything is restored from it
+            snapshot.readLog(getSnapshotLogFile(), null);
+         }
+
+         return snapshot;
+      }
+      catch (Exception e)
+      {
+         HornetQJournalLogger.LOGGER.invalidJournalSnapshot(snapshotFile, e);
+         deleteSnapshot();
+         return null;
+      }
+   }
+
+   /**
+    * Loads the files of a snapshot into the journal, as if they had been read. The records are read back from the
+    * files, at the positions the snapshot has for them.
+    * @param files the journal file of each file on the snapshot, null for the ones that were reclaimed
+    * @param trimmer the trimmer of the data of the add records, or null to load them whole
+    */
+   private void restoreSnapshot(final JournalSnapshot snapshot,
+                                final JournalFile[] files,
+                                final RecordDataTrimmer trimmer,
+                                final AtomicLong maxID,
+                                final LoaderCallback loadManager,
+                                final Map<Long, TransactionHolder> loadTransactions,
+                                final List<JournalFile> orderedFiles) throws Exception
+   {
+      final JournalSnapshot.DataReader reader = new JournalSnapshot.DataReader(fileFactory.getDirectory(),
+                                                                               files,
+                                                                               trimmer);
+
+      try
+      {
+         snapshot.readLog(getSnapshotLogFile(), new JournalSnapshot.EntryHandler()
+         {
+            public void handle(final JournalSnapshot.Entry entry) throws Exception
+            {
+               if (entry.recordType == JournalImpl.DELETE_RECORD)
+               {
+                  loadManager.deleteRecord(entry.id);
+
+                  records.remove(entry.id);
+               }
+               else if (files[entry.file] != null)
+               {
+                  RecordInfo info = entry.toRecordInfo(reader.read(entry));
+
+                  if (info.isUpdate)
+                  {
+                     loadManager.updateRecord(info);
+                  }
+                  else
+                  {
+                     loadManager.addRecord(info);
+                  }
+
+                  restoreRecord(entry, files[entry.file]);
+               }
+               // otherwise the record was deleted after the snapshot, and its file reclaimed
+            }
+         });
+
+         for (JournalSnapshot.Entry entry : snapshot.pendingEntries)
+         {
+            JournalFile file = files[entry.file];
+
+            if (file != null)
+            {
+               JournalReaderCallback fileReader = createLoadReader(file,
+                                                                   new AtomicBoolean(),
+                                                                   maxID,
+                                                                   loadManager,
+                                                                   loadTransactions,
+                                                                   orderedFiles);
+
+               entry.replay(fileReader, reader.read(entry));
+            }
+         }
+      }
+      finally
+      {
+         reader.close();
+      }
+
+      restoreCounters(snapshot, files);
+
+      if (snapshot.maxID > maxID.get())
+      {
+         maxID.set(snapshot.maxID);
+      }
+   }
+
+   /**
+    * Puts the records of the log of a snapshot on the journal, without reading them back from the files.
+    * @param files the journal file of each file on the snapshot, null for the ones that were reclaimed
+    */
+   private void restoreRecords(final JournalSnapshot snapshot, final JournalFile[] files) throws Exception
+   {
+      snapshot.readLog(getSnapshotLogFile(), new JournalSnapshot.EntryHandler()
+      {
+         public void handle(final JournalSnapshot.Entry entry)
+         {
+            if (entry.recordType == JournalImpl.DELETE_RECORD)
+            {
+               records.remove(entry.id);
+            }
+            else if (files[entry.file] != null)
+            {
+               restoreRecord(entry, files[entry.file]);
+            }
+         }
+      });
+   }
+
+   /**
+    * Puts a committed record of a snapshot on the journal, as loading its file would.
+    */
+   private void restoreRecord(final JournalSnapshot.Entry entry, final JournalFile file)
+   {
+      JournalRecord record = records.get(entry.id);
+
+      if (entry.recordType == JournalImpl.ADD_RECORD)
+      {
+         records.put(entry.id, new JournalRecord(file, entry.getRecordSize(), entry.dataPosition));
+      }
+      else if (entry.recordType == JournalImpl.UPDATE_RECORD)
+      {
+         if (record != null)
+         {
+            record.addUpdateFile(file, entry.getRecordSize());
+         }
+      }
+      else if (record == null)
+      {
+         // committed on a transaction. The data of an update is not where the record can be read back
+         int dataPosition = entry.recordType == JournalImpl.ADD_RECORD_TX ? entry.dataPosition : -1;
+
+         records.put(entry.id, new JournalRecord(file, entry.getRecordSize(), dataPosition));
+      }
+      else
+      {
+         record.addUpdateFile(file, entry.getRecordSize());
+      }
+   }
+
+   /**
+    * Sets the counters of the files as they were when the snapshot was taken.
+    */
+   private void restoreCounters(final JournalSnapshot snapshot, final JournalFile[] files)
+   {
+      for (int i = 0; i < files.length; i++)
+      {
+         JournalFile file = files[i];
+
+         if (file == null)
+         {
+            continue;
+         }
+
+         JournalSnapshot.FileState fileState = snapshot.files.get(i);
+
+         file.clearCounts();
+
+         for (int j = 0; j < fileState.posCount; j++)
+         {
+            file.incPosCount();
+         }
+
+         file.addSize(fileState.liveSize);
+
+         for (int[] negCount : fileState.negCounts)
+         {
+            JournalFile negFile = files[negCount[0]];
+
+            if (negFile != null)
+            {
+               for (int j = 0; j < negCount[1]; j++)
+               {
+                  file.incNegCount(negFile);
                }
+            }
+         }
+      }
+   }
+
+   /**
+    * Writes a snapshot of the files no longer being appended to. The snapshot of the previous checkpoint is used for
+    * the files it still matches, so only the files sealed after it are read, and their records are appended to its
+    * log.
+    * <p>
+    * This runs on the compactor executor, so no compacting runs meanwhile. The files may still be reclaimed while they
+    * are read, in which case the checkpoint is left for the next period.
+    */
+   private void writeCheckpoint() throws Exception
+   {
+      File snapshotFile = getSnapshotFile();
+
+      if (snapshotFile == null || checkpointPeriod <= 0 || state != JournalState.LOADED)
+      {
+         return;
+      }
+
+      List<JournalFile> sealedFiles = new ArrayList<JournalFile>(filesRepository.getDataFiles());
+
+      for (int i = 1; i < sealedFiles.size(); i++)
+      {
+         if (sealedFiles.get(i).getFileID() <= sealedFiles.get(i - 1).getFileID())
+         {
+            // only files in the order they will be loaded can be part of a snapshot
+            sealedFiles = sealedFiles.subList(0, i);
+            break;
+         }
+      }
+
+      if (sealedFiles.isEmpty())
+      {
+         return;
+      }
+
+      // The sealed files are loaded into a journal of their own, through copies that are not used by this journal
+      JournalImpl snapshotJournal = new JournalImpl(fileSize,
+                                                    minFiles,
+                                                    0,
+                                                    0,
+                                                    fileFactory,
+                                                    filesRepository.getFilePrefix(),
+                                                    filesRepository.getFileExtension(),
+                                                    1,
+                                                    userVersion);
+
+      List<JournalFile> files = new ArrayList<JournalFile>(sealedFiles.size());
+
+      for (JournalFile file : sealedFiles)
+      {
+         files.add(new JournalFileImpl(fileFactory.createSequentialFile(file.getFile().getFileName(), 1),
+                                       file.getFileID(),
+                                       file.getJournalVersion()));
+      }
+
+      JournalSnapshot previous = null;
+
+      try
+      {
+         previous = JournalSnapshot.read(snapshotFile, userVersion);
+      }
+      catch (Exception e)
+      {
+         HornetQJournalLogger.LOGGER.invalidJournalSnapshot(snapshotFile, e);
+      }
+
+      JournalFile[] previousFiles = previous == null ? null : previous.match(fileFactory.getDirectory(), files);
+
+      JournalSnapshot.Recorder recorder = new JournalSnapshot.Recorder();
+
+      JournalSnapshot.Loader loader = new JournalSnapshot.Loader(recorder);
+
+      Map<Long, TransactionHolder> loadTransactions = new LinkedHashMap<Long, TransactionHolder>();
+
+      AtomicLong maxID = new AtomicLong(-1);
+
+      JournalSnapshot snapshot = new JournalSnapshot();
+
+      // the journal file of each file on the snapshot, null for the ones that were reclaimed
+      List<JournalFile> snapshotFiles = new ArrayList<JournalFile>();
+
+      int restoredFiles = 0;
+
+      if (previousFiles != null)
+      {
+         for (JournalFile file : previousFiles)
+         {
+            if (file != null)
+            {
+               restoredFiles++;
+            }
+         }
+
+         if (restoredFiles == files.size())
+         {
+            // nothing was sealed since the previous checkpoint
+            return;
+         }
+
+         try
+         {
+            snapshotJournal.restoreRecords(previous, previousFiles);
+         }
+         catch (Exception e)
+         {
+            HornetQJournalLogger.LOGGER.invalidJournalSnapshot(getSnapshotLogFile(), e);
+
+            // the checkpoint is written again from all the files
+            deleteSnapshot();
+            writeCheckpoint();
+            return;
+         }
+
+         for (JournalSnapshot.Entry entry : previous.pendingEntries)
+         {
+            JournalFile file = previousFiles[entry.file];
+
+            if (file != null)
+            {
+               recorder.setFile(entry.file, snapshotJournal.createLoadReader(file,
+                                                                             new AtomicBoolean(),
+                                                                             maxID,
+                                                                             loader,
+                                                                             loadTransactions,
+                                                                             files));
+               entry.replay(recorder, null);
+            }
+         }
+
+         snapshotJournal.restoreCounters(previous, previousFiles);
+
+         if (previous.maxID > maxID.get())
+         {
+            maxID.set(previous.maxID);
+         }
+
+         snapshot.files.addAll(previous.files);
+
+         snapshotFiles.addAll(Arrays.asList(previousFiles));
+      }
+
+      for (JournalFile file : files.subList(restoredFiles, files.size()))
+      {
+         if (state != JournalState.LOADED)
+         {
+            return;
+         }
+
+         JournalSnapshot.FileState fileState = new JournalSnapshot.FileState();
+
+         AtomicBoolean hasData = new AtomicBoolean(false);
+
+         recorder.setFile(snapshotFiles.size(),
+                          snapshotJournal.createLoadReader(file, hasData, maxID, loader, loadTransactions, files));
+
+         try
+         {
+            fileState.lastDataPos = JournalImpl.readJournalFile(fileFactory,
+                                                                file,
+                                                                recorder,
+                                                                JournalSnapshot.DISCARD_DATA);
+
+            fileState.fingerprint = JournalSnapshot.fingerprint(fileFactory.getDirectory(),
+                                                                file,
+                                                                fileState.lastDataPos);
+         }
+         catch (Exception e)
+         {
+            if (isAnyReclaimed(files))
+            {
+               JournalImpl.trace("Checkpoint left for the next period, a file was reclaimed while it was read");
+               return;
+            }
+
+            throw e;
+         }
+
+         fileState.fileID = file.getFileID();
+         fileState.version = file.getJournalVersion();
+         fileState.hasData = hasData.get();
+
+         snapshot.files.add(fileState);
+
+         snapshotFiles.add(file);
+      }
+
+      if (isAnyReclaimed(files))
+      {
+         // a file reclaimed could have been reused while it was read
+         JournalImpl.trace("Checkpoint left for the next period, a file was reclaimed while it was read");
+         return;
+      }
+
+      List<JournalSnapshot.Entry> entries = loader.getEntries();
+
+      snapshot.pendingEntries.addAll(recorder.getPendingEntries());
+
+      snapshot.maxID = maxID.get();
+
+      File logFile = getSnapshotLogFile();
+
+      if (previousFiles == null ||
+          previous.logEntries + entries.size() > JournalSnapshot.LOG_REWRITE_RATIO *
+                                                 countLogEntries(snapshotJournal.records))
+      {
+         snapshot.logID = previous == null ? System.currentTimeMillis() : previous.logID + 1;
+
+         snapshot.rewriteLog(logFile, previousFiles == null ? null : previous, snapshotFiles, entries,
+                             snapshotJournal.records);
+      }
+      else
+      {
+         snapshot.logID = previous.logID;
+         snapshot.logLength = previous.logLength;
+         snapshot.logSegments = previous.logSegments;
+         snapshot.logEntries = previous.logEntries;
+
+         snapshot.appendLog(logFile, entries);
+      }
+
+      snapshot.takeCounters(snapshotFiles);
+
+      snapshot.write(snapshotFile, userVersion);
+
+      JournalImpl.trace("Checkpoint written for " + files.size() + " files, with " + snapshot.logEntries +
+                        " records on its log");
+   }
+
+   /**
+    * @return true if any of the files is no longer a data file of this journal
+    */
+   private boolean isAnyReclaimed(final List<JournalFile> files)
+   {
+      Set<Long> fileIDs = new HashSet<Long>();
+
+      for (JournalFile file : filesRepository.getDataFiles())
+      {
+         fileIDs.add(file.getFileID());
+      }
+
+      for (JournalFile file : files)
+      {
+         if (!fileIDs.contains(file.getFileID()))
+         {
+            return true;
+         }
+      }
+
+      return false;
+   }
+
+   /**
+    * @return how many entries the log of a snapshot needs for the records, one for each add and update
+    */
+   private static int countLogEntries(final ConcurrentLongHashMap<JournalRecord> records)
+   {
+      final AtomicInteger entries = new AtomicInteger(0);
+
+      records.forEach(new ConcurrentLongHashMap.EntryProcessor<JournalRecord>()
+      {
+         public void accept(final long id, final JournalRecord record)
+         {
+            List<Pair<JournalFile, Integer>> updateFiles = record.getUpdateFiles();
+
+            entries.addAndGet(1 + (updateFiles == null ? 0 : updateFiles.size()));
+         }
+      });
+
+      return entries.get();
+   }
+
+   /**
+    * Creates the callback that loads the records of a file into the journal.
+    */
+   private JournalReaderCallback createLoadReader(final JournalFile file,
+                                                  final AtomicBoolean hasData,
+                                                  final AtomicLong maxID,
+                                                  final LoaderCallback loadManager,
+                                                  final Map<Long, TransactionHolder> loadTransactions,
+                                                  final List<JournalFile> orderedFiles)
+   {
+      return new JournalReaderCallback()
+      {
+
+         private void checkID(final long id)
+         {
+            if (id > maxID.longValue())
+            {
+               maxID.set(id);
+            }
+         }
 
-               tx.recordInfos.add(info);
+         public void onReadAddRecord(final RecordInfo info) throws Exception
+         {
+            checkID(info.id);
 
-               JournalTransaction tnp = transactions.get(transactionID);
+            hasData.set(true);
 
-               if (tnp == null)
-               {
-                  tnp = new JournalTransaction(transactionID, JournalImpl.this);
+            loadManager.addRecord(info);
 
-                  transactions.put(transactionID, tnp);
-               }
+            records.put(info.id, new JournalRecord(file,
+                                                   info.dataSize + JournalImpl.SIZE_ADD_RECORD + 1,
+                                                   info.dataPosition));
+         }
 
-               tnp.addPositive(file, info.id, info.data.length + JournalImpl.SIZE_ADD_RECORD_TX + 1); // +1 = compact
-               // count
-            }
+         public void onReadUpdateRecord(final RecordInfo info) throws Exception
+         {
+            checkID(info.id);
+
+            hasData.set(true);
+
+            loadManager.updateRecord(info);
 
-            public void onReadDeleteRecordTX(final long transactionID, final RecordInfo info) throws Exception
+            JournalRecord posFiles = records.get(info.id);
+
+            if (posFiles != null)
             {
-               hasData.set(true);
+               // It's legal for this to be null. The file(s) with the may
+               // have been deleted
+               // just leaving some updates in this file
+
+               posFiles.addUpdateFile(file, info.dataSize + JournalImpl.SIZE_ADD_RECORD + 1); // +1 = compact
+               // count
+            }
+         }
 
-               TransactionHolder tx = loadTransactions.get(transactionID);
+         public void onReadDeleteRecord(final long recordID) throws Exception
+         {
+            hasData.set(true);
 
-               if (tx == null)
-               {
-                  tx = new TransactionHolder(transactionID);
+            loadManager.deleteRecord(recordID);
 
-                  loadTransactions.put(transactionID, tx);
-               }
+            JournalRecord posFiles = records.remove(recordID);
 
-               tx.recordsToDelete.add(info);
+            if (posFiles != null)
+            {
+               posFiles.delete(file);
+            }
+         }
 
-               JournalTransaction tnp = transactions.get(transactionID);
+         public void onReadUpdateRecordTX(final long transactionID, final RecordInfo info) throws Exception
+         {
+            onReadAddRecordTX(transactionID, info);
+         }
 
-               if (tnp == null)
-               {
-                  tnp = new JournalTransaction(transactionID, JournalImpl.this);
+         public void onReadAddRecordTX(final long transactionID, final RecordInfo info) throws Exception
+         {
 
-                  transactions.put(transactionID, tnp);
-               }
+            checkID(info.id);
 
-               tnp.addNegative(file, info.id);
+            hasData.set(true);
 
-            }
+            TransactionHolder tx = loadTransactions.get(transactionID);
 
-            public void onReadPrepareRecord(final long transactionID, final byte[] extraData, final int numberOfRecords) throws Exception
+            if (tx == null)
             {
-               hasData.set(true);
+               tx = new TransactionHolder(transactionID);
 
-               TransactionHolder tx = loadTransactions.get(transactionID);
+               loadTransactions.put(transactionID, tx);
+            }
 
-               if (tx == null)
-               {
-                  // The user could choose to prepare empty transactions
-                  tx = new TransactionHolder(transactionID);
+            tx.recordInfos.add(info);
 
-                  loadTransactions.put(transactionID, tx);
-               }
+            if (info.isTrimmed())
+            {
+               tx.trimmedRecordFiles.put(info, file);
+            }
 
-               tx.prepared = true;
+            JournalTransaction tnp = transactions.get(transactionID);
 
-               tx.extraData = extraData;
+            if (tnp == null)
+            {
+               tnp = new JournalTransaction(transactionID, JournalImpl.this);
 
-               JournalTransaction journalTransaction = transactions.get(transactionID);
+               transactions.put(transactionID, tnp);
+            }
 
-               if (journalTransaction == null)
-               {
-                  journalTransaction = new JournalTransaction(transactionID, JournalImpl.this);
+            // The data of an update is not where the record can be read back
+            int dataPosition = info.isUpdate ? -1 : info.dataPosition;
 
-                  transactions.put(transactionID, journalTransaction);
-               }
+            tnp.addPositive(file, info.id, info.dataSize + JournalImpl.SIZE_ADD_RECORD_TX + 1, dataPosition); // +1 = compact
+            // count
+         }
 
-               boolean healthy = checkTransactionHealth(file, journalTransaction, orderedFiles, numberOfRecords);
+         public void onReadDeleteRecordTX(final long transactionID, final RecordInfo info) throws Exception
+         {
+            hasData.set(true);
 
-               if (healthy)
-               {
-                  journalTransaction.prepare(file);
-               }
-               else
-               {
-                  HornetQJournalLogger.LOGGER.preparedTXIncomplete(transactionID);
-                  tx.invalid = true;
-               }
-            }
+            TransactionHolder tx = loadTransactions.get(transactionID);
 
-            public void onReadCommitRecord(final long transactionID, final int numberOfRecords) throws Exception
+            if (tx == null)
             {
-               TransactionHolder tx = loadTransactions.remove(transactionID);
+               tx = new TransactionHolder(transactionID);
 
-               // The commit could be alone on its own journal-file and the
-               // whole transaction body was reclaimed but not the
-               // commit-record
-               // So it is completely legal to not find a transaction at this
-               // point
-               // If we can't find it, we assume the TX was reclaimed and we
-               // ignore this
-               if (tx != null)
-               {
-                  JournalTransaction journalTransaction = transactions.remove(transactionID);
+               loadTransactions.put(transactionID, tx);
+            }
 
-                  if (journalTransaction == null)
-                  {
-                     throw new IllegalStateException("Cannot find tx " + transactionID);
-                  }
+            tx.recordsToDelete.add(info);
 
-                  boolean healthy = checkTransactionHealth(file, journalTransaction, orderedFiles, numberOfRecords);
+            JournalTransaction tnp = transactions.get(transactionID);
 
-                  if (healthy)
-                  {
-                     for (RecordInfo txRecord : tx.recordInfos)
-                     {
-                        if (txRecord.isUpdate)
-                        {
-                           loadManager.updateRecord(txRecord);
-                        }
-                        else
-                        {
-                           loadManager.addRecord(txRecord);
-                        }
-                     }
+            if (tnp == null)
+            {
+               tnp = new JournalTransaction(transactionID, JournalImpl.this);
 
-                     for (RecordInfo deleteValue : tx.recordsToDelete)
-                     {
-                        loadManager.deleteRecord(deleteValue.id);
-                     }
+               transactions.put(transactionID, tnp);
+            }
 
-                     journalTransaction.commit(file);
-                  }
-                  else
-                  {
-                     HornetQJournalLogger.LOGGER.txMissingElements(transactionID);
+            tnp.addNegative(file, info.id);
 
-                     journalTransaction.forget();
-                  }
+         }
 
-                  hasData.set(true);
-               }
+         public void onReadPrepareRecord(final long transactionID, final byte[] extraData, final int numberOfRecords) throws Exception
+         {
+            hasData.set(true);
 
-            }
+            TransactionHolder tx = loadTransactions.get(transactionID);
 
-            public void onReadRollbackRecord(final long transactionID) throws Exception
+            if (tx == null)
             {
-               TransactionHolder tx = loadTransactions.remove(transactionID);
+               // The user could choose to prepare empty transactions
+               tx = new TransactionHolder(transactionID);
 
-               // The rollback could be alone on its own journal-file and the
-               // whole transaction body was reclaimed but the commit-record
-               // So it is completely legal to not find a transaction at this
-               // point
-               if (tx != null)
-               {
-                  JournalTransaction tnp = transactions.remove(transactionID);
+               loadTransactions.put(transactionID, tx);
+            }
 
-                  if (tnp == null)
-                  {
-                     throw new IllegalStateException("Cannot find tx " + transactionID);
-                  }
+            tx.prepared = true;
 
-                  // There is no need to validate summaries/holes on
-                  // Rollbacks.. We will ignore the data anyway.
-                  tnp.rollback(file);
+            tx.extraData = extraData;
 
-                  hasData.set(true);
-               }
-            }
+            JournalTransaction journalTransaction = transactions.get(transactionID);
 
-            public void markAsDataFile(final JournalFile file)
+            if (journalTransaction == null)
             {
-               hasData.set(true);
+               journalTransaction = new JournalTransaction(transactionID, JournalImpl.this);
+
+               transactions.put(transactionID, journalTransaction);
             }
 
-         });
+            boolean healthy = checkTransactionHealth(file, journalTransaction, orderedFiles, numberOfRecords);
 
-         if (hasData.get())
-         {
-            lastDataPos = resultLastPost;
-            filesRepository.addDataFileOnBottom(file);
-         }
-         else
-         {
-            if (changeData)
+            if (healthy)
             {
-               // Empty dataFiles with no data
-               filesRepository.addFreeFile(file, false, false);
+               journalTransaction.prepare(file);
+            }
+            else
+            {
+               HornetQJournalLogger.LOGGER.preparedTXIncomplete(transactionID);
+               tx.invalid = true;
             }
          }
-      }
 
-      if (replicationSync == JournalState.SYNCING)
-      {
-         assert filesRepository.getDataFiles().isEmpty();
-         setJournalState(JournalState.SYNCING);
-         return new JournalLoadInformation(0, -1);
-      }
+         public void onReadCommitRecord(final long transactionID, final int numberOfRecords) throws Exception
+         {
+            TransactionHolder tx = loadTransactions.remove(transactionID);
+
+            // The commit could be alone on its own journal-file and the
+            // whole transaction body was reclaimed but not the
+            // commit-record
+            // So it is completely legal to not find a transaction at this
+            // point
+            // If we can't find it, we assume the TX was reclaimed and we
+            // ignore this
+            if (tx != null)
+            {
+               JournalTransaction journalTransaction = transactions.remove(transactionID);
 
-      setUpCurrentFile(lastDataPos);
+               if (journalTransaction == null)
+               {
+                  throw new IllegalStateException("Cannot find tx " + transactionID);
+               }
 
-      setJournalState(JournalState.LOADED);
+               boolean healthy = checkTransactionHealth(file, journalTransaction, orderedFiles, numberOfRecords);
 
-      for (TransactionHolder transaction : loadTransactions.values())
-      {
-         if ((!transaction.prepared || transaction.invalid) && replicationSync != JournalState.SYNCING_UP_TO_DATE)
-         {
-            HornetQJournalLogger.LOGGER.uncomittedTxFound(transaction.transactionID);
+               if (healthy)
+               {
+                  for (RecordInfo txRecord : tx.recordInfos)
+                  {
+                     if (txRecord.isUpdate)
+                     {
+                        loadManager.updateRecord(txRecord);
+                     }
+                     else
+                     {
+                        loadManager.addRecord(txRecord);
+                     }
+                  }
 
-            if (changeData)
-            {
-               // I append a rollback record here, because otherwise compacting will be throwing messages because of unknown transactions
-               this.appendRollbackRecord(transaction.transactionID, false);
+                  for (RecordInfo deleteValue : tx.recordsToDelete)
+                  {
+                     loadManager.deleteRecord(deleteValue.id);
+                  }
+
+                  journalTransaction.commit(file);
+               }
+               else
+               {
+                  HornetQJournalLogger.LOGGER.txMissingElements(transactionID);
+
+                  journalTransaction.forget();
+               }
+
+               hasData.set(true);
             }
 
-            loadManager.failedTransaction(transaction.transactionID,
-                                          transaction.recordInfos,
-                                          transaction.recordsToDelete);
          }
-         else
+
+         public void onReadRollbackRecord(final long transactionID) throws Exception
          {
-            for (RecordInfo info : transaction.recordInfos)
+            TransactionHolder tx = loadTransactions.remove(transactionID);
+
+            // The rollback could be alone on its own journal-file and the
+            // whole transaction body was reclaimed but the commit-record
+            // So it is completely legal to not find a transaction at this
+            // point
+            if (tx != null)
             {
-               if (info.id > maxID.get())
+               JournalTransaction tnp = transactions.remove(transactionID);
+
+               if (tnp == null)
                {
-                  maxID.set(info.id);
+                  throw new IllegalStateException("Cannot find tx " + transactionID);
                }
-            }
-
-            PreparedTransactionInfo info = new PreparedTransactionInfo(transaction.transactionID, transaction.extraData);
-
-            info.records.addAll(transaction.recordInfos);
 
-            info.recordsToDelete.addAll(transaction.recordsToDelete);
+               // There is no need to validate summaries/holes on
+               // Rollbacks.. We will ignore the data anyway.
+               tnp.rollback(file);
 
-            loadManager.addPreparedTransaction(info);
+               hasData.set(true);
+            }
          }
-      }
 
-      checkReclaimStatus();
+         public void markAsDataFile(final JournalFile file)
+         {
+            hasData.set(true);
+         }
 
-      return new JournalLoadInformation(records.size(), maxID.longValue());
+      };
    }
 
    /**
@@ -2329,7 +3365,7 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
       journalLock.readLock().lock();
       try
       {
-         lockAppend.lock();
+         fileLock.writeLock().lock();
          try
          {
             moveNextFile(false);
@@ -2337,7 +3373,7 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
          }
          finally
          {
-            lockAppend.unlock();
+            fileLock.writeLock().unlock();
          }
       }
       finally
@@ -2402,7 +3438,7 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
       journalLock.writeLock().lock();
       try
       {
-      lockAppend.lock();
+      fileLock.writeLock().lock();
 
       try
       {
@@ -2440,7 +3476,7 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
       }
       finally
       {
-         lockAppend.unlock();
+         fileLock.writeLock().unlock();
       }
    }
       finally
@@ -2744,6 +3780,11 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
    {
       checkJournalIsLoaded();
 
+      if (concurrentAppend)
+      {
+         return appendRecordConcurrently(encoder, completeTransaction, sync, tx, parameterCallback);
+      }
+
       final IOAsyncTask callback;
 
       final int size = encoder.getEncodeSize();
@@ -2797,6 +3838,130 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
       return currentFile;
    }
 
+   /**
+    * The lock to hold while appending a record and updating its positives and negatives.
+    */
+   private Lock appendFileLock()
+   {
+      return concurrentAppend ? fileLock.readLock() : fileLock.writeLock();
+   }
+
+   /**
+    * Appends holding the read lock of fileLock, so records are copied into the lock free buffer in parallel. When the
+    * current file is full the write lock is taken to move to the next file, and downgraded again to retry.
+    */
+   private JournalFile appendRecordConcurrently(final JournalInternalRecord encoder,
+                                                final boolean completeTransaction,
+                                                final boolean sync,
+                                                final JournalTransaction tx,
+                                                final IOAsyncTask parameterCallback) throws Exception
+   {
+      final int size = encoder.getEncodeSize();
+
+      // We take into account the fileID used on the Header
+      if (size > fileSize - currentFile.getFile().calculateBlockStart(JournalImpl.SIZE_HEADER))
+      {
+         throw new IllegalArgumentException("Record is too large to store " + size);
+      }
+
+      SimpleWaitIOCallback waitCallback = null;
+
+      while (true)
+      {
+         final JournalFile file = currentFile;
+
+         final IOAsyncTask callback;
+
+         TransactionCallback txcallback = null;
+
+         if (tx != null)
+         {
+            // The current file can't change while the read lock is held, but the counters of the transaction are
+            // updated by the other appenders under lockAppend
+            lockAppend.lock();
+            try
+            {
+               txcallback = tx.getCallback(file);
+               if (parameterCallback != null)
+               {
+                  txcallback.setDelegateCompletion(parameterCallback);
+               }
+
+               if (completeTransaction)
+               {
+                  tx.fillNumberOfRecords(file, encoder);
+               }
+            }
+            finally
+            {
+               lockAppend.unlock();
+            }
+            callback = txcallback;
+         }
+         else if (parameterCallback != null)
+         {
+            callback = parameterCallback;
+         }
+         else if (sync)
+         {
+            if (waitCallback == null)
+            {
+               waitCallback = new SimpleWaitIOCallback();
+            }
+            callback = waitCallback;
+         }
+         else
+         {
+            callback = DummyCallback.getInstance();
+         }
+
+         encoder.setFileID(file.getRecordID());
+
+         if (file.getFile().tryWrite(encoder, sync, callback))
+         {
+            if (waitCallback != null)
+            {
+               waitCallback.waitCompletion();
+            }
+
+            return file;
+         }
+
+         if (txcallback != null)
+         {
+            lockAppend.lock();
+            try
+            {
+               if (parameterCallback != null)
+               {
+                  txcallback.setDelegateCompletion(null);
+               }
+               txcallback.cancelCountUp();
+            }
+            finally
+            {
+               lockAppend.unlock();
+            }
+         }
+
+         fileLock.readLock().unlock();
+         fileLock.writeLock().lock();
+         try
+         {
+            // Another thread may have moved to the next file already
+            if (currentFile == file)
+            {
+               moveNextFile(true);
+            }
+         }
+         finally
+         {
+            fileLock.readLock().lock();
+            fileLock.writeLock().unlock();
+         }
+      }
+   }
+
    @Override
    void scheduleReclaim()
    {
@@ -2825,6 +3990,27 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
             }
          });
       }
+
+      if (checkpointPeriod > 0 && System.currentTimeMillis() - lastCheckpoint >= checkpointPeriod &&
+          !compactorRunning.get())
+      {
+         lastCheckpoint = System.currentTimeMillis();
+
+         compactorExecutor.execute(new Runnable()
+         {
+            public void run()
+            {
+               try
+               {
+                  writeCheckpoint();
+               }
+               catch (Throwable e)
+               {
+                  HornetQJournalLogger.LOGGER.errorWritingCheckpoint(e);
+               }
+            }
+         });
+      }
    }
 
    private JournalTransaction getTransactionInfo(final long txID)
@@ -2953,6 +4139,9 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
 
       public final List<RecordInfo> recordsToDelete = new ArrayList<RecordInfo>();
 
+      // The files of the records trimmed while loading
+      public final Map<RecordInfo, JournalFile> trimmedRecordFiles = new IdentityHashMap<RecordInfo, JournalFile>();
+
       public boolean prepared;
 
       public boolean invalid;
@@ -2988,7 +4177,8 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
       @Override
       public void run()
       {
-         lockAppend.lock();
+         Lock appendFileLock = appendFileLock();
+         appendFileLock.lock();
          try
          {
 
@@ -3020,7 +4210,7 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
          }
          finally
          {
-            lockAppend.unlock();
+            appendFileLock.unlock();
          }
       }
    }
@@ -3059,6 +4249,9 @@ public class JournalImpl extends JournalBase implements TestableJournal, Journal
       synchronizationLock();
       try
       {
+         // the files of the live server replace ours
+         deleteSnapshot();
+
          Map<Long, JournalFile> map = new HashMap<Long, JournalFile>();
          long maxID = -1;
          for (long id : fileIds)
@@ -32,19 +32,45 @@ public class JournalRecord
 
    private final int size;
 
+   // The position of the data of the add record on the add file, or -1 if it is not known
+   private final int dataPosition;
+
    private List<Pair<JournalFile, Integer>> updateFiles;
 
    public JournalRecord(final JournalFile addFile, final int size)
+   {
+      this(addFile, size, -1);
+   }
+
+   public JournalRecord(final JournalFile addFile, final int size, final int dataPosition)
    {
       this.addFile = addFile;
 
       this.size = size;
 
+      this.dataPosition = dataPosition;
+
       addFile.incPosCount();
 
       addFile.addSize(size);
    }
 
+   JournalFile getAddFile()
+   {
+      return addFile;
+   }
+
+   int getDataPosition()
+   {
+      return dataPosition;
+   }
+
+   /** @return the files and sizes of the updates, or null if the record was never updated */
+   List<Pair<JournalFile, Integer>> getUpdateFiles()
+   {
+      return updateFiles;
+   }
+
    void addUpdateFile(final JournalFile updateFile, final int size)
    {
       if (updateFiles == null)
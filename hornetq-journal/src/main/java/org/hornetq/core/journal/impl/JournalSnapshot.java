@@ -0,0 +1,1276 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.journal.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.hornetq.core.journal.LoaderCallback;
+import org.hornetq.core.journal.PreparedTransactionInfo;
+import org.hornetq.core.journal.RecordDataTrimmer;
+import org.hornetq.core.journal.RecordInfo;
+import org.hornetq.journal.HornetQJournalLogger;
+import org.hornetq.utils.ConcurrentLongHashMap;
+
+/**
+ * The state of a journal after loading its first files, as it is written on a checkpoint.
+ * <p>
+ * The snapshot keeps where the records are, not their data, which is read back from the files when the snapshot is
+ * loaded. It is made of two files:
+ * <ul>
+ * <li>the state, rewritten on each checkpoint, with the reference counting of the files and the records of the
+ * transactions still open at the end of the files.</li>
+ * <li>the log of the committed records, as the position of each add, update and delete on the files. Each checkpoint
+ * appends a segment with the records of the files sealed since the previous one, and the log is only rewritten, with
+ * the live records alone, once it holds too many records that were deleted.</li>
+ * </ul>
+ * Loading a snapshot gives the journal the same state as loading the files would, as long as the files didn't change
+ * after the snapshot was taken, what is checked through the last bytes of each file.
+ * <p>
+ * Files of the snapshot may be reclaimed after it was taken. They held no live records, so the snapshot is still valid
+ * for the files that remain.
+ */
+final class JournalSnapshot
+{
+   private static final int MAGIC = 0x48514350;
+
+   private static final int LOG_MAGIC = 0x4851434c;
+
+   private static final int VERSION = 2;
+
+   // How many bytes before the end of the data of each file are checked
+   private static final int FINGERPRINT_SIZE = 1024;
+
+   // Ends the entries of a segment of the log
+   private static final byte END_OF_SEGMENT = 0;
+
+   // The log is rewritten once it has more entries than this many times the entries of the live records
+   static final int LOG_REWRITE_RATIO = 2;
+
+   private static final byte[] EMPTY_DATA = new byte[0];
+
+   /**
+    * Leaves the data of the add records out, as a checkpoint only needs their positions.
+    */
+   static final RecordDataTrimmer DISCARD_DATA = new RecordDataTrimmer()
+   {
+      public byte[] trim(final byte userRecordType, final ByteBuffer data)
+      {
+         // the data given back must be smaller than the data
+         return data.hasRemaining() ? EMPTY_DATA : null;
+      }
+   };
+
+   final List<FileState> files = new ArrayList<FileState>();
+
+   // The records of the transactions still open after the last file of the snapshot
+   final List<Entry> pendingEntries = new ArrayList<Entry>();
+
+   long maxID = -1;
+
+   // Identifies the log written for this snapshot, so an older or newer log is not taken for it
+   long logID;
+
+   // The length of the log, anything written after it is not part of the snapshot
+   long logLength;
+
+   int logSegments;
+
+   int logEntries;
+
+   /**
+    * Sets the reference counting of the files as the journal has them.
+    * @param journalFiles the journal file of each file on the snapshot, null for the ones that were reclaimed
+    */
+   void takeCounters(final List<JournalFile> journalFiles)
+   {
+      for (int i = 0; i < journalFiles.size(); i++)
+      {
+         JournalFile file = journalFiles.get(i);
+
+         if (file == null)
+         {
+            // its counters are not used anymore
+            continue;
+         }
+
+         FileState state = files.get(i);
+
+         state.posCount = file.getPosCount();
+         state.liveSize = file.getLiveSize();
+
+         List<int[]> negCounts = new ArrayList<int[]>();
+         for (int j = 0; j < journalFiles.size(); j++)
+         {
+            int count = journalFiles.get(j) == null ? 0 : file.getNegCount(journalFiles.get(j));
+            if (count != 0)
+            {
+               negCounts.add(new int[] { j, count });
+            }
+         }
+         state.negCounts = negCounts.toArray(new int[negCounts.size()][]);
+      }
+   }
+
+   /**
+    * Finds the files of the snapshot among the files of a journal. The files of the snapshot that still exist must be
+    * the first ones to be loaded, in the same order, and end with the same bytes they had when the snapshot was taken.
+    * @return the journal file for each file of the snapshot, with null for the files that were reclaimed, or null if
+    *         the snapshot can't be used on these files
+    */
+   JournalFile[] match(final String directory, final List<JournalFile> orderedFiles)
+   {
+      Map<Long, JournalFile> filesByID = new HashMap<Long, JournalFile>();
+
+      for (JournalFile file : orderedFiles)
+      {
+         filesByID.put(file.getFileID(), file);
+      }
+
+      JournalFile[] matched = new JournalFile[files.size()];
+
+      int found = 0;
+
+      for (int i = 0; i < files.size(); i++)
+      {
+         FileState state = files.get(i);
+
+         JournalFile file = filesByID.get(state.fileID);
+
+         if (file == null)
+         {
+            continue;
+         }
+
+         try
+         {
+            if (orderedFiles.get(found) != file || file.getJournalVersion() != state.version ||
+                fingerprint(directory, file, state.lastDataPos) != state.fingerprint)
+            {
+               return null;
+            }
+         }
+         catch (IOException e)
+         {
+            HornetQJournalLogger.LOGGER.errorReadingFile(e);
+            return null;
+         }
+
+         matched[i] = file;
+         found++;
+      }
+
+      return found == 0 ? null : matched;
+   }
+
+   static long fingerprint(final String directory, final JournalFile file, final int lastDataPos) throws IOException
+   {
+      RandomAccessFile randomFile = new RandomAccessFile(new File(directory, file.getFile().getFileName()), "r");
+
+      try
+      {
+         if (randomFile.length() < lastDataPos)
+         {
+            return -1;
+         }
+
+         int start = Math.max(0, lastDataPos - FINGERPRINT_SIZE);
+
+         byte[] bytes = new byte[lastDataPos - start];
+
+         randomFile.seek(start);
+         randomFile.readFully(bytes);
+
+         CRC32 crc = new CRC32();
+         crc.update(bytes);
+         return crc.getValue();
+      }
+      finally
+      {
+         randomFile.close();
+      }
+   }
+
+   /**
+    * Reads the state of a snapshot. Its log is only read by {@link #readLog(File, EntryHandler)}.
+    * @return the snapshot, or null if there is no file
+    * @throws IOException if the file is not a valid snapshot
+    */
+   static JournalSnapshot read(final File file, final int userVersion) throws IOException
+   {
+      if (!file.exists())
+      {
+         return null;
+      }
+
+      BufferedInputStream buffered = new BufferedInputStream(new FileInputStream(file));
+
+      try
+      {
+         CheckedInputStream checked = new CheckedInputStream(buffered, new CRC32());
+
+         DataInputStream input = new DataInputStream(checked);
+
+         if (input.readInt() != MAGIC || input.readInt() != VERSION)
+         {
+            throw new IOException("Invalid journal snapshot " + file);
+         }
+
+         if (input.readInt() != userVersion)
+         {
+            throw new IOException("Journal snapshot " + file + " is from another journal version");
+         }
+
+         JournalSnapshot snapshot = new JournalSnapshot();
+
+         snapshot.maxID = input.readLong();
+         snapshot.logID = input.readLong();
+         snapshot.logLength = input.readLong();
+         snapshot.logSegments = input.readInt();
+         snapshot.logEntries = input.readInt();
+
+         int numberOfFiles = input.readInt();
+         for (int i = 0; i < numberOfFiles; i++)
+         {
+            FileState state = new FileState();
+            state.fileID = input.readLong();
+            state.version = input.readInt();
+            state.hasData = input.readBoolean();
+            state.lastDataPos = input.readInt();
+            state.fingerprint = input.readLong();
+            state.posCount = input.readInt();
+            state.liveSize = input.readInt();
+            state.negCounts = new int[input.readInt()][];
+            for (int j = 0; j < state.negCounts.length; j++)
+            {
+               state.negCounts[j] = new int[] { input.readInt(), input.readInt() };
+            }
+
+            snapshot.files.add(state);
+         }
+
+         int numberOfEntries = input.readInt();
+         for (int i = 0; i < numberOfEntries; i++)
+         {
+            Entry entry = readEntry(input);
+
+            if (entry == null || !entry.isTransactional() || entry.file >= numberOfFiles)
+            {
+               throw new IOException("Invalid pending entry on journal snapshot " + file);
+            }
+
+            snapshot.pendingEntries.add(entry);
+         }
+
+         long checksum = checked.getChecksum().getValue();
+
+         if (new DataInputStream(buffered).readLong() != checksum || buffered.read() != -1)
+         {
+            throw new IOException("Journal snapshot " + file + " is corrupted");
+         }
+
+         return snapshot;
+      }
+      finally
+      {
+         buffered.close();
+      }
+   }
+
+   /**
+    * Writes the state of the snapshot to a temporary file, which replaces the file once it is synced to the disk. The
+    * log must have been written before.
+    */
+   void write(final File file, final int userVersion) throws IOException
+   {
+      File tmpFile = new File(file.getPath() + ".tmp");
+
+      FileOutputStream fileOutput = new FileOutputStream(tmpFile);
+
+      try
+      {
+         BufferedOutputStream buffered = new BufferedOutputStream(fileOutput);
+
+         CheckedOutputStream checked = new CheckedOutputStream(buffered, new CRC32());
+
+         DataOutputStream output = new DataOutputStream(checked);
+
+         output.writeInt(MAGIC);
+         output.writeInt(VERSION);
+         output.writeInt(userVersion);
+         output.writeLong(maxID);
+         output.writeLong(logID);
+         output.writeLong(logLength);
+         output.writeInt(logSegments);
+         output.writeInt(logEntries);
+
+         output.writeInt(files.size());
+         for (FileState state : files)
+         {
+            output.writeLong(state.fileID);
+            output.writeInt(state.version);
+            output.writeBoolean(state.hasData);
+            output.writeInt(state.lastDataPos);
+            output.writeLong(state.fingerprint);
+            output.writeInt(state.posCount);
+            output.writeInt(state.liveSize);
+            output.writeInt(state.negCounts.length);
+            for (int[] negCount : state.negCounts)
+            {
+               output.writeInt(negCount[0]);
+               output.writeInt(negCount[1]);
+            }
+         }
+
+         output.writeInt(pendingEntries.size());
+         for (Entry entry : pendingEntries)
+         {
+            writeEntry(output, entry);
+         }
+
+         output.flush();
+
+         DataOutputStream checksumOutput = new DataOutputStream(buffered);
+         checksumOutput.writeLong(checked.getChecksum().getValue());
+         checksumOutput.flush();
+
+         fileOutput.getFD().sync();
+      }
+      finally
+      {
+         fileOutput.close();
+      }
+
+      rename(tmpFile, file);
+   }
+
+   /**
+    * Gives the entries of the log to the handler, in the order they were written. The entries are read one at a time,
+    * and the checksum of each segment is checked once its entries were given.
+    * @param handler the handler of the entries, or null to only check the log
+    * @throws IOException if the log is not the one of this snapshot, or if it is corrupted
+    */
+   void readLog(final File logFile, final EntryHandler handler) throws Exception
+   {
+      BufferedInputStream buffered = new BufferedInputStream(new FileInputStream(logFile));
+
+      try
+      {
+         DataInputStream unchecked = new DataInputStream(buffered);
+
+         if (unchecked.readInt() != LOG_MAGIC || unchecked.readLong() != logID)
+         {
+            throw new IOException("Journal snapshot log " + logFile + " doesn't belong to the snapshot");
+         }
+
+         CheckedInputStream checked = new CheckedInputStream(buffered, new CRC32());
+
+         DataInputStream input = new DataInputStream(checked);
+
+         for (int i = 0; i < logSegments; i++)
+         {
+            checked.getChecksum().reset();
+
+            Entry entry = readEntry(input);
+
+            while (entry != null)
+            {
+               if (entry.isTransactional() && !entry.isPositioned() || entry.file >= files.size())
+               {
+                  throw new IOException("Invalid entry on journal snapshot log " + logFile);
+               }
+
+               if (handler != null)
+               {
+                  handler.handle(entry);
+               }
+
+               entry = readEntry(input);
+            }
+
+            long checksum = checked.getChecksum().getValue();
+
+            if (unchecked.readLong() != checksum)
+            {
+               throw new IOException("Journal snapshot log " + logFile + " is corrupted");
+            }
+         }
+      }
+      finally
+      {
+         buffered.close();
+      }
+   }
+
+   /**
+    * Appends the entries of a checkpoint to the log as a new segment.
+    */
+   void appendLog(final File logFile, final List<Entry> entries) throws IOException
+   {
+      LogWriter writer = new LogWriter(logFile, logID, logLength);
+
+      try
+      {
+         for (Entry entry : entries)
+         {
+            writer.write(entry);
+         }
+
+         logLength = writer.finish();
+      }
+      finally
+      {
+         writer.close();
+      }
+
+      logSegments++;
+      logEntries += writer.getEntries();
+   }
+
+   /**
+    * Writes a new log with the entries of the records still live, from the log of the previous snapshot and the
+    * entries of this checkpoint, and drops the files that were reclaimed from the snapshot. The new log replaces the
+    * previous one once it is synced to the disk.
+    * @param previous the snapshot whose log the entries are taken from, or null to only write the entries given
+    * @param journalFiles the journal file of each file on the snapshot, null for the ones that were reclaimed, which
+    *           are removed from it too
+    * @param records the live records of the journal the snapshot is taken from
+    */
+   void rewriteLog(final File logFile,
+                   final JournalSnapshot previous,
+                   final List<JournalFile> journalFiles,
+                   final List<Entry> entries,
+                   final ConcurrentLongHashMap<JournalRecord> records) throws Exception
+   {
+      // the index each file will have once the reclaimed ones are dropped
+      final int[] indexes = new int[files.size()];
+
+      int index = 0;
+
+      for (int i = 0; i < indexes.length; i++)
+      {
+         indexes[i] = journalFiles.get(i) == null ? -1 : index++;
+      }
+
+      for (int i = indexes.length - 1; i >= 0; i--)
+      {
+         if (indexes[i] < 0)
+         {
+            files.remove(i);
+            journalFiles.remove(i);
+         }
+      }
+
+      Iterator<Entry> iterator = pendingEntries.iterator();
+
+      while (iterator.hasNext())
+      {
+         Entry entry = iterator.next();
+
+         if (indexes[entry.file] < 0)
+         {
+            iterator.remove();
+         }
+         else
+         {
+            entry.file = indexes[entry.file];
+         }
+      }
+
+      File tmpFile = new File(logFile.getPath() + ".tmp");
+
+      final LogWriter writer = new LogWriter(tmpFile, logID, 0);
+
+      try
+      {
+         EntryHandler handler = new EntryHandler()
+         {
+            public void handle(final Entry entry) throws IOException
+            {
+               if (records.get(entry.id) == null)
+               {
+                  return;
+               }
+
+               if (entry.recordType == JournalImpl.DELETE_RECORD)
+               {
+                  // the record ID was added again, the delete ends what was added before it
+                  writer.write(entry);
+               }
+               else if (indexes[entry.file] >= 0)
+               {
+                  entry.file = indexes[entry.file];
+                  writer.write(entry);
+               }
+            }
+         };
+
+         if (previous != null)
+         {
+            previous.readLog(logFile, handler);
+         }
+
+         for (Entry entry : entries)
+         {
+            handler.handle(entry);
+         }
+
+         logLength = writer.finish();
+      }
+      finally
+      {
+         writer.close();
+      }
+
+      logSegments = 1;
+      logEntries = writer.getEntries();
+
+      rename(tmpFile, logFile);
+   }
+
+   // Private -------------------------------------------------------
+
+   private static void rename(final File tmpFile, final File file) throws IOException
+   {
+      if (!tmpFile.renameTo(file))
+      {
+         // some platforms won't replace an existing file on a rename
+         file.delete();
+
+         if (!tmpFile.renameTo(file))
+         {
+            tmpFile.delete();
+            throw new IOException("Could not rename " + tmpFile + " to " + file);
+         }
+      }
+   }
+
+   private static void writeEntry(final DataOutputStream output, final Entry entry) throws IOException
+   {
+      output.writeByte(entry.recordType);
+      output.writeLong(entry.id);
+
+      if (entry.recordType == JournalImpl.DELETE_RECORD)
+      {
+         return;
+      }
+
+      if (entry.isTransactional())
+      {
+         output.writeLong(entry.transactionID);
+      }
+
+      output.writeInt(entry.file);
+      output.writeShort(entry.compactCount);
+
+      if (entry.isPositioned())
+      {
+         output.writeByte(entry.userRecordType);
+         output.writeInt(entry.dataPosition);
+         output.writeInt(entry.dataSize);
+      }
+      else
+      {
+         output.writeInt(entry.numberOfRecords);
+         output.writeInt(entry.data == null ? -1 : entry.data.length);
+         if (entry.data != null)
+         {
+            output.write(entry.data);
+         }
+      }
+   }
+
+   /**
+    * @return the entry, or null at the end of a segment
+    */
+   private static Entry readEntry(final DataInputStream input) throws IOException
+   {
+      byte recordType = input.readByte();
+
+      switch (recordType)
+      {
+         case END_OF_SEGMENT:
+            return null;
+         case JournalImpl.ADD_RECORD:
+         case JournalImpl.UPDATE_RECORD:
+         case JournalImpl.DELETE_RECORD:
+         case JournalImpl.ADD_RECORD_TX:
+         case JournalImpl.UPDATE_RECORD_TX:
+         case JournalImpl.DELETE_RECORD_TX:
+         case JournalImpl.PREPARE_RECORD:
+            break;
+         default:
+            throw new IOException("Invalid journal snapshot entry type " + recordType);
+      }
+
+      Entry entry = new Entry(recordType, input.readLong());
+
+      if (recordType == JournalImpl.DELETE_RECORD)
+      {
+         return entry;
+      }
+
+      if (entry.isTransactional())
+      {
+         entry.transactionID = input.readLong();
+      }
+
+      entry.file = input.readInt();
+      entry.compactCount = input.readShort();
+
+      if (entry.isPositioned())
+      {
+         entry.userRecordType = input.readByte();
+         entry.dataPosition = input.readInt();
+         entry.dataSize = input.readInt();
+      }
+      else
+      {
+         entry.numberOfRecords = input.readInt();
+         int length = input.readInt();
+         if (length >= 0)
+         {
+            entry.data = new byte[length];
+            input.readFully(entry.data);
+         }
+      }
+
+      if (entry.file < 0 || entry.dataSize < 0)
+      {
+         throw new IOException("Invalid journal snapshot entry for record " + entry.id);
+      }
+
+      return entry;
+   }
+
+   // Inner classes -------------------------------------------------
+
+   static final class FileState
+   {
+      long fileID;
+
+      int version;
+
+      boolean hasData;
+
+      int lastDataPos;
+
+      long fingerprint;
+
+      int posCount;
+
+      int liveSize;
+
+      // pairs of the index of a file and the negative count to it
+      int[][] negCounts = new int[0][];
+   }
+
+   /**
+    * A record of a snapshot. The adds and updates only keep the position of their data on their file, the deletes of
+    * transactions and the prepares hold their data.
+    */
+   static final class Entry
+   {
+      final byte recordType;
+
+      // The record ID, 0 on prepares
+      final long id;
+
+      long transactionID;
+
+      // The index of the file of the record on the snapshot
+      int file;
+
+      byte userRecordType;
+
+      short compactCount;
+
+      int dataPosition = -1;
+
+      int dataSize;
+
+      byte[] data;
+
+      int numberOfRecords;
+
+      // The record the entry was taken from, while its transaction is open
+      RecordInfo info;
+
+      Entry(final byte recordType, final long id)
+      {
+         this.recordType = recordType;
+         this.id = id;
+      }
+
+      Entry(final byte recordType, final int file, final RecordInfo info)
+      {
+         this(recordType, info.id);
+
+         this.file = file;
+
+         userRecordType = info.userRecordType;
+         compactCount = info.compactCount;
+
+         if (isPositioned())
+         {
+            dataPosition = info.dataPosition;
+            dataSize = info.dataSize;
+         }
+         else
+         {
+            data = info.data;
+         }
+      }
+
+      boolean isTransactional()
+      {
+         return recordType != JournalImpl.ADD_RECORD && recordType != JournalImpl.UPDATE_RECORD &&
+                recordType != JournalImpl.DELETE_RECORD;
+      }
+
+      /**
+       * @return true if the data of the record is on its file rather than on the entry
+       */
+      boolean isPositioned()
+      {
+         return recordType == JournalImpl.ADD_RECORD || recordType == JournalImpl.UPDATE_RECORD ||
+                recordType == JournalImpl.ADD_RECORD_TX ||
+                recordType == JournalImpl.UPDATE_RECORD_TX;
+      }
+
+      /**
+       * @return the size of the record on its file, as it is counted on the live size of the file
+       */
+      int getRecordSize()
+      {
+         int size = isTransactional() ? JournalImpl.SIZE_ADD_RECORD_TX : JournalImpl.SIZE_ADD_RECORD;
+
+         return dataSize + size + 1; // +1 = compact count
+      }
+
+      /**
+       * @param data the data read back for the record, or null if it was not read
+       */
+      RecordInfo toRecordInfo(final byte[] data)
+      {
+         if (!isPositioned())
+         {
+            return new RecordInfo(id, userRecordType, this.data, true, compactCount);
+         }
+
+         boolean isUpdate = recordType == JournalImpl.UPDATE_RECORD || recordType == JournalImpl.UPDATE_RECORD_TX;
+
+         return new RecordInfo(id, userRecordType, data, isUpdate, compactCount, dataPosition, dataSize);
+      }
+
+      /**
+       * Gives the record of an open transaction to a reader, as if it was read from its file.
+       * @param data the data read back for the record, or null if it was not read
+       */
+      void replay(final JournalReaderCallback reader, final byte[] data) throws Exception
+      {
+         switch (recordType)
+         {
+            case JournalImpl.ADD_RECORD_TX:
+            {
+               reader.onReadAddRecordTX(transactionID, toRecordInfo(data));
+               break;
+            }
+            case JournalImpl.UPDATE_RECORD_TX:
+            {
+               reader.onReadUpdateRecordTX(transactionID, toRecordInfo(data));
+               break;
+            }
+            case JournalImpl.DELETE_RECORD_TX:
+            {
+               reader.onReadDeleteRecordTX(transactionID, toRecordInfo(data));
+               break;
+            }
+            case JournalImpl.PREPARE_RECORD:
+            {
+               reader.onReadPrepareRecord(transactionID, this.data, numberOfRecords);
+               break;
+            }
+            default:
+            {
+               throw new IllegalStateException("Invalid pending record type " + recordType);
+            }
+         }
+      }
+   }
+
+   interface EntryHandler
+   {
+      void handle(Entry entry) throws Exception;
+   }
+
+   /**
+    * Writes a segment at the end of a log.
+    */
+   private static final class LogWriter
+   {
+      private final RandomAccessFile randomFile;
+
+      private final BufferedOutputStream buffered;
+
+      private final CheckedOutputStream checked;
+
+      private final DataOutputStream output;
+
+      private int entries;
+
+      /**
+       * @param length the length of the log to keep, anything after it is dropped. The log is started when it is 0.
+       */
+      LogWriter(final File file, final long logID, final long length) throws IOException
+      {
+         randomFile = new RandomAccessFile(file, "rw");
+
+         if (randomFile.length() < length)
+         {
+            randomFile.close();
+            throw new IOException("Journal snapshot log " + file + " is shorter than its snapshot");
+         }
+
+         randomFile.setLength(length);
+         randomFile.seek(length);
+
+         buffered = new BufferedOutputStream(Channels.newOutputStream(randomFile.getChannel()));
+
+         if (length == 0)
+         {
+            DataOutputStream header = new DataOutputStream(buffered);
+            header.writeInt(LOG_MAGIC);
+            header.writeLong(logID);
+         }
+
+         checked = new CheckedOutputStream(buffered, new CRC32());
+
+         output = new DataOutputStream(checked);
+      }
+
+      void write(final Entry entry) throws IOException
+      {
+         writeEntry(output, entry);
+         entries++;
+      }
+
+      int getEntries()
+      {
+         return entries;
+      }
+
+      /**
+       * Ends the segment with its checksum, and syncs the log to the disk.
+       * @return the length of the log
+       */
+      long finish() throws IOException
+      {
+         output.writeByte(END_OF_SEGMENT);
+         output.flush();
+
+         DataOutputStream checksumOutput = new DataOutputStream(buffered);
+         checksumOutput.writeLong(checked.getChecksum().getValue());
+         checksumOutput.flush();
+
+         randomFile.getFD().sync();
+
+         return randomFile.length();
+      }
+
+      void close() throws IOException
+      {
+         randomFile.close();
+      }
+   }
+
+   /**
+    * Reads the data of the entries back from the journal files.
+    */
+   static final class DataReader
+   {
+      private final String directory;
+
+      private final JournalFile[] files;
+
+      private final RecordDataTrimmer trimmer;
+
+      private final RandomAccessFile[] randomFiles;
+
+      private ByteBuffer buffer = ByteBuffer.allocate(4 * 1024);
+
+      /**
+       * @param files the journal file of each file on the snapshot, null for the ones that were reclaimed
+       * @param trimmer the trimmer of the data of the add records, or null to read them whole
+       */
+      DataReader(final String directory, final JournalFile[] files, final RecordDataTrimmer trimmer)
+      {
+         this.directory = directory;
+         this.files = files;
+         this.trimmer = trimmer;
+         randomFiles = new RandomAccessFile[files.length];
+      }
+
+      /**
+       * @return the data of the record, or null for the entries holding their data
+       */
+      byte[] read(final Entry entry) throws IOException
+      {
+         if (!entry.isPositioned())
+         {
+            return null;
+         }
+
+         RandomAccessFile randomFile = randomFiles[entry.file];
+
+         if (randomFile == null)
+         {
+            randomFile = new RandomAccessFile(new File(directory, files[entry.file].getFile().getFileName()), "r");
+            randomFiles[entry.file] = randomFile;
+         }
+
+         int length = JournalImpl.SIZE_BEFORE_ADD_DATA + entry.dataSize;
+
+         if (buffer.capacity() < length)
+         {
+            buffer = ByteBuffer.allocate(Math.max(length, buffer.capacity() * 2));
+         }
+
+         buffer.clear();
+         buffer.limit(length);
+
+         long position = entry.dataPosition - JournalImpl.SIZE_BEFORE_ADD_DATA;
+
+         while (buffer.hasRemaining())
+         {
+            if (randomFile.getChannel().read(buffer, position + buffer.position()) < 0)
+            {
+               throw new EOFException("Record " + entry.id + " is past the end of " + files[entry.file]);
+            }
+         }
+
+         buffer.flip();
+
+         if (buffer.getLong() != entry.id || buffer.getInt() != entry.dataSize)
+         {
+            throw new IOException("Record " + entry.id + " is no longer on " + files[entry.file]);
+         }
+
+         // the user record type
+         buffer.get();
+
+         byte[] data = null;
+
+         if (trimmer != null &&
+             (entry.recordType == JournalImpl.ADD_RECORD || entry.recordType == JournalImpl.ADD_RECORD_TX))
+         {
+            data = trimmer.trim(entry.userRecordType, buffer.slice());
+         }
+
+         if (data == null)
+         {
+            data = new byte[entry.dataSize];
+            buffer.get(data);
+         }
+
+         return data;
+      }
+
+      void close()
+      {
+         for (RandomAccessFile randomFile : randomFiles)
+         {
+            if (randomFile != null)
+            {
+               try
+               {
+                  randomFile.close();
+               }
+               catch (IOException e)
+               {
+                  HornetQJournalLogger.LOGGER.errorReadingFile(e);
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * Passes the records read for a checkpoint on to the journal building the snapshot, and keeps the records of the
+    * transactions still open, so the {@link Loader} knows where the records of a transaction are once it is committed.
+    */
+   static final class Recorder implements JournalReaderCallback
+   {
+      private final Map<Long, List<Entry>> transactions = new LinkedHashMap<Long, List<Entry>>();
+
+      private final Map<RecordInfo, Entry> transactionRecords = new IdentityHashMap<RecordInfo, Entry>();
+
+      private JournalReaderCallback reader;
+
+      private int file;
+
+      /**
+       * @param file the index of the file being read on the snapshot
+       * @param reader the reader of the journal building the snapshot for this file
+       */
+      void setFile(final int file, final JournalReaderCallback reader)
+      {
+         this.file = file;
+         this.reader = reader;
+      }
+
+      int getFile()
+      {
+         return file;
+      }
+
+      /**
+       * @return the entry of a record of an open transaction, or null if the record is not on a transaction
+       */
+      Entry getTransactionEntry(final RecordInfo info)
+      {
+         return transactionRecords.get(info);
+      }
+
+      List<Entry> getPendingEntries()
+      {
+         List<Entry> entries = new ArrayList<Entry>();
+
+         for (List<Entry> transactionEntries : transactions.values())
+         {
+            entries.addAll(transactionEntries);
+         }
+
+         return entries;
+      }
+
+      public void onReadAddRecord(final RecordInfo info) throws Exception
+      {
+         reader.onReadAddRecord(info);
+      }
+
+      public void onReadUpdateRecord(final RecordInfo info) throws Exception
+      {
+         reader.onReadUpdateRecord(info);
+      }
+
+      public void onReadDeleteRecord(final long recordID) throws Exception
+      {
+         reader.onReadDeleteRecord(recordID);
+      }
+
+      public void onReadAddRecordTX(final long transactionID, final RecordInfo info) throws Exception
+      {
+         addPending(transactionID, new Entry(JournalImpl.ADD_RECORD_TX, file, info), info);
+         reader.onReadAddRecordTX(transactionID, info);
+      }
+
+      public void onReadUpdateRecordTX(final long transactionID, final RecordInfo info) throws Exception
+      {
+         addPending(transactionID, new Entry(JournalImpl.UPDATE_RECORD_TX, file, info), info);
+         reader.onReadUpdateRecordTX(transactionID, info);
+      }
+
+      public void onReadDeleteRecordTX(final long transactionID, final RecordInfo info) throws Exception
+      {
+         addPending(transactionID, new Entry(JournalImpl.DELETE_RECORD_TX, file, info), info);
+         reader.onReadDeleteRecordTX(transactionID, info);
+      }
+
+      public void onReadPrepareRecord(final long transactionID, final byte[] extraData, final int numberOfRecords) throws Exception
+      {
+         Entry entry = new Entry(JournalImpl.PREPARE_RECORD, 0);
+         entry.file = file;
+         entry.data = extraData;
+         entry.numberOfRecords = numberOfRecords;
+         addPending(transactionID, entry, null);
+         reader.onReadPrepareRecord(transactionID, extraData, numberOfRecords);
+      }
+
+      public void onReadCommitRecord(final long transactionID, final int numberOfRecords) throws Exception
+      {
+         reader.onReadCommitRecord(transactionID, numberOfRecords);
+         endTransaction(transactionID);
+      }
+
+      public void onReadRollbackRecord(final long transactionID) throws Exception
+      {
+         reader.onReadRollbackRecord(transactionID);
+         endTransaction(transactionID);
+      }
+
+      public void markAsDataFile(final JournalFile file)
+      {
+         reader.markAsDataFile(file);
+      }
+
+      private void addPending(final long transactionID, final Entry entry, final RecordInfo info)
+      {
+         entry.transactionID = transactionID;
+         entry.info = info;
+
+         List<Entry> entries = transactions.get(transactionID);
+
+         if (entries == null)
+         {
+            entries = new ArrayList<Entry>();
+            transactions.put(transactionID, entries);
+         }
+
+         entries.add(entry);
+
+         if (info != null)
+         {
+            transactionRecords.put(info, entry);
+         }
+      }
+
+      private void endTransaction(final long transactionID)
+      {
+         List<Entry> entries = transactions.remove(transactionID);
+
+         if (entries != null)
+         {
+            for (Entry entry : entries)
+            {
+               if (entry.info != null)
+               {
+                  transactionRecords.remove(entry.info);
+                  entry.info = null;
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * Keeps the committed records given by the load as the entries of a segment of the log. The records both added and
+    * deleted on the segment are left out of it.
+    */
+   static final class Loader implements LoaderCallback
+   {
+      private final Recorder recorder;
+
+      private final List<Entry> entries = new ArrayList<Entry>();
+
+      // The add and update entries of the records, while they are live
+      private final Map<Long, List<Entry>> recordEntries = new HashMap<Long, List<Entry>>();
+
+      // The records added on the segment and still live
+      private final Set<Long> addedRecords = new HashSet<Long>();
+
+      private final Set<Entry> deletedEntries = new HashSet<Entry>();
+
+      Loader(final Recorder recorder)
+      {
+         this.recorder = recorder;
+      }
+
+      List<Entry> getEntries()
+      {
+         List<Entry> liveEntries = new ArrayList<Entry>(entries.size() - deletedEntries.size());
+
+         for (Entry entry : entries)
+         {
+            if (!deletedEntries.contains(entry))
+            {
+               liveEntries.add(entry);
+            }
+         }
+
+         return liveEntries;
+      }
+
+      public void addRecord(final RecordInfo info)
+      {
+         add(JournalImpl.ADD_RECORD, info);
+         addedRecords.add(info.id);
+      }
+
+      public void updateRecord(final RecordInfo info)
+      {
+         add(JournalImpl.UPDATE_RECORD, info);
+      }
+
+      public void deleteRecord(final long id)
+      {
+         List<Entry> deleted = recordEntries.remove(id);
+
+         if (deleted != null)
+         {
+            deletedEntries.addAll(deleted);
+         }
+
+         if (!addedRecords.remove(id))
+         {
+            // the record was added before the segment
+            entries.add(new Entry(JournalImpl.DELETE_RECORD, id));
+         }
+      }
+
+      public void addPreparedTransaction(final PreparedTransactionInfo preparedTransaction)
+      {
+      }
+
+      public void failedTransaction(final long transactionID,
+                                    final List<RecordInfo> records,
+                                    final List<RecordInfo> recordsToDelete)
+      {
+      }
+
+      private void add(final byte recordType, final RecordInfo info)
+      {
+         Entry entry = recorder.getTransactionEntry(info);
+
+         if (entry == null)
+         {
+            entry = new Entry(recordType, recorder.getFile(), info);
+         }
+
+         entries.add(entry);
+
+         List<Entry> added = recordEntries.get(info.id);
+
+         if (added == null)
+         {
+            added = new ArrayList<Entry>(1);
+            recordEntries.put(info.id, added);
+         }
+
+         added.add(entry);
+      }
+   }
+}
@@ -219,6 +219,14 @@ public class JournalTransaction
    }
 
    public void addPositive(final JournalFile file, final long id, final int size)
+   {
+      addPositive(file, id, size, -1);
+   }
+
+   /**
+    * @param dataPosition the position of the data of the record on the file, or -1 if it is not known
+    */
+   public void addPositive(final JournalFile file, final long id, final int size, final int dataPosition)
    {
       incCounter(file);
 
@@ -229,7 +237,7 @@ public class JournalTransaction
          pos = new ArrayList<JournalUpdate>();
       }
 
-      pos.add(new JournalUpdate(file, id, size));
+      pos.add(new JournalUpdate(file, id, size, dataPosition));
    }
 
    public void addNegative(final JournalFile file, final long id)
@@ -243,7 +251,7 @@ public class JournalTransaction
          neg = new ArrayList<JournalUpdate>();
       }
 
-      neg.add(new JournalUpdate(file, id, 0));
+      neg.add(new JournalUpdate(file, id, 0, -1));
    }
 
    /**
@@ -275,7 +283,7 @@ public class JournalTransaction
                }
                else if (posFiles == null)
                {
-                  posFiles = new JournalRecord(trUpdate.file, trUpdate.size);
+                  posFiles = new JournalRecord(trUpdate.file, trUpdate.size, trUpdate.dataPosition);
 
                   journal.getRecords().put(trUpdate.id, posFiles);
                }
@@ -433,17 +441,20 @@ public class JournalTransaction
 
       int size;
 
+      final int dataPosition;
+
       /**
        * @param file
        * @param id
        * @param size
        */
-      private JournalUpdate(final JournalFile file, final long id, final int size)
+      private JournalUpdate(final JournalFile file, final long id, final int size, final int dataPosition)
       {
          super();
          this.file = file;
          this.id = id;
          this.size = size;
+         this.dataPosition = dataPosition;
       }
 
       /**
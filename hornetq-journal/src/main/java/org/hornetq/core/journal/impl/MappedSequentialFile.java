@@ -0,0 +1,494 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.journal.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.hornetq.api.core.HornetQExceptionType;
+import org.hornetq.core.journal.IOAsyncTask;
+import org.hornetq.core.journal.SequentialFile;
+import org.hornetq.core.journal.SequentialFileFactory;
+import org.hornetq.journal.HornetQJournalBundle;
+import org.hornetq.journal.HornetQJournalLogger;
+
+/**
+ * A SequentialFile writing through a {@link MappedByteBuffer}.
+ * <p>
+ * A write is a copy into the mapped region, so it costs no system call. Only syncs reach the disk, through
+ * {@link MappedByteBuffer#force()}, and when the file is used with a {@link TimedBuffer} they are batched by it the
+ * same way they are for NIO and AIO. Reads go through the {@link FileChannel}, which sees the same page cache.
+ * <p>
+ * Journal files are pre-allocated with {@link #fill(int, int, byte)} so they are mapped once. Files written past their
+ * size (page files) have their mapping grown in chunks, and are truncated back to the written size when closed.
+ */
+public class MappedSequentialFile extends AbstractSequentialFile
+{
+   /** Growth of the mapping when writing past the end of the file */
+   private static final int MIN_GROWTH = 1024 * 1024;
+
+   private FileChannel channel;
+
+   private RandomAccessFile rfile;
+
+   private MappedByteBuffer mappedBuffer;
+
+   /** Equivalent of the channel position on NIOSequentialFile, shared by reads and writes */
+   private long filePosition;
+
+   /** The size of the file as seen by the users, the mapping may be larger than this */
+   private long logicalSize;
+
+   /** The write semaphore here is only used when syncing asynchronously */
+   private Semaphore maxIOSemaphore;
+
+   private final int defaultMaxIO;
+
+   private int maxIO;
+
+   public MappedSequentialFile(final SequentialFileFactory factory,
+                               final String directory,
+                               final String fileName,
+                               final int maxIO,
+                               final Executor writerExecutor)
+   {
+      super(directory, new File(directory + "/" + fileName), factory, writerExecutor);
+      defaultMaxIO = maxIO;
+   }
+
+   public MappedSequentialFile(final SequentialFileFactory factory,
+                               final File file,
+                               final int maxIO,
+                               final Executor writerExecutor)
+   {
+      super(file.getParent(), new File(file.getPath()), factory, writerExecutor);
+      defaultMaxIO = maxIO;
+   }
+
+   public int getAlignment()
+   {
+      return 1;
+   }
+
+   public int calculateBlockStart(final int position) throws Exception
+   {
+      return position;
+   }
+
+   public synchronized boolean isOpen()
+   {
+      return channel != null;
+   }
+
+   public synchronized void open() throws Exception
+   {
+      open(defaultMaxIO, true);
+   }
+
+   public synchronized void open(final int maxIO, final boolean useExecutor) throws Exception
+   {
+      try
+      {
+         rfile = new RandomAccessFile(getFile(), "rw");
+
+         channel = rfile.getChannel();
+
+         fileSize = channel.size();
+
+         logicalSize = fileSize;
+
+         filePosition = 0;
+      }
+      catch (IOException e)
+      {
+         factory.onIOError(HornetQExceptionType.IO_ERROR, e.getMessage(), this);
+         throw e;
+      }
+
+      if (writerExecutor != null && useExecutor)
+      {
+         maxIOSemaphore = new Semaphore(maxIO);
+         this.maxIO = maxIO;
+      }
+   }
+
+   public synchronized void fill(final int position, final int size, final byte fillCharacter) throws Exception
+   {
+      ByteBuffer bb = ByteBuffer.allocate(size);
+
+      for (int i = 0; i < size; i++)
+      {
+         bb.put(fillCharacter);
+      }
+
+      bb.flip();
+
+      // The file is being initialized, the mapping is created again on the next write
+      mappedBuffer = null;
+
+      channel.write(bb, position);
+
+      channel.force(false);
+
+      filePosition = 0;
+
+      fileSize = channel.size();
+
+      logicalSize = fileSize;
+   }
+
+   public synchronized void waitForClose() throws Exception
+   {
+      while (isOpen())
+      {
+         wait();
+      }
+   }
+
+   @Override
+   public synchronized void close() throws Exception
+   {
+      super.close();
+
+      if (maxIOSemaphore != null)
+      {
+         while (!maxIOSemaphore.tryAcquire(maxIO, 60, TimeUnit.SECONDS))
+         {
+            HornetQJournalLogger.LOGGER.errorClosingFile(getFileName());
+         }
+      }
+
+      maxIOSemaphore = null;
+
+      if (channel != null)
+      {
+         unmap();
+
+         if (channel.size() > logicalSize)
+         {
+            // Remove what was added by growing the mapping
+            channel.truncate(logicalSize);
+         }
+
+         channel.close();
+      }
+
+      if (rfile != null)
+      {
+         rfile.close();
+      }
+
+      channel = null;
+
+      rfile = null;
+
+      notifyAll();
+   }
+
+   public int read(final ByteBuffer bytes) throws Exception
+   {
+      return read(bytes, null);
+   }
+
+   public synchronized int read(final ByteBuffer bytes, final IOAsyncTask callback) throws Exception
+   {
+      try
+      {
+         if (channel == null)
+         {
+            throw new Exception("File " + this.getFileName() + " has a null channel");
+         }
+
+         // The mapping may have grown the file past the written data
+         long available = logicalSize - filePosition;
+
+         int bytesRead = -1;
+
+         if (available > 0)
+         {
+            if (bytes.remaining() > available)
+            {
+               bytes.limit(bytes.position() + (int)available);
+            }
+
+            bytesRead = channel.read(bytes, filePosition);
+
+            if (bytesRead > 0)
+            {
+               filePosition += bytesRead;
+            }
+         }
+
+         if (callback != null)
+         {
+            callback.done();
+         }
+
+         bytes.flip();
+
+         return bytesRead;
+      }
+      catch (IOException e)
+      {
+         if (callback != null)
+         {
+            callback.onError(HornetQExceptionType.IO_ERROR.getCode(), e.getLocalizedMessage());
+         }
+
+         factory.onIOError(HornetQExceptionType.IO_ERROR, e.getMessage(), this);
+
+         throw e;
+      }
+   }
+
+   public synchronized void sync() throws IOException
+   {
+      if (mappedBuffer != null)
+      {
+         mappedBuffer.force();
+      }
+   }
+
+   public synchronized long size() throws Exception
+   {
+      if (channel == null)
+      {
+         return getFile().length();
+      }
+      else
+      {
+         return logicalSize;
+      }
+   }
+
+   @Override
+   public synchronized void position(final long pos) throws Exception
+   {
+      super.position(pos);
+      filePosition = pos;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "MappedSequentialFile " + getFile();
+   }
+
+   public SequentialFile cloneFile()
+   {
+      return new MappedSequentialFile(factory, getFile(), maxIO, writerExecutor);
+   }
+
+   public void writeDirect(final ByteBuffer bytes, final boolean sync, final IOAsyncTask callback)
+   {
+      if (callback == null)
+      {
+         throw new NullPointerException("callback parameter need to be set");
+      }
+
+      try
+      {
+         internalWrite(bytes, sync, callback);
+      }
+      catch (Exception e)
+      {
+         callback.onError(HornetQExceptionType.GENERIC_EXCEPTION.getCode(), e.getMessage());
+      }
+   }
+
+   public void writeDirect(final ByteBuffer bytes, final boolean sync) throws Exception
+   {
+      internalWrite(bytes, sync, null);
+   }
+
+   public void writeInternal(final ByteBuffer bytes) throws Exception
+   {
+      internalWrite(bytes, true, null);
+   }
+
+   @Override
+   protected ByteBuffer newBuffer(int size, final int limit)
+   {
+      // Just like NIO, the buffer is copied so it doesn't need to be the entire size of the timed buffer
+      size = limit;
+
+      return super.newBuffer(size, limit);
+   }
+
+   private void internalWrite(final ByteBuffer bytes, final boolean sync, final IOAsyncTask callback) throws Exception
+   {
+      if (!isOpen())
+      {
+         if (callback != null)
+         {
+            callback.onError(HornetQExceptionType.IO_ERROR.getCode(), "File not opened");
+         }
+         else
+         {
+            throw HornetQJournalBundle.BUNDLE.fileNotOpened();
+         }
+         return;
+      }
+
+      position.addAndGet(bytes.limit());
+
+      final MappedByteBuffer written;
+
+      try
+      {
+         written = copyToMapping(bytes);
+      }
+      catch (IOException e)
+      {
+         factory.onIOError(HornetQExceptionType.IO_ERROR, e.getMessage(), this);
+         if (callback != null)
+         {
+            callback.onError(HornetQExceptionType.IO_ERROR.getCode(), e.getMessage());
+         }
+         return;
+      }
+
+      if (maxIOSemaphore == null || callback == null)
+      {
+         // if maxIOSemaphore == null, that means we are not using executors and the writes are synchronous
+         if (sync)
+         {
+            written.force();
+         }
+
+         if (callback != null)
+         {
+            callback.done();
+         }
+      }
+      else
+      {
+         // The data is already on the page cache, the executor is only used for the sync and to keep the callbacks
+         // ordered
+         maxIOSemaphore.acquire();
+
+         writerExecutor.execute(new Runnable()
+         {
+            public void run()
+            {
+               try
+               {
+                  if (sync)
+                  {
+                     written.force();
+                  }
+                  callback.done();
+               }
+               catch (Throwable e)
+               {
+                  HornetQJournalLogger.LOGGER.errorSubmittingWrite(e);
+                  callback.onError(HornetQExceptionType.IO_ERROR.getCode(), e.getMessage());
+               }
+               finally
+               {
+                  maxIOSemaphore.release();
+               }
+            }
+         });
+      }
+   }
+
+   /**
+    * @return the mapping holding the bytes, a later write may replace the mapping if the file grows
+    */
+   private synchronized MappedByteBuffer copyToMapping(final ByteBuffer bytes) throws IOException
+   {
+      int length = bytes.remaining();
+
+      long end = filePosition + length;
+
+      if (mappedBuffer == null || end > mappedBuffer.capacity())
+      {
+         map(end);
+      }
+
+      mappedBuffer.position((int)filePosition);
+      mappedBuffer.put(bytes);
+
+      filePosition = end;
+
+      if (end > logicalSize)
+      {
+         logicalSize = end;
+      }
+
+      return mappedBuffer;
+   }
+
+   private void map(final long requiredSize) throws IOException
+   {
+      long size = Math.max(requiredSize, channel.size());
+
+      if (mappedBuffer != null && size > channel.size())
+      {
+         // growing: leave room for the next writes
+         size = Math.max(size, mappedBuffer.capacity() + Math.max(MIN_GROWTH, mappedBuffer.capacity() / 2));
+      }
+
+      if (size > Integer.MAX_VALUE)
+      {
+         throw new IOException("File " + getFileName() + " is too large to be mapped: " + size);
+      }
+
+      // A previous mapping is not unmapped here, as a pending sync may still be using it. The GC will release it.
+      mappedBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+   }
+
+   private void unmap()
+   {
+      if (mappedBuffer != null)
+      {
+         MappedByteBuffer buffer = mappedBuffer;
+         mappedBuffer = null;
+         MappedSequentialFile.release(buffer);
+      }
+   }
+
+   /**
+    * Releases the mapping right away instead of waiting for the GC, otherwise the file can't be truncated or deleted on
+    * some platforms. There's no public API for this, so it's done on a best effort basis.
+    */
+   private static void release(final MappedByteBuffer buffer)
+   {
+      try
+      {
+         Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+         cleanerMethod.setAccessible(true);
+         Object cleaner = cleanerMethod.invoke(buffer);
+         if (cleaner != null)
+         {
+            Method cleanMethod = cleaner.getClass().getMethod("clean");
+            cleanMethod.setAccessible(true);
+            cleanMethod.invoke(cleaner);
+         }
+      }
+      catch (Throwable e)
+      {
+         // Not available on this VM, the mapping will be released by the GC
+      }
+   }
+}
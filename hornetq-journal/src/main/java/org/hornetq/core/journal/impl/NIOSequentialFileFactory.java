@@ -78,7 +78,18 @@ public class NIOSequentialFileFactory extends AbstractSequentialFileFactory impl
                                    final boolean logRates,
                                    final IOCriticalErrorListener listener)
    {
-      super(journalDir, buffered, bufferSize, bufferTimeout, logRates, listener);
+      this(journalDir, buffered, bufferSize, bufferTimeout, logRates, false, listener);
+   }
+
+   public NIOSequentialFileFactory(final String journalDir,
+                                   final boolean buffered,
+                                   final int bufferSize,
+                                   final int bufferTimeout,
+                                   final boolean logRates,
+                                   final boolean lockFreeBuffer,
+                                   final IOCriticalErrorListener listener)
+   {
+      super(journalDir, buffered, bufferSize, bufferTimeout, logRates, lockFreeBuffer, listener);
    }
 
    public SequentialFile createSequentialFile(final String fileName, int maxIO)
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.core.journal.impl;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hornetq.core.journal.RecordDataTrimmer;
+import org.hornetq.core.journal.SequentialFileFactory;
+
+/**
+ * Reads the files of a journal ahead of their load, on a number of threads.
+ * <p>
+ * The records read from each file are kept in memory, and given to the {@link JournalReaderCallback} of the file on
+ * {@link #readJournalFile(JournalFile, JournalReaderCallback)}, in the same order
+ * {@link JournalImpl#readJournalFile(SequentialFileFactory, JournalFile, JournalReaderCallback)} would give them. The
+ * files must be loaded in the order they were given, and no more than {@code prefetch} files are read ahead of the one
+ * being loaded.
+ * <p>
+ * The threads are stopped after the last file is loaded or when a file fails, and they time out if the load is
+ * abandoned halfway.
+ */
+final class ParallelJournalReader
+{
+   private final SequentialFileFactory fileFactory;
+
+   private final List<JournalFile> files;
+
+   private final int prefetch;
+
+   private final RecordDataTrimmer trimmer;
+
+   private final ThreadPoolExecutor executor;
+
+   // The files being read, in the order of files
+   private final LinkedList<Future<JournalFileRecorder>> pending = new LinkedList<Future<JournalFileRecorder>>();
+
+   private int nextRead;
+
+   private int nextLoad;
+
+   ParallelJournalReader(final SequentialFileFactory fileFactory,
+                         final List<JournalFile> files,
+                         final int threads,
+                         final int prefetch,
+                         final RecordDataTrimmer trimmer)
+   {
+      this.fileFactory = fileFactory;
+      this.files = files;
+      this.prefetch = Math.max(1, prefetch);
+      this.trimmer = trimmer;
+
+      final AtomicInteger threadCount = new AtomicInteger();
+
+      executor = new ThreadPoolExecutor(threads,
+                                        threads,
+                                        10,
+                                        TimeUnit.SECONDS,
+                                        new LinkedBlockingQueue<Runnable>(),
+                                        new ThreadFactory()
+                                        {
+                                           public Thread newThread(final Runnable r)
+                                           {
+                                              Thread thread = new Thread(r, "JournalImpl::LoadReader-" +
+                                                                            threadCount.incrementAndGet());
+                                              thread.setDaemon(true);
+                                              return thread;
+                                           }
+                                        });
+
+      executor.allowCoreThreadTimeOut(true);
+
+      while (nextRead < files.size() && pending.size() < this.prefetch)
+      {
+         readNext();
+      }
+   }
+
+   /**
+    * Gives the records of the file to the reader, waiting for the file to be read if needed.
+    * @return the position after the last valid record of the file
+    */
+   public int readJournalFile(final JournalFile file, final JournalReaderCallback reader) throws Exception
+   {
+      if (nextLoad >= files.size() || files.get(nextLoad) != file)
+      {
+         throw new IllegalStateException("Journal file " + file + " is not the next one to load");
+      }
+
+      nextLoad++;
+
+      Future<JournalFileRecorder> future = pending.removeFirst();
+
+      if (nextRead < files.size())
+      {
+         readNext();
+      }
+
+      try
+      {
+         JournalFileRecorder readFile = future.get();
+
+         readFile.replay(reader);
+
+         if (nextLoad == files.size())
+         {
+            executor.shutdown();
+         }
+
+         return readFile.lastDataPos;
+      }
+      catch (ExecutionException e)
+      {
+         stop();
+
+         if (e.getCause() instanceof Exception)
+         {
+            throw (Exception)e.getCause();
+         }
+         throw new Exception(e.getCause().getMessage(), e.getCause());
+      }
+      catch (Exception e)
+      {
+         stop();
+
+         throw e;
+      }
+   }
+
+   // Private -------------------------------------------------------
+
+   private void stop()
+   {
+      for (Future<JournalFileRecorder> future : pending)
+      {
+         future.cancel(false);
+      }
+
+      pending.clear();
+
+      executor.shutdown();
+   }
+
+   private void readNext()
+   {
+      final JournalFile file = files.get(nextRead++);
+
+      pending.add(executor.submit(new Callable<JournalFileRecorder>()
+      {
+         public JournalFileRecorder call() throws Exception
+         {
+            JournalFileRecorder readFile = new JournalFileRecorder();
+
+            readFile.lastDataPos = JournalImpl.readJournalFile(fileFactory, file, readFile, trimmer);
+
+            return readFile;
+         }
+      }));
+   }
+}
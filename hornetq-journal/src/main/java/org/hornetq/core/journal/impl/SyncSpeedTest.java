@@ -55,12 +55,19 @@ public class SyncSpeedTest
 
    public boolean AIO = true;
 
+   /** Only used when AIO is false, writing through memory mapped files instead of NIO */
+   public boolean MAPPED = false;
+
    protected void setupFactory()
    {
       if (AIO)
       {
          fileFactory = new AIOSequentialFileFactory(".", 0, 0, false, null);
       }
+      else if (MAPPED)
+      {
+         fileFactory = new MappedSequentialFileFactory(".", false, 0, 0, false, null);
+      }
       else
       {
          fileFactory = new NIOSequentialFileFactory(".", false, 0, 0, false, null);
@@ -81,6 +88,10 @@ public class SyncSpeedTest
                                       null,
                                       Executors.newSingleThreadExecutor());
       }
+      else if (MAPPED)
+      {
+         return new MappedSequentialFile(fileFactory, new File(fileName), 1000, null);
+      }
       else
       {
          return new NIOSequentialFile(fileFactory, new File(fileName), 1000, null);
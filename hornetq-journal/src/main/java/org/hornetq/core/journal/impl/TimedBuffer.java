@@ -20,7 +20,11 @@ import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.hornetq.api.core.HornetQBuffer;
 import org.hornetq.api.core.HornetQBuffers;
@@ -31,6 +35,12 @@ import org.hornetq.journal.HornetQJournalLogger;
 
 /**
  * A TimedBuffer
+ * <p>
+ * By default all the operations are synchronized on the buffer. On the lock free mode producers reserve their space with
+ * a CAS on a write cursor and encode their records in parallel, while a single flusher (the timer, or whoever finds
+ * the buffer full) waits for the reserved regions to be complete and passes them to the observer. There are two
+ * batches, so producers keep appending to one while the other is being flushed. Callbacks are kept on the order of
+ * the reservations, which is also the order of the bytes on the file.
  *
  * @author <a href="mailto:clebert.suconic@jboss.org">Clebert Suconic</a>
  * @author <a href="mailto:tim.fox@jboss.com">Tim Fox</a>
@@ -39,6 +49,25 @@ import org.hornetq.journal.HornetQJournalLogger;
 public class TimedBuffer
 {
    // Constants -----------------------------------------------------
+
+   // Layout of Batch.reservation: bytes reserved on the low 32 bits, then the number of records, the generation of the
+   // batch (so a producer holding an old reading can't reserve on a batch that was recycled), and the sealed flag
+
+   private static final int RECORDS_SHIFT = 32;
+
+   private static final long MAX_RECORDS = (1L << 20) - 1;
+
+   private static final int GENERATION_SHIFT = 52;
+
+   private static final long GENERATION_MASK = (1L << 11) - 1;
+
+   private static final long SEALED = Long.MIN_VALUE;
+
+   // Callbacks are kept on chunks, allocated as the batches get more records
+   private static final int CALLBACKS_CHUNK_SHIFT = 10;
+
+   private static final int CALLBACKS_CHUNK_SIZE = 1 << CALLBACKS_CHUNK_SHIFT;
+
    // Attributes ----------------------------------------------------
 
    private TimedBufferObserver bufferObserver;
@@ -88,6 +117,19 @@ public class TimedBuffer
 
    private boolean spinning = false;
 
+   // lock free mode
+
+   private final boolean lockFree;
+
+   // Only one thread flushes at a time, producers don't use this lock
+   private final ReentrantLock flushLock;
+
+   private volatile Batch activeBatch;
+
+   private Batch spareBatch;
+
+   private final AtomicBoolean spinningLockFree = new AtomicBoolean(false);
+
    // Static --------------------------------------------------------
 
    // Constructors --------------------------------------------------
@@ -95,9 +137,16 @@ public class TimedBuffer
    // Public --------------------------------------------------------
 
    public TimedBuffer(final int size, final int timeout, final boolean logRates)
+   {
+      this(size, timeout, logRates, false);
+   }
+
+   public TimedBuffer(final int size, final int timeout, final boolean logRates, final boolean lockFree)
    {
       bufferSize = size;
 
+      this.lockFree = lockFree;
+
       this.logRates = logRates;
 
       if (logRates)
@@ -106,15 +155,45 @@ public class TimedBuffer
       }
       // Setting the interval for nano-sleeps
 
-      buffer = HornetQBuffers.fixedBuffer(bufferSize);
+      if (lockFree)
+      {
+         // the batches hold the data
+         buffer = null;
+      }
+      else
+      {
+         buffer = HornetQBuffers.fixedBuffer(bufferSize);
 
-      buffer.clear();
+         buffer.clear();
+      }
 
       bufferLimit = 0;
 
       callbacks = new ArrayList<IOAsyncTask>();
 
       this.timeout = timeout;
+
+      if (lockFree)
+      {
+         flushLock = new ReentrantLock();
+
+         int maxRecords = (int)Math.min(MAX_RECORDS, size);
+
+         spareBatch = new Batch(size, maxRecords);
+
+         activeBatch = new Batch(size, maxRecords);
+
+         activeBatch.activate(1, -1);
+      }
+      else
+      {
+         flushLock = null;
+      }
+   }
+
+   public boolean isLockFree()
+   {
+      return lockFree;
    }
 
    public synchronized void start()
@@ -183,21 +262,30 @@ public class TimedBuffer
       started = false;
    }
 
-   public synchronized void setObserver(final TimedBufferObserver observer)
+   public void setObserver(final TimedBufferObserver observer)
    {
-      if (bufferObserver != null)
+      if (lockFree)
       {
-         flush();
+         flushLockFree(true, observer);
+         return;
       }
 
-      bufferObserver = observer;
+      synchronized (this)
+      {
+         if (bufferObserver != null)
+         {
+            flush();
+         }
+
+         bufferObserver = observer;
+      }
    }
 
    /**
     * Verify if the size fits the buffer
     * @param sizeChecked
     */
-   public synchronized boolean checkSize(final int sizeChecked)
+   public boolean checkSize(final int sizeChecked)
    {
       if (!started)
       {
@@ -210,6 +298,19 @@ public class TimedBuffer
                                          ") on the journal");
       }
 
+      if (lockFree)
+      {
+         return checkSizeLockFree(sizeChecked);
+      }
+
+      synchronized (this)
+      {
+         return checkSizeSynchronized(sizeChecked);
+      }
+   }
+
+   private boolean checkSizeSynchronized(final int sizeChecked)
+   {
       if (bufferLimit == 0 || buffer.writerIndex() + sizeChecked > bufferLimit)
       {
          // Either there is not enough space left in the buffer for the sized record
@@ -244,18 +345,75 @@ public class TimedBuffer
       }
    }
 
-   public synchronized void addBytes(final HornetQBuffer bytes, final boolean sync, final IOAsyncTask callback)
+   public void addBytes(final HornetQBuffer bytes, final boolean sync, final IOAsyncTask callback)
    {
       addBytes(new ByteArrayEncoding(bytes.toByteBuffer().array()), sync, callback);
    }
 
-   public synchronized void addBytes(final EncodingSupport bytes, final boolean sync, final IOAsyncTask callback)
+   public void addBytes(final EncodingSupport bytes, final boolean sync, final IOAsyncTask callback)
    {
       if (!started)
       {
          throw new IllegalStateException("TimedBuffer is not started");
       }
 
+      if (lockFree)
+      {
+         if (!addBytesLockFree(bytes, sync, callback))
+         {
+            throw new IllegalStateException("There is no space left on the file for a record of " +
+                                            bytes.getEncodeSize() +
+                                            " bytes, checkSize should be called before addBytes");
+         }
+      }
+      else
+      {
+         addBytesSynchronized(bytes, sync, callback);
+      }
+   }
+
+   /**
+    * Adds the bytes only if they fit on the file, checking the size and adding them in a single step. On the lock free
+    * mode several producers may call it at once, as none of them can take the space another one checked.
+    * @return false if there is no space left on the file for the record
+    */
+   public boolean tryAddBytes(final EncodingSupport bytes, final boolean sync, final IOAsyncTask callback)
+   {
+      if (!started)
+      {
+         throw new IllegalStateException("TimedBuffer is not started");
+      }
+
+      if (bytes.getEncodeSize() > bufferSize)
+      {
+         throw new IllegalStateException("Can't write records bigger than the bufferSize(" + bufferSize +
+                                         ") on the journal");
+      }
+
+      if (lockFree)
+      {
+         return addBytesLockFree(bytes, sync, callback);
+      }
+
+      synchronized (this)
+      {
+         if (!checkSizeSynchronized(bytes.getEncodeSize()))
+         {
+            delayFlush = false;
+
+            return false;
+         }
+
+         addBytesSynchronized(bytes, sync, callback);
+
+         return true;
+      }
+   }
+
+   private synchronized void addBytesSynchronized(final EncodingSupport bytes,
+                                                  final boolean sync,
+                                                  final IOAsyncTask callback)
+   {
       delayFlush = false;
 
       bytes.encode(buffer);
@@ -296,6 +454,18 @@ public class TimedBuffer
     * */
    public void flush(final boolean force)
    {
+      if (lockFree)
+      {
+         if (!started)
+         {
+            throw new IllegalStateException("TimedBuffer is not started");
+         }
+
+         // There's no delayFlush on the lock free mode, every reserved record is flushed
+         flushLockFree(false, null);
+         return;
+      }
+
       synchronized (this)
       {
          if (!started)
@@ -360,8 +530,323 @@ public class TimedBuffer
 
    // Private -------------------------------------------------------
 
+   private boolean checkSizeLockFree(final int sizeChecked)
+   {
+      while (true)
+      {
+         Batch batch = activeBatch;
+
+         long state = batch.reservation.get();
+
+         if (state < 0)
+         {
+            // sealed, the flusher is about to activate the other batch
+            Thread.yield();
+            continue;
+         }
+
+         int reserved = reservedBytes(state);
+
+         if (reserved + sizeChecked <= limit(batch, state) && records(state) < batch.maxRecords)
+         {
+            return true;
+         }
+
+         if (reserved == 0)
+         {
+            // an empty buffer, so it's the file that has no space left
+            return false;
+         }
+
+         flushLockFree(false, null);
+      }
+   }
+
+   /**
+    * @return false if the record doesn't fit on what is left of the file
+    */
+   private boolean addBytesLockFree(final EncodingSupport bytes, final boolean sync, final IOAsyncTask callback)
+   {
+      final int size = bytes.getEncodeSize();
+
+      Batch batch;
+
+      long state;
+
+      while (true)
+      {
+         batch = activeBatch;
+
+         state = batch.reservation.get();
+
+         if (state < 0)
+         {
+            Thread.yield();
+            continue;
+         }
+
+         int reserved = reservedBytes(state);
+
+         if (reserved + size > limit(batch, state) || records(state) >= batch.maxRecords)
+         {
+            if (reserved == 0)
+            {
+               // an empty buffer, so it's the file that has no space left
+               return false;
+            }
+
+            flushLockFree(false, null);
+            continue;
+         }
+
+         if (batch.reservation.compareAndSet(state, state + size + (1L << RECORDS_SHIFT)))
+         {
+            break;
+         }
+      }
+
+      // The region is owned by this thread now, the copy happens in parallel with the other producers
+      HornetQBuffer region = batch.buffer.slice(reservedBytes(state), size);
+
+      region.clear();
+
+      bytes.encode(region);
+
+      batch.setCallback(records(state), callback);
+
+      if (sync)
+      {
+         batch.sync = true;
+
+         if (!spinningLockFree.get() && spinningLockFree.compareAndSet(false, true))
+         {
+            spinLimiter.release();
+         }
+      }
+
+      // publishing the copy (and the callback) to the flusher
+      batch.completed.addAndGet(size);
+
+      return true;
+   }
+
+   /**
+    * @param switchObserver when true the observer is replaced after the pending records are flushed to the current one
+    */
+   private void flushLockFree(final boolean switchObserver, final TimedBufferObserver newObserver)
+   {
+      flushLock.lock();
+      try
+      {
+         // Stopping the spin before sealing: a sync added from now on will start it again
+         if (spinningLockFree.compareAndSet(true, false))
+         {
+            try
+            {
+               spinLimiter.acquire();
+            }
+            catch (InterruptedException e)
+            {
+               // Ignore
+            }
+         }
+
+         Batch batch = activeBatch;
+
+         if (!switchObserver && reservedBytes(batch.reservation.get()) == 0)
+         {
+            return;
+         }
+
+         long state;
+         do
+         {
+            state = batch.reservation.get();
+         }
+         while (!batch.reservation.compareAndSet(state, state | SEALED));
+
+         int pos = reservedBytes(state);
+
+         int records = records(state);
+
+         // Producers that reserved before the seal may still be copying their records
+         while (batch.completed.get() != pos)
+         {
+            Thread.yield();
+         }
+
+         ByteBuffer bufferToFlush = null;
+
+         if (pos > 0)
+         {
+            if (logRates)
+            {
+               bytesFlushed.addAndGet(pos);
+            }
+
+            bufferToFlush = bufferObserver.newBuffer(bufferSize, pos);
+         }
+
+         Batch next = spareBatch;
+
+         if (!switchObserver)
+         {
+            // The buffer limit is aligned to what will be written on the file (the block size on AIO), so the
+            // producers can move on to the other batch before the write
+            int remaining = bufferObserver.getRemainingBytes() - (bufferToFlush == null ? 0 : bufferToFlush.limit());
+
+            next.activate(generation(state) + 1, Math.min(remaining, bufferSize));
+
+            activeBatch = next;
+         }
+
+         if (bufferToFlush != null)
+         {
+            bufferToFlush.put(batch.buffer.toByteBuffer().array(), 0, pos);
+
+            List<IOAsyncTask> callbacksToFlush = new ArrayList<IOAsyncTask>(records);
+
+            batch.drainCallbacks(records, callbacksToFlush);
+
+            bufferObserver.flushBuffer(bufferToFlush, batch.sync, callbacksToFlush);
+
+            lastFlushTime.set(System.nanoTime());
+
+            flushesDone.incrementAndGet();
+         }
+
+         if (switchObserver)
+         {
+            bufferObserver = newObserver;
+
+            next.activate(generation(state) + 1, -1);
+
+            activeBatch = next;
+         }
+
+         // The flushed batch stays sealed until it's activated again
+         spareBatch = batch;
+      }
+      finally
+      {
+         flushLock.unlock();
+      }
+   }
+
+   /**
+    * The limit of a batch is calculated when it's first used after the observer was replaced
+    */
+   private int limit(final Batch batch, final long state)
+   {
+      int limit = batch.limit;
+
+      if (limit < 0)
+      {
+         flushLock.lock();
+         try
+         {
+            if (batch.limit < 0 && activeBatch == batch && generation(batch.reservation.get()) == generation(state))
+            {
+               batch.limit = Math.min(bufferObserver.getRemainingBytes(), bufferSize);
+            }
+            limit = batch.limit;
+         }
+         finally
+         {
+            flushLock.unlock();
+         }
+      }
+
+      return limit;
+   }
+
+   private static int reservedBytes(final long state)
+   {
+      return (int)state;
+   }
+
+   private static int records(final long state)
+   {
+      return (int)(state >>> RECORDS_SHIFT & MAX_RECORDS);
+   }
+
+   private static long generation(final long state)
+   {
+      return state >>> GENERATION_SHIFT & GENERATION_MASK;
+   }
+
+   private boolean isPendingSync()
+   {
+      return lockFree ? activeBatch.sync : pendingSync;
+   }
+
    // Inner classes -------------------------------------------------
 
+   private static final class Batch
+   {
+      private final HornetQBuffer buffer;
+
+      private final int maxRecords;
+
+      private final AtomicReferenceArray<IOAsyncTask[]> callbacks;
+
+      private final AtomicLong reservation = new AtomicLong(SEALED);
+
+      // bytes already copied by the producers, the batch can be flushed once it reaches the reserved bytes
+      private final AtomicInteger completed = new AtomicInteger(0);
+
+      private volatile boolean sync;
+
+      // -1 while unknown
+      private volatile int limit;
+
+      Batch(final int size, final int maxRecords)
+      {
+         buffer = HornetQBuffers.fixedBuffer(size);
+         this.maxRecords = maxRecords;
+         callbacks = new AtomicReferenceArray<IOAsyncTask[]>((maxRecords >>> CALLBACKS_CHUNK_SHIFT) + 1);
+      }
+
+      void setCallback(final int index, final IOAsyncTask callback)
+      {
+         int chunkIndex = index >>> CALLBACKS_CHUNK_SHIFT;
+
+         IOAsyncTask[] chunk = callbacks.get(chunkIndex);
+
+         if (chunk == null)
+         {
+            chunk = new IOAsyncTask[CALLBACKS_CHUNK_SIZE];
+
+            if (!callbacks.compareAndSet(chunkIndex, null, chunk))
+            {
+               chunk = callbacks.get(chunkIndex);
+            }
+         }
+
+         chunk[index & CALLBACKS_CHUNK_SIZE - 1] = callback;
+      }
+
+      void drainCallbacks(final int records, final List<IOAsyncTask> target)
+      {
+         for (int i = 0; i < records; i++)
+         {
+            IOAsyncTask[] chunk = callbacks.get(i >>> CALLBACKS_CHUNK_SHIFT);
+            int index = i & CALLBACKS_CHUNK_SIZE - 1;
+            target.add(chunk[index]);
+            chunk[index] = null;
+         }
+      }
+
+      void activate(final long generation, final int newLimit)
+      {
+         completed.set(0);
+         sync = false;
+         limit = newLimit;
+         // the volatile write releases the batch to the producers
+         reservation.set((generation & GENERATION_MASK) << GENERATION_SHIFT);
+      }
+   }
+
    private class LogRatesTimerTask extends TimerTask
    {
       private boolean closed;
@@ -419,7 +904,7 @@ public class TimedBuffer
             // timeout since the time of the last flush.
             // Effectively flushing "resets" the timer
 
-            if (pendingSync && bufferObserver != null && System.nanoTime() > lastFlushTime.get() + timeout)
+            if (isPendingSync() && bufferObserver != null && System.nanoTime() > lastFlushTime.get() + timeout)
             {
                flush();
             }
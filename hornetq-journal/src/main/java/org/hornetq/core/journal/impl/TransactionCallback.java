@@ -45,6 +45,15 @@ public class TransactionCallback implements IOAsyncTask
       countLatch.countUp();
    }
 
+   /**
+    * Reverts a {@link #countUp()} for a record that was not written as there was no space left on the file.
+    */
+   public void cancelCountUp()
+   {
+      up.decrementAndGet();
+      countLatch.countDown();
+   }
+
    public void done()
    {
       countLatch.countDown();
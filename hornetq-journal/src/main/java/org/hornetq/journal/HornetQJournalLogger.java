@@ -253,6 +253,14 @@ public interface HornetQJournalLogger extends BasicLogger
    @Message(id = 142035, value = "Exception on submitting write", format = Message.Format.MESSAGE_FORMAT)
    void errorSubmittingWrite(@Cause Throwable e);
 
+   @LogMessage(level = Logger.Level.WARN)
+   @Message(id = 142036, value = "Error writing journal checkpoint", format = Message.Format.MESSAGE_FORMAT)
+   void errorWritingCheckpoint(@Cause Throwable e);
+
+   @LogMessage(level = Logger.Level.WARN)
+   @Message(id = 142037, value = "Invalid journal snapshot {0}, all journal files will be loaded", format = Message.Format.MESSAGE_FORMAT)
+   void invalidJournalSnapshot(Object file, @Cause Throwable e);
+
    @LogMessage(level = Logger.Level.ERROR)
    @Message(id = 144001, value = "Failed to delete file {0}", format = Message.Format.MESSAGE_FORMAT)
    void errorDeletingFile(Object e);
@@ -14,6 +14,7 @@ package org.hornetq.tests.integration.client;
 
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.Assert;
 
@@ -24,6 +25,7 @@ import org.hornetq.api.core.client.ClientMessage;
 import org.hornetq.api.core.client.ClientProducer;
 import org.hornetq.api.core.client.ClientSession;
 import org.hornetq.api.core.client.ClientSessionFactory;
+import org.hornetq.api.core.client.CompletionHandler;
 import org.hornetq.api.core.client.MessageHandler;
 import org.hornetq.api.core.client.ServerLocator;
 import org.hornetq.core.server.HornetQServer;
@@ -77,6 +79,52 @@ public class CommitRollbackTest extends ServiceTestBase
          sendSession.close();
          }
 
+   public void testSendWithCommitCompletionHandler() throws Exception
+   {
+      HornetQServer server = createServer(false);
+      server.start();
+
+      ServerLocator locator = createInVMNonHALocator();
+      ClientSessionFactory cf = createSessionFactory(locator);
+      ClientSession session = cf.createSession(false, false, false);
+      session.createQueue(addressA, queueA, false);
+      ClientProducer cp = session.createProducer(addressA);
+
+      int numTransactions = 50;
+
+      final CountDownLatch latch = new CountDownLatch(numTransactions);
+
+      final AtomicInteger errors = new AtomicInteger(0);
+
+      for (int i = 0; i < numTransactions; i++)
+      {
+         cp.send(session.createMessage(false));
+
+         // the next transaction starts without waiting for this commit
+         session.commit(new CompletionHandler()
+         {
+            public void onCompletion()
+            {
+               latch.countDown();
+            }
+
+            public void onException(HornetQException exception)
+            {
+               errors.incrementAndGet();
+               latch.countDown();
+            }
+         });
+      }
+
+      Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+      Assert.assertEquals(0, errors.get());
+
+      Queue q = (Queue)server.getPostOffice().getBinding(queueA).getBindable();
+      Assert.assertEquals(numTransactions, q.getMessageCount());
+
+      session.close();
+   }
+
    public void testReceiveWithRollback() throws Exception
    {
       HornetQServer server = createServer(false);
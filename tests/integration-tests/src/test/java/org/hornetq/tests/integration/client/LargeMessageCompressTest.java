@@ -366,4 +366,16 @@ public class LargeMessageCompressTest extends LargeMessageTest
    {
       // doesn't make sense as compressed
    }
+
+   @Override
+   public void testMoveSharesBodyFile() throws Exception
+   {
+      // the compressed messages are too small to have a file
+   }
+
+   @Override
+   public void testDivertRollbackReleasesSharedBody() throws Exception
+   {
+      // the compressed messages are too small to have a file
+   }
 }
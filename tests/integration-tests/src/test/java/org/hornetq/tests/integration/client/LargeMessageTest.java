@@ -36,6 +36,7 @@ import org.hornetq.api.core.client.MessageHandler;
 import org.hornetq.api.core.client.ServerLocator;
 import org.hornetq.core.client.impl.ClientConsumerInternal;
 import org.hornetq.core.config.Configuration;
+import org.hornetq.core.config.DivertConfiguration;
 import org.hornetq.core.message.impl.MessageImpl;
 import org.hornetq.core.persistence.impl.journal.JournalStorageManager;
 import org.hornetq.core.persistence.impl.journal.LargeServerMessageImpl;
@@ -429,6 +430,186 @@ public class LargeMessageTest extends LargeMessageTestBase
          validateNoFilesOnLargeDir();
          }
 
+   public void testMoveSharesBodyFile() throws Exception
+   {
+      final int messageSize = (int)(3.5 * HornetQClient.DEFAULT_MIN_LARGE_MESSAGE_SIZE);
+
+      final int numberOfMessages = 5;
+
+      SimpleString ADDRESS_MOVE = LargeMessageTest.ADDRESS.concat("-move");
+
+      HornetQServer server = createServer(true, isNetty());
+
+      server.start();
+
+      ClientSessionFactory sf = addSessionFactory(createSessionFactory(locator));
+
+      ClientSession session = addClientSession(sf.createSession(false, false, false));
+
+      session.createQueue(LargeMessageTest.ADDRESS, LargeMessageTest.ADDRESS, true);
+      session.createQueue(ADDRESS_MOVE, ADDRESS_MOVE, true);
+
+      ClientProducer producer = session.createProducer(LargeMessageTest.ADDRESS);
+
+      for (int i = 0; i < numberOfMessages; i++)
+      {
+         producer.send(createLargeClientMessage(session, messageSize, true));
+      }
+
+      session.commit();
+
+      Queue queue = server.locateQueue(LargeMessageTest.ADDRESS);
+
+      queue.flushExecutor();
+
+      Assert.assertEquals(numberOfMessages, queue.moveReferences(null, ADDRESS_MOVE));
+
+      // The copies use the files of the original messages
+      validateNoFilesOnLargeDir(numberOfMessages);
+
+      session.close();
+      server.stop();
+
+      server = createServer(true, isNetty());
+
+      server.start();
+
+      sf = addSessionFactory(createSessionFactory(locator));
+
+      session = addClientSession(sf.createSession(false, false, false));
+
+      // and they are moved once more after the restart
+      server.locateQueue(ADDRESS_MOVE).flushExecutor();
+
+      Assert.assertEquals(numberOfMessages, server.locateQueue(ADDRESS_MOVE).moveReferences(null,
+                                                                                             LargeMessageTest.ADDRESS));
+
+      validateNoFilesOnLargeDir(numberOfMessages);
+
+      session.start();
+
+      ClientConsumer consumer = session.createConsumer(LargeMessageTest.ADDRESS);
+
+      for (int i = 0; i < numberOfMessages; i++)
+      {
+         ClientMessage msg = consumer.receive(10000);
+
+         Assert.assertNotNull(msg);
+
+         for (int j = 0; j < messageSize; j++)
+         {
+            Assert.assertEquals(UnitTestCase.getSamplebyte(j), msg.getBodyBuffer().readByte());
+         }
+
+         msg.acknowledge();
+      }
+
+      Assert.assertNull(consumer.receiveImmediate());
+
+      session.commit();
+
+      session.close();
+
+      validateNoFilesOnLargeDir();
+   }
+
+   public void testDivertRollbackReleasesSharedBody() throws Exception
+   {
+      final int messageSize = (int)(3.5 * HornetQClient.DEFAULT_MIN_LARGE_MESSAGE_SIZE);
+
+      final int numberOfMessages = 5;
+
+      SimpleString ADDRESS_DIVERT = LargeMessageTest.ADDRESS.concat("-divert");
+
+      HornetQServer server = createServer(true, isNetty());
+
+      DivertConfiguration divert = new DivertConfiguration("divert",
+                                                           null,
+                                                           LargeMessageTest.ADDRESS.toString(),
+                                                           ADDRESS_DIVERT.toString(),
+                                                           false,
+                                                           null,
+                                                           null);
+
+      server.getConfiguration().getDivertConfigurations().add(divert);
+
+      server.start();
+
+      ClientSessionFactory sf = addSessionFactory(createSessionFactory(locator));
+
+      ClientSession session = addClientSession(sf.createSession(false, false, false));
+
+      session.createQueue(LargeMessageTest.ADDRESS, LargeMessageTest.ADDRESS, true);
+      session.createQueue(ADDRESS_DIVERT, ADDRESS_DIVERT, true);
+
+      ClientProducer producer = session.createProducer(LargeMessageTest.ADDRESS);
+
+      for (int i = 0; i < numberOfMessages; i++)
+      {
+         producer.send(createLargeClientMessage(session, messageSize, true));
+      }
+
+      // The copies and their share records go away with the transaction
+      session.rollback();
+
+      validateNoFilesOnLargeDir();
+
+      for (int i = 0; i < numberOfMessages; i++)
+      {
+         producer.send(createLargeClientMessage(session, messageSize, true));
+      }
+
+      session.commit();
+
+      validateNoFilesOnLargeDir(numberOfMessages);
+
+      session.close();
+      server.stop();
+
+      server = createServer(true, isNetty());
+
+      server.getConfiguration().getDivertConfigurations().add(divert);
+
+      server.start();
+
+      sf = addSessionFactory(createSessionFactory(locator));
+
+      session = addClientSession(sf.createSession(false, false, false));
+
+      validateNoFilesOnLargeDir(numberOfMessages);
+
+      session.start();
+
+      for (SimpleString address : new SimpleString[] { LargeMessageTest.ADDRESS, ADDRESS_DIVERT })
+      {
+         ClientConsumer consumer = session.createConsumer(address);
+
+         for (int i = 0; i < numberOfMessages; i++)
+         {
+            ClientMessage msg = consumer.receive(10000);
+
+            Assert.assertNotNull(msg);
+
+            for (int j = 0; j < messageSize; j++)
+            {
+               Assert.assertEquals(UnitTestCase.getSamplebyte(j), msg.getBodyBuffer().readByte());
+            }
+
+            msg.acknowledge();
+         }
+
+         Assert.assertNull(consumer.receiveImmediate());
+
+         session.commit();
+
+         consumer.close();
+      }
+
+      session.close();
+
+      validateNoFilesOnLargeDir();
+   }
+
    public void testDeliveryCount() throws Exception
    {
       final int messageSize = (int)(3.5 * HornetQClient.DEFAULT_MIN_LARGE_MESSAGE_SIZE);
@@ -2841,7 +3022,7 @@ public class LargeMessageTest extends LargeMessageTestBase
    // The ClientConsumer should be able to also send ServerLargeMessages as that's done by the CoreBridge
    public void testSendServerMessage() throws Exception
    {
-      HornetQServer server = createServer(true);
+      HornetQServer server = createServer(true, isNetty());
 
       server.start();
 
@@ -14,6 +14,7 @@ package org.hornetq.tests.integration.client;
 
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.Assert;
 
@@ -156,4 +157,153 @@ public class ProducerTest extends ServiceTestBase
       }
    }
 
+   public void testSendWithCompletionHandler() throws Exception
+   {
+      server.createQueue(QUEUE, QUEUE, null, true, false);
+
+      ServerLocator locator = createInVMNonHALocator();
+      ClientSessionFactory cf = locator.createSessionFactory();
+      ClientSession session = cf.createSession(false, true, true);
+      ClientProducer producer = session.createProducer(QUEUE);
+
+      final int numMessages = 500;
+
+      final CountDownLatch latch = new CountDownLatch(numMessages);
+
+      final AtomicInteger order = new AtomicInteger(0);
+
+      final AtomicInteger errors = new AtomicInteger(0);
+
+      for (int i = 0; i < numMessages; i++)
+      {
+         final int msgNr = i;
+         ClientMessage message = session.createMessage(true);
+         message.putIntProperty("count", i);
+         producer.send(message, new CompletionHandler()
+         {
+            public void onCompletion()
+            {
+               // the sends complete in the order they were sent
+               if (!order.compareAndSet(msgNr, msgNr + 1))
+               {
+                  errors.incrementAndGet();
+               }
+               latch.countDown();
+            }
+
+            public void onException(HornetQException exception)
+            {
+               errors.incrementAndGet();
+               latch.countDown();
+            }
+         });
+      }
+
+      Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+      Assert.assertEquals(0, errors.get());
+      Assert.assertEquals(numMessages, getMessageCount(server, QUEUE.toString()));
+
+      session.close();
+      locator.close();
+   }
+
+   public void testCompletionHandlerMaySendBlocking() throws Exception
+   {
+      server.createQueue(QUEUE, QUEUE, null, true, false);
+
+      ServerLocator locator = createInVMNonHALocator();
+      ClientSessionFactory cf = locator.createSessionFactory();
+      final ClientSession session = cf.createSession(false, true, true);
+      final ClientProducer producer = session.createProducer(QUEUE);
+
+      final CountDownLatch latch = new CountDownLatch(1);
+
+      final AtomicInteger errors = new AtomicInteger(0);
+
+      producer.send(session.createMessage(true), new CompletionHandler()
+      {
+         public void onCompletion()
+         {
+            // the handler isn't called on the thread reading the connection, so it can wait for another response
+            try
+            {
+               producer.send(session.createMessage(true));
+            }
+            catch (HornetQException e)
+            {
+               errors.incrementAndGet();
+            }
+            latch.countDown();
+         }
+
+         public void onException(HornetQException exception)
+         {
+            errors.incrementAndGet();
+            latch.countDown();
+         }
+      });
+
+      Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+      Assert.assertEquals(0, errors.get());
+      Assert.assertEquals(2, getMessageCount(server, QUEUE.toString()));
+
+      session.close();
+      locator.close();
+   }
+
+   public void testBlockingSendsFromManyThreads() throws Exception
+   {
+      server.createQueue(QUEUE, QUEUE, null, true, false);
+
+      ServerLocator locator = createInVMNonHALocator();
+      locator.setBlockOnDurableSend(true);
+      ClientSessionFactory cf = locator.createSessionFactory();
+      // The threads share the session, their blocking sends are outstanding at the same time on its channel
+      final ClientSession session = cf.createSession(false, true, true);
+
+      final int numThreads = 10;
+
+      final int numMessages = 100;
+
+      final AtomicInteger errors = new AtomicInteger(0);
+
+      Thread[] threads = new Thread[numThreads];
+
+      for (int i = 0; i < numThreads; i++)
+      {
+         threads[i] = new Thread()
+         {
+            @Override
+            public void run()
+            {
+               try
+               {
+                  ClientProducer producer = session.createProducer(QUEUE);
+                  for (int j = 0; j < numMessages; j++)
+                  {
+                     producer.send(session.createMessage(true));
+                  }
+                  producer.close();
+               }
+               catch (Exception e)
+               {
+                  e.printStackTrace();
+                  errors.incrementAndGet();
+               }
+            }
+         };
+         threads[i].start();
+      }
+
+      for (Thread t : threads)
+      {
+         t.join();
+      }
+
+      Assert.assertEquals(0, errors.get());
+      Assert.assertEquals(numThreads * numMessages, getMessageCount(server, QUEUE.toString()));
+
+      session.close();
+      locator.close();
+   }
 }
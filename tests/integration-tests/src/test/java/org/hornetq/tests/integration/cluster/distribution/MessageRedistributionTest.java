@@ -25,6 +25,7 @@ import org.hornetq.api.core.client.ClientMessage;
 import org.hornetq.api.core.client.ClientProducer;
 import org.hornetq.api.core.client.ClientSession;
 import org.hornetq.core.message.impl.MessageImpl;
+import org.hornetq.core.server.Queue;
 import org.hornetq.core.server.impl.QueueImpl;
 import org.hornetq.core.settings.impl.AddressFullMessagePolicy;
 import org.hornetq.core.settings.impl.AddressSettings;
@@ -877,6 +878,53 @@ public class MessageRedistributionTest extends ClusterTestBase
       session1.close();
    }
 
+   public void testRedistributionByLoad() throws Exception
+   {
+      getServer(0).getConfiguration().setLoadRedistributionPeriod(100);
+      getServer(1).getConfiguration().setLoadRedistributionPeriod(100);
+
+      setupCluster(false);
+
+      startServers(0, 1);
+
+      setupSessionFactory(0, isNetty());
+      setupSessionFactory(1, isNetty());
+
+      createQueue(0, "queues.testaddress", "queue0", null, false);
+      createQueue(1, "queues.testaddress", "queue0", null, false);
+
+      // Without a window the consumer on node 0 gets nothing until it calls receive, which it never does
+      ClientSession slowSession = addClientSession(sfs[0].createSession(false, true, true));
+      addClientConsumer(slowSession.createConsumer(new SimpleString("queue0"), null, 0, -1, false));
+      slowSession.start();
+
+      addConsumer(1, 1, "queue0", null);
+
+      waitForBindings(0, "queues.testaddress", 1, 1, true);
+      waitForBindings(1, "queues.testaddress", 1, 1, true);
+
+      waitForBindings(0, "queues.testaddress", 1, 1, false);
+      waitForBindings(1, "queues.testaddress", 1, 1, false);
+
+      final int numMessages = QueueImpl.REDISTRIBUTOR_BATCH_SIZE * 4;
+
+      send(0, "queues.testaddress", numMessages, false, null);
+
+      // Half of the messages are routed to node 0, and moved to node 1 as the consumer there has nothing else to do
+      for (int i = 0; i < numMessages; i++)
+      {
+         ClientMessage message = getConsumer(1).receive(WAIT_TIMEOUT);
+         assertNotNull("message " + i, message);
+         message.acknowledge();
+      }
+
+      assertNull(getConsumer(1).receiveImmediate());
+
+      Queue queue0 = (Queue)getServer(0).getPostOffice().getBinding(new SimpleString("queue0")).getBindable();
+
+      assertEquals(0, queue0.getInstantMessageCount());
+   }
+
    protected void setupCluster(final boolean forwardWhenNoConsumers) throws Exception
    {
       setupClusterConnection("cluster0", "queues", forwardWhenNoConsumers, 1, isNetty(), 0, 1, 2);
@@ -5,6 +5,7 @@ import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import org.hornetq.api.core.HornetQException;
+import org.hornetq.api.core.Interceptor;
 import org.hornetq.api.core.TransportConfiguration;
 import org.hornetq.api.core.client.ClientConsumer;
 import org.hornetq.api.core.client.ClientMessage;
@@ -16,8 +17,12 @@ import org.hornetq.core.journal.impl.JournalFile;
 import org.hornetq.core.journal.impl.JournalImpl;
 import org.hornetq.core.paging.PagingStore;
 import org.hornetq.core.persistence.impl.journal.JournalStorageManager;
+import org.hornetq.core.protocol.core.Packet;
+import org.hornetq.core.protocol.core.impl.PacketImpl;
+import org.hornetq.core.protocol.core.impl.wireformat.ReplicationSyncDigestResponseMessage;
 import org.hornetq.tests.integration.cluster.util.BackupSyncDelay;
 import org.hornetq.tests.integration.cluster.util.TestableServer;
+import org.hornetq.spi.core.protocol.RemotingConnection;
 import org.hornetq.tests.util.TransportConfigurationUtils;
 import org.hornetq.utils.Pair;
 
@@ -135,6 +140,50 @@ public class BackupSyncJournalTest extends FailoverTestBase
       waitForRemoteBackup(sessionFactory, BACKUP_WAIT_TIME, true, backupServer.getServer());
    }
 
+   public void testRestartedBackupReusesFiles() throws Exception
+   {
+      createProducerSendSomeMessages();
+      JournalImpl messageJournal = getMessageJournalFromServer(liveServer);
+      for (int i = 0; i < 3; i++)
+      {
+         messageJournal.forceMoveNextFile();
+         sendMessages(session, producer, n_msgs);
+      }
+      startBackupFinishSyncing();
+
+      backupServer.stop();
+      sendMessages(session, producer, n_msgs);
+
+      final Set<Long> heldIds = new HashSet<Long>();
+      liveServer.addInterceptor(new Interceptor()
+      {
+         public boolean intercept(Packet packet, RemotingConnection connection) throws HornetQException
+         {
+            if (packet.getType() == PacketImpl.REPLICATION_SYNC_DIGEST_RESPONSE)
+            {
+               for (long id : ((ReplicationSyncDigestResponseMessage)packet).getHeldIds())
+               {
+                  heldIds.add(id);
+               }
+            }
+            return true;
+         }
+      });
+
+      backupServer.start();
+      waitForRemoteBackup(sessionFactory, BACKUP_WAIT_TIME, true, backupServer.getServer());
+      assertFalse("the backup should have kept the files it had before the restart", heldIds.isEmpty());
+
+      crash(session);
+      backupServer.getServer().waitForActivation(5, TimeUnit.SECONDS);
+
+      for (int i = 0; i < 5; i++)
+      {
+         receiveMsgsInRange(0, n_msgs);
+      }
+      assertNoMoreMessages();
+   }
+
    public void testReplicationDuringSync() throws Exception
    {
       createProducerSendSomeMessages();
@@ -12,6 +12,7 @@ import org.hornetq.core.protocol.core.ChannelHandler;
 import org.hornetq.core.protocol.core.CommandConfirmationHandler;
 import org.hornetq.core.protocol.core.CoreRemotingConnection;
 import org.hornetq.core.protocol.core.Packet;
+import org.hornetq.core.protocol.core.ResponseHandler;
 import org.hornetq.core.protocol.core.impl.PacketImpl;
 import org.hornetq.core.protocol.core.impl.wireformat.ReplicationResponseMessage;
 import org.hornetq.core.protocol.core.impl.wireformat.ReplicationStartSyncMessage;
@@ -244,6 +245,12 @@ public class BackupSyncDelay implements Interceptor
          throw new UnsupportedOperationException();
       }
 
+      @Override
+      public void sendBlocking(Packet packet, ResponseHandler handler) throws HornetQException
+      {
+         throw new UnsupportedOperationException();
+      }
+
       @Override
       public void setHandler(ChannelHandler handler)
       {
@@ -325,6 +332,12 @@ public class BackupSyncDelay implements Interceptor
          throw new UnsupportedOperationException();
       }
 
+      @Override
+      public void checkCallTimeouts()
+      {
+         throw new UnsupportedOperationException();
+      }
+
       @Override
       public void handlePacket(Packet packet)
       {
@@ -0,0 +1,431 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.integration.journal;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import junit.framework.Assert;
+
+import org.hornetq.core.journal.RecordInfo;
+import org.hornetq.core.journal.SequentialFileFactory;
+import org.hornetq.core.journal.impl.JournalFile;
+import org.hornetq.core.journal.impl.JournalImpl;
+import org.hornetq.core.journal.impl.NIOSequentialFileFactory;
+import org.hornetq.tests.unit.core.journal.impl.JournalImplTestBase;
+import org.hornetq.tests.unit.core.journal.impl.fakes.SimpleEncoding;
+
+/**
+ * Loads the journal from the snapshot of a checkpoint, and checks it ends up as if all the files had been read.
+ */
+public class NIOJournalCheckpointTest extends JournalImplTestBase
+{
+   private File snapshotFile;
+
+   private File snapshotLogFile;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+
+      snapshotFile = new File(getTestDir(), filePrefix + ".snapshot");
+
+      snapshotLogFile = new File(getTestDir(), filePrefix + ".snapshot.log");
+
+      setup(2, 10 * 1024, true);
+   }
+
+   @Override
+   protected SequentialFileFactory getFileFactory() throws Exception
+   {
+      File file = new File(getTestDir());
+
+      deleteDirectory(file);
+
+      file.mkdir();
+
+      return new NIOSequentialFileFactory(getTestDir(), true);
+   }
+
+   public void testLoadFromCheckpoint() throws Exception
+   {
+      startJournal(true);
+
+      for (int i = 0; i < 50; i++)
+      {
+         add(i);
+      }
+      update(3, 7, 21);
+      delete(5, 6, 30);
+
+      addTx(100, 200, 201, 202);
+      commit(100);
+
+      // still open on the checkpoint, finished after it
+      addTx(101, 203, 204);
+      deleteTx(101, 8);
+      addTx(102, 205);
+      prepare(102, new SimpleEncoding(10, (byte)0));
+      addTx(103, 206, 207);
+      updateTx(103, 9);
+
+      checkpoint();
+
+      add(300, 301, 302);
+      update(2, 4);
+      delete(0, 1, 200);
+      addTx(101, 208);
+      commit(101);
+      commit(102);
+      rollback(103);
+
+      addTx(104, 303);
+      prepare(104, new SimpleEncoding(10, (byte)0));
+
+      checkSnapshotLoad();
+
+      update(10, 300);
+      delete(11, 12);
+      commit(104);
+
+      checkSnapshotLoad();
+   }
+
+   public void testIncrementalCheckpoint() throws Exception
+   {
+      startJournal(true);
+
+      for (int i = 0; i < 30; i++)
+      {
+         add(i);
+      }
+      addTx(100, 100, 101);
+      prepare(100, new SimpleEncoding(10, (byte)0));
+
+      checkpoint();
+
+      for (int i = 30; i < 60; i++)
+      {
+         add(i);
+      }
+      delete(1, 2, 3, 40);
+      update(4, 50);
+      addTx(101, 102);
+      deleteTx(101, 5);
+      prepare(101, new SimpleEncoding(10, (byte)0));
+
+      checkpoint();
+
+      commit(100);
+      add(60, 61);
+
+      checkSnapshotLoad();
+
+      // a checkpoint after the load is built on the snapshot that was loaded
+      addTx(102, 103);
+      prepare(102, new SimpleEncoding(10, (byte)0));
+      commit(101);
+      checkpoint();
+      add(62);
+      commit(102);
+
+      checkSnapshotLoad();
+   }
+
+   public void testCheckpointAfterReclaim() throws Exception
+   {
+      startJournal(true);
+
+      for (int i = 0; i < 60; i++)
+      {
+         add(i);
+      }
+
+      checkpoint();
+
+      long firstFile = ((JournalImpl)journal).getDataFiles()[0].getFileID();
+
+      // the first files are reclaimed
+      for (int i = 0; i < 20; i++)
+      {
+         delete(i);
+      }
+      // the deletes are only counted once their file is sealed
+      for (int i = 100; i < 120; i++)
+      {
+         add(i);
+      }
+
+      checkAndReclaimFiles();
+
+      Assert.assertTrue(((JournalImpl)journal).getDataFiles()[0].getFileID() != firstFile);
+
+      checkSnapshotLoad();
+   }
+
+   public void testCorruptedSnapshot() throws Exception
+   {
+      startJournal(true);
+
+      for (int i = 0; i < 40; i++)
+      {
+         add(i);
+      }
+      update(4, 8);
+
+      checkpoint();
+
+      add(100, 101);
+
+      stopJournal();
+
+      corrupt(snapshotFile);
+
+      startJournal(true);
+
+      Assert.assertFalse(snapshotFile.exists());
+      Assert.assertFalse(snapshotLogFile.exists());
+   }
+
+   public void testCorruptedSnapshotLog() throws Exception
+   {
+      startJournal(true);
+
+      for (int i = 0; i < 40; i++)
+      {
+         add(i);
+      }
+      update(4, 8);
+
+      checkpoint();
+
+      add(100, 101);
+
+      stopJournal();
+
+      corrupt(snapshotLogFile);
+
+      startJournal(true);
+
+      Assert.assertFalse(snapshotFile.exists());
+      Assert.assertFalse(snapshotLogFile.exists());
+   }
+
+   public void testReadAddRecordsAfterSnapshotLoad() throws Exception
+   {
+      startJournal(true);
+
+      for (int i = 0; i < 30; i++)
+      {
+         add(i);
+      }
+      addTx(100, 30, 31);
+      commit(100);
+      update(3, 30);
+
+      checkpoint();
+
+      add(40, 41);
+
+      stopJournal(false);
+
+      startJournal(true);
+
+      Assert.assertTrue("the snapshot was not used", snapshotFile.exists());
+
+      int read = 0;
+
+      for (RecordInfo info : records)
+      {
+         if (!info.isUpdate)
+         {
+            assertEqualsByteArrays(info.data, ((JournalImpl)journal).readAddRecord(info.id));
+            read++;
+         }
+      }
+
+      Assert.assertEquals(34, read);
+   }
+
+   public void testLogRewrittenWithLiveRecords() throws Exception
+   {
+      startJournal(true);
+
+      for (int i = 0; i < 60; i++)
+      {
+         add(i);
+      }
+
+      checkpoint();
+
+      long length = snapshotLogFile.length();
+
+      for (int i = 0; i < 55; i++)
+      {
+         delete(i);
+      }
+      // the deletes are only counted once their file is sealed
+      for (int i = 100; i < 120; i++)
+      {
+         add(i);
+      }
+
+      checkpoint();
+
+      // most of the records on the log were deleted, so it only has the live ones now
+      Assert.assertTrue(snapshotLogFile.length() < length);
+
+      checkSnapshotLoad();
+   }
+
+   public void testCompactedAfterCheckpoint() throws Exception
+   {
+      startJournal(true);
+
+      for (int i = 0; i < 40; i++)
+      {
+         add(i);
+      }
+
+      checkpoint();
+
+      for (int i = 0; i < 40; i += 2)
+      {
+         delete(i);
+      }
+
+      journal.testCompact();
+
+      add(100, 101);
+
+      stopJournal(false);
+
+      // the files of the snapshot were replaced by the compacting
+      startJournal(true);
+
+      Assert.assertFalse(snapshotFile.exists());
+   }
+
+   public void testSnapshotNotWrittenWhenDisabled() throws Exception
+   {
+      startJournal(false);
+
+      for (int i = 0; i < 40; i++)
+      {
+         add(i);
+      }
+
+      ((JournalImpl)journal).checkpoint();
+
+      Assert.assertFalse(snapshotFile.exists());
+   }
+
+   // Private -------------------------------------------------------
+
+   private void startJournal(final boolean checkpoints) throws Exception
+   {
+      createJournal();
+      ((JournalImpl)journal).setCheckpointPeriod(checkpoints ? 60000 : -1);
+      startJournal();
+      loadAndCheck();
+   }
+
+   private void checkpoint() throws Exception
+   {
+      journal.debugWait();
+      ((JournalImpl)journal).checkpoint();
+      Assert.assertTrue(snapshotFile.exists());
+   }
+
+   /**
+    * Loads the journal from the snapshot, and then again from its files only, checking both loads get the same
+    * records and the same reference counting.
+    */
+   private void checkSnapshotLoad() throws Exception
+   {
+      stopJournal(false);
+
+      Assert.assertTrue(snapshotFile.exists());
+
+      createJournal();
+      ((JournalImpl)journal).setCheckpointPeriod(60000);
+      startJournal();
+      loadAndCheck();
+
+      Assert.assertTrue("the snapshot was not used", snapshotFile.exists());
+
+      String fromSnapshot = describeFiles();
+
+      stopJournal(false);
+
+      File copy = new File(getTestDir(), "snapshot.copy");
+      Assert.assertTrue(snapshotFile.renameTo(copy));
+
+      createJournal();
+      ((JournalImpl)journal).setCheckpointPeriod(60000);
+      startJournal();
+      loadAndCheck();
+
+      Assert.assertEquals(describeFiles(), fromSnapshot);
+
+      stopJournal(false);
+
+      Assert.assertTrue(copy.renameTo(snapshotFile));
+
+      createJournal();
+      ((JournalImpl)journal).setCheckpointPeriod(60000);
+      startJournal();
+      loadAndCheck();
+   }
+
+   private void corrupt(final File file) throws Exception
+   {
+      RandomAccessFile randomFile = new RandomAccessFile(file, "rw");
+      randomFile.seek(randomFile.length() / 2);
+      int value = randomFile.read();
+      randomFile.seek(randomFile.length() / 2);
+      randomFile.write(value ^ 0xff);
+      randomFile.close();
+   }
+
+   private String describeFiles()
+   {
+      JournalFile[] files = ((JournalImpl)journal).getDataFiles();
+
+      StringBuilder builder = new StringBuilder();
+
+      for (JournalFile file : files)
+      {
+         builder.append(file.getFileID())
+                .append(" pos=")
+                .append(file.getPosCount())
+                .append(" size=")
+                .append(file.getLiveSize())
+                .append(" neg=")
+                .append(file.getTotalNegativeToOthers());
+
+         for (JournalFile other : files)
+         {
+            builder.append(',').append(file.getNegCount(other));
+         }
+
+         builder.append('\n');
+      }
+
+      builder.append("current=").append(((JournalImpl)journal).getCurrentFile().getFileID());
+
+      return builder.toString();
+   }
+}
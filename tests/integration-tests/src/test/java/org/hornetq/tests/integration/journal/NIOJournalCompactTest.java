@@ -1238,6 +1238,59 @@ public class NIOJournalCompactTest extends JournalImplTestBase
 
    }
 
+   public void testReadAddRecordAfterCompacting() throws Exception
+   {
+      setup(2, 60 * 1024, true);
+
+      createJournal();
+      startJournal();
+      loadAndCheck();
+
+      for (int i = 0; i < 200; i++)
+      {
+         add(i);
+      }
+
+      addTx(1, 200, 201);
+      commit(1);
+
+      update(1, 3);
+
+      for (int i = 0; i < 200; i += 2)
+      {
+         delete(i);
+      }
+
+      stopJournal();
+      createJournal();
+      startJournal();
+      loadAndCheck();
+
+      checkReadAddRecords();
+
+      journal.testCompact();
+
+      checkReadAddRecords();
+
+      assertNull(((JournalImpl)journal).readAddRecord(0));
+   }
+
+   private void checkReadAddRecords() throws Exception
+   {
+      int read = 0;
+
+      for (RecordInfo info : records)
+      {
+         if (!info.isUpdate)
+         {
+            assertEqualsByteArrays(info.data, ((JournalImpl)journal).readAddRecord(info.id));
+            read++;
+         }
+      }
+
+      assertEquals(102, read);
+   }
+
    public void testLiveSize() throws Exception
    {
       setup(2, 60 * 1024, true);
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.integration.journal;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hornetq.core.journal.PreparedTransactionInfo;
+import org.hornetq.core.journal.RecordInfo;
+import org.hornetq.core.journal.SequentialFileFactory;
+import org.hornetq.core.journal.impl.JournalConstants;
+import org.hornetq.core.journal.impl.NIOSequentialFileFactory;
+
+/**
+ * A NIOLockFreeBufferJournalCompactTest
+ */
+public class NIOLockFreeBufferJournalCompactTest extends NIOJournalCompactTest
+{
+
+   @Override
+   protected SequentialFileFactory getFileFactory() throws Exception
+   {
+      File file = new File(getTestDir());
+
+      deleteDirectory(file);
+
+      file.mkdir();
+
+      return new NIOSequentialFileFactory(getTestDir(),
+                                          true,
+                                          JournalConstants.DEFAULT_JOURNAL_BUFFER_SIZE_NIO,
+                                          JournalConstants.DEFAULT_JOURNAL_BUFFER_TIMEOUT_NIO,
+                                          false,
+                                          true,
+                                          null);
+   }
+
+   public void testConcurrentAppendsOverSeveralFiles() throws Exception
+   {
+      setup(2, 60 * 1024, false);
+
+      createJournal();
+
+      startJournal();
+
+      load();
+
+      final int numberOfThreads = 8;
+
+      final int recordsPerThread = 500;
+
+      final CountDownLatch start = new CountDownLatch(1);
+
+      final AtomicInteger errors = new AtomicInteger(0);
+
+      Thread[] appenders = new Thread[numberOfThreads];
+
+      for (int t = 0; t < numberOfThreads; t++)
+      {
+         final long base = t * 10000L;
+
+         appenders[t] = new Thread()
+         {
+            @Override
+            public void run()
+            {
+               try
+               {
+                  start.await();
+
+                  for (int i = 0; i < recordsPerThread; i++)
+                  {
+                     long id = base + i;
+
+                     if (i % 2 == 0)
+                     {
+                        journal.appendAddRecord(id, (byte)1, new byte[100], false);
+                        journal.appendUpdateRecord(id, (byte)1, new byte[50], false);
+                     }
+                     else
+                     {
+                        long txID = 1000000L + id;
+                        journal.appendAddRecordTransactional(txID, id, (byte)1, new byte[100]);
+                        journal.appendCommitRecord(txID, i % 10 == 1);
+                     }
+
+                     if (i % 4 == 0)
+                     {
+                        journal.appendDeleteRecord(id, false);
+                     }
+                  }
+               }
+               catch (Throwable e)
+               {
+                  e.printStackTrace();
+                  errors.incrementAndGet();
+               }
+            }
+         };
+
+         appenders[t].start();
+      }
+
+      start.countDown();
+
+      for (Thread appender : appenders)
+      {
+         appender.join();
+      }
+
+      assertEquals(0, errors.get());
+
+      assertTrue(journal.getDataFilesCount() > 1);
+
+      stopJournal();
+
+      createJournal();
+
+      startJournal();
+
+      List<RecordInfo> records = new ArrayList<RecordInfo>();
+
+      List<PreparedTransactionInfo> preparedRecords = new ArrayList<PreparedTransactionInfo>();
+
+      journal.load(records, preparedRecords, null);
+
+      Set<Long> ids = new HashSet<Long>();
+
+      for (RecordInfo record : records)
+      {
+         ids.add(record.id);
+      }
+
+      assertEquals(numberOfThreads * (recordsPerThread - recordsPerThread / 4), ids.size());
+
+      assertEquals(0, preparedRecords.size());
+   }
+
+}
@@ -13,7 +13,9 @@
 
 package org.hornetq.tests.integration.management;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 
 import junit.framework.Assert;
@@ -38,6 +40,7 @@ import org.hornetq.core.server.HornetQServers;
 import org.hornetq.core.settings.impl.AddressSettings;
 import org.hornetq.tests.util.RandomUtil;
 import org.hornetq.utils.json.JSONArray;
+import org.hornetq.utils.json.JSONObject;
 
 /**
  * A QueueControlTest
@@ -963,6 +966,166 @@ public class QueueControlTest extends ManagementTestBase
       session.deleteQueue(queue);
    }
 
+   public void testBrowseMessagesAsJSON() throws Exception
+   {
+      SimpleString key = new SimpleString("key");
+      SimpleString count = new SimpleString("count");
+      String filter = key + " = 'match'";
+
+      SimpleString address = RandomUtil.randomSimpleString();
+      SimpleString queue = RandomUtil.randomSimpleString();
+
+      session.createQueue(address, queue, null, false);
+      QueueControl queueControl = createManagementControl(address, queue);
+
+      ClientProducer producer = session.createProducer(address);
+      for (int i = 0; i < 50; i++)
+      {
+         ClientMessage message = session.createMessage(false);
+         message.putStringProperty(key.toString(), i % 2 == 0 ? "match" : "no-match");
+         message.putIntProperty(count, i);
+         producer.send(message);
+      }
+
+      // The 25 matching messages, after skipping the first 3 of them
+      JSONObject page = new JSONObject(queueControl.browseMessagesAsJSON(filter, null, 3, 10));
+      List<Integer> browsed = new ArrayList<Integer>();
+      int pages = 1;
+      while (true)
+      {
+         JSONArray messages = page.getJSONArray("messages");
+         Assert.assertTrue(messages.length() <= 10);
+         for (int i = 0; i < messages.length(); i++)
+         {
+            browsed.add(messages.getJSONObject(i).getInt(count.toString()));
+         }
+         if (!page.has("continuation"))
+         {
+            break;
+         }
+         page = new JSONObject(queueControl.browseMessagesAsJSON(null, page.getString("continuation"), 0, 10));
+         pages++;
+      }
+
+      Assert.assertEquals(3, pages);
+      Assert.assertEquals(22, browsed.size());
+      for (int i = 0; i < browsed.size(); i++)
+      {
+         Assert.assertEquals(2 * (i + 3), browsed.get(i).intValue());
+      }
+
+      // Browsing doesn't change the queue
+      Assert.assertEquals(50, queueControl.getMessageCount());
+
+      try
+      {
+         queueControl.browseMessagesAsJSON(null, "unknown", 0, 10);
+         Assert.fail("the continuation is not known");
+      }
+      catch (Exception expected)
+      {
+      }
+
+      session.deleteQueue(queue);
+   }
+
+   public void testBrowseMessagesAsJSONWithoutLimit() throws Exception
+   {
+      SimpleString address = RandomUtil.randomSimpleString();
+      SimpleString queue = RandomUtil.randomSimpleString();
+
+      session.createQueue(address, queue, null, false);
+      QueueControl queueControl = createManagementControl(address, queue);
+
+      try
+      {
+         queueControl.browseMessagesAsJSON(null, null, 0, 0);
+         Assert.fail("the limit must be positive");
+      }
+      catch (Exception expected)
+      {
+      }
+
+      session.deleteQueue(queue);
+   }
+
+   public void testBrowseMessagesAsJSONWithNegativeOffset() throws Exception
+   {
+      SimpleString address = RandomUtil.randomSimpleString();
+      SimpleString queue = RandomUtil.randomSimpleString();
+
+      session.createQueue(address, queue, null, false);
+      QueueControl queueControl = createManagementControl(address, queue);
+
+      try
+      {
+         queueControl.browseMessagesAsJSON(null, null, -1, 10);
+         Assert.fail("the offset can't be negative");
+      }
+      catch (Exception expected)
+      {
+      }
+
+      session.deleteQueue(queue);
+   }
+
+   public void testBrowseAndCountPagedMessages() throws Exception
+   {
+      SimpleString key = new SimpleString("key");
+      SimpleString address = RandomUtil.randomSimpleString();
+      SimpleString queue = RandomUtil.randomSimpleString();
+
+      AddressSettings addressSettings = new AddressSettings();
+      addressSettings.setPageSizeBytes(10 * 1024);
+      addressSettings.setMaxSizeBytes(20 * 1024);
+      server.getAddressSettingsRepository().addMatch(address.toString(), addressSettings);
+
+      session.createQueue(address, queue, null, false);
+
+      final int numberOfMessages = 200;
+
+      ClientProducer producer = session.createProducer(address);
+      for (int i = 0; i < numberOfMessages; i++)
+      {
+         ClientMessage message = session.createMessage(true);
+         message.getBodyBuffer().writeBytes(new byte[1024]);
+         message.putIntProperty(key, i % 4);
+         producer.send(message);
+      }
+
+      Assert.assertTrue(server.getPagingManager().getPageStore(address).isPaging());
+
+      QueueControl queueControl = createManagementControl(address, queue);
+      Assert.assertEquals(numberOfMessages, queueControl.getMessageCount());
+
+      Assert.assertEquals(numberOfMessages / 4, queueControl.countMessages(key + " = 0"));
+
+      int browsed = 0;
+      String continuation = null;
+      do
+      {
+         JSONObject page = new JSONObject(queueControl.browseMessagesAsJSON(null, continuation, 0, 30));
+         browsed += page.getJSONArray("messages").length();
+         continuation = page.has("continuation") ? page.getString("continuation") : null;
+      }
+      while (continuation != null);
+
+      Assert.assertEquals(numberOfMessages, browsed);
+
+      // Browsing doesn't acknowledge anything
+      ClientConsumer consumer = session.createConsumer(queue);
+      for (int i = 0; i < numberOfMessages; i++)
+      {
+         ClientMessage message = consumer.receive(5000);
+         Assert.assertNotNull(message);
+         Assert.assertEquals(i % 4, message.getIntProperty(key).intValue());
+         message.acknowledge();
+      }
+      Assert.assertNull(consumer.receiveImmediate());
+
+      session.deleteQueue(queue);
+   }
+
    public void testExpireMessagesWithFilter() throws Exception
    {
       SimpleString key = new SimpleString("key");
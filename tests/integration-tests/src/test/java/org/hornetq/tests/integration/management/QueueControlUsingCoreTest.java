@@ -51,6 +51,14 @@ public class QueueControlUsingCoreTest extends QueueControlTest
             return (Integer)proxy.invokeOperation("changeMessagesPriority", filter, newPriority);
          }
 
+         public String browseMessagesAsJSON(final String filter,
+                                            final String continuation,
+                                            final int offset,
+                                            final int limit) throws Exception
+         {
+            return (String)proxy.invokeOperation("browseMessagesAsJSON", filter, continuation, offset, limit);
+         }
+
          public long countMessages(final String filter) throws Exception
          {
             return ((Number)proxy.invokeOperation("countMessages", filter)).longValue();
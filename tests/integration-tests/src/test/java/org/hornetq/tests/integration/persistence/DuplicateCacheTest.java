@@ -14,6 +14,7 @@
 package org.hornetq.tests.integration.persistence;
 
 import org.hornetq.api.core.SimpleString;
+import org.hornetq.core.journal.impl.JournalImpl;
 import org.hornetq.core.postoffice.DuplicateIDCache;
 import org.hornetq.core.postoffice.impl.DuplicateIDCacheImpl;
 import org.hornetq.core.transaction.impl.TransactionImpl;
@@ -83,7 +84,74 @@ public class DuplicateCacheTest extends StorageManagerTestBase
       
    }
 
+
+   public void testRecordsDeletedBySegment() throws Exception
+   {
+      createStorage();
+
+      DuplicateIDCache cache = new DuplicateIDCacheImpl(new SimpleString("test"), 2000, journal, true);
+
+      for (int i = 0 ; i < 10; i++)
+      {
+         TransactionImpl tx = new TransactionImpl(journal);
+
+         for (int j = 0 ; j < 1000; j++)
+         {
+            cache.addToCache(RandomUtil.randomBytes(), tx);
+         }
+
+         tx.commit();
+      }
+
+      journal.waitOnOperations();
+
+      // The ids are written on a few records, which are deleted once their ids left the cache
+      int records = ((JournalImpl)journal.getMessageJournal()).getIDMapSize();
+
+      assertTrue("records = " + records, records > 0 && records <= 5);
+
+      TransactionImpl tx = new TransactionImpl(journal);
+
+      for (int i = 0 ; i < 5000; i++)
+      {
+         cache.addToCache(RandomUtil.randomBytes(), tx);
+      }
+
+      tx.rollback();
+
+      journal.waitOnOperations();
+
+      // Only the record still getting new ids is left from the rolled back ids
+      assertTrue(((JournalImpl)journal.getMessageJournal()).getIDMapSize() <= records + 1);
+   }
    
+   public void testLastIDsAcrossStripes() throws Exception
+   {
+      createStorage();
+
+      DuplicateIDCache cache = new DuplicateIDCacheImpl(new SimpleString("test"), 20000, journal, true);
+
+      byte[][] ids = new byte[50000][];
+
+      TransactionImpl tx = new TransactionImpl(journal);
+
+      for (int i = 0 ; i < ids.length; i++)
+      {
+         ids[i] = RandomUtil.randomBytes();
+
+         cache.addToCache(ids[i], tx);
+      }
+
+      tx.commit();
+
+      journal.waitOnOperations();
+
+      for (int i = 0 ; i < ids.length; i++)
+      {
+         assertEquals(i >= ids.length - 20000, cache.contains(ids[i]));
+      }
+   }
+
    public void testDuplicateNonPersistent() throws Exception
    {
       createStorage();
@@ -0,0 +1,341 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.integration.persistence;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import junit.framework.Assert;
+
+import org.hornetq.api.core.SimpleString;
+import org.hornetq.api.core.client.ClientConsumer;
+import org.hornetq.api.core.client.ClientMessage;
+import org.hornetq.api.core.client.ClientProducer;
+import org.hornetq.api.core.client.ClientSession;
+import org.hornetq.api.core.client.ClientSessionFactory;
+import org.hornetq.api.core.client.ServerLocator;
+import org.hornetq.core.config.Configuration;
+import org.hornetq.core.journal.impl.JournalImpl;
+import org.hornetq.core.persistence.impl.journal.LazyServerMessageImpl;
+import org.hornetq.core.server.HornetQServer;
+import org.hornetq.core.server.MessageReference;
+import org.hornetq.core.server.ServerMessage;
+import org.hornetq.core.server.impl.ServerMessageImpl;
+import org.hornetq.core.transaction.impl.XidImpl;
+import org.hornetq.tests.util.ServiceTestBase;
+import org.hornetq.utils.LinkedListIterator;
+import org.hornetq.utils.UUIDGenerator;
+
+/**
+ * Loads messages without their bodies, and checks the bodies are read back from the journal when delivered.
+ */
+public class LazyMessageBodyTest extends ServiceTestBase
+{
+   private static final SimpleString ADDRESS = new SimpleString("ADDRESS");
+
+   private static final int BODY_SIZE = 1024;
+
+   private static final int NUMBER_OF_MESSAGES = 50;
+
+   private HornetQServer server;
+
+   private ServerLocator locator;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+
+      Configuration config = createDefaultConfig();
+      config.setJournalLazyBodySize(BODY_SIZE);
+      config.setJournalLazyBodyCacheSize(10 * BODY_SIZE);
+
+      server = createServer(true, config);
+      server.start();
+
+      locator = createInVMNonHALocator();
+      locator.setBlockOnDurableSend(true);
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      locator.close();
+
+      server.stop();
+
+      super.tearDown();
+   }
+
+   public void testBodiesReadOnDelivery() throws Exception
+   {
+      sendMessages(BODY_SIZE);
+
+      restart();
+
+      List<LazyServerMessageImpl> messages = getLazyMessages();
+
+      Assert.assertEquals(NUMBER_OF_MESSAGES, messages.size());
+
+      for (LazyServerMessageImpl message : messages)
+      {
+         Assert.assertFalse(message.isBodyLoaded());
+      }
+
+      ClientSessionFactory factory = createSessionFactory(locator);
+      ClientSession session = factory.createSession(false, true, false);
+      ClientConsumer consumer = session.createConsumer(ADDRESS);
+      session.start();
+
+      receiveMessages(consumer, 0, NUMBER_OF_MESSAGES);
+
+      // The bodies read for the deliveries not acknowledged yet are bounded by the cache
+      int loaded = 0;
+      for (LazyServerMessageImpl message : messages)
+      {
+         if (message.isBodyLoaded())
+         {
+            loaded++;
+         }
+      }
+      Assert.assertTrue("loaded = " + loaded, loaded > 0 && loaded <= 10);
+
+      session.commit();
+      session.close();
+
+      restart();
+
+      Assert.assertEquals(0, server.locateQueue(ADDRESS).getMessageCount());
+   }
+
+   public void testSmallBodiesLoaded() throws Exception
+   {
+      sendMessages(BODY_SIZE - 1);
+
+      restart();
+
+      LinkedListIterator<MessageReference> iterator = server.locateQueue(ADDRESS).iterator();
+      try
+      {
+         while (iterator.hasNext())
+         {
+            Assert.assertEquals(ServerMessageImpl.class, iterator.next().getMessage().getClass());
+         }
+      }
+      finally
+      {
+         iterator.close();
+      }
+
+      ClientSessionFactory factory = createSessionFactory(locator);
+      ClientSession session = factory.createSession(false, true, true);
+      ClientConsumer consumer = session.createConsumer(ADDRESS);
+      session.start();
+
+      receiveMessages(consumer, 0, NUMBER_OF_MESSAGES);
+
+      session.close();
+   }
+
+   public void testBodiesReadAfterCompacting() throws Exception
+   {
+      sendMessages(BODY_SIZE);
+
+      restart();
+
+      Assert.assertEquals(NUMBER_OF_MESSAGES, getLazyMessages().size());
+
+      ClientSessionFactory factory = createSessionFactory(locator);
+      ClientSession session = factory.createSession(false, true, true);
+      ClientConsumer consumer = session.createConsumer(ADDRESS);
+      session.start();
+
+      receiveMessages(consumer, 0, NUMBER_OF_MESSAGES / 2);
+
+      consumer.close();
+
+      // The records of the messages left move to other files
+      ((JournalImpl)server.getStorageManager().getMessageJournal()).testCompact();
+
+      // Only the bodies of the messages cancelled back from the consumer's buffer can be in memory
+      int released = 0;
+      for (LazyServerMessageImpl message : getLazyMessages())
+      {
+         if (!message.isBodyLoaded())
+         {
+            released++;
+         }
+      }
+      Assert.assertTrue(released >= NUMBER_OF_MESSAGES / 2 - 10);
+
+      consumer = session.createConsumer(ADDRESS);
+
+      receiveMessages(consumer, NUMBER_OF_MESSAGES / 2, NUMBER_OF_MESSAGES);
+
+      session.close();
+   }
+
+   public void testTransactionalBodiesReadOnDelivery() throws Exception
+   {
+      ClientSessionFactory factory = createSessionFactory(locator);
+      ClientSession session = factory.createSession(false, false, false);
+      session.createQueue(ADDRESS, ADDRESS, true);
+      sendMessages(session, BODY_SIZE);
+      session.commit();
+      session.close();
+
+      restart();
+
+      Assert.assertEquals(NUMBER_OF_MESSAGES, getLazyMessages().size());
+
+      factory = createSessionFactory(locator);
+      session = factory.createSession(false, true, true);
+      ClientConsumer consumer = session.createConsumer(ADDRESS);
+      session.start();
+
+      receiveMessages(consumer, 0, NUMBER_OF_MESSAGES);
+
+      session.close();
+   }
+
+   public void testPreparedBodiesLoaded() throws Exception
+   {
+      Xid xid = new XidImpl("xa1".getBytes(), 1, UUIDGenerator.getInstance().generateStringUUID().getBytes());
+
+      ClientSessionFactory factory = createSessionFactory(locator);
+      ClientSession session = factory.createSession(true, false, false);
+      session.createQueue(ADDRESS, ADDRESS, true);
+      session.start(xid, XAResource.TMNOFLAGS);
+      sendMessages(session, BODY_SIZE);
+      session.end(xid, XAResource.TMSUCCESS);
+      session.prepare(xid);
+      session.close();
+
+      restart();
+
+      factory = createSessionFactory(locator);
+      session = factory.createSession(true, false, false);
+      session.commit(xid, false);
+      session.close();
+
+      LinkedListIterator<MessageReference> iterator = server.locateQueue(ADDRESS).iterator();
+      try
+      {
+         while (iterator.hasNext())
+         {
+            Assert.assertEquals(ServerMessageImpl.class, iterator.next().getMessage().getClass());
+         }
+      }
+      finally
+      {
+         iterator.close();
+      }
+
+      session = factory.createSession(false, true, true);
+      ClientConsumer consumer = session.createConsumer(ADDRESS);
+      session.start();
+
+      receiveMessages(consumer, 0, NUMBER_OF_MESSAGES);
+
+      session.close();
+   }
+
+   // Private -------------------------------------------------------
+
+   private void restart() throws Exception
+   {
+      server.stop();
+      server.start();
+   }
+
+   private void sendMessages(final int bodySize) throws Exception
+   {
+      ClientSessionFactory factory = createSessionFactory(locator);
+      ClientSession session = factory.createSession(false, true, true);
+
+      session.createQueue(ADDRESS, ADDRESS, true);
+
+      sendMessages(session, bodySize);
+
+      session.close();
+   }
+
+   private void sendMessages(final ClientSession session, final int bodySize) throws Exception
+   {
+      ClientProducer producer = session.createProducer(ADDRESS);
+
+      for (int i = 0; i < NUMBER_OF_MESSAGES; i++)
+      {
+         ClientMessage message = session.createMessage(true);
+         message.putIntProperty("count", i);
+         message.getBodyBuffer().writeBytes(createBody(i, bodySize));
+         producer.send(message);
+      }
+
+      producer.close();
+   }
+
+   private void receiveMessages(final ClientConsumer consumer, final int start, final int end) throws Exception
+   {
+      for (int i = start; i < end; i++)
+      {
+         ClientMessage message = consumer.receive(5000);
+         Assert.assertNotNull(message);
+         message.acknowledge();
+
+         Assert.assertEquals(i, message.getIntProperty("count").intValue());
+
+         byte[] body = new byte[message.getBodySize()];
+         message.getBodyBuffer().readBytes(body);
+         assertEqualsByteArrays(createBody(i, body.length), body);
+      }
+   }
+
+   private List<LazyServerMessageImpl> getLazyMessages() throws Exception
+   {
+      List<LazyServerMessageImpl> messages = new ArrayList<LazyServerMessageImpl>();
+
+      LinkedListIterator<MessageReference> iterator = server.locateQueue(ADDRESS).iterator();
+      try
+      {
+         while (iterator.hasNext())
+         {
+            ServerMessage message = iterator.next().getMessage();
+            Assert.assertTrue(message instanceof LazyServerMessageImpl);
+            messages.add((LazyServerMessageImpl)message);
+         }
+      }
+      finally
+      {
+         iterator.close();
+      }
+
+      return messages;
+   }
+
+   private static byte[] createBody(final int count, final int size)
+   {
+      byte[] body = new byte[size];
+
+      for (int i = 0; i < size; i++)
+      {
+         body[i] = getSamplebyte(count + i);
+      }
+
+      return body;
+   }
+}
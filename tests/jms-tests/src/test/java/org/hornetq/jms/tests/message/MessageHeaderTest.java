@@ -40,6 +40,7 @@ import org.hornetq.api.core.client.ClientConsumer;
 import org.hornetq.api.core.client.ClientMessage;
 import org.hornetq.api.core.client.ClientProducer;
 import org.hornetq.api.core.client.ClientSession;
+import org.hornetq.api.core.client.CompletionHandler;
 import org.hornetq.api.core.client.FailoverEventListener;
 import org.hornetq.api.core.client.SendAcknowledgementHandler;
 import org.hornetq.api.core.client.SessionFailureListener;
@@ -1221,6 +1222,10 @@ public class MessageHeaderTest extends MessageHeaderTestBase
       {
       }
 
+      public void commit(final CompletionHandler handler) throws HornetQException
+      {
+      }
+
       public boolean isRollbackOnly()
       {
 
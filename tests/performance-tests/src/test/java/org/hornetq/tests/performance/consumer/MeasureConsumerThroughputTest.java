@@ -0,0 +1,244 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.performance.consumer;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.hornetq.api.core.SimpleString;
+import org.hornetq.api.core.client.ClientConsumer;
+import org.hornetq.api.core.client.ClientMessage;
+import org.hornetq.api.core.client.ClientProducer;
+import org.hornetq.api.core.client.ClientSession;
+import org.hornetq.api.core.client.ClientSessionFactory;
+import org.hornetq.api.core.client.MessageHandler;
+import org.hornetq.api.core.client.ServerLocator;
+import org.hornetq.core.server.HornetQServer;
+import org.hornetq.tests.util.ServiceTestBase;
+import org.hornetq.utils.PriorityLinkedListImpl;
+import org.hornetq.utils.SPSCPriorityLinkedList;
+
+/**
+ * Measures how fast messages go through the buffer of a ClientConsumer, from the remoting thread to a MessageHandler.
+ */
+public class MeasureConsumerThroughputTest extends ServiceTestBase
+{
+
+   // Constants -----------------------------------------------------
+
+   private static final int NUMBER_OF_ELEMENTS = 5000000;
+
+   private static final int NUMBER_OF_MESSAGES = 300000;
+
+   private static final int NUM_PRIORITIES = 10;
+
+   private static final SimpleString ADDRESS = new SimpleString("test-adr");
+
+   // Public --------------------------------------------------------
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+      clearData();
+   }
+
+   /**
+    * Hands elements from one thread to another the way the consumer used to, with both threads synchronizing on a
+    * PriorityLinkedListImpl, and through the SPSCPriorityLinkedList the consumer uses now.
+    */
+   public void testBufferHandOff() throws Exception
+   {
+      for (int i = 0; i < 3; i++)
+      {
+         long locked = measureLockedHandOff();
+         long lockFree = measureLockFreeHandOff();
+
+         System.out.println("Synchronized PriorityLinkedListImpl: " + NUMBER_OF_ELEMENTS *
+                            1000L /
+                            Math.max(1, locked) +
+                            " per second, SPSCPriorityLinkedList: " +
+                            NUMBER_OF_ELEMENTS *
+                            1000L /
+                            Math.max(1, lockFree) +
+                            " per second");
+      }
+   }
+
+   public void testMessageHandlerThroughput() throws Exception
+   {
+      HornetQServer server = createServer(false);
+      server.start();
+
+      ServerLocator locator = createInVMNonHALocator();
+      locator.setBlockOnNonDurableSend(false);
+      locator.setAckBatchSize(64 * 1024);
+
+      try
+      {
+         ClientSessionFactory factory = createSessionFactory(locator);
+
+         ClientSession session = factory.createSession(false, true, true);
+
+         session.createQueue(ADDRESS, ADDRESS, false);
+
+         for (int i = 0; i < 3; i++)
+         {
+            sendMessages(session, NUMBER_OF_MESSAGES);
+
+            final CountDownLatch latch = new CountDownLatch(NUMBER_OF_MESSAGES);
+
+            ClientConsumer consumer = session.createConsumer(ADDRESS);
+
+            consumer.setMessageHandler(new MessageHandler()
+            {
+               public void onMessage(final ClientMessage message)
+               {
+                  try
+                  {
+                     message.acknowledge();
+                  }
+                  catch (Exception e)
+                  {
+                     e.printStackTrace();
+                  }
+                  latch.countDown();
+               }
+            });
+
+            long start = System.currentTimeMillis();
+
+            session.start();
+
+            assertTrue(latch.await(60, TimeUnit.SECONDS));
+
+            long time = Math.max(1, System.currentTimeMillis() - start);
+
+            System.out.println("Consumed " + NUMBER_OF_MESSAGES +
+                               " messages in " +
+                               time +
+                               " milliseconds, " +
+                               NUMBER_OF_MESSAGES *
+                               1000L /
+                               time +
+                               " per second");
+
+            session.stop();
+
+            consumer.close();
+         }
+
+         session.close();
+      }
+      finally
+      {
+         locator.close();
+         server.stop();
+      }
+   }
+
+   // Private -------------------------------------------------------
+
+   private void sendMessages(final ClientSession session, final int numberOfMessages) throws Exception
+   {
+      ClientProducer producer = session.createProducer(ADDRESS);
+
+      for (int i = 0; i < numberOfMessages; i++)
+      {
+         ClientMessage message = session.createMessage(false);
+         message.getBodyBuffer().writeBytes(new byte[10]);
+         producer.send(message);
+      }
+
+      producer.close();
+   }
+
+   private long measureLockedHandOff() throws Exception
+   {
+      final PriorityLinkedListImpl<Integer> list = new PriorityLinkedListImpl<Integer>(NUM_PRIORITIES);
+
+      Thread consumer = new Thread()
+      {
+         @Override
+         public void run()
+         {
+            int received = 0;
+            while (received < NUMBER_OF_ELEMENTS)
+            {
+               Integer element;
+               synchronized (list)
+               {
+                  element = list.poll();
+               }
+               if (element != null)
+               {
+                  received++;
+               }
+            }
+         }
+      };
+
+      long start = System.currentTimeMillis();
+
+      consumer.start();
+
+      Integer element = Integer.valueOf(1);
+      for (int i = 0; i < NUMBER_OF_ELEMENTS; i++)
+      {
+         synchronized (list)
+         {
+            list.addTail(element, 4);
+         }
+      }
+
+      consumer.join();
+
+      return System.currentTimeMillis() - start;
+   }
+
+   private long measureLockFreeHandOff() throws Exception
+   {
+      final SPSCPriorityLinkedList<Integer> list = new SPSCPriorityLinkedList<Integer>(NUM_PRIORITIES);
+
+      Thread consumer = new Thread()
+      {
+         @Override
+         public void run()
+         {
+            int received = 0;
+            while (received < NUMBER_OF_ELEMENTS)
+            {
+               if (list.poll() != null)
+               {
+                  received++;
+               }
+            }
+         }
+      };
+
+      long start = System.currentTimeMillis();
+
+      consumer.start();
+
+      Integer element = Integer.valueOf(1);
+      for (int i = 0; i < NUMBER_OF_ELEMENTS; i++)
+      {
+         list.addTail(element, 4);
+      }
+
+      consumer.join();
+
+      return System.currentTimeMillis() - start;
+   }
+}
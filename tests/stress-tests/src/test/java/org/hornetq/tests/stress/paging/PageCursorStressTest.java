@@ -112,6 +112,38 @@ public class PageCursorStressTest extends ServiceTestBase
       System.out.println("Cache size = " + cursorProvider.getCacheSize());
    }
 
+   public void testReadMessageWithoutCache() throws Exception
+   {
+      final int NUM_MESSAGES = 1000;
+
+      int numberOfPages = addMessages(NUM_MESSAGES, 100 * 1024);
+
+      PageCursorProviderImpl cursorProvider = new PageCursorProviderImpl(lookupPageStore(ADDRESS),
+                                                                         server.getStorageManager(),
+                                                                         server.getExecutorFactory().getExecutor(),
+                                                                         5);
+
+      PageCursorProviderImpl referenceProvider = new PageCursorProviderImpl(lookupPageStore(ADDRESS),
+                                                                            server.getStorageManager(),
+                                                                            server.getExecutorFactory().getExecutor(),
+                                                                            5);
+
+      // the last page is the one being written
+      for (int i = 1; i < numberOfPages; i++)
+      {
+         PageCache cache = referenceProvider.getPageCache(new PagePositionImpl(i, 0));
+
+         for (int msg = cache.getNumberOfMessages() - 1; msg >= 0; msg -= 7)
+         {
+            PagedMessage pagedMessage = cursorProvider.getMessage(new PagePositionImpl(i, msg));
+            assertEquals(cache.getMessage(msg).getMessage().getMessageID(), pagedMessage.getMessage().getMessageID());
+         }
+      }
+
+      // the messages were read one by one, the pages were never cached
+      assertEquals(0, cursorProvider.getCacheSize());
+   }
+
    public void testSimpleCursor() throws Exception
    {
 
@@ -3012,6 +3012,46 @@ public abstract class JournalImplTestUnit extends JournalImplTestBase
       loadAndCheck();
    }
 
+   public void testLoadInParallel() throws Exception
+   {
+      setup(2, 512 + 2 * 1024, true);
+
+      createJournal();
+      startJournal();
+      load();
+
+      add(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+      update(2, 4, 6);
+      delete(1, 3);
+      addTx(1, 11, 12, 13);
+      updateTx(1, 2, 4);
+      deleteTx(1, 5);
+      commit(1);
+      addTx(2, 14, 15);
+      rollback(2);
+      addTx(3, 16, 17);
+      updateTx(3, 6);
+      prepare(3, new SimpleEncoding(10, (byte)0));
+      add(18, 19, 20);
+
+      stopJournal();
+      createJournal();
+      ((JournalImpl)journal).setLoadParallelism(3, 2);
+      startJournal();
+      loadAndCheck();
+
+      Assert.assertTrue(journal.getDataFilesCount() > 3);
+
+      commit(3);
+      update(18);
+
+      stopJournal();
+      createJournal();
+      ((JournalImpl)journal).setLoadParallelism(4, 8);
+      startJournal();
+      loadAndCheck();
+   }
+
    public void testReclaimAfterUpdate() throws Exception
    {
       setup(2, 60 * 1024, true);
@@ -15,7 +15,9 @@ package org.hornetq.tests.unit.core.journal.impl;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.Assert;
@@ -25,6 +27,7 @@ import org.hornetq.api.core.HornetQBuffers;
 import org.hornetq.core.journal.IOAsyncTask;
 import org.hornetq.core.journal.impl.TimedBuffer;
 import org.hornetq.core.journal.impl.TimedBufferObserver;
+import org.hornetq.core.journal.impl.dataformat.ByteArrayEncoding;
 import org.hornetq.tests.util.UnitTestCase;
 
 /**
@@ -63,6 +66,284 @@ public class TimedBufferTest extends UnitTestCase
    
 
    public void testFillBuffer()
+   {
+      internalFillBuffer(false);
+   }
+
+   public void testFillBufferLockFree()
+   {
+      internalFillBuffer(true);
+   }
+
+   public void testTimingAndFlush() throws Exception
+   {
+      internalTimingAndFlush(false);
+   }
+
+   public void testTimingAndFlushLockFree() throws Exception
+   {
+      internalTimingAndFlush(true);
+   }
+
+   public void testLockFreeConcurrentProducers() throws Exception
+   {
+      final int numThreads = 8;
+
+      final int recordsPerThread = 5000;
+
+      final int recordSize = 8;
+
+      final List<ByteBuffer> buffers = Collections.synchronizedList(new ArrayList<ByteBuffer>());
+
+      final List<IOAsyncTask> flushedCallbacks = Collections.synchronizedList(new ArrayList<IOAsyncTask>());
+
+      final AtomicInteger errors = new AtomicInteger(0);
+
+      class TestObserver implements TimedBufferObserver
+      {
+         private int position;
+
+         public void flushBuffer(final ByteBuffer buffer, final boolean sync, final List<IOAsyncTask> callbacks)
+         {
+            buffer.flip();
+            if (buffer.limit() != callbacks.size() * recordSize)
+            {
+               errors.incrementAndGet();
+            }
+            position += buffer.limit();
+            buffers.add(buffer);
+            flushedCallbacks.addAll(callbacks);
+         }
+
+         public ByteBuffer newBuffer(final int minSize, final int maxSize)
+         {
+            return ByteBuffer.allocate(maxSize);
+         }
+
+         public int getRemainingBytes()
+         {
+            return Integer.MAX_VALUE - position;
+         }
+      }
+
+      class RecordCallback implements IOAsyncTask
+      {
+         final int producer;
+
+         final int sequence;
+
+         RecordCallback(final int producer, final int sequence)
+         {
+            this.producer = producer;
+            this.sequence = sequence;
+         }
+
+         public void done()
+         {
+         }
+
+         public void onError(final int errorCode, final String errorMessage)
+         {
+         }
+      }
+
+      // a small buffer so it's flushed many times while the producers are adding records
+      final TimedBuffer timedBuffer = new TimedBuffer(1024, TimedBufferTest.ONE_SECOND / 1000, false, true);
+
+      Assert.assertTrue(timedBuffer.isLockFree());
+
+      timedBuffer.start();
+
+      try
+      {
+         timedBuffer.setObserver(new TestObserver());
+
+         final CountDownLatch start = new CountDownLatch(1);
+
+         Thread[] producers = new Thread[numThreads];
+
+         for (int i = 0; i < numThreads; i++)
+         {
+            final int producer = i;
+            producers[i] = new Thread()
+            {
+               @Override
+               public void run()
+               {
+                  try
+                  {
+                     start.await();
+
+                     for (int sequence = 0; sequence < recordsPerThread; sequence++)
+                     {
+                        HornetQBuffer record = HornetQBuffers.fixedBuffer(recordSize);
+                        record.writeInt(producer);
+                        record.writeInt(sequence);
+
+                        if (!timedBuffer.checkSize(recordSize))
+                        {
+                           errors.incrementAndGet();
+                        }
+                        timedBuffer.addBytes(record, sequence % 100 == 0, new RecordCallback(producer, sequence));
+                     }
+                  }
+                  catch (Throwable e)
+                  {
+                     e.printStackTrace();
+                     errors.incrementAndGet();
+                  }
+               }
+            };
+            producers[i].start();
+         }
+
+         start.countDown();
+
+         for (Thread producer : producers)
+         {
+            producer.join();
+         }
+
+         timedBuffer.flush();
+      }
+      finally
+      {
+         timedBuffer.stop();
+      }
+
+      Assert.assertEquals(0, errors.get());
+
+      Assert.assertEquals(numThreads * recordsPerThread, flushedCallbacks.size());
+
+      int[] nextSequence = new int[numThreads];
+
+      int record = 0;
+
+      for (ByteBuffer buffer : buffers)
+      {
+         while (buffer.hasRemaining())
+         {
+            int producer = buffer.getInt();
+            int sequence = buffer.getInt();
+
+            // each producer's records are on the order they were added
+            Assert.assertEquals(nextSequence[producer]++, sequence);
+
+            // and the callbacks are on the same order as the records
+            RecordCallback callback = (RecordCallback)flushedCallbacks.get(record++);
+            Assert.assertEquals(producer, callback.producer);
+            Assert.assertEquals(sequence, callback.sequence);
+         }
+      }
+
+      for (int i = 0; i < numThreads; i++)
+      {
+         Assert.assertEquals(recordsPerThread, nextSequence[i]);
+      }
+   }
+
+   public void testLockFreeFileFull() throws Exception
+   {
+      final AtomicInteger flushedBytes = new AtomicInteger(0);
+
+      class TestObserver implements TimedBufferObserver
+      {
+         public void flushBuffer(final ByteBuffer buffer, final boolean sync, final List<IOAsyncTask> callbacks)
+         {
+            flushedBytes.addAndGet(buffer.position());
+         }
+
+         public ByteBuffer newBuffer(final int minSize, final int maxSize)
+         {
+            return ByteBuffer.allocate(maxSize);
+         }
+
+         public int getRemainingBytes()
+         {
+            return 25 - flushedBytes.get();
+         }
+      }
+
+      TimedBuffer timedBuffer = new TimedBuffer(100, TimedBufferTest.ONE_SECOND, false, true);
+
+      timedBuffer.start();
+
+      try
+      {
+         timedBuffer.setObserver(new TestObserver());
+
+         for (int i = 0; i < 2; i++)
+         {
+            Assert.assertTrue(timedBuffer.checkSize(10));
+            timedBuffer.addBytes(HornetQBuffers.wrappedBuffer(new byte[10]), false, dummyCallback);
+         }
+
+         // 20 bytes on the buffer, and only 5 left on the file
+         Assert.assertFalse(timedBuffer.checkSize(10));
+
+         Assert.assertEquals(20, flushedBytes.get());
+
+         Assert.assertTrue(timedBuffer.checkSize(5));
+      }
+      finally
+      {
+         timedBuffer.stop();
+      }
+   }
+
+   public void testLockFreeTryAddBytes() throws Exception
+   {
+      final AtomicInteger flushedBytes = new AtomicInteger(0);
+
+      class TestObserver implements TimedBufferObserver
+      {
+         public void flushBuffer(final ByteBuffer buffer, final boolean sync, final List<IOAsyncTask> callbacks)
+         {
+            flushedBytes.addAndGet(buffer.position());
+         }
+
+         public ByteBuffer newBuffer(final int minSize, final int maxSize)
+         {
+            return ByteBuffer.allocate(maxSize);
+         }
+
+         public int getRemainingBytes()
+         {
+            return 25 - flushedBytes.get();
+         }
+      }
+
+      TimedBuffer timedBuffer = new TimedBuffer(100, TimedBufferTest.ONE_SECOND, false, true);
+
+      timedBuffer.start();
+
+      try
+      {
+         timedBuffer.setObserver(new TestObserver());
+
+         for (int i = 0; i < 2; i++)
+         {
+            Assert.assertTrue(timedBuffer.tryAddBytes(new ByteArrayEncoding(new byte[10]), false, dummyCallback));
+         }
+
+         // 20 bytes on the buffer, and only 5 left on the file
+         Assert.assertFalse(timedBuffer.tryAddBytes(new ByteArrayEncoding(new byte[10]), false, dummyCallback));
+
+         Assert.assertEquals(20, flushedBytes.get());
+
+         Assert.assertTrue(timedBuffer.tryAddBytes(new ByteArrayEncoding(new byte[5]), false, dummyCallback));
+
+         timedBuffer.flush();
+
+         Assert.assertEquals(25, flushedBytes.get());
+      }
+      finally
+      {
+         timedBuffer.stop();
+      }
+   }
+
+   private void internalFillBuffer(final boolean lockFree)
    {
       final ArrayList<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
       final AtomicInteger flushTimes = new AtomicInteger(0);
@@ -88,7 +369,7 @@ public class TimedBufferTest extends UnitTestCase
          }
       }
 
-      TimedBuffer timedBuffer = new TimedBuffer(100, TimedBufferTest.ONE_SECOND, false);
+      TimedBuffer timedBuffer = new TimedBuffer(100, TimedBufferTest.ONE_SECOND, false, lockFree);
 
       timedBuffer.start();
 
@@ -136,7 +417,7 @@ public class TimedBufferTest extends UnitTestCase
 
    }
 
-   public void testTimingAndFlush() throws Exception
+   private void internalTimingAndFlush(final boolean lockFree) throws Exception
    {
       final ArrayList<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
       final AtomicInteger flushTimes = new AtomicInteger(0);
@@ -162,7 +443,7 @@ public class TimedBufferTest extends UnitTestCase
          }
       }
 
-      TimedBuffer timedBuffer = new TimedBuffer(100, TimedBufferTest.ONE_SECOND / 10, false);
+      TimedBuffer timedBuffer = new TimedBuffer(100, TimedBufferTest.ONE_SECOND / 10, false, lockFree);
 
       timedBuffer.start();
 
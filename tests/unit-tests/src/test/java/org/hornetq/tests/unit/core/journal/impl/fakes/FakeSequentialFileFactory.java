@@ -130,6 +130,11 @@ public class FakeSequentialFileFactory implements SequentialFileFactory
       return supportsCallback;
    }
 
+   public boolean isLockFreeBuffer()
+   {
+      return false;
+   }
+
    public ByteBuffer newBuffer(int size)
    {
       if (size % alignment != 0)
@@ -629,6 +634,16 @@ public class FakeSequentialFileFactory implements SequentialFileFactory
          write(outbuffer, sync, callback);
       }
 
+      public boolean tryWrite(final EncodingSupport bytes, final boolean sync, final IOAsyncTask callback) throws Exception
+      {
+         if (!fits(bytes.getEncodeSize()))
+         {
+            return false;
+         }
+         write(bytes, sync, callback);
+         return true;
+      }
+
       /* (non-Javadoc)
        * @see org.hornetq.core.journal.SequentialFile#write(org.hornetq.core.journal.EncodingSupport, boolean)
        */
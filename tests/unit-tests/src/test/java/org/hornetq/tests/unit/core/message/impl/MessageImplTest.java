@@ -17,9 +17,13 @@ import java.util.Set;
 
 import junit.framework.Assert;
 
+import org.hornetq.api.core.HornetQBuffer;
+import org.hornetq.api.core.HornetQBuffers;
 import org.hornetq.api.core.Message;
 import org.hornetq.api.core.SimpleString;
 import org.hornetq.core.client.impl.ClientMessageImpl;
+import org.hornetq.core.server.ServerMessage;
+import org.hornetq.core.server.impl.ServerMessageImpl;
 import org.hornetq.tests.util.RandomUtil;
 import org.hornetq.tests.util.UnitTestCase;
 
@@ -221,6 +225,80 @@ public class MessageImplTest extends UnitTestCase
       }
    }
 
+   public void testCopySharesBufferUntilChanged() throws Exception
+   {
+      byte[] body = RandomUtil.randomBytes(1000);
+      byte[] moreBody = RandomUtil.randomBytes(100);
+
+      SimpleString prop1 = new SimpleString("prop1");
+      SimpleString prop2 = new SimpleString("prop2");
+
+      ServerMessageImpl message = new ServerMessageImpl(1, 1024);
+      message.setAddress(new SimpleString("address"));
+      message.getBodyBuffer().writeBytes(body);
+      message.putIntProperty(prop1, 1);
+
+      // encoding the original first, so the copy gets a valid buffer
+      message.getEncodedBuffer();
+
+      ServerMessage copy = message.copy(2);
+      ServerMessage copyOfCopy = copy.copy();
+
+      copy.putIntProperty(prop2, 2);
+      copy.setAddress(new SimpleString("otherAddress"));
+
+      message.getBodyBuffer().writeBytes(moreBody);
+
+      ServerMessage decoded = reencode(message);
+      Assert.assertEquals(new SimpleString("address"), decoded.getAddress());
+      Assert.assertFalse(decoded.containsProperty(prop2));
+      UnitTestCase.assertEqualsByteArrays(concat(body, moreBody), readBody(decoded));
+
+      decoded = reencode(copy);
+      Assert.assertEquals(new SimpleString("otherAddress"), decoded.getAddress());
+      Assert.assertEquals(1, decoded.getIntProperty(prop1).intValue());
+      Assert.assertEquals(2, decoded.getIntProperty(prop2).intValue());
+      UnitTestCase.assertEqualsByteArrays(body, readBody(decoded));
+
+      decoded = reencode(copyOfCopy);
+      Assert.assertEquals(new SimpleString("address"), decoded.getAddress());
+      Assert.assertFalse(decoded.containsProperty(prop2));
+      UnitTestCase.assertEqualsByteArrays(body, readBody(decoded));
+   }
+
+   public void testOriginalCopiesSharedBufferBeforeChangingIt() throws Exception
+   {
+      byte[] body = RandomUtil.randomBytes(1000);
+
+      SimpleString prop1 = new SimpleString("prop1");
+      SimpleString prop2 = new SimpleString("prop2");
+
+      ServerMessageImpl message = new ServerMessageImpl(1, 1024);
+      message.setAddress(new SimpleString("address"));
+      message.getBodyBuffer().writeBytes(body);
+      message.putIntProperty(prop1, 1);
+
+      // decoding it as it arrives from a client, so the original was never delivered
+      ServerMessage original = reencode(message);
+
+      ServerMessage copy = original.copy(2);
+
+      // re-encoding the properties of the original must not write over the bytes it shares with the copy
+      original.putIntProperty(prop2, 2);
+      original.setAddress(new SimpleString("otherAddress"));
+
+      ServerMessage decoded = reencode(original);
+      Assert.assertEquals(new SimpleString("otherAddress"), decoded.getAddress());
+      Assert.assertEquals(2, decoded.getIntProperty(prop2).intValue());
+      UnitTestCase.assertEqualsByteArrays(body, readBody(decoded));
+
+      decoded = reencode(copy);
+      Assert.assertEquals(new SimpleString("address"), decoded.getAddress());
+      Assert.assertEquals(1, decoded.getIntProperty(prop1).intValue());
+      Assert.assertFalse(decoded.containsProperty(prop2));
+      UnitTestCase.assertEqualsByteArrays(body, readBody(decoded));
+   }
+
    // Protected -------------------------------------------------------------------------------
 
    protected void assertMessagesEquivalent(final Message msg1, final Message msg2)
@@ -259,4 +337,33 @@ public class MessageImplTest extends UnitTestCase
 
    // Private ----------------------------------------------------------------------------------
 
+   /**
+    * Encodes the message the way it's stored on the journal and decodes it on a new message
+    */
+   private ServerMessage reencode(final ServerMessage message)
+   {
+      HornetQBuffer buffer = HornetQBuffers.dynamicBuffer(message.getEncodeSize());
+      message.encode(buffer);
+
+      ServerMessage decoded = new ServerMessageImpl(message.getMessageID(), 1024);
+      decoded.decode(buffer);
+      return decoded;
+   }
+
+   private byte[] readBody(final ServerMessage message)
+   {
+      HornetQBuffer body = message.getBodyBufferCopy();
+      byte[] bytes = new byte[body.readableBytes()];
+      body.readBytes(bytes);
+      return bytes;
+   }
+
+   private byte[] concat(final byte[] first, final byte[] second)
+   {
+      byte[] bytes = new byte[first.length + second.length];
+      System.arraycopy(first, 0, bytes, 0, first.length);
+      System.arraycopy(second, 0, bytes, first.length, second.length);
+      return bytes;
+   }
+
 }
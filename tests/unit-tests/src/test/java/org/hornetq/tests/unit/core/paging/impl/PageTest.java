@@ -23,6 +23,7 @@ import org.hornetq.api.core.HornetQBuffer;
 import org.hornetq.api.core.SimpleString;
 import org.hornetq.core.journal.SequentialFile;
 import org.hornetq.core.journal.SequentialFileFactory;
+import org.hornetq.core.journal.impl.MappedSequentialFileFactory;
 import org.hornetq.core.journal.impl.NIOSequentialFileFactory;
 import org.hornetq.core.paging.PagedMessage;
 import org.hornetq.core.paging.impl.Page;
@@ -62,6 +63,18 @@ public class PageTest extends UnitTestCase
       testDamagedPage(new NIOSequentialFileFactory(getTestDir()), 1000);
    }
 
+   public void testPageWithMapped() throws Exception
+   {
+      recreateDirectory(getTestDir());
+      testAdd(new MappedSequentialFileFactory(getTestDir()), 1000);
+   }
+
+   public void testDamagedDataWithMapped() throws Exception
+   {
+      recreateDirectory(getTestDir());
+      testDamagedPage(new MappedSequentialFileFactory(getTestDir()), 1000);
+   }
+
    public void testPageFakeWithoutCallbacks() throws Exception
    {
       testAdd(new FakeSequentialFileFactory(1, false), 10);
@@ -73,6 +86,76 @@ public class PageTest extends UnitTestCase
       testDamagedPage(new FakeSequentialFileFactory(1, false), 100);
    }
 
+   public void testIndexedReadWithNIO() throws Exception
+   {
+      recreateDirectory(getTestDir());
+      testIndexedRead(new NIOSequentialFileFactory(getTestDir()));
+   }
+
+   public void testIndexedReadFake() throws Exception
+   {
+      testIndexedRead(new FakeSequentialFileFactory(1, false));
+   }
+
+   protected void testIndexedRead(final SequentialFileFactory factory) throws Exception
+   {
+      SequentialFile file = factory.createSequentialFile("00010.page", 1);
+
+      Page impl = new Page(new SimpleString("something"), new NullStorageManager(), factory, file, 10);
+
+      impl.open();
+
+      SimpleString simpleDestination = new SimpleString("Test");
+
+      // larger than the buffer used to read the page
+      ServerMessage largeBody = new ServerMessageImpl(1000, 100);
+      largeBody.getBodyBuffer().writeBytes(new byte[200 * 1024]);
+      largeBody.setAddress(simpleDestination);
+
+      addPageElements(simpleDestination, impl, 1000);
+      impl.write(new PagedMessageImpl(largeBody, new long[0]));
+      addPageElements(simpleDestination, impl, 10);
+
+      impl.sync();
+      impl.close();
+
+      file = factory.createSequentialFile("00010.page", 1);
+      file.open();
+      impl = new Page(new SimpleString("something"), new NullStorageManager(), factory, file, 10);
+
+      int[] index = impl.readIndex(new NullStorageManager());
+
+      Assert.assertEquals(1011, index.length);
+      Assert.assertEquals(1011, impl.getNumberOfMessages());
+      Assert.assertEquals(0, index[0]);
+
+      List<PagedMessage> msgs = impl.read(new NullStorageManager(), index, 500, 10);
+
+      Assert.assertEquals(10, msgs.size());
+
+      for (int i = 0; i < msgs.size(); i++)
+      {
+         Assert.assertEquals(500 + i, msgs.get(i).getMessage().getMessageID());
+      }
+
+      msgs = impl.read(new NullStorageManager(), index, 999, 3);
+
+      Assert.assertEquals(3, msgs.size());
+      Assert.assertEquals(999, msgs.get(0).getMessage().getMessageID());
+      Assert.assertEquals(1000, msgs.get(1).getMessage().getMessageID());
+      Assert.assertTrue(msgs.get(1).getMessage().getEncodeSize() > 200 * 1024);
+      Assert.assertEquals(0, msgs.get(2).getMessage().getMessageID());
+
+      // past the end of the page
+      msgs = impl.read(new NullStorageManager(), index, 1005, 100);
+
+      Assert.assertEquals(6, msgs.size());
+
+      Assert.assertTrue(impl.read(new NullStorageManager(), index, 1011, 1).isEmpty());
+
+      impl.close();
+   }
+
    /** Validate if everything we add is recovered */
    protected void testAdd(final SequentialFileFactory factory, final int numberOfElements) throws Exception
    {
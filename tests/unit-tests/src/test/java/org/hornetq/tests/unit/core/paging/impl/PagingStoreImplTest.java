@@ -996,6 +996,16 @@ public class PagingStoreImplTest extends UnitTestCase
       {
       }
 
+      @Override
+      public void storeDuplicateIDSegment(final SimpleString address, final int cacheSize, final long recordID) throws Exception
+      {
+      }
+
+      @Override
+      public void updateDuplicateIDs(final List<byte[]> duplIDs, final long recordID) throws Exception
+      {
+      }
+
       @Override
       public void storeDuplicateIDTransactional(final long txID, final SimpleString address, final byte[] duplID,
                                                 final long recordID) throws Exception
@@ -1050,6 +1060,17 @@ public class PagingStoreImplTest extends UnitTestCase
       {
       }
 
+      @Override
+      public void storeDuplicateIDSegmentTransactional(final long txID, final SimpleString address, final int cacheSize,
+                                                       final long recordID) throws Exception
+      {
+      }
+
+      @Override
+      public void updateDuplicateIDsTransactional(final long txID, final List<byte[]> duplIDs, final long recordID) throws Exception
+      {
+      }
+
       @Override
       public void updateScheduledDeliveryTime(final MessageReference ref) throws Exception
       {
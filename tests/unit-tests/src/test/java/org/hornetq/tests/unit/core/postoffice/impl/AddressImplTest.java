@@ -273,4 +273,20 @@ public class AddressImplTest extends UnitTestCase
       Assert.assertFalse(a1.matches(w));
    }
 
+   public void testAnyWordsBacktracks()
+   {
+      Address w = new AddressImpl(new SimpleString("#.b.c"));
+      Assert.assertTrue(new AddressImpl(new SimpleString("b.x.b.c")).matches(w));
+      Assert.assertTrue(new AddressImpl(new SimpleString("b.c")).matches(w));
+      Assert.assertFalse(new AddressImpl(new SimpleString("b.c.x")).matches(w));
+   }
+
+   public void testAnyWordsMatchesNoWord()
+   {
+      Address w = new AddressImpl(new SimpleString("a.#.b"));
+      Assert.assertTrue(new AddressImpl(new SimpleString("a.b")).matches(w));
+      Assert.assertTrue(new AddressImpl(new SimpleString("a.x.y.b")).matches(w));
+      Assert.assertFalse(new AddressImpl(new SimpleString("a.x.y")).matches(w));
+   }
+
 }
@@ -14,6 +14,7 @@
 package org.hornetq.tests.unit.core.postoffice.impl;
 
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -26,6 +27,7 @@ import org.hornetq.api.core.HornetQException;
 import org.hornetq.api.core.HornetQPropertyConversionException;
 import org.hornetq.api.core.SimpleString;
 import org.hornetq.core.filter.Filter;
+import org.hornetq.core.filter.impl.FilterImpl;
 import org.hornetq.core.message.BodyEncoder;
 import org.hornetq.core.paging.PagingStore;
 import org.hornetq.core.postoffice.Binding;
@@ -83,6 +85,68 @@ public class BindingsImplTest extends UnitTestCase
       }
    }
 
+   public void testRouteThroughIndex() throws Exception
+   {
+      BindingsImpl bind = new BindingsImpl(null, null, null);
+
+      List<FilteredBinding> regionBindings = new ArrayList<FilteredBinding>();
+
+      for (int i = 0; i < 1000; i++)
+      {
+         FilteredBinding binding = new FilteredBinding("sub" + i, "region = 'r" + i % 100 + "'");
+         regionBindings.add(binding);
+         bind.addBinding(binding);
+      }
+
+      FilteredBinding inBinding = new FilteredBinding("in", "region IN ('r1', 'r2')");
+      FilteredBinding andBinding = new FilteredBinding("and", "amount = 5 AND region = 'r1'");
+      FilteredBinding rangeBinding = new FilteredBinding("range", "amount > 3");
+      FilteredBinding noFilterBinding = new FilteredBinding("nofilter", null);
+
+      bind.addBinding(inBinding);
+      bind.addBinding(andBinding);
+      bind.addBinding(rangeBinding);
+      bind.addBinding(noFilterBinding);
+
+      ServerMessage message = new ServerMessageImpl(1, 100);
+      message.putStringProperty(new SimpleString("region"), new SimpleString("r1"));
+      message.putIntProperty(new SimpleString("amount"), 5);
+
+      bind.route(message, new RoutingContextImpl(new FakeTransaction()));
+
+      for (int i = 0; i < regionBindings.size(); i++)
+      {
+         FilteredBinding binding = regionBindings.get(i);
+
+         assertEquals(binding.toString(), i % 100 == 1 ? 1 : 0, binding.routed);
+      }
+
+      assertEquals(1, inBinding.routed);
+      assertEquals(1, andBinding.routed);
+      assertEquals(1, rangeBinding.routed);
+      assertEquals(1, noFilterBinding.routed);
+
+      bind.removeBinding(inBinding);
+      bind.removeBinding(regionBindings.get(1));
+
+      bind.route(message, new RoutingContextImpl(new FakeTransaction()));
+
+      assertEquals(1, inBinding.routed);
+      assertEquals(1, regionBindings.get(1).routed);
+      assertEquals(2, regionBindings.get(101).routed);
+      assertEquals(2, andBinding.routed);
+
+      message.putIntProperty(new SimpleString("amount"), 1);
+      message.putStringProperty(new SimpleString("region"), new SimpleString("unknown"));
+
+      bind.route(message, new RoutingContextImpl(new FakeTransaction()));
+
+      assertEquals(2, regionBindings.get(101).routed);
+      assertEquals(2, andBinding.routed);
+      assertEquals(2, rangeBinding.routed);
+      assertEquals(3, noFilterBinding.routed);
+   }
+
    private void internalTest(final boolean route) throws Exception
    {
       final FakeBinding fake = new FakeBinding(new SimpleString("a"));
@@ -1021,6 +1085,37 @@ public class BindingsImplTest extends UnitTestCase
 
    }
 
+   class FilteredBinding extends FakeBinding
+   {
+      final Filter filter;
+
+      int routed;
+
+      FilteredBinding(final String name, final String filterString) throws Exception
+      {
+         super(new SimpleString(name));
+         filter = FilterImpl.createFilter(filterString);
+      }
+
+      @Override
+      public Filter getFilter()
+      {
+         return filter;
+      }
+
+      @Override
+      public void route(final ServerMessage message, final RoutingContext context) throws Exception
+      {
+         routed++;
+      }
+
+      @Override
+      public String toString()
+      {
+         return "FilteredBinding[" + name + "]";
+      }
+   }
+
    class FakeBinding implements Binding
    {
 
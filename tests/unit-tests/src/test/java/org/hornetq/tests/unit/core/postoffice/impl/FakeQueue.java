@@ -20,6 +20,7 @@ import java.util.concurrent.Executor;
 import org.hornetq.api.core.SimpleString;
 import org.hornetq.core.filter.Filter;
 import org.hornetq.core.paging.cursor.PageSubscription;
+import org.hornetq.core.postoffice.Binding;
 import org.hornetq.core.server.Consumer;
 import org.hornetq.core.server.MessageReference;
 import org.hornetq.core.server.Queue;
@@ -186,6 +187,12 @@ public class FakeQueue implements Queue
 
    }
 
+   public void redistributeLoad(final Binding target, final int messages)
+   {
+      // no-op
+
+   }
+
    /* (non-Javadoc)
     * @see org.hornetq.core.server.Queue#cancel(org.hornetq.core.server.MessageReference)
     */
@@ -375,6 +382,12 @@ public class FakeQueue implements Queue
       return 0;
    }
 
+   public long getMessagesAcknowledged()
+   {
+      // no-op
+      return 0;
+   }
+
    /* (non-Javadoc)
     * @see org.hornetq.core.server.Queue#getName()
     */
@@ -460,6 +473,12 @@ public class FakeQueue implements Queue
       return null;
    }
 
+   public LinkedListIterator<MessageReference> browserIterator()
+   {
+      // no-op
+      return null;
+   }
+
    /* (non-Javadoc)
     * @see org.hornetq.core.server.Queue#list(org.hornetq.core.filter.Filter)
     */
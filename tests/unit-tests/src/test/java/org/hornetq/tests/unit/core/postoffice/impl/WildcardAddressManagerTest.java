@@ -0,0 +1,303 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.unit.core.postoffice.impl;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.hornetq.api.core.SimpleString;
+import org.hornetq.core.filter.Filter;
+import org.hornetq.core.postoffice.Binding;
+import org.hornetq.core.postoffice.BindingType;
+import org.hornetq.core.postoffice.Bindings;
+import org.hornetq.core.postoffice.BindingsFactory;
+import org.hornetq.core.postoffice.impl.AddressImpl;
+import org.hornetq.core.postoffice.impl.BindingsImpl;
+import org.hornetq.core.postoffice.impl.WildcardAddressManager;
+import org.hornetq.core.server.Bindable;
+import org.hornetq.core.server.RoutingContext;
+import org.hornetq.core.server.ServerMessage;
+import org.hornetq.tests.util.UnitTestCase;
+
+public class WildcardAddressManagerTest extends UnitTestCase
+{
+   // Attributes ----------------------------------------------------
+
+   private WildcardAddressManager manager;
+
+   private long ids;
+
+   // Public --------------------------------------------------------
+
+   public void testWildcardBindings() throws Exception
+   {
+      addBinding("q1", "a.b.c");
+      addBinding("q2", "a.x.c");
+      addBinding("all", "a.#");
+      addBinding("middle", "a.*.c");
+
+      assertRoutedTo("a.b.c", "q1", "all", "middle");
+      assertRoutedTo("a.x.c", "q2", "all", "middle");
+
+      // an address with no bindings of its own still gets the wildcard ones
+      assertRoutedTo("a.y", "all");
+      assertRoutedTo("b.y");
+
+      addBinding("q3", "a.y");
+      assertRoutedTo("a.y", "q3", "all");
+
+      manager.removeBinding(new SimpleString("middle"));
+      assertRoutedTo("a.b.c", "q1", "all");
+
+      manager.removeBinding(new SimpleString("q3"));
+      assertRoutedTo("a.y", "all");
+
+      // the plain address keeps the wildcard bindings while it has bindings of its own
+      addBinding("q4", "a.b.c");
+      manager.removeBinding(new SimpleString("q1"));
+      assertRoutedTo("a.b.c", "q4", "all");
+
+      manager.removeBinding(new SimpleString("q4"));
+      manager.removeBinding(new SimpleString("q2"));
+      manager.removeBinding(new SimpleString("all"));
+
+      Assert.assertNull(manager.getBindingsForRoutingAddress(new SimpleString("a.b.c")));
+      Assert.assertNull(manager.getBindingsForRoutingAddress(new SimpleString("a.x.c")));
+      Assert.assertNull(manager.getBindingsForRoutingAddress(new SimpleString("a.y")));
+      Assert.assertNull(manager.getBindingsForRoutingAddress(new SimpleString("a.#")));
+   }
+
+   public void testSameMatchesAsAddress() throws Exception
+   {
+      String[] words = new String[] { "a", "b", "c" };
+
+      Random random = new Random(1);
+
+      Set<String> addresses = new HashSet<String>();
+      Set<String> wildcards = new HashSet<String>();
+
+      for (int i = 0; i < 300; i++)
+      {
+         StringBuilder address = new StringBuilder();
+         StringBuilder wildcard = new StringBuilder();
+
+         int length = 1 + random.nextInt(4);
+
+         for (int j = 0; j < length; j++)
+         {
+            if (j > 0)
+            {
+               address.append('.');
+               wildcard.append('.');
+            }
+            address.append(words[random.nextInt(words.length)]);
+
+            int w = random.nextInt(5);
+            wildcard.append(w == 0 ? "#" : w == 1 ? "*" : words[random.nextInt(words.length)]);
+         }
+
+         addresses.add(address.toString());
+         wildcards.add(wildcard.toString());
+      }
+
+      // half of the plain addresses get their bindings before the wildcards, the other half after them
+      int i = 0;
+      for (String address : addresses)
+      {
+         if (i++ % 2 == 0)
+         {
+            addBinding("q-" + address, address);
+         }
+      }
+
+      for (String wildcard : wildcards)
+      {
+         addBinding("w-" + wildcard, wildcard);
+      }
+
+      i = 0;
+      for (String address : addresses)
+      {
+         if (i++ % 2 == 1)
+         {
+            addBinding("q-" + address, address);
+         }
+      }
+
+      for (String address : addresses)
+      {
+         Set<String> expected = new HashSet<String>();
+
+         expected.add("q-" + address);
+
+         for (String wildcard : wildcards)
+         {
+            if (new AddressImpl(new SimpleString(address)).matches(new AddressImpl(new SimpleString(wildcard))))
+            {
+               expected.add("w-" + wildcard);
+            }
+         }
+
+         Assert.assertEquals(address, expected, getRoutedTo(address));
+      }
+
+      for (String wildcard : wildcards)
+      {
+         manager.removeBinding(new SimpleString("w-" + wildcard));
+      }
+
+      for (String address : addresses)
+      {
+         Set<String> expected = new HashSet<String>();
+         expected.add("q-" + address);
+         Assert.assertEquals(address, expected, getRoutedTo(address));
+      }
+   }
+
+   // Protected -----------------------------------------------------
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+
+      manager = new WildcardAddressManager(new BindingsFactory()
+      {
+         public Bindings createBindings(final SimpleString address) throws Exception
+         {
+            return new BindingsImpl(address, null, null);
+         }
+      });
+   }
+
+   // Private -------------------------------------------------------
+
+   private void addBinding(final String name, final String address) throws Exception
+   {
+      manager.addBinding(new AddressBinding(ids++, new SimpleString(name), new SimpleString(address)));
+   }
+
+   private Set<String> getRoutedTo(final String address) throws Exception
+   {
+      Set<String> names = new HashSet<String>();
+
+      Bindings bindings = manager.getBindingsForRoutingAddress(new SimpleString(address));
+
+      if (bindings != null)
+      {
+         for (Binding binding : bindings.getBindings())
+         {
+            names.add(binding.getUniqueName().toString());
+         }
+      }
+
+      return names;
+   }
+
+   private void assertRoutedTo(final String address, final String... names) throws Exception
+   {
+      Set<String> expected = new HashSet<String>();
+
+      for (String name : names)
+      {
+         expected.add(name);
+      }
+
+      Assert.assertEquals(address, expected, getRoutedTo(address));
+   }
+
+   // Inner classes -------------------------------------------------
+
+   private static final class AddressBinding implements Binding
+   {
+      private final long id;
+
+      private final SimpleString name;
+
+      private final SimpleString address;
+
+      AddressBinding(final long id, final SimpleString name, final SimpleString address)
+      {
+         this.id = id;
+         this.name = name;
+         this.address = address;
+      }
+
+      public SimpleString getAddress()
+      {
+         return address;
+      }
+
+      public Bindable getBindable()
+      {
+         return null;
+      }
+
+      public BindingType getType()
+      {
+         return BindingType.LOCAL_QUEUE;
+      }
+
+      public SimpleString getUniqueName()
+      {
+         return name;
+      }
+
+      public SimpleString getRoutingName()
+      {
+         return name;
+      }
+
+      public SimpleString getClusterName()
+      {
+         return name;
+      }
+
+      public Filter getFilter()
+      {
+         return null;
+      }
+
+      public boolean isHighAcceptPriority(final ServerMessage message)
+      {
+         return true;
+      }
+
+      public boolean isExclusive()
+      {
+         return false;
+      }
+
+      public long getID()
+      {
+         return id;
+      }
+
+      public int getDistance()
+      {
+         return 0;
+      }
+
+      public void route(final ServerMessage message, final RoutingContext context) throws Exception
+      {
+      }
+
+      public void close() throws Exception
+      {
+      }
+   }
+}
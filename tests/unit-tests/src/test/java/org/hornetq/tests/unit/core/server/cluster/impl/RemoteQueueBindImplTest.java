@@ -77,4 +77,72 @@ public class RemoteQueueBindImplTest extends UnitTestCase
       assertEquals(0, binding.getFilters().size());
 
    }
+
+   public void testLoadToMove() throws Exception
+   {
+      RemoteQueueBindingImpl binding = createBinding();
+
+      // Nothing is moved until the remote node reports its load and has consumers
+      assertEquals(0, binding.calculateLoadToMove(1000, 10, 1, 1000));
+
+      binding.addConsumer(null);
+
+      assertEquals(0, binding.calculateLoadToMove(1000, 10, 1, 1000));
+
+      binding.updateLoad(0, 0);
+
+      // Not without local consumers either, the whole queue is redistributed then
+      assertEquals(0, binding.calculateLoadToMove(1000, 10, 0, 1000));
+
+      // Not enough of a backlog
+      assertEquals(0, binding.calculateLoadToMove(50, 10, 1, 1000));
+
+      // The remote queue is empty, so its consumer is taken to be as fast as the local one.
+      // Half of the backlog would even them out, but only a batch is moved at once
+      assertEquals(RemoteQueueBindingImpl.LOAD_BATCH_SIZE, binding.calculateLoadToMove(1000, 10, 1, 1000));
+
+      // A fast remote consumer gets what it consumes in a period
+      binding.updateLoad(1000, 1000);
+
+      assertEquals(1000, binding.calculateLoadToMove(10000, 100, 1, 1000));
+   }
+
+   public void testLoadToMoveHysteresis() throws Exception
+   {
+      RemoteQueueBindingImpl binding = createBinding();
+
+      binding.addConsumer(null);
+
+      // The remote queue drains in 10 seconds
+      binding.updateLoad(100, 10);
+
+      // 13 seconds to drain locally isn't enough to start
+      assertEquals(0, binding.calculateLoadToMove(130, 10, 1, 1000));
+
+      // 25 seconds is, and what evens them out is moved
+      assertEquals(75, binding.calculateLoadToMove(250, 10, 1, 1000));
+
+      // Once started, 13 seconds keeps it going
+      assertEquals(15, binding.calculateLoadToMove(130, 10, 1, 1000));
+
+      // 12 seconds is close enough to stop
+      assertEquals(0, binding.calculateLoadToMove(120, 10, 1, 1000));
+
+      assertEquals(0, binding.calculateLoadToMove(130, 10, 1, 1000));
+   }
+
+   // Private -------------------------------------------------------
+
+   private RemoteQueueBindingImpl createBinding() throws Exception
+   {
+      return new RemoteQueueBindingImpl(RandomUtil.randomLong(),
+                                        RandomUtil.randomSimpleString(),
+                                        RandomUtil.randomSimpleString(),
+                                        RandomUtil.randomSimpleString(),
+                                        RandomUtil.randomLong(),
+                                        null,
+                                        new FakeQueue(null),
+                                        RandomUtil.randomSimpleString(),
+                                        0);
+   }
 }
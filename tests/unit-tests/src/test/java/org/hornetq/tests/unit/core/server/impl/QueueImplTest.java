@@ -32,6 +32,9 @@ import org.hornetq.core.server.HandleStatus;
 import org.hornetq.core.server.MessageReference;
 import org.hornetq.core.server.ServerMessage;
 import org.hornetq.core.server.impl.QueueImpl;
+import org.hornetq.core.settings.HierarchicalRepository;
+import org.hornetq.core.settings.impl.AddressSettings;
+import org.hornetq.core.settings.impl.HierarchicalObjectRepository;
 import org.hornetq.tests.unit.core.server.impl.fakes.FakeConsumer;
 import org.hornetq.tests.unit.core.server.impl.fakes.FakeFilter;
 import org.hornetq.tests.unit.core.server.impl.fakes.FakePostOffice;
@@ -1138,6 +1141,159 @@ public class QueueImplTest extends UnitTestCase
       Assert.assertEquals(20, queue.getDeliveringCount());
    }
 
+   public void testConsumerFilterIndex() throws Exception
+   {
+      HierarchicalRepository<AddressSettings> repository = new HierarchicalObjectRepository<AddressSettings>();
+      AddressSettings settings = new AddressSettings();
+      settings.setConsumerFilterIndex(true);
+      repository.addMatch(QueueImplTest.address1.toString(), settings);
+
+      QueueImpl queue = new QueueImpl(1,
+                                      QueueImplTest.address1,
+                                      QueueImplTest.queue1,
+                                      null,
+                                      false,
+                                      true,
+                                      scheduledExecutor,
+                                      null,
+                                      null,
+                                      repository,
+                                      executor);
+
+      final int numMessages = 10;
+      List<MessageReference> greenRefs = new ArrayList<MessageReference>();
+      List<MessageReference> redRefs = new ArrayList<MessageReference>();
+
+      for (int i = 0; i < numMessages * 2; i++)
+      {
+         MessageReference ref = generateReference(queue, i);
+         if (i % 2 == 0)
+         {
+            ref.getMessage().putStringProperty("color", "green");
+            greenRefs.add(ref);
+         }
+         else
+         {
+            ref.getMessage().putStringProperty("color", "red");
+            redRefs.add(ref);
+         }
+         queue.addTail(ref);
+      }
+
+      // references already on the queue are classified as the first consumer with that filter moves along them
+      FakeConsumer greenConsumer = new FakeConsumer(FilterImpl.createFilter("color = 'green'"));
+      queue.addConsumer(greenConsumer);
+      queue.deliverNow();
+
+      assertRefListsIdenticalRefs(greenRefs, greenConsumer.getReferences());
+      Assert.assertEquals(20, queue.getMessageCount());
+      Assert.assertEquals(10, queue.getDeliveringCount());
+
+      // new references are classified on arrival
+      for (int i = numMessages * 2; i < numMessages * 3; i++)
+      {
+         MessageReference ref = generateReference(queue, i);
+         ref.getMessage().putStringProperty("color", "green");
+         greenRefs.add(ref);
+         queue.addTail(ref);
+      }
+      queue.deliverNow();
+
+      assertRefListsIdenticalRefs(greenRefs, greenConsumer.getReferences());
+
+      // a consumer without filter takes what was left, and the indexed consumer doesn't see it again
+      greenConsumer.setStatusImmediate(HandleStatus.BUSY);
+      FakeConsumer allConsumer = new FakeConsumer();
+      queue.addConsumer(allConsumer);
+      queue.deliverNow();
+
+      assertRefListsIdenticalRefs(redRefs, allConsumer.getReferences());
+      Assert.assertEquals(30, queue.getDeliveringCount());
+
+      queue.removeConsumer(greenConsumer);
+      queue.removeConsumer(allConsumer);
+
+      // references taken by a consumer without filter are not delivered through the index
+      List<MessageReference> moreRefs = new ArrayList<MessageReference>();
+      greenConsumer = new FakeConsumer(FilterImpl.createFilter("color = 'green'"));
+      greenConsumer.setStatusImmediate(HandleStatus.BUSY);
+      queue.addConsumer(greenConsumer);
+      allConsumer = new FakeConsumer();
+      queue.addConsumer(allConsumer);
+      for (int i = numMessages * 3; i < numMessages * 4; i++)
+      {
+         MessageReference ref = generateReference(queue, i);
+         ref.getMessage().putStringProperty("color", "green");
+         moreRefs.add(ref);
+         queue.addTail(ref);
+      }
+      queue.deliverNow();
+      greenConsumer.setStatusImmediate(HandleStatus.HANDLED);
+      queue.deliverNow();
+
+      assertRefListsIdenticalRefs(moreRefs, allConsumer.getReferences());
+      Assert.assertTrue(greenConsumer.getReferences().isEmpty());
+      Assert.assertEquals(40, queue.getDeliveringCount());
+   }
+
+   public void testConsumerFilterIndexBacklogByPriority() throws Exception
+   {
+      HierarchicalRepository<AddressSettings> repository = new HierarchicalObjectRepository<AddressSettings>();
+      AddressSettings settings = new AddressSettings();
+      settings.setConsumerFilterIndex(true);
+      repository.addMatch(QueueImplTest.address1.toString(), settings);
+
+      QueueImpl queue = new QueueImpl(1,
+                                      QueueImplTest.address1,
+                                      QueueImplTest.queue1,
+                                      null,
+                                      false,
+                                      true,
+                                      scheduledExecutor,
+                                      null,
+                                      null,
+                                      repository,
+                                      executor);
+
+      List<MessageReference> lowRefs = new ArrayList<MessageReference>();
+      List<MessageReference> highRefs = new ArrayList<MessageReference>();
+
+      for (int i = 0; i < 10; i++)
+      {
+         MessageReference ref = generateReference(queue, i);
+         ref.getMessage().putStringProperty("color", "green");
+         ref.getMessage().setPriority((byte)1);
+         lowRefs.add(ref);
+         queue.addTail(ref);
+      }
+
+      FakeConsumer greenConsumer = new FakeConsumer(FilterImpl.createFilter("color = 'green'"));
+      greenConsumer.setStatusImmediate(HandleStatus.BUSY);
+      queue.addConsumer(greenConsumer);
+      queue.deliverNow();
+
+      // added while the backlog of the index is still being classified
+      for (int i = 10; i < 20; i++)
+      {
+         MessageReference ref = generateReference(queue, i);
+         ref.getMessage().putStringProperty("color", "green");
+         ref.getMessage().setPriority((byte)8);
+         highRefs.add(ref);
+         queue.addTail(ref);
+      }
+      queue.deliverNow();
+
+      greenConsumer.setStatusImmediate(HandleStatus.HANDLED);
+      queue.deliverNow();
+
+      // the reference the consumer was busy with is retried first, then the priorities are respected
+      List<MessageReference> expected = new ArrayList<MessageReference>();
+      expected.add(lowRefs.get(0));
+      expected.addAll(highRefs);
+      expected.addAll(lowRefs.subList(1, lowRefs.size()));
+      assertRefListsIdenticalRefs(expected, greenConsumer.getReferences());
+   }
+
    // Private ------------------------------------------------------------------------------
 
    private void testConsumerWithFilters(final boolean direct) throws Exception
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2012 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.hornetq.tests.unit.core.server.impl;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import junit.framework.Assert;
+
+import org.hornetq.api.core.SimpleString;
+import org.hornetq.core.server.MessageReference;
+import org.hornetq.core.server.impl.ScheduledDeliveryHandlerImpl;
+import org.hornetq.tests.unit.core.postoffice.impl.FakeQueue;
+import org.hornetq.tests.unit.core.server.impl.fakes.FakeFilter;
+import org.hornetq.tests.util.UnitTestCase;
+
+public class ScheduledDeliveryHandlerTest extends UnitTestCase
+{
+   // Attributes ----------------------------------------------------
+
+   private ScheduledExecutorService scheduledExecutor;
+
+   // Public --------------------------------------------------------
+
+   public void testDeliveryOrder() throws Exception
+   {
+      ScheduledDeliveryHandlerImpl handler = new ScheduledDeliveryHandlerImpl(scheduledExecutor);
+
+      DeliveryQueue queue = new DeliveryQueue();
+
+      long now = System.currentTimeMillis();
+
+      // scheduled out of order, with some of them on the same time
+      long[] times = new long[] { now + 300, now + 100, now + 200, now + 100, now + 2000 };
+
+      MessageReference[] refs = new MessageReference[times.length];
+
+      for (int i = 0; i < times.length; i++)
+      {
+         refs[i] = generateReference(queue, i);
+         refs[i].setScheduledDeliveryTime(times[i]);
+         Assert.assertTrue(handler.checkAndSchedule(refs[i], true));
+      }
+
+      Assert.assertEquals(times.length, handler.getScheduledCount());
+      Assert.assertEquals(times.length, handler.getScheduledReferences().size());
+
+      queue.waitFor(4, 5000);
+
+      Assert.assertEquals(1, handler.getScheduledCount());
+
+      MessageReference[] expected = new MessageReference[] { refs[1], refs[3], refs[2], refs[0] };
+
+      List<MessageReference> delivered = queue.getDelivered();
+
+      for (int i = 0; i < expected.length; i++)
+      {
+         Assert.assertSame(expected[i], delivered.get(i));
+         Assert.assertEquals(0, delivered.get(i).getScheduledDeliveryTime());
+         // never before its time
+         Assert.assertTrue(queue.getDeliveryTimes().get(i) >= times[(int)delivered.get(i).getMessage().getMessageID()]);
+      }
+
+      Assert.assertSame(refs[4], handler.removeReferenceWithID(4));
+      Assert.assertNull(handler.removeReferenceWithID(4));
+      Assert.assertEquals(0, handler.getScheduledCount());
+   }
+
+   public void testScheduleEarlierThanPending() throws Exception
+   {
+      ScheduledDeliveryHandlerImpl handler = new ScheduledDeliveryHandlerImpl(scheduledExecutor);
+
+      DeliveryQueue queue = new DeliveryQueue();
+
+      long now = System.currentTimeMillis();
+
+      MessageReference late = generateReference(queue, 1);
+      late.setScheduledDeliveryTime(now + 60000);
+      handler.checkAndSchedule(late, true);
+
+      // this one needs the delivery task to be brought forward
+      MessageReference early = generateReference(queue, 2);
+      early.setScheduledDeliveryTime(now + 50);
+      handler.checkAndSchedule(early, true);
+
+      queue.waitFor(1, 5000);
+
+      Assert.assertSame(early, queue.getDelivered().get(0));
+      Assert.assertEquals(1, handler.getScheduledCount());
+   }
+
+   public void testPastAndTail() throws Exception
+   {
+      ScheduledDeliveryHandlerImpl handler = new ScheduledDeliveryHandlerImpl(scheduledExecutor);
+
+      DeliveryQueue queue = new DeliveryQueue();
+
+      MessageReference ref = generateReference(queue, 1);
+
+      ref.setScheduledDeliveryTime(0);
+      Assert.assertFalse(handler.checkAndSchedule(ref, true));
+
+      // already due, delivered right away
+      ref.setScheduledDeliveryTime(System.currentTimeMillis() - 1000);
+      Assert.assertTrue(handler.checkAndSchedule(ref, true));
+
+      queue.waitFor(1, 5000);
+
+      Assert.assertEquals(0, handler.getScheduledCount());
+   }
+
+   public void testDeliveryAfterATurn() throws Exception
+   {
+      ScheduledDeliveryHandlerImpl handler = new ScheduledDeliveryHandlerImpl(scheduledExecutor);
+
+      DeliveryQueue queue = new DeliveryQueue();
+
+      long now = System.currentTimeMillis();
+
+      long turn = 1024 * 10;
+
+      // on the same slot of the wheel, a turn apart
+      MessageReference later = generateReference(queue, 1);
+      later.setScheduledDeliveryTime(now + turn + 100);
+      handler.checkAndSchedule(later, true);
+
+      MessageReference early = generateReference(queue, 2);
+      early.setScheduledDeliveryTime(now + 100);
+      handler.checkAndSchedule(early, true);
+
+      queue.waitFor(1, 5000);
+
+      Assert.assertSame(early, queue.getDelivered().get(0));
+      Assert.assertEquals(1, handler.getScheduledCount());
+
+      queue.waitFor(2, turn + 5000);
+
+      Assert.assertSame(later, queue.getDelivered().get(1));
+      Assert.assertTrue(queue.getDeliveryTimes().get(1) >= now + turn + 100);
+      Assert.assertEquals(0, handler.getScheduledCount());
+   }
+
+   public void testCancel() throws Exception
+   {
+      ScheduledDeliveryHandlerImpl handler = new ScheduledDeliveryHandlerImpl(scheduledExecutor);
+
+      DeliveryQueue queue = new DeliveryQueue();
+
+      long now = System.currentTimeMillis();
+
+      for (int i = 0; i < 100; i++)
+      {
+         MessageReference ref = generateReference(queue, i);
+         // spread over more than a turn of the wheel
+         ref.setScheduledDeliveryTime(now + 60000 + i * 1000);
+         ref.getMessage().putIntProperty("even", i % 2 == 0 ? 1 : 0);
+         handler.checkAndSchedule(ref, true);
+      }
+
+      Assert.assertEquals(100, handler.getScheduledCount());
+
+      Assert.assertEquals(50, handler.cancel(new FakeFilter("even", 1)).size());
+
+      Assert.assertEquals(50, handler.getScheduledCount());
+
+      Assert.assertEquals(50, handler.cancel(null).size());
+
+      Assert.assertEquals(0, handler.getScheduledCount());
+      Assert.assertTrue(handler.getScheduledReferences().isEmpty());
+   }
+
+   public void testScheduledReferencesInDeliveryOrder() throws Exception
+   {
+      ScheduledDeliveryHandlerImpl handler = new ScheduledDeliveryHandlerImpl(scheduledExecutor);
+
+      DeliveryQueue queue = new DeliveryQueue();
+
+      long now = System.currentTimeMillis();
+
+      // a turn of the wheel apart, so the later ones share the slots of the earlier ones
+      long turn = 1024 * 10;
+
+      MessageReference[] refs = new MessageReference[10];
+
+      for (int i = 0; i < refs.length; i++)
+      {
+         refs[i] = generateReference(queue, i);
+         refs[i].setScheduledDeliveryTime(now + 60000 + (refs.length - i) * turn + i % 2 * 20);
+         handler.checkAndSchedule(refs[i], true);
+      }
+
+      Assert.assertSame(refs[5], handler.removeReferenceWithID(5));
+      Assert.assertNull(handler.removeReferenceWithID(5));
+
+      List<MessageReference> scheduled = handler.getScheduledReferences();
+
+      Assert.assertEquals(refs.length - 1, scheduled.size());
+      Assert.assertEquals(refs.length - 1, handler.getScheduledCount());
+
+      for (int i = 1; i < scheduled.size(); i++)
+      {
+         Assert.assertTrue(scheduled.get(i - 1).getScheduledDeliveryTime() <= scheduled.get(i)
+                                                                                  .getScheduledDeliveryTime());
+      }
+
+      Assert.assertFalse(scheduled.contains(refs[5]));
+   }
+
+   public void testSameTimeInSchedulingOrder() throws Exception
+   {
+      ScheduledDeliveryHandlerImpl handler = new ScheduledDeliveryHandlerImpl(scheduledExecutor);
+
+      DeliveryQueue queue = new DeliveryQueue();
+
+      long time = System.currentTimeMillis() + 60000;
+
+      MessageReference[] refs = new MessageReference[100];
+
+      for (int i = 0; i < refs.length; i++)
+      {
+         // the message IDs are not in scheduling order
+         refs[i] = generateReference(queue, (i * 37) % refs.length);
+         refs[i].setScheduledDeliveryTime(time);
+         handler.checkAndSchedule(refs[i], true);
+      }
+
+      List<MessageReference> scheduled = handler.getScheduledReferences();
+
+      for (int i = 0; i < refs.length; i++)
+      {
+         Assert.assertSame(refs[i], scheduled.get(i));
+      }
+
+      List<MessageReference> cancelled = handler.cancel(null);
+
+      for (int i = 0; i < refs.length; i++)
+      {
+         Assert.assertSame(refs[i], cancelled.get(i));
+      }
+   }
+
+   // Protected -----------------------------------------------------
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+      scheduledExecutor = Executors.newSingleThreadScheduledExecutor();
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      scheduledExecutor.shutdownNow();
+      super.tearDown();
+   }
+
+   // Inner classes -------------------------------------------------
+
+   /**
+    * Keeps the references given back by the handler, in the order they would be on the queue
+    */
+   private static class DeliveryQueue extends FakeQueue
+   {
+      private final LinkedList<MessageReference> delivered = new LinkedList<MessageReference>();
+
+      private final LinkedList<Long> deliveryTimes = new LinkedList<Long>();
+
+      DeliveryQueue()
+      {
+         super(new SimpleString("queue"));
+      }
+
+      @Override
+      public synchronized void addHead(final List<MessageReference> refs)
+      {
+         long now = System.currentTimeMillis();
+
+         // each reference goes in front of the previous one
+         LinkedList<MessageReference> head = new LinkedList<MessageReference>();
+         for (MessageReference ref : refs)
+         {
+            head.addFirst(ref);
+         }
+
+         delivered.addAll(head);
+
+         for (int i = 0; i < head.size(); i++)
+         {
+            deliveryTimes.add(now);
+         }
+
+         notifyAll();
+      }
+
+      synchronized void waitFor(final int count, final long timeout) throws InterruptedException
+      {
+         long deadline = System.currentTimeMillis() + timeout;
+         while (delivered.size() < count && System.currentTimeMillis() < deadline)
+         {
+            wait(10);
+         }
+         Assert.assertEquals(count, delivered.size());
+      }
+
+      synchronized List<MessageReference> getDelivered()
+      {
+         return new LinkedList<MessageReference>(delivered);
+      }
+
+      synchronized List<Long> getDeliveryTimes()
+      {
+         return new LinkedList<Long>(deliveryTimes);
+      }
+   }
+}
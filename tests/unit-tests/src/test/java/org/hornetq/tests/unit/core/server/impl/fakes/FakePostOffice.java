@@ -168,6 +168,11 @@ public class FakePostOffice implements PostOffice
       return null;
    }
 
+   public Pair<RoutingContext, ServerMessage> redistribute(final ServerMessage message, final Binding target, final Transaction tx) throws Exception
+   {
+      return null;
+   }
+
    public MessageReference reroute(final ServerMessage message, final Queue queue, final Transaction tx) throws Exception
    {
       message.incrementRefCount();
@@ -889,6 +889,54 @@ public class LinkedListTest extends UnitTestCase
 
    }
 
+   public void testRemoveNode()
+   {
+      List<LinkedListImpl.Node<Integer>> nodes = new LinkedList<LinkedListImpl.Node<Integer>>();
+
+      for (int i = 0; i < 10; i++)
+      {
+         nodes.add(list.addTailNode(i));
+      }
+
+      LinkedListIterator<Integer> iter = list.iterator();
+
+      assertTrue(iter.hasNext());
+      assertEquals(0, iter.next().intValue());
+
+      // removing the node the iterator is on will move the iterator forward
+      assertTrue(list.removeNode(nodes.get(0)));
+      assertTrue(nodes.get(0).isRemoved());
+      assertFalse(list.removeNode(nodes.get(0)));
+
+      for (int i = 2; i < 10; i += 2)
+      {
+         assertTrue(list.removeNode(nodes.get(i)));
+      }
+
+      assertEquals(5, list.size());
+
+      for (int i = 1; i < 10; i += 2)
+      {
+         assertTrue(iter.hasNext());
+         assertEquals(i, iter.next().intValue());
+         assertFalse(nodes.get(i).isRemoved());
+      }
+
+      assertFalse(iter.hasNext());
+
+      iter.remove();
+      assertTrue(nodes.get(9).isRemoved());
+      assertFalse(list.removeNode(nodes.get(9)));
+
+      LinkedListImpl.Node<Integer> head = list.addHeadNode(-1);
+      assertEquals(-1, head.getValue().intValue());
+      assertEquals(-1, list.poll().intValue());
+      assertTrue(head.isRemoved());
+      assertEquals(4, list.size());
+
+      iter.close();
+   }
+
    public void testClear()
    {
 